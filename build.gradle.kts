@@ -2,6 +2,7 @@ plugins {
     application
     id("org.openjfx.javafxplugin") version "0.0.13"
     id("org.beryx.jlink") version "3.1.1"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 repositories {
@@ -10,11 +11,27 @@ repositories {
 
 val javafxVersion = "21"
 
+dependencies {
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
 javafx {
     version = javafxVersion
     modules = listOf("javafx.controls", "javafx.fxml")
 }
 
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
 application {
     mainModule.set("localdrop")
     mainClass.set("org.deg.ui.NetworkTransferUI")
@@ -0,0 +1,126 @@
+package org.deg.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a file takes to send, uncompressed and deflated in chunks like {@link TransferMode#CHANNEL}
+ * does it, and as one GZIP stream like {@link TransferMode#GZIP} does it. The bytes go to a channel that drops
+ * them, so only reading and encoding on the sending side is measured. Random content does not compress, text
+ * content does, so both show whether compression pays off for a given link speed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChunkThroughputBenchmark {
+    /**
+     * The size of the sent file, large enough for several chunks of every codec
+     */
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+    private static final String[] WORDS = {"the", "file", "is", "sent", "to", "a", "peer", "in", "local", "network", "chunk", "of", "data", "and"};
+
+    @Param({"NONE", "DEFLATE", "GZIP"})
+    public String compression;
+
+    @Param({"random", "text"})
+    public String content;
+
+    private Path file;
+    private final DiscardingChannel sink = new DiscardingChannel();
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("localdrop-chunks", ".bin");
+        Random random = new Random(42);
+        byte[] bytes = new byte[FILE_SIZE];
+        if (content.equals("random")) {
+            random.nextBytes(bytes);
+        } else {
+            StringBuilder text = new StringBuilder(FILE_SIZE + 16);
+            while (text.length() < FILE_SIZE) text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(8) == 0 ? '\n' : ' ');
+            System.arraycopy(text.toString().getBytes(StandardCharsets.US_ASCII), 0, bytes, 0, FILE_SIZE);
+        }
+        Files.write(file, bytes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long send() throws IOException {
+        sink.written = 0;
+        FileWithMetadata fileWithMetadata = new FileWithMetadata(file.toFile(), "file.bin", FILE_SIZE, null);
+        List<FileWithMetadata> files = List.of(fileWithMetadata);
+        if (compression.equals("GZIP")) {
+            sendGzip(files);
+        } else {
+            fileWithMetadata.codec = Codec.valueOf(compression);
+            ChunkSender chunkSender = new ChunkSender(files, null);
+            chunkSender.send(sink);
+            chunkSender.finish();
+        }
+        return sink.written;
+    }
+
+    /**
+     * Compresses the files into one GZIP stream the way the sender does it.
+     */
+    private void sendGzip(List<FileWithMetadata> files) throws IOException {
+        try (
+                FilePrefetcher prefetcher = new FilePrefetcher(files);
+                ParallelGzipOutputStream gzipOut = new ParallelGzipOutputStream(Channels.newOutputStream(sink));
+                OutputStream out = new DataOutputStream(gzipOut)
+        ) {
+            for (int i = 0; i < files.size(); i++) {
+                FilePrefetcher.Block block;
+                while ((block = prefetcher.next(i)) != null) {
+                    out.write(block.data, 0, block.length);
+                    prefetcher.recycle(block);
+                }
+            }
+            out.flush();
+            gzipOut.finish();
+        }
+    }
+
+    /**
+     * A channel that counts and drops all bytes written to it.
+     */
+    private static class DiscardingChannel implements WritableByteChannel {
+        private long written = 0;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = src.remaining();
+            src.position(src.limit());
+            written += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
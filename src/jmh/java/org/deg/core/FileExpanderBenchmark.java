@@ -0,0 +1,69 @@
+package org.deg.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a folder takes to expand into its files. The synthetic tree spreads the files over folders of
+ * the given size, and every folder has up to ten subfolders, so few files per folder give a deep tree with many
+ * folders to list and many files per folder a flat one. The files are empty, only listing and reading attributes
+ * is measured. The operating system caches the tree after the first iteration, so this measures the warm case.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FileExpanderBenchmark {
+    @Param({"1000", "100000"})
+    public int fileCount;
+
+    @Param({"10", "1000"})
+    public int filesPerFolder;
+
+    private Path root;
+    private List<File> filesToSend;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("localdrop-expand");
+        Path tree = root.resolve("tree");
+        for (int i = 0; i < fileCount; i++) {
+            Path folder = folder(tree, i / filesPerFolder);
+            Files.createDirectories(folder);
+            Files.createFile(folder.resolve("file" + i + ".txt"));
+        }
+        filesToSend = List.of(tree.toFile());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public List<FileWithMetadata> expandFilesWithRelativePaths() {
+        return FileExpander.expandFilesWithRelativePaths(filesToSend);
+    }
+
+    /**
+     * Folder 0 is the root of the tree and folder 123 is d1/d2/d3, a subfolder of folder 12.
+     */
+    private static Path folder(Path tree, int index) {
+        Path folder = tree;
+        if (index == 0) return folder;
+        for (char digit : Integer.toString(index).toCharArray()) folder = folder.resolve("d" + digit);
+        return folder;
+    }
+}
@@ -0,0 +1,77 @@
+package org.deg.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the metadata of a transmission takes to build and to parse, as string and in the binary format,
+ * depending on the number of files. Every file has a codec and a content hash, like the files of a transmission
+ * with the default transfer options.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MetadataBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int fileCount;
+
+    private Metadata metadata;
+    private String metadataString;
+    private byte[] binaryMetadata;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<String> fileNames = new ArrayList<>(fileCount);
+        List<Long> fileSizes = new ArrayList<>(fileCount);
+        metadata = new Metadata(fileCount, fileNames, fileSizes, new Peer("Alice", "192.168.1.100", 9000, "pic1.png"));
+        for (int i = 0; i < fileCount; i++) {
+            fileNames.add("project/src/module" + i / 100 + "/File" + i + ".java");
+            fileSizes.add(1024L + i % 65536);
+            metadata.codecs.add(i % 4 == 0 ? Codec.DEFLATE : Codec.NONE);
+            metadata.fileHashes.add(String.format("%064x", i));
+        }
+        metadata.transferModes = List.of(TransferMode.CHANNEL, TransferMode.GZIP);
+        metadata.streams = TransferOptions.DEFAULT_STREAMS;
+        metadata.transferId = "3f2a9b7c";
+        metadata.resumeKey = "9c1e4d2a";
+        metadata.checksums = true;
+        metadata.link = new LinkEstimate(LinkEstimate.DEFAULT_RTT_MICROS, LinkEstimate.DEFAULT_BYTES_PER_SECOND);
+
+        metadataString = MetadataHandler.buildMetadata(metadata);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MetadataHandler.writeBinaryMetadata(out, metadata);
+        binaryMetadata = out.toByteArray();
+    }
+
+    @Benchmark
+    public String buildMetadata() {
+        return MetadataHandler.buildMetadata(metadata);
+    }
+
+    @Benchmark
+    public Metadata parseMetadata() {
+        return MetadataHandler.parseMetadata(metadataString);
+    }
+
+    @Benchmark
+    public byte[] writeBinaryMetadata() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(binaryMetadata.length);
+        MetadataHandler.writeBinaryMetadata(out, metadata);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Metadata readBinaryMetadata() throws IOException {
+        return MetadataHandler.readBinaryMetadata(new DataInputStream(new ByteArrayInputStream(binaryMetadata)));
+    }
+}
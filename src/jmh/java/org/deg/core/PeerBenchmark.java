@@ -0,0 +1,42 @@
+package org.deg.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a discovery response and a hello message take to parse. Both are parsed for every broadcast
+ * that arrives, so a crowded network parses many of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PeerBenchmark {
+    private final Peer peer = new Peer("Alice's Laptop", "192.168.1.100", 9000, "pic1.png");
+    private String discoveryResponse;
+    private String helloMessage;
+
+    @Setup
+    public void setUp() {
+        discoveryResponse = peer.toDiscoveryResponse();
+        helloMessage = peer.toHelloMessage();
+    }
+
+    @Benchmark
+    public Peer fromDiscoveryResponse() {
+        return Peer.fromDiscoveryResponse(discoveryResponse);
+    }
+
+    @Benchmark
+    public Peer fromHelloMessage() {
+        return Peer.fromHelloMessage(helloMessage);
+    }
+
+    @Benchmark
+    public String toDiscoveryResponse() {
+        return peer.toDiscoveryResponse();
+    }
+}
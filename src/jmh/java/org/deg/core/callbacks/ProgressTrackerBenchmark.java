@@ -0,0 +1,48 @@
+package org.deg.core.callbacks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what counting the bytes of a chunk costs the send and receive loops: without a listener, with a listener
+ * that is called at most every {@link ProgressTracker#DEFAULT_INTERVAL_MILLIS} milliseconds like the application
+ * does it, and with a listener that is called for every chunk. The contended variant counts from as many threads as
+ * a transmission over several connections does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProgressTrackerBenchmark {
+    private static final long CHUNK_SIZE = 1024 * 1024;
+
+    @Param({"none", "interval", "everyChunk"})
+    public String listener;
+
+    private ProgressTracker tracker;
+    private volatile Progress lastProgress;
+
+    @Setup
+    public void setUp() {
+        switch (listener) {
+            case "none" -> tracker = new ProgressTracker(List.of(), Long.MAX_VALUE, null);
+            case "interval" -> tracker = new ProgressTracker(List.of(), Long.MAX_VALUE, progress -> lastProgress = progress);
+            default -> tracker = new ProgressTracker(List.of(), Long.MAX_VALUE, progress -> lastProgress = progress, ProgressTracker.DEFAULT_INTERVAL_MILLIS, 1);
+        }
+    }
+
+    @Benchmark
+    public void add() {
+        tracker.add(0, CHUNK_SIZE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addContended() {
+        tracker.add(0, CHUNK_SIZE);
+    }
+}
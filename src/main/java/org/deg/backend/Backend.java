@@ -1,10 +1,16 @@
 package org.deg.backend;
 
 import javafx.util.Pair;
+import org.deg.core.FanOutSender;
 import org.deg.core.FileReceiver;
+import org.deg.core.FileReceivingServer;
 import org.deg.core.FileSender;
+import org.deg.core.FileWithMetadata;
+import org.deg.core.MetadataHandler;
+import org.deg.core.NonBlockingFileReceiver;
 import org.deg.core.Peer;
 import org.deg.core.SendingDeniedException;
+import org.deg.core.TransferOptions;
 import org.deg.core.callbacks.FileReceivingEventHandler;
 import org.deg.core.callbacks.FileSendingEventHandler;
 import org.deg.discovery.DiscoveryBroadcaster;
@@ -15,7 +21,10 @@ import java.io.File;
 import java.io.IOException;
 import java.net.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
@@ -29,11 +38,12 @@ import static org.deg.utils.Utils.sendUDPBroadcast;
  */
 public class Backend {
     private Peer localPeer;
-    private final FileReceiver fileReceiver;
+    private final FileReceivingServer fileReceiver;
     private final DiscoveryListener discoveryListener;
     private final HelloListener helloListener;
     private static final ExecutorService executor = Executors.newCachedThreadPool();
-    private final List<Pair<Peer, File>> sentLog = new ArrayList<>();
+    private final TransferScheduler transferScheduler = new TransferScheduler(executor);
+    private final List<Pair<Peer, File>> sentLog = Collections.synchronizedList(new ArrayList<>());
 
     public Backend() throws IOException {
         UserConfigurations.loadConfigurations();
@@ -41,8 +51,10 @@ public class Backend {
         String localIp = findLanAddress();
         int fileTransferPort = findFreePort();
 
-        localPeer = new Peer(peerName, localIp, fileTransferPort, UserConfigurations.PROFILE_PICTURE_NAME);
-        fileReceiver = new FileReceiver(fileTransferPort);
+        localPeer = new Peer(peerName, localIp, fileTransferPort, UserConfigurations.PROFILE_PICTURE_NAME, MetadataHandler.BINARY_METADATA_VERSION);
+        fileReceiver = UserConfigurations.NON_BLOCKING_RECEIVER
+                ? new NonBlockingFileReceiver(fileTransferPort, UserConfigurations.MAX_RECEIVE_SESSIONS)
+                : new FileReceiver(fileTransferPort, UserConfigurations.MAX_RECEIVE_SESSIONS);
         discoveryListener = new DiscoveryListener(localPeer);
         helloListener = new HelloListener(localPeer, null, null);
     }
@@ -109,15 +121,88 @@ public class Backend {
      * @param receiver the receiving peer
      * @param filesToSend the list of files to send
      * @param handler the handler for sending events
+     * @return the transfer, which waits in the queue of the transfer scheduler until it can be started
      */
-    public void startFilesTransfer(Peer sender, Peer receiver, List<File> filesToSend, FileSendingEventHandler handler) {
-        executor.submit(() -> {
+    public ScheduledTransfer startFilesTransfer(Peer sender, Peer receiver, List<File> filesToSend, FileSendingEventHandler handler) {
+        return startFilesTransfer(sender, receiver, filesToSend, handler, new TransferOptions());
+    }
+
+    /**
+     * Sends all files over tcp connections to the receiver. The files can be files and directories.
+     * @param sender the sending peer
+     * @param receiver the receiving peer
+     * @param filesToSend the list of files to send
+     * @param handler the handler for sending events
+     * @param options the options of the transfer, e.g. the number of parallel connections or its priority
+     * @return the transfer, which waits in the queue of the transfer scheduler until it can be started and can be
+     * cancelled with {@link ScheduledTransfer#cancel()}
+     */
+    public ScheduledTransfer startFilesTransfer(Peer sender, Peer receiver, List<File> filesToSend, FileSendingEventHandler handler, TransferOptions options) {
+        FileSender fileSender = new FileSender(sender, receiver, filesToSend, options);
+        return transferScheduler.submit(receiver, filesToSend, options.priority, () -> {
             try {
-                new FileSender(sender, receiver, filesToSend).send(handler);
-                for (File file : filesToSend) sentLog.add(new Pair<>(receiver, file));
+                fileSender.send(handler);
+                if (!fileSender.isCancelled()) {
+                    for (File file : filesToSend) sentLog.add(new Pair<>(receiver, file));
+                }
             } catch (SendingDeniedException e) {
                 System.out.println("Sending denied");
             }
+        }, () -> {
+            // a transmission that has not started yet is reported here, a running one by the sender
+            if (!fileSender.cancel() && handler != null) handler.onCancelled(receiver, false);
+        });
+    }
+
+    /**
+     * Cancels a transmission that is being received. Partially received files are kept if the sender resumes the
+     * transmission later and deleted otherwise.
+     *
+     * @param files the list of files that was passed to {@link FileReceivingEventHandler#onIncomingFiles}
+     * @return whether the transmission was being received
+     */
+    public boolean cancelReceiving(List<FileWithMetadata> files) {
+        return fileReceiver.cancel(files);
+    }
+
+    /**
+     * Sends the same files to several receivers at once, reading and compressing every file only once. The files
+     * are sent to every receiver as soon as it accepted the transmission.
+     * @param sender the sending peer
+     * @param receivers the receiving peers with the handler for their sending events (can be null)
+     * @param filesToSend the list of files to send
+     * @return the transfer, which waits in the queue of the transfer scheduler until it can be started
+     */
+    public ScheduledTransfer startFanOutTransfer(Peer sender, Map<Peer, FileSendingEventHandler> receivers, List<File> filesToSend) {
+        return startFanOutTransfer(sender, receivers, filesToSend, new TransferOptions());
+    }
+
+    /**
+     * Sends the same files to several receivers at once, reading and compressing every file only once. The files
+     * are sent to every receiver as soon as it accepted the transmission. The transfer counts against the limit of
+     * transfers of every receiver.
+     * @param sender the sending peer
+     * @param receivers the receiving peers with the handler for their sending events (can be null)
+     * @param filesToSend the list of files to send
+     * @param options the options of the transfer, of which only the priority applies since all receivers get the
+     *                same stream
+     * @return the transfer, which waits in the queue of the transfer scheduler until it can be started and can be
+     * cancelled with {@link ScheduledTransfer#cancel()}
+     */
+    public ScheduledTransfer startFanOutTransfer(Peer sender, Map<Peer, FileSendingEventHandler> receivers, List<File> filesToSend, TransferOptions options) {
+        Map<Peer, FileSendingEventHandler> handlers = new LinkedHashMap<>(receivers);
+        List<Peer> receivingPeers = List.copyOf(handlers.keySet());
+        FanOutSender fanOutSender = new FanOutSender(sender, receivingPeers, filesToSend);
+        return transferScheduler.submit(receivingPeers, filesToSend, options.priority, () -> {
+            for (Peer receiver : fanOutSender.send(handlers)) {
+                for (File file : filesToSend) sentLog.add(new Pair<>(receiver, file));
+            }
+        }, () -> {
+            // a transmission that has not started yet is reported here, a running one by the sender
+            if (fanOutSender.cancel()) return;
+            handlers.forEach((receiver, handler) -> {
+                if (handler != null) handler.onCancelled(receiver, false);
+            });
         });
     }
 
@@ -147,6 +232,40 @@ public class Backend {
         this.helloListener.setOnPeerDisconnectedCallback(onPeerDisconnected);
     }
 
+    /**
+     * Limits the bandwidth of all uploads together. The limit applies to running transmissions at once and is saved
+     * in the user configurations.
+     *
+     * @param bytesPerSecond the maximum number of bytes per second, 0 for no limit
+     */
+    public void setUploadLimit(long bytesPerSecond) {
+        UserConfigurations.MAX_UPLOAD_BYTES_PER_SECOND = Math.max(0, bytesPerSecond);
+        UserConfigurations.saveConfigurations();
+    }
+
+    /**
+     * Limits the bandwidth of all uploads to a peer. The limit applies to running transmissions at once and is saved
+     * in the user configurations.
+     *
+     * @param peer           the receiving peer
+     * @param bytesPerSecond the maximum number of bytes per second, 0 for no limit
+     */
+    public void setUploadLimit(Peer peer, long bytesPerSecond) {
+        if (bytesPerSecond > 0) {
+            UserConfigurations.PEER_UPLOAD_BYTES_PER_SECOND.put(peer.address(), bytesPerSecond);
+        } else {
+            UserConfigurations.PEER_UPLOAD_BYTES_PER_SECOND.remove(peer.address());
+        }
+        UserConfigurations.saveConfigurations();
+    }
+
+    /**
+     * @return the scheduler that queues the outgoing transfers, e.g. to show queued and running transfers
+     */
+    public TransferScheduler getTransferScheduler() {
+        return transferScheduler;
+    }
+
     public List<Pair<Peer, File>> getSentLog() {
         return sentLog;
     }
@@ -163,5 +282,6 @@ public class Backend {
         sendUDPBroadcast(localPeer.toByeMessage(), HELLO_PORT);
         this.localPeer = localPeer;
         sendUDPBroadcast(localPeer.toHelloMessage(), HELLO_PORT);
+        sendUDPBroadcast(localPeer.toVersionedHelloMessage(), HELLO_PORT);
     }
 }
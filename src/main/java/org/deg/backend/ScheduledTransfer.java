@@ -0,0 +1,70 @@
+package org.deg.backend;
+
+import org.deg.core.Peer;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * A transfer that was handed to the {@link TransferScheduler}. It waits in the queue until the scheduler starts it
+ * and can be cancelled while it waits or runs.
+ */
+public class ScheduledTransfer {
+    /**
+     * The states a transfer goes through
+     */
+    public enum State {QUEUED, RUNNING, FINISHED, CANCELLED}
+
+    /**
+     * The receiving peer or null if the transfer goes to several peers
+     */
+    public final Peer receiver;
+    /**
+     * All receiving peers, every one of them counts against the limit of transfers per peer
+     */
+    public final List<Peer> receivers;
+    public final List<File> files;
+    /**
+     * Transfers with a higher priority are started first, transfers of the same priority in the order they were queued
+     */
+    public final int priority;
+    final long sequenceNumber;
+    final Runnable task;
+    /**
+     * Cancels the running task or null if it cannot be cancelled
+     */
+    final Runnable cancelAction;
+    private final TransferScheduler scheduler;
+    private volatile State state = State.QUEUED;
+    volatile boolean cancelRequested = false;
+
+    ScheduledTransfer(TransferScheduler scheduler, List<Peer> receivers, List<File> files, int priority, long sequenceNumber, Runnable task, Runnable cancelAction) {
+        this.scheduler = scheduler;
+        this.receiver = receivers.size() == 1 ? receivers.get(0) : null;
+        this.receivers = receivers;
+        this.files = files;
+        this.priority = priority;
+        this.sequenceNumber = sequenceNumber;
+        this.task = task;
+        this.cancelAction = cancelAction;
+    }
+
+    /**
+     * Cancels the transfer. A queued transfer is removed from the queue, a running transfer stops within
+     * milliseconds.
+     *
+     * @return whether the transfer was queued or running and can be cancelled
+     * @see TransferScheduler#cancel(ScheduledTransfer)
+     */
+    public boolean cancel() {
+        return scheduler.cancel(this);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+}
@@ -0,0 +1,183 @@
+package org.deg.backend;
+
+import org.deg.core.Peer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Queues transfers and starts only as many as {@link UserConfigurations#MAX_CONCURRENT_TRANSFERS} at once, of which
+ * at most {@link UserConfigurations#MAX_TRANSFERS_PER_PEER} go to the same peer. A transfer to several peers counts
+ * against the limit of every one of them. Transfers with a higher priority are started first, transfers of the same
+ * priority in the order they were queued. A transfer whose peer already has enough running transfers does not hold
+ * up the transfers to other peers behind it.
+ * Both limits are read whenever a transfer is started, so changed limits apply to the queue at once. Queued and
+ * running transfers can be cancelled.
+ */
+public class TransferScheduler {
+    private static final Comparator<ScheduledTransfer> QUEUE_ORDER = Comparator
+            .comparingInt((ScheduledTransfer transfer) -> -transfer.priority)
+            .thenComparingLong(transfer -> transfer.sequenceNumber);
+
+    private final ExecutorService executor;
+    private final List<ScheduledTransfer> queued = new ArrayList<>();
+    private final List<ScheduledTransfer> running = new ArrayList<>();
+    private final Map<Peer, Integer> runningPerPeer = new HashMap<>();
+    private long nextSequenceNumber = 0;
+    private Runnable onQueueChanged = null;
+
+    /**
+     * Constructs a scheduler.
+     *
+     * @param executor the executor the transfers run on
+     */
+    public TransferScheduler(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Queues a transfer and starts it if the limits allow it.
+     *
+     * @param receiver the receiving peer or null if the transfer goes to several peers, which only counts against
+     *                 the total limit
+     * @param files    the files of the transfer
+     * @param priority the priority of the transfer
+     * @param task     sends the files
+     * @return the queued transfer
+     */
+    public ScheduledTransfer submit(Peer receiver, List<File> files, int priority, Runnable task) {
+        return submit(receiver, files, priority, task, null);
+    }
+
+    /**
+     * Queues a transfer that can be cancelled while it runs and starts it if the limits allow it.
+     *
+     * @param receiver the receiving peer or null if the transfer goes to several peers, which only counts against
+     *                 the total limit
+     * @param files    the files of the transfer
+     * @param priority the priority of the transfer
+     * @param task     sends the files
+     * @param cancel   makes the running task return as soon as possible (can be null)
+     * @return the queued transfer
+     */
+    public ScheduledTransfer submit(Peer receiver, List<File> files, int priority, Runnable task, Runnable cancel) {
+        return submit(receiver == null ? List.of() : List.of(receiver), files, priority, task, cancel);
+    }
+
+    /**
+     * Queues a transfer to several peers that can be cancelled while it runs and starts it once the limits allow it
+     * for every one of the peers.
+     *
+     * @param receivers the receiving peers
+     * @param files     the files of the transfer
+     * @param priority  the priority of the transfer
+     * @param task      sends the files
+     * @param cancel    makes the running task return as soon as possible (can be null)
+     * @return the queued transfer
+     */
+    public ScheduledTransfer submit(List<Peer> receivers, List<File> files, int priority, Runnable task, Runnable cancel) {
+        ScheduledTransfer transfer;
+        synchronized (this) {
+            transfer = new ScheduledTransfer(this, List.copyOf(receivers), files, priority, nextSequenceNumber++, task, cancel);
+            queued.add(transfer);
+            queued.sort(QUEUE_ORDER);
+            startTransfers();
+        }
+        notifyQueueChanged();
+        return transfer;
+    }
+
+    /**
+     * Cancels a transfer. A queued transfer is removed from the queue and its cancel action tells its handler. A
+     * running transfer is cancelled by its cancel action and counts against the limits until its task returns.
+     *
+     * @param transfer the transfer
+     * @return whether the transfer was queued or running and can be cancelled
+     */
+    public boolean cancel(ScheduledTransfer transfer) {
+        Runnable cancelAction = transfer.cancelAction;
+        synchronized (this) {
+            if (queued.remove(transfer)) {
+                transfer.setState(ScheduledTransfer.State.CANCELLED);
+            } else if (!running.contains(transfer) || cancelAction == null || transfer.cancelRequested) {
+                return false;
+            }
+            transfer.cancelRequested = true;
+        }
+        System.out.println("Cancelling transfer of " + transfer.files.size() + " files");
+        if (cancelAction != null) cancelAction.run();
+        notifyQueueChanged();
+        return true;
+    }
+
+    /**
+     * @return the transfers that wait to be started in the order they will be started
+     */
+    public synchronized List<ScheduledTransfer> getQueued() {
+        return List.copyOf(queued);
+    }
+
+    /**
+     * @return the transfers that are running
+     */
+    public synchronized List<ScheduledTransfer> getRunning() {
+        return List.copyOf(running);
+    }
+
+    /**
+     * Adds a callback that is called whenever a transfer is queued, started, cancelled or finished. It is called on the
+     * thread that changed the queue.
+     *
+     * @param onQueueChanged the callback
+     */
+    public void setOnQueueChanged(Runnable onQueueChanged) {
+        this.onQueueChanged = onQueueChanged;
+    }
+
+    /**
+     * Starts the queued transfers in order as long as the limits allow it. Must be called while holding the lock.
+     */
+    private void startTransfers() {
+        for (int i = 0; i < queued.size() && running.size() < Math.max(1, UserConfigurations.MAX_CONCURRENT_TRANSFERS); ) {
+            ScheduledTransfer transfer = queued.get(i);
+            if (transfer.receivers.stream().anyMatch(receiver -> runningPerPeer.getOrDefault(receiver, 0) >= Math.max(1, UserConfigurations.MAX_TRANSFERS_PER_PEER))) {
+                i++;
+                continue;
+            }
+            queued.remove(i);
+            running.add(transfer);
+            for (Peer receiver : transfer.receivers) runningPerPeer.merge(receiver, 1, Integer::sum);
+            transfer.setState(ScheduledTransfer.State.RUNNING);
+            executor.submit(() -> run(transfer));
+        }
+    }
+
+    private void run(ScheduledTransfer transfer) {
+        notifyQueueChanged();
+        try {
+            transfer.task.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            synchronized (this) {
+                running.remove(transfer);
+                for (Peer receiver : transfer.receivers) {
+                    runningPerPeer.merge(receiver, -1, (count, delta) -> count + delta == 0 ? null : count + delta);
+                }
+                transfer.setState(transfer.cancelRequested ? ScheduledTransfer.State.CANCELLED : ScheduledTransfer.State.FINISHED);
+                startTransfers();
+            }
+            notifyQueueChanged();
+        }
+    }
+
+    private void notifyQueueChanged() {
+        Runnable callback = onQueueChanged;
+        if (callback != null) callback.run();
+    }
+}
@@ -1,5 +1,7 @@
 package org.deg.backend;
 
+import org.deg.core.DurabilityPolicy;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -9,16 +11,38 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UserConfigurations {
     public static String USERNAME = null;
     public static File DEFAULT_SAFE_PATH = null;
     public static String PROFILE_PICTURE_NAME = null;
+    public static int MAX_RECEIVE_SESSIONS = 4;
+    public static DurabilityPolicy DURABILITY_POLICY = DurabilityPolicy.NONE;
+    /**
+     * Whether files are received by a few event loops instead of a thread per connection, for machines that many
+     * peers send to at the same time. Takes effect on the next start.
+     */
+    public static boolean NON_BLOCKING_RECEIVER = false;
+    public static int MAX_CONCURRENT_TRANSFERS = 2;
+    public static int MAX_TRANSFERS_PER_PEER = 1;
+    /**
+     * The maximum number of bytes per second that are sent to all peers together, 0 for no limit. Running
+     * transmissions read it whenever they send, while the settings change it.
+     */
+    public static volatile long MAX_UPLOAD_BYTES_PER_SECOND = 0;
+    /**
+     * The maximum number of bytes per second that are sent to a peer, by the address of the peer ("ip:port", see
+     * {@link org.deg.core.Peer#address()}). Peers without entry are not limited.
+     */
+    public static final Map<String, Long> PEER_UPLOAD_BYTES_PER_SECOND = new ConcurrentHashMap<>();
 
     private static final String APP_NAME = "LocalDrop";
     private static final String CONFIG_FILE_NAME = "config.properties";
+    private static final String PEER_UPLOAD_RATE_PREFIX = "peerUploadBytesPerSecond.";
 
     private static File getDefaultDownloadPath() {
         String userHome = System.getProperty("user.home");
@@ -91,6 +115,13 @@ public class UserConfigurations {
         props.setProperty("username", USERNAME);
         props.setProperty("defaultSafePath", DEFAULT_SAFE_PATH.getAbsolutePath());
         props.setProperty("profilePictureName", PROFILE_PICTURE_NAME);
+        props.setProperty("maxReceiveSessions", String.valueOf(MAX_RECEIVE_SESSIONS));
+        props.setProperty("durabilityPolicy", DURABILITY_POLICY.name());
+        props.setProperty("nonBlockingReceiver", String.valueOf(NON_BLOCKING_RECEIVER));
+        props.setProperty("maxConcurrentTransfers", String.valueOf(MAX_CONCURRENT_TRANSFERS));
+        props.setProperty("maxTransfersPerPeer", String.valueOf(MAX_TRANSFERS_PER_PEER));
+        props.setProperty("maxUploadBytesPerSecond", String.valueOf(MAX_UPLOAD_BYTES_PER_SECOND));
+        PEER_UPLOAD_BYTES_PER_SECOND.forEach((peerAddress, rate) -> props.setProperty(PEER_UPLOAD_RATE_PREFIX + peerAddress, String.valueOf(rate)));
 
         try (FileOutputStream out = new FileOutputStream(getConfigFile())) {
             props.store(out, "User Configuration");
@@ -112,6 +143,20 @@ public class UserConfigurations {
                 USERNAME = props.getProperty("username", System.getProperty("user.name"));
                 DEFAULT_SAFE_PATH = new File(props.getProperty("defaultSafePath", getDefaultDownloadPath().toString()));
                 PROFILE_PICTURE_NAME = props.getProperty("profilePictureName", getRandomProfilePicture());
+                MAX_RECEIVE_SESSIONS = parseInt(props, "maxReceiveSessions", MAX_RECEIVE_SESSIONS);
+                DURABILITY_POLICY = parseDurabilityPolicy(props, "durabilityPolicy", DURABILITY_POLICY);
+                NON_BLOCKING_RECEIVER = Boolean.parseBoolean(props.getProperty("nonBlockingReceiver", String.valueOf(NON_BLOCKING_RECEIVER)));
+                MAX_CONCURRENT_TRANSFERS = parseInt(props, "maxConcurrentTransfers", MAX_CONCURRENT_TRANSFERS);
+                MAX_TRANSFERS_PER_PEER = parseInt(props, "maxTransfersPerPeer", MAX_TRANSFERS_PER_PEER);
+                MAX_UPLOAD_BYTES_PER_SECOND = parseLong(props, "maxUploadBytesPerSecond", MAX_UPLOAD_BYTES_PER_SECOND);
+                for (String key : props.stringPropertyNames()) {
+                    if (!key.startsWith(PEER_UPLOAD_RATE_PREFIX)) continue;
+                    String peerAddress = key.substring(PEER_UPLOAD_RATE_PREFIX.length());
+                    // limits of older versions were saved by peer name and are dropped
+                    if (!peerAddress.contains(":")) continue;
+                    long rate = parseLong(props, key, 0);
+                    if (rate > 0) PEER_UPLOAD_BYTES_PER_SECOND.put(peerAddress, rate);
+                }
             } catch (IOException e) {
                 e.printStackTrace();
                 // fallback to default
@@ -121,4 +166,46 @@ public class UserConfigurations {
 
         if (!DEFAULT_SAFE_PATH.exists()) DEFAULT_SAFE_PATH.mkdirs();
     }
+
+    /**
+     * Parses a setting on its own, so that an invalid value only resets that setting to its default.
+     */
+    private static int parseInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value of " + key + " in the configurations: " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @see #parseInt(Properties, String, int)
+     */
+    private static long parseLong(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value of " + key + " in the configurations: " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @see #parseInt(Properties, String, int)
+     */
+    private static DurabilityPolicy parseDurabilityPolicy(Properties props, String key, DurabilityPolicy defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            return DurabilityPolicy.valueOf(value.trim());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid value of " + key + " in the configurations: " + value);
+            return defaultValue;
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package org.deg.core;
+
+import org.deg.backend.UserConfigurations;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket that limits the rate at which bytes are sent. The rate is read from the {@link UserConfigurations}
+ * whenever bytes are sent, so changed limits apply to running transmissions at once. There is one limiter for all
+ * transmissions and one for every peer, which are shared by all transmissions to that peer.
+ * <p>
+ * The bucket only holds the tokens of {@link #BURST_NANOS}, and senders are expected to write slices of at most
+ * {@link #sliceSize()} bytes, so a throttled transmission sends a steady stream instead of bursts.
+ */
+public class BandwidthLimiter {
+    /**
+     * The rate that stands for no limit
+     */
+    public static final long UNLIMITED = 0;
+    /**
+     * The time a slice of bytes takes to send at the limited rate
+     */
+    private static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long BURST_NANOS = SLICE_NANOS;
+    private static final int MIN_SLICE_SIZE = 4 * 1024;
+    private static final int MAX_SLICE_SIZE = 1024 * 1024;
+    private static final BandwidthLimiter global = new BandwidthLimiter(() -> UserConfigurations.MAX_UPLOAD_BYTES_PER_SECOND);
+    private static final Map<String, BandwidthLimiter> peerLimiters = new ConcurrentHashMap<>();
+
+    private final LongSupplier bytesPerSecond;
+    private long currentBytesPerSecond = UNLIMITED;
+    private long nextFreeNanos = System.nanoTime();
+
+    /**
+     * Constructs a limiter.
+     *
+     * @param bytesPerSecond supplies the current limit in bytes per second, {@link #UNLIMITED} for no limit
+     */
+    public BandwidthLimiter(LongSupplier bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @return the limiter that is shared by all transmissions
+     */
+    public static BandwidthLimiter global() {
+        return global;
+    }
+
+    /**
+     * @param peer the receiving peer
+     * @return the limiter that is shared by all transmissions to the peer, identified by its address
+     */
+    public static BandwidthLimiter forPeer(Peer peer) {
+        return peerLimiters.computeIfAbsent(peer.address(), address ->
+                new BandwidthLimiter(() -> UserConfigurations.PEER_UPLOAD_BYTES_PER_SECOND.getOrDefault(address, UNLIMITED)));
+    }
+
+    /**
+     * @return the number of bytes that should be written at once, Integer.MAX_VALUE if there is no limit
+     */
+    public int sliceSize() {
+        long rate = bytesPerSecond.getAsLong();
+        if (rate <= UNLIMITED) return Integer.MAX_VALUE;
+        return (int) Math.max(MIN_SLICE_SIZE, Math.min(MAX_SLICE_SIZE, rate * SLICE_NANOS / TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * Takes tokens for bytes that were sent and waits until the bucket has tokens again if it ran out. Every caller
+     * only waits for the bytes that were sent before, so the bytes of this call delay the next one.
+     *
+     * @param bytes the number of bytes that were sent
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            long rate = bytesPerSecond.getAsLong();
+            long now = System.nanoTime();
+            if (rate != currentBytesPerSecond) {
+                // debts under the old limit are forgotten
+                currentBytesPerSecond = rate;
+                nextFreeNanos = now;
+            }
+            if (rate <= UNLIMITED) return;
+            if (nextFreeNanos - (now - BURST_NANOS) < 0) nextFreeNanos = now - BURST_NANOS;
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos += (long) (bytes * 1e9 / rate);
+        }
+        if (waitNanos <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+}
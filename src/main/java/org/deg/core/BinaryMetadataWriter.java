@@ -0,0 +1,91 @@
+package org.deg.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the binary metadata one file after another, so that the files can be sent while later ones are still
+ * being found. See {@link MetadataHandler#readBinaryMetadata(java.io.DataInputStream)} for the format.
+ * Fields that are only known once all files are found, like the number of parallel connections or the resume
+ * key, are written after the files.
+ */
+public class BinaryMetadataWriter {
+    private final SegmentedOutputStream segments;
+    private final HexFormat hex = HexFormat.of();
+
+    /**
+     * Writes the version and the fields that describe the sender.
+     *
+     * @param out      the stream to write to, it is flushed but not closed
+     * @param metadata the metadata whose sender, transfer modes, transfer id and link estimate are written
+     * @throws IOException if an I/O error occurs
+     */
+    public BinaryMetadataWriter(OutputStream out, Metadata metadata) throws IOException {
+        this.segments = new SegmentedOutputStream(out);
+        Map<String, String> header = new LinkedHashMap<>();
+        header.put("SENDER_NAME", metadata.sender.name());
+        header.put("SENDER_IP", metadata.sender.ip());
+        header.put("SENDER_PORT", String.valueOf(metadata.sender.fileTransferPort()));
+        header.put("SENDER_PROFILE_PIC_NAME", metadata.sender.profilePicName());
+        if (!metadata.transferModes.isEmpty()) header.put("TRANSFER_MODES", String.join(",", metadata.transferModes.stream().map(Enum::name).toList()));
+        if (metadata.transferId != null) header.put("TRANSFER_ID", metadata.transferId);
+        if (metadata.checksums) header.put("CHECKSUMS", "1");
+        if (metadata.link != null) header.put("LINK", metadata.link.format());
+        segments.write(MetadataHandler.BINARY_METADATA_VERSION);
+        writeFields(header);
+    }
+
+    /**
+     * Writes the entry of a file.
+     *
+     * @param path        the relative path of the file with / as separator
+     * @param size        the size of the file in bytes
+     * @param codec       the codec of the file
+     * @param contentHash the content hash as hex string or null if it is unknown
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeFile(String path, long size, Codec codec, String contentHash) throws IOException {
+        segments.write(MetadataHandler.FILE_ENTRY);
+        MetadataHandler.writeString(segments, path);
+        MetadataHandler.writeVarLong(segments, size);
+        segments.write(codec.id);
+        byte[] hashBytes = contentHash == null ? new byte[0] : hex.parseHex(contentHash);
+        segments.write(hashBytes.length);
+        segments.write(hashBytes);
+    }
+
+    /**
+     * Sends the entries that were written so far, e.g. while waiting for the next file to be found.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void flush() throws IOException {
+        segments.flush();
+    }
+
+    /**
+     * Ends the list of files and writes the fields that depend on all files.
+     *
+     * @param metadata the metadata whose number of parallel connections and resume key are written
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish(Metadata metadata) throws IOException {
+        segments.write(MetadataHandler.END_OF_FILES);
+        Map<String, String> trailer = new LinkedHashMap<>();
+        if (metadata.streams > 1) trailer.put("STREAMS", String.valueOf(metadata.streams));
+        if (metadata.resumeKey != null) trailer.put("RESUME_KEY", metadata.resumeKey);
+        writeFields(trailer);
+        segments.close();
+    }
+
+    private void writeFields(Map<String, String> fields) throws IOException {
+        MetadataHandler.writeVarLong(segments, fields.size());
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            MetadataHandler.writeString(segments, field.getKey());
+            MetadataHandler.writeString(segments, field.getValue());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.deg.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ring of blocks that one producer writes and several readers read independently, each at its own pace. A slot is
+ * only reused once all readers have read it, so the producer waits for the slowest reader. A reader that keeps
+ * holding up the producer for {@link #DETACH_AFTER_MILLIS} while another reader already waits for the next block,
+ * without catching up to half the ring in between, has fallen too far behind and is detached, so that a single slow
+ * reader does not slow down all others.
+ */
+public class BlockRing {
+    /**
+     * The time a reader may keep holding up the producer while another reader waits for data
+     */
+    public static final long DETACH_AFTER_MILLIS = 5000;
+
+    private final byte[][] slots;
+    private final List<Reader> readers = new ArrayList<>();
+    private long published = 0;
+    private boolean closed = false;
+    private IOException failure = null;
+
+    /**
+     * Constructs a ring.
+     *
+     * @param capacity the number of blocks the fastest reader may be ahead of the slowest one
+     */
+    public BlockRing(int capacity) {
+        this.slots = new byte[capacity][];
+    }
+
+    /**
+     * Adds a reader that starts at the next published block.
+     *
+     * @return the reader
+     */
+    public synchronized Reader addReader() {
+        Reader reader = new Reader(published);
+        readers.add(reader);
+        return reader;
+    }
+
+    /**
+     * Publishes a block once its slot is free. The block must not be changed afterward.
+     *
+     * @param block the block
+     * @throws IOException if the ring failed, there is no reader left or the thread is interrupted while waiting
+     */
+    public synchronized void publish(byte[] block) throws IOException {
+        while (true) {
+            // a new exception, since the producer may fail again while it closes its streams
+            if (failure != null) throw new IOException("The blocks failed: " + failure.getMessage(), failure);
+            if (readers.isEmpty()) throw new IOException("No reader is left");
+            long slowest = readers.stream().mapToLong(reader -> reader.position).min().getAsLong();
+            if (published - slowest < slots.length) break;
+            long timeout = 0;
+            if (readers.stream().anyMatch(reader -> reader.position == published)) {
+                long now = System.currentTimeMillis();
+                for (Reader reader : List.copyOf(readers)) {
+                    if (published - reader.position < slots.length) continue;
+                    if (reader.behindSince < 0) reader.behindSince = now;
+                    long remaining = reader.behindSince + DETACH_AFTER_MILLIS - now;
+                    if (remaining <= 0) {
+                        System.err.println("Detaching a reader that fell " + slots.length + " blocks behind");
+                        detach(reader);
+                    } else {
+                        timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+                    }
+                }
+                if (timeout == 0) continue;
+            }
+            awaitChange(timeout);
+        }
+        slots[(int) (published % slots.length)] = block;
+        published++;
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of the blocks. Readers read the remaining blocks and then the end.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Ends the blocks with a failure. Readers get the failure instead of the remaining blocks.
+     *
+     * @param e the cause
+     */
+    public synchronized void fail(IOException e) {
+        failure = e;
+        closed = true;
+        notifyAll();
+    }
+
+    private void detach(Reader reader) {
+        reader.detached = true;
+        readers.remove(reader);
+        notifyAll();
+    }
+
+    private void awaitChange(long timeoutMillis) throws InterruptedIOException {
+        try {
+            wait(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the ring");
+        }
+    }
+
+    /**
+     * Reads the blocks of the ring in order. A reader must be used by a single thread.
+     */
+    public class Reader {
+        private long position;
+        private boolean detached = false;
+        /**
+         * When this reader was first found holding up the producer, -1 if it has caught up since
+         */
+        private long behindSince = -1;
+
+        private Reader(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Waits for the next block.
+         *
+         * @return the next block or null if all blocks were read
+         * @throws IOException if the reader was detached, the ring failed or the thread is interrupted while waiting
+         */
+        public byte[] next() throws IOException {
+            synchronized (BlockRing.this) {
+                while (true) {
+                    if (detached) throw new IOException("Fell too far behind the other receivers");
+                    if (failure != null) throw failure;
+                    if (position < published) break;
+                    if (closed) return null;
+                    awaitChange(0);
+                }
+                byte[] block = slots[(int) (position % slots.length)];
+                position++;
+                if (published - position < slots.length / 2) behindSince = -1;
+                BlockRing.this.notifyAll();
+                return block;
+            }
+        }
+
+        /**
+         * @return whether the reader fell too far behind and was detached or stopped reading
+         */
+        public boolean isDetached() {
+            synchronized (BlockRing.this) {
+                return detached;
+            }
+        }
+
+        /**
+         * Stops reading, so the producer does not wait for this reader anymore.
+         */
+        public void detach() {
+            synchronized (BlockRing.this) {
+                BlockRing.this.detach(this);
+            }
+        }
+    }
+}
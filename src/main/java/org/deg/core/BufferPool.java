@@ -0,0 +1,137 @@
+package org.deg.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct byte buffers in size classes. Direct buffers are expensive to allocate but can be handed to
+ * the operating system without copying, so they are reused for all file and socket I/O of large blocks.
+ * <p>
+ * The size classes are the powers of two between the smallest and the largest buffer size. A buffer is taken from
+ * the smallest class that fits the requested size, so a transmission can size its buffers to its connection, see
+ * {@link LinkEstimate#bufferSize()}, without the pool holding buffers of every possible size. Larger requests are
+ * allocated and dropped again.
+ */
+public class BufferPool {
+    /**
+     * The size of the buffers that are taken when no size is requested
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The smallest size class of the shared pool
+     */
+    public static final int MIN_BUFFER_SIZE = 64 * 1024;
+    /**
+     * The largest size class of the shared pool
+     */
+    public static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+    /**
+     * The pool that is shared by all transmissions
+     */
+    public static final BufferPool SHARED = new BufferPool(MIN_BUFFER_SIZE, MAX_BUFFER_SIZE, DEFAULT_BUFFER_SIZE, 64L * 1024 * 1024);
+
+    private final int minBufferSize;
+    private final int defaultBufferSize;
+    private final long maxPooledBytes;
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> sizeClasses = new ArrayList<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /**
+     * Constructs an empty pool of buffers of the same size.
+     *
+     * @param bufferSize       the size of every buffer
+     * @param maxPooledBuffers the maximum number of buffers that are kept for reuse, further buffers are dropped
+     */
+    public BufferPool(int bufferSize, int maxPooledBuffers) {
+        this(bufferSize, bufferSize, bufferSize, (long) bufferSize * maxPooledBuffers);
+    }
+
+    /**
+     * Constructs an empty pool with size classes.
+     *
+     * @param minBufferSize     the smallest size class, a power of two
+     * @param maxBufferSize     the largest size class
+     * @param defaultBufferSize the size of the buffers that are taken when no size is requested
+     * @param maxPooledBytes    the maximum number of bytes that are kept in buffers for reuse, further buffers are
+     *                          dropped
+     */
+    public BufferPool(int minBufferSize, int maxBufferSize, int defaultBufferSize, long maxPooledBytes) {
+        this.minBufferSize = minBufferSize;
+        this.defaultBufferSize = defaultBufferSize;
+        this.maxPooledBytes = maxPooledBytes;
+        for (long size = minBufferSize; sizeClasses.isEmpty() || size <= maxBufferSize; size *= 2) {
+            sizeClasses.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * @return the size of the buffers that are taken when no size is requested
+     */
+    public int bufferSize() {
+        return defaultBufferSize;
+    }
+
+    /**
+     * Rounds a size up to the size class it is taken from.
+     *
+     * @param size the requested size in bytes
+     * @return the capacity of the buffers that are taken for that size, the size itself if it exceeds all classes
+     */
+    public int sizeClass(int size) {
+        int sizeClass = classIndex(size);
+        return sizeClass < 0 ? size : minBufferSize << sizeClass;
+    }
+
+    /**
+     * Takes a cleared buffer of the default size from the pool or allocates a new one if the pool has none.
+     *
+     * @return the buffer
+     */
+    public ByteBuffer acquire() {
+        return acquire(defaultBufferSize);
+    }
+
+    /**
+     * Takes a cleared buffer of at least the given size from the pool or allocates a new one if the pool has none.
+     *
+     * @param minCapacity the number of bytes the buffer must hold
+     * @return the buffer, whose capacity is the size class of the requested size
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        int sizeClass = classIndex(minCapacity);
+        if (sizeClass < 0) return ByteBuffer.allocateDirect(minCapacity);
+        ByteBuffer buffer = sizeClasses.get(sizeClass).poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(minBufferSize << sizeClass);
+        pooledBytes.addAndGet(-buffer.capacity());
+        return buffer.clear();
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards.
+     *
+     * @param buffer the buffer, which must have been acquired from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) return;
+        int sizeClass = classIndex(buffer.capacity());
+        if (sizeClass < 0 || minBufferSize << sizeClass != buffer.capacity()) return;
+        if (pooledBytes.addAndGet(buffer.capacity()) > maxPooledBytes) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            return;
+        }
+        sizeClasses.get(sizeClass).offer(buffer);
+    }
+
+    /**
+     * @return the index of the smallest size class that holds the given size, -1 if no class does
+     */
+    private int classIndex(int size) {
+        for (int i = 0; i < sizeClasses.size(); i++) {
+            if (size <= minBufferSize << i) return i;
+        }
+        return -1;
+    }
+}
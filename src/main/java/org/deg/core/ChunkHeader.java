@@ -0,0 +1,145 @@
+package org.deg.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The header that precedes every chunk of file content when files are sent using {@link TransferMode#CHANNEL}.
+ * It tells the receiver which file the following bytes belong to and where they have to be written.
+ * A header with the file index {@link #END_OF_TRANSMISSION} marks the end of the transmission.
+ * A header with the file index {@link #PACKED_FILES} precedes several small files, see {@link SmallFilePacker}.
+ * For such a header, the offset is the index of the first file and the length is the number of files.
+ * If checksums were negotiated, the content of every chunk but a delta is followed by its CRC32C as int.
+ */
+public class ChunkHeader {
+    /**
+     * The number of bytes a header occupies on the wire
+     */
+    public static final int SIZE = Integer.BYTES + Long.BYTES + Long.BYTES + Long.BYTES;
+    /**
+     * The file index that marks the end of the transmission
+     */
+    public static final int END_OF_TRANSMISSION = -1;
+    /**
+     * The file index that marks a chunk of packed small files
+     */
+    public static final int PACKED_FILES = -2;
+    /**
+     * The encoded length of a chunk that contains a whole file as delta, whose end is marked by the delta itself
+     */
+    public static final long DELTA_ENCODED = -1;
+
+    /**
+     * The index of the file in the transmitted metadata
+     */
+    public final int fileIndex;
+    /**
+     * The position in the file at which the chunk starts
+     */
+    public final long offset;
+    /**
+     * The number of file bytes the chunk contains
+     */
+    public final long length;
+    /**
+     * The number of bytes that follow the header, which differs from the length if the file is encoded,
+     * or {@link #DELTA_ENCODED}
+     */
+    public final long encodedLength;
+
+    public ChunkHeader(int fileIndex, long offset, long length, long encodedLength) {
+        this.fileIndex = fileIndex;
+        this.offset = offset;
+        this.length = length;
+        this.encodedLength = encodedLength;
+    }
+
+    /**
+     * @return whether this header marks the end of the transmission
+     */
+    public boolean isEndOfTransmission() {
+        return fileIndex == END_OF_TRANSMISSION;
+    }
+
+    /**
+     * Writes this header to the given channel.
+     *
+     * @param channel the channel to write to
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.putInt(fileIndex).putLong(offset).putLong(length).putLong(encodedLength).flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * Reads a header from the given channel.
+     *
+     * @param channel the channel to read from
+     * @return the header
+     * @throws IOException if an I/O error occurs or the channel ends before a complete header was read
+     */
+    public static ChunkHeader read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Connection closed while reading chunk header");
+        }
+        buffer.flip();
+        return new ChunkHeader(buffer.getInt(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * @return a header that marks the end of the transmission
+     */
+    public static ChunkHeader endOfTransmission() {
+        return new ChunkHeader(END_OF_TRANSMISSION, 0, 0, 0);
+    }
+
+    /**
+     * Writes a request for chunks that arrived corrupt: their number followed by the file index, offset and length
+     * of every chunk. An empty request tells the sender that no chunks have to be sent again.
+     *
+     * @param dos    the stream to write to, it is flushed
+     * @param chunks the chunks to request
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeRetransmitRequest(DataOutputStream dos, List<ChunkHeader> chunks) throws IOException {
+        dos.writeInt(chunks.size());
+        for (ChunkHeader chunk : chunks) {
+            dos.writeInt(chunk.fileIndex);
+            dos.writeLong(chunk.offset);
+            dos.writeLong(chunk.length);
+        }
+        dos.flush();
+    }
+
+    /**
+     * Reads a request written by {@link #writeRetransmitRequest(DataOutputStream, List)} whose number of chunks was
+     * already read. The encoded length of the returned headers is their length.
+     *
+     * @param dis      the stream to read from
+     * @param count    the number of chunks
+     * @param maxCount the maximum number of chunks the request may contain
+     * @return the requested chunks
+     * @throws IOException if an I/O error occurs or the request is malformed
+     */
+    public static List<ChunkHeader> readRetransmitRequest(DataInputStream dis, int count, int maxCount) throws IOException {
+        if (count < 0 || count > maxCount) throw new IOException("Received malformed retransmit request");
+        List<ChunkHeader> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int fileIndex = dis.readInt();
+            long offset = dis.readLong();
+            long length = dis.readLong();
+            chunks.add(new ChunkHeader(fileIndex, offset, length, length));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,662 @@
+package org.deg.core;
+
+import javafx.util.Pair;
+import org.deg.core.callbacks.FileReceivingEventHandler;
+import org.deg.core.callbacks.ProgressTracker;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Receives the chunks of a transmission that uses {@link TransferMode#CHANNEL} and writes them into the target
+ * files. Several connections can deliver chunks of the same transmission at the same time, each of them calling
+ * {@link #receive(ReadableByteChannel)}. Every chunk is written at its own offset, so the order in which chunks
+ * arrive does not matter.
+ * <p>
+ * If checksums were negotiated, every chunk is verified against the CRC32C that follows it. Corrupt chunks are not
+ * counted towards their file and are collected, so that only they are requested again once all connections are done.
+ */
+public class ChunkReceiver {
+    private static final String DELTA_SUFFIX = ".localdrop-delta";
+
+    private final Peer sender;
+    private final List<FileWithMetadata> files;
+    private final FileReceivingEventHandler callback;
+    private final List<Pair<Peer, File>> receivedLog;
+    private final long[] startOffsets;
+    private final ResumeJournal journal;
+    private final ProgressTracker progressTracker;
+    private final DurabilityPolicy durabilityPolicy;
+    private final AtomicLongArray bytesReceivedPerFile;
+    private final Map<Integer, ReceivedFileWriter> openFiles = new ConcurrentHashMap<>();
+    /**
+     * The files whose chunks have all been received and that are being closed, which may take a while if they are
+     * forced to the storage device
+     */
+    private final Set<Integer> closingFiles = ConcurrentHashMap.newKeySet();
+    private final Set<File> existingDirectories = ConcurrentHashMap.newKeySet();
+    private final boolean checksums;
+    private final int bufferSize;
+    private final List<ChunkHeader> corruptChunks = new ArrayList<>();
+    /**
+     * Guards the open files and the corrupt chunks. Files are opened and closed while it is held, which a monitor
+     * must not do on the virtual threads that receive the connections, as it would pin their carrier thread.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Constructs a ChunkReceiver for the files of a transmission.
+     *
+     * @param sender      the sending peer
+     * @param files       the files that are received
+     * @param callback    the callback that is informed about the progress (can be null)
+     * @param receivedLog the log every completely received file is added to
+     */
+    public ChunkReceiver(Peer sender, List<FileWithMetadata> files, FileReceivingEventHandler callback, List<Pair<Peer, File>> receivedLog) {
+        this(sender, files, callback, receivedLog, new long[files.size()], null, DurabilityPolicy.NONE);
+    }
+
+    /**
+     * Constructs a ChunkReceiver for a transmission of which some bytes are already present. The bytes before the
+     * start offset of a file are kept and only the remaining chunks are expected from the sender.
+     *
+     * @param sender       the sending peer
+     * @param files        the files that are received
+     * @param callback     the callback that is informed about the progress (can be null)
+     * @param receivedLog  the log every completely received file is added to
+     * @param startOffsets the number of bytes at the start of every file that are already present
+     * @param journal          the journal every written chunk is recorded in (can be null)
+     * @param durabilityPolicy when the received files are forced to the storage device
+     */
+    public ChunkReceiver(Peer sender, List<FileWithMetadata> files, FileReceivingEventHandler callback, List<Pair<Peer, File>> receivedLog, long[] startOffsets, ResumeJournal journal, DurabilityPolicy durabilityPolicy) {
+        this(sender, files, callback, receivedLog, startOffsets, journal, durabilityPolicy, false);
+    }
+
+    /**
+     * Constructs a ChunkReceiver for a transmission of which some bytes are already present and whose chunks are
+     * followed by a CRC32C if checksums were negotiated.
+     *
+     * @param sender           the sending peer
+     * @param files            the files that are received
+     * @param callback         the callback that is informed about the progress (can be null)
+     * @param receivedLog      the log every completely received file is added to
+     * @param startOffsets     the number of bytes at the start of every file that are already present
+     * @param journal          the journal every written chunk is recorded in (can be null)
+     * @param durabilityPolicy when the received files are forced to the storage device
+     * @param checksums        whether every chunk is followed by a CRC32C
+     */
+    public ChunkReceiver(Peer sender, List<FileWithMetadata> files, FileReceivingEventHandler callback, List<Pair<Peer, File>> receivedLog, long[] startOffsets, ResumeJournal journal, DurabilityPolicy durabilityPolicy, boolean checksums) {
+        this(sender, files, callback, receivedLog, startOffsets, journal, durabilityPolicy, checksums, BufferPool.SHARED.bufferSize());
+    }
+
+    /**
+     * Constructs a ChunkReceiver whose buffers are sized for the connection, see {@link LinkEstimate#bufferSize()}.
+     *
+     * @param sender           the sending peer
+     * @param files            the files that are received
+     * @param callback         the callback that is informed about the progress (can be null)
+     * @param receivedLog      the log every completely received file is added to
+     * @param startOffsets     the number of bytes at the start of every file that are already present
+     * @param journal          the journal every written chunk is recorded in (can be null)
+     * @param durabilityPolicy when the received files are forced to the storage device
+     * @param checksums        whether every chunk is followed by a CRC32C
+     * @param bufferSize       the size of the buffers chunks are read back into to verify their checksum
+     */
+    public ChunkReceiver(Peer sender, List<FileWithMetadata> files, FileReceivingEventHandler callback, List<Pair<Peer, File>> receivedLog, long[] startOffsets, ResumeJournal journal, DurabilityPolicy durabilityPolicy, boolean checksums, int bufferSize) {
+        this.sender = sender;
+        this.checksums = checksums;
+        this.bufferSize = bufferSize;
+        this.files = files;
+        this.callback = callback;
+        this.receivedLog = receivedLog;
+        this.journal = journal;
+        this.durabilityPolicy = durabilityPolicy;
+        long totalBytes = files.stream().mapToLong(f -> f.sizeInBytes).sum();
+        this.progressTracker = new ProgressTracker(files, totalBytes, callback == null ? null : callback::onReceivingProgress);
+        this.startOffsets = startOffsets.clone();
+        this.bytesReceivedPerFile = new AtomicLongArray(startOffsets);
+        long resumed = 0;
+        int alreadyReceived = 0;
+        for (int i = 0; i < files.size(); i++) {
+            resumed += startOffsets[i];
+            FileWithMetadata fileWithMetadata = files.get(i);
+            if (fileWithMetadata.sizeInBytes > 0 && startOffsets[i] == fileWithMetadata.sizeInBytes) {
+                receivedLog.add(new Pair<>(sender, fileWithMetadata.file));
+                fileWithMetadata.transmissionSuccess = true;
+                alreadyReceived++;
+            }
+        }
+        if (alreadyReceived > 0) System.out.println("Already received " + alreadyReceived + " files");
+        progressTracker.skip(resumed);
+    }
+
+    /**
+     * Receives chunks from the given channel until the sender marks the end of the transmission on it.
+     *
+     * @param channel the channel to read the chunks from
+     * @throws IOException if an I/O error occurs while reading or the sender violates the protocol
+     */
+    public void receive(ReadableByteChannel channel) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            while (true) {
+                ChunkHeader header = ChunkHeader.read(channel);
+                if (header.isEndOfTransmission()) break;
+                receive(channel, header, inflater);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Receives a single chunk whose header was already read, for readers that split the connection into chunks
+     * themselves.
+     *
+     * @param channel  the channel to read the content of the chunk from
+     * @param header   the header of the chunk
+     * @param inflater the inflater used to decompress deflated chunks
+     * @throws IOException if an I/O error occurs while reading or the sender violates the protocol
+     */
+    public void receive(ReadableByteChannel channel, ChunkHeader header, Inflater inflater) throws IOException {
+        if (header.fileIndex == ChunkHeader.PACKED_FILES) {
+            receivePack(channel, header);
+            return;
+        }
+        FileWithMetadata fileWithMetadata = checkChunk(header);
+        if (fileWithMetadata.deltaSignature != null) {
+            receiveDelta(channel, header.fileIndex);
+            return;
+        }
+        ReceivedFileWriter writer = targetFile(header.fileIndex);
+        boolean intact = fileWithMetadata.codec == Codec.DEFLATE
+                ? receiveDeflatedChunk(channel, header, writer, inflater)
+                : receiveChunk(channel, header, writer);
+        chunkReceived(header, writer, intact);
+    }
+
+    /**
+     * Starts a chunk that is not encoded and whose content the caller writes into the target file itself, for
+     * readers that do not block on the connection. The chunk must be completed with
+     * {@link #finishChunk(ChunkHeader, ReceivedFileWriter, boolean)}.
+     *
+     * @param header the header of the chunk
+     * @return the writer of the target file or null if the content is discarded
+     * @throws IOException if the sender violates the protocol
+     */
+    public ReceivedFileWriter startChunk(ChunkHeader header) throws IOException {
+        FileWithMetadata fileWithMetadata = checkChunk(header);
+        if (fileWithMetadata.codec == Codec.DEFLATE || fileWithMetadata.deltaSignature != null) {
+            throw new IOException("Received encoded chunk of " + fileWithMetadata.relativePath + " as plain chunk");
+        }
+        return targetFile(header.fileIndex);
+    }
+
+    /**
+     * Completes a chunk that was started with {@link #startChunk(ChunkHeader)} once its content is written.
+     *
+     * @param header the header of the chunk
+     * @param writer the writer that was returned for the chunk
+     * @param intact whether the content matched its checksum, always true without checksums
+     * @throws IOException if the file cannot be closed
+     */
+    public void finishChunk(ChunkHeader header, ReceivedFileWriter writer, boolean intact) throws IOException {
+        if (intact) progressTracker.add(header.fileIndex, header.length);
+        chunkReceived(header, writer, intact);
+    }
+
+    /**
+     * Checks the header of a chunk that is not a pack against the metadata.
+     *
+     * @return the file the chunk belongs to
+     */
+    private FileWithMetadata checkChunk(ChunkHeader header) throws IOException {
+        if (header.fileIndex < 0 || header.fileIndex >= files.size()) {
+            throw new IOException("Received chunk for unknown file " + header.fileIndex);
+        }
+        FileWithMetadata fileWithMetadata = files.get(header.fileIndex);
+        if (header.offset < 0 || header.length < 0 || header.offset + header.length > fileWithMetadata.sizeInBytes) {
+            throw new IOException("Received chunk outside of " + fileWithMetadata.relativePath);
+        }
+        if (fileWithMetadata.deltaSignature != null) {
+            if (header.offset != 0 || header.length != fileWithMetadata.sizeInBytes || header.encodedLength != ChunkHeader.DELTA_ENCODED) {
+                throw new IOException("Received malformed delta of " + fileWithMetadata.relativePath);
+            }
+            return fileWithMetadata;
+        }
+        boolean encodingValid = fileWithMetadata.codec == Codec.DEFLATE
+                ? header.length <= Codec.DEFLATE_BLOCK_SIZE && header.encodedLength >= 0 && header.encodedLength <= 2L * Codec.DEFLATE_BLOCK_SIZE
+                : header.encodedLength == header.length;
+        if (!encodingValid) throw new IOException("Received malformed chunk of " + fileWithMetadata.relativePath);
+        return fileWithMetadata;
+    }
+
+    /**
+     * Counts a received chunk towards its file and completes the file with its last chunk, or collects the chunk
+     * if it arrived corrupt.
+     */
+    private void chunkReceived(ChunkHeader header, ReceivedFileWriter writer, boolean intact) throws IOException {
+        FileWithMetadata fileWithMetadata = files.get(header.fileIndex);
+        if (!intact) {
+            System.err.println("Received corrupt chunk of " + fileWithMetadata.relativePath + " at offset " + header.offset);
+            addCorruptChunk(header);
+            return;
+        }
+        if (journal != null && writer != null) journal.chunkWritten(header.fileIndex, header.offset, header.length);
+        if (bytesReceivedPerFile.addAndGet(header.fileIndex, header.length) == fileWithMetadata.sizeInBytes) {
+            completeFile(header.fileIndex);
+        }
+    }
+
+    /**
+     * Returns the chunks that arrived corrupt since the last call and forgets them.
+     *
+     * @return the file index, offset and length of every corrupt chunk
+     */
+    public List<ChunkHeader> takeCorruptChunks() {
+        lock.lock();
+        try {
+            List<ChunkHeader> chunks = new ArrayList<>(corruptChunks);
+            corruptChunks.clear();
+            return chunks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addCorruptChunk(ChunkHeader header) {
+        lock.lock();
+        try {
+            corruptChunks.add(header);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes all files that are still open and marks the files that were not received completely as failed.
+     * Must be called once all connections are done.
+     */
+    public void finish() {
+        for (ReceivedFileWriter writer : openFiles.values()) closeQuietly(writer);
+        openFiles.clear();
+        for (FileWithMetadata fileWithMetadata : files) {
+            if (fileWithMetadata.transmissionSuccess == null) fileWithMetadata.transmissionSuccess = false;
+        }
+        progressTracker.finish();
+    }
+
+    /**
+     * Closes and deletes the files that were not received completely, for a cancelled transmission that cannot be
+     * resumed. Must be called before {@link #finish()}.
+     */
+    public void discardPartialFiles() {
+        lock.lock();
+        try {
+            for (Map.Entry<Integer, ReceivedFileWriter> entry : openFiles.entrySet()) {
+                closeQuietly(entry.getValue());
+                File file = files.get(entry.getKey()).file;
+                try {
+                    Files.deleteIfExists(file.toPath());
+                } catch (IOException e) {
+                    System.err.println("Could not delete partially received file " + file.getAbsolutePath() + ": " + e.getMessage());
+                }
+            }
+            openFiles.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the writer of a target file, opening it when its first chunk arrives.
+     *
+     * @param fileIndex the index of the file
+     * @return the writer or null if the file cannot be written and its chunks are discarded
+     */
+    private ReceivedFileWriter targetFile(int fileIndex) {
+        FileWithMetadata fileWithMetadata = files.get(fileIndex);
+        lock.lock();
+        try {
+            if (fileWithMetadata.transmissionSuccess != null || closingFiles.contains(fileIndex)) return openFiles.get(fileIndex);
+            ReceivedFileWriter writer = openFiles.get(fileIndex);
+            if (writer == null) {
+                try {
+                    // a resumed file keeps the bytes that were already received
+                    writer = new ReceivedFileWriter(fileWithMetadata.file, fileWithMetadata.sizeInBytes, startOffsets[fileIndex] > 0, durabilityPolicy);
+                    openFiles.put(fileIndex, writer);
+                } catch (IOException e) {
+                    if (callback != null) callback.onReceivingError(e);
+                    fileWithMetadata.transmissionSuccess = false;
+                }
+            }
+            return writer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes a file whose chunks have all been received and marks it as successfully received. The file is closed,
+     * and maybe forced to the storage device, without holding the lock, so that the other connections keep writing
+     * their chunks meanwhile.
+     *
+     * @param fileIndex the index of the file
+     */
+    private void completeFile(int fileIndex) throws IOException {
+        FileWithMetadata fileWithMetadata = files.get(fileIndex);
+        ReceivedFileWriter writer;
+        lock.lock();
+        try {
+            writer = openFiles.remove(fileIndex);
+            if (writer == null) return;
+            closingFiles.add(fileIndex);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.close();
+        } finally {
+            closingFiles.remove(fileIndex);
+        }
+        System.out.println("Finished receiving file: " + fileWithMetadata.file.getAbsolutePath());
+        receivedLog.add(new Pair<>(sender, fileWithMetadata.file));
+        fileWithMetadata.transmissionSuccess = true;
+    }
+
+    /**
+     * Transfers a chunk that is not encoded from the socket directly into the file, or from the buffers of a
+     * {@link ReadAheadChannel} that reads the socket ahead. If checksums were negotiated, the chunk is verified
+     * against the CRC32C that follows it, computed from the buffers on the way or else by reading the written region
+     * back. The bytes of a corrupt chunk are overwritten when the chunk is sent again.
+     *
+     * @param channel     the channel to read the chunk from
+     * @param header      the header of the chunk
+     * @param writer  the writer of the target file or null if the chunk is discarded
+     * @return whether the chunk is intact, which is always the case without checksums
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean receiveChunk(ReadableByteChannel channel, ChunkHeader header, ReceivedFileWriter writer) throws IOException {
+        ReadAheadChannel readAhead = channel instanceof ReadAheadChannel readAheadChannel ? readAheadChannel : null;
+        CRC32C crc = checksums && writer != null && readAhead != null ? new CRC32C() : null;
+        long position = header.offset;
+        long end = header.offset + header.length;
+        while (position < end) {
+            long transferred;
+            if (writer == null) {
+                transferred = skip(channel, end - position);
+            } else if (readAhead != null) {
+                transferred = readAhead.transferTo(writer.channel(), position, end - position, crc);
+            } else {
+                transferred = writer.channel().transferFrom(channel, position, end - position);
+            }
+            if (transferred <= 0) throw new EOFException("Connection closed while receiving " + files.get(header.fileIndex).relativePath);
+            position += transferred;
+            if (!checksums) progressTracker.add(header.fileIndex, transferred);
+        }
+        if (!checksums) return true;
+        int checksum = readChecksum(channel);
+        // the content of a discarded chunk is not kept, so it does not have to be sent again either
+        if (writer != null && checksum != (crc != null ? (int) crc.getValue() : checksumOf(writer.channel(), header))) return false;
+        progressTracker.add(header.fileIndex, header.length);
+        return true;
+    }
+
+    /**
+     * Reads the region of a chunk back from the file through a pooled buffer and computes its CRC32C.
+     *
+     * @param fileChannel the channel of the file the chunk was written to
+     * @param header      the header of the chunk
+     * @return the CRC32C of the written content
+     * @throws IOException if an I/O error occurs or the region cannot be read
+     */
+    private int checksumOf(FileChannel fileChannel, ChunkHeader header) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = BufferPool.SHARED.acquire(bufferSize);
+        try {
+            long position = header.offset;
+            long end = header.offset + header.length;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int read = fileChannel.read(buffer, position);
+                if (read <= 0) throw new IOException("Could not read back " + files.get(header.fileIndex).relativePath);
+                crc.update(buffer.flip());
+                position += read;
+            }
+        } finally {
+            BufferPool.SHARED.release(buffer);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads a deflated chunk, inflates it and writes it to its position in the file.
+     *
+     * @param channel  the channel to read the chunk from
+     * @param header   the header of the chunk
+     * @param writer   the writer of the target file or null if the chunk is discarded
+     * @param inflater the inflater used to decompress the chunk
+     * @return whether the chunk is intact, a chunk that cannot be inflated is corrupt if checksums were negotiated
+     * @throws IOException if an I/O error occurs or the chunk cannot be inflated without checksums
+     */
+    private boolean receiveDeflatedChunk(ReadableByteChannel channel, ChunkHeader header, ReceivedFileWriter writer, Inflater inflater) throws IOException {
+        FileWithMetadata fileWithMetadata = files.get(header.fileIndex);
+        ByteBuffer compressed = ByteBuffer.allocate((int) header.encodedLength);
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed) < 0) throw new EOFException("Connection closed while receiving " + fileWithMetadata.relativePath);
+        }
+        int checksum = checksums ? readChecksum(channel) : 0;
+        if (writer == null) {
+            progressTracker.add(header.fileIndex, header.length);
+            return true;
+        }
+
+        ByteBuffer block = BufferPool.SHARED.acquire((int) header.length);
+        try {
+            block.limit((int) header.length);
+            inflater.reset();
+            inflater.setInput(compressed.flip());
+            try {
+                while (block.hasRemaining() && !inflater.finished()) {
+                    int count = inflater.inflate(block);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                }
+                if (block.hasRemaining() || !inflater.finished()) {
+                    if (checksums) return false;
+                    throw new IOException("Received corrupt chunk of " + fileWithMetadata.relativePath);
+                }
+            } catch (DataFormatException e) {
+                if (checksums) return false;
+                throw new IOException("Received corrupt chunk of " + fileWithMetadata.relativePath, e);
+            }
+            block.flip();
+            if (checksums) {
+                CRC32C crc = new CRC32C();
+                crc.update(block);
+                if (checksum != (int) crc.getValue()) return false;
+                block.rewind();
+            }
+            writer.write(block, header.offset);
+        } finally {
+            BufferPool.SHARED.release(block);
+        }
+        progressTracker.add(header.fileIndex, header.length);
+        return true;
+    }
+
+    /**
+     * Receives a pack of small files and writes every file with a single write.
+     *
+     * @param channel the channel to read the pack from
+     * @param header  the header of the pack
+     * @throws IOException if an I/O error occurs or the pack is malformed
+     */
+    private void receivePack(ReadableByteChannel channel, ChunkHeader header) throws IOException {
+        if (header.offset < 0 || header.length <= 0 || header.offset + header.length > files.size()) {
+            throw new IOException("Received pack of unknown files");
+        }
+        int firstFileIndex = (int) header.offset;
+        int fileCount = (int) header.length;
+        long maxLength = 0;
+        for (int i = firstFileIndex; i < firstFileIndex + fileCount; i++) {
+            FileWithMetadata fileWithMetadata = files.get(i);
+            if (fileWithMetadata.deltaSignature != null || startOffsets[i] > 0) throw new IOException("Received pack of unknown files");
+            maxLength += 1 + fileWithMetadata.sizeInBytes;
+        }
+        if (header.encodedLength < fileCount || header.encodedLength > maxLength) throw new IOException("Received malformed pack");
+
+        ByteBuffer pack = BufferPool.SHARED.acquire((int) header.encodedLength);
+        try {
+            pack.limit((int) header.encodedLength);
+            while (pack.hasRemaining()) {
+                if (channel.read(pack) < 0) throw new EOFException("Connection closed while receiving small files");
+            }
+            pack.flip();
+            if (checksums) {
+                CRC32C crc = new CRC32C();
+                crc.update(pack.duplicate());
+                if (readChecksum(channel) != (int) crc.getValue()) {
+                    // the status bytes cannot be trusted either, so every file of the pack is requested again
+                    System.err.println("Received corrupt pack of " + fileCount + " small files");
+                    for (int i = firstFileIndex; i < firstFileIndex + fileCount; i++) {
+                        long size = files.get(i).sizeInBytes;
+                        addCorruptChunk(new ChunkHeader(i, 0, size, size));
+                    }
+                    return;
+                }
+            }
+
+            long bytes = 0;
+            for (int i = firstFileIndex; i < firstFileIndex + fileCount; i++) {
+                FileWithMetadata fileWithMetadata = files.get(i);
+                if (!pack.hasRemaining()) throw new IOException("Received malformed pack");
+                if (pack.get() != SmallFilePacker.FILE_READABLE) {
+                    fileWithMetadata.transmissionSuccess = false;
+                    continue;
+                }
+                if (pack.remaining() < fileWithMetadata.sizeInBytes) throw new IOException("Received malformed pack");
+                ByteBuffer content = pack.slice(pack.position(), (int) fileWithMetadata.sizeInBytes);
+                pack.position(pack.position() + (int) fileWithMetadata.sizeInBytes);
+                bytes += fileWithMetadata.sizeInBytes;
+                writeSmallFile(fileWithMetadata, content);
+            }
+            if (pack.hasRemaining()) throw new IOException("Received malformed pack");
+            progressTracker.add(firstFileIndex + fileCount - 1, bytes);
+        } finally {
+            BufferPool.SHARED.release(pack);
+        }
+    }
+
+    /**
+     * Writes a complete small file. Its directory is only checked once per transmission.
+     *
+     * @param fileWithMetadata the file
+     * @param content          the content of the file
+     */
+    private void writeSmallFile(FileWithMetadata fileWithMetadata, ByteBuffer content) {
+        File file = fileWithMetadata.file;
+        File directory = file.getParentFile();
+        if (!existingDirectories.contains(directory)) {
+            if (!directory.exists()) directory.mkdirs();
+            existingDirectories.add(directory);
+        }
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (content.hasRemaining()) fileChannel.write(content);
+            if (durabilityPolicy == DurabilityPolicy.PER_FILE) fileChannel.force(true);
+        } catch (IOException e) {
+            if (callback != null) callback.onReceivingError(e);
+            fileWithMetadata.transmissionSuccess = false;
+            return;
+        }
+        receivedLog.add(new Pair<>(sender, file));
+        fileWithMetadata.transmissionSuccess = true;
+    }
+
+    /**
+     * Rebuilds a file from its delta against the older version into a temporary file, which then replaces the
+     * older version. The older version stays intact if the transmission fails.
+     *
+     * @param channel   the channel to read the delta from
+     * @param fileIndex the index of the file
+     * @throws IOException if an I/O error occurs or the delta is malformed
+     */
+    private void receiveDelta(ReadableByteChannel channel, int fileIndex) throws IOException {
+        FileWithMetadata fileWithMetadata = files.get(fileIndex);
+        File file = fileWithMetadata.file;
+        File temporaryFile = new File(file.getParentFile(), "." + file.getName() + DELTA_SUFFIX);
+        try {
+            // the rebuilt file must be on the storage device before it replaces the older version
+            DurabilityPolicy temporaryPolicy = durabilityPolicy == DurabilityPolicy.NONE ? DurabilityPolicy.NONE : DurabilityPolicy.PER_FILE;
+            try (FileChannel basis = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 ReceivedFileWriter target = new ReceivedFileWriter(temporaryFile, fileWithMetadata.sizeInBytes, false, temporaryPolicy)) {
+                new DeltaDecoder(fileWithMetadata.deltaSignature, basis)
+                        .decode(channel, target.channel(), fileWithMetadata.sizeInBytes, bytes -> progressTracker.add(fileIndex, bytes));
+            }
+            // the content hash also covers collisions of the block checksums
+            if (fileWithMetadata.contentHash != null && !fileWithMetadata.contentHash.equals(ContentHasher.hash(temporaryFile))) {
+                System.err.println("Rebuilt file does not match the sent file: " + file.getAbsolutePath());
+                Files.deleteIfExists(temporaryFile.toPath());
+                fileWithMetadata.transmissionSuccess = false;
+                return;
+            }
+            try {
+                Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryFile.toPath());
+            throw e;
+        }
+        System.out.println("Finished receiving file as delta: " + file.getAbsolutePath());
+        receivedLog.add(new Pair<>(sender, file));
+        fileWithMetadata.transmissionSuccess = true;
+    }
+
+    /**
+     * Reads and discards bytes from a channel.
+     *
+     * @param channel the channel to read from
+     * @param count   the maximum number of bytes to discard
+     * @return the number of bytes that were discarded or -1 if the channel has reached end-of-stream
+     * @throws IOException if an I/O error occurs
+     */
+    private static long skip(ReadableByteChannel channel, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+        return channel.read(buffer);
+    }
+
+    private static int readChecksum(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Connection closed while reading checksum");
+        }
+        return buffer.flip().getInt();
+    }
+
+    private static void closeQuietly(ReceivedFileWriter writer) {
+        if (writer == null) return;
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,625 @@
+package org.deg.core;
+
+import org.deg.core.callbacks.FileSendingEventHandler;
+import org.deg.core.callbacks.ProgressTracker;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+
+/**
+ * Splits the files of a transmission into chunks and sends them when using {@link TransferMode#CHANNEL}.
+ * Several connections can send chunks of the same transmission at the same time, each of them calling
+ * {@link #send(WritableByteChannel)}. The chunks are handed out in the order of the files, so that a large file
+ * is spread over all connections.
+ * <p>
+ * If the receiver verifies checksums, every chunk is followed by the CRC32C of its uncompressed bytes and the chunks
+ * the receiver reports as corrupt are sent again with {@link #resend(WritableByteChannel, List)}. Deltas carry no
+ * CRC32C, the receiver checks the rebuilt file against its content hash.
+ * <p>
+ * Chunks of deflated files are read and deflated ahead of the connection on a pool of a thread per core, into
+ * buffers of the {@link BufferPool}, so that even a single connection, e.g. a session stream, keeps all cores busy.
+ * A connection prepares deflated chunks ahead as long as the transmission has fewer than {@link #DEFLATE_THREADS}
+ * + 1 of them in flight.
+ */
+public class ChunkSender {
+    /**
+     * The maximum number of bytes that are sent in a single chunk if the file is not encoded
+     */
+    public static final long CHUNK_SIZE = 8 * 1024 * 1024;
+    /**
+     * The number of threads that deflate the chunks of all transmissions
+     */
+    public static final int DEFLATE_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService deflateExecutor = Executors.newFixedThreadPool(DEFLATE_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "chunk-deflater");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private final List<FileWithMetadata> files;
+    private final FileSendingEventHandler callback;
+    private final long[] startOffsets;
+    private final ProgressTracker progressTracker;
+    private final AtomicLongArray bytesRemaining;
+    private final SmallFilePacker packer;
+    private final List<BandwidthLimiter> limiters;
+    private final boolean checksums;
+    private final int bufferSize;
+    /**
+     * The deflated chunks that connections may prepare ahead of the chunk they send
+     */
+    private final Semaphore deflateSlots = new Semaphore(DEFLATE_THREADS + 1);
+    private int nextFileIndex = 0;
+    private long nextOffset = 0;
+
+    /**
+     * Constructs a ChunkSender for the files of a transmission.
+     *
+     * @param files    the files to send
+     * @param callback the callback is called whenever new bytes are sent (can be null)
+     */
+    public ChunkSender(List<FileWithMetadata> files, FileSendingEventHandler callback) {
+        this(files, callback, new long[files.size()]);
+    }
+
+    /**
+     * Constructs a ChunkSender that resumes a transmission. The bytes before the start offset of a file are
+     * already present at the receiver and are not sent again.
+     *
+     * @param files        the files to send
+     * @param callback     the callback is called whenever new bytes are sent (can be null)
+     * @param startOffsets the number of bytes at the start of every file the receiver already has
+     */
+    public ChunkSender(List<FileWithMetadata> files, FileSendingEventHandler callback, long[] startOffsets) {
+        this(files, callback, startOffsets, false);
+    }
+
+    /**
+     * Constructs a ChunkSender that resumes a transmission and sends consecutive small files in packs if the
+     * receiver understands them.
+     *
+     * @param files          the files to send
+     * @param callback       the callback is called whenever new bytes are sent (can be null)
+     * @param startOffsets   the number of bytes at the start of every file the receiver already has
+     * @param packSmallFiles whether small files are sent in packs, see {@link SmallFilePacker}
+     */
+    public ChunkSender(List<FileWithMetadata> files, FileSendingEventHandler callback, long[] startOffsets, boolean packSmallFiles) {
+        this(files, callback, startOffsets, packSmallFiles, List.of());
+    }
+
+    /**
+     * Constructs a ChunkSender whose connections share the given bandwidth limits.
+     *
+     * @param files          the files to send
+     * @param callback       the callback is called whenever new bytes are sent (can be null)
+     * @param startOffsets   the number of bytes at the start of every file the receiver already has
+     * @param packSmallFiles whether small files are sent in packs, see {@link SmallFilePacker}
+     * @param limiters       the limiters all sent bytes are taken from
+     */
+    public ChunkSender(List<FileWithMetadata> files, FileSendingEventHandler callback, long[] startOffsets, boolean packSmallFiles, List<BandwidthLimiter> limiters) {
+        this(files, callback, startOffsets, packSmallFiles, limiters, false);
+    }
+
+    /**
+     * Constructs a ChunkSender whose connections share the given bandwidth limits and that follows every chunk
+     * with a CRC32C if the receiver verifies them.
+     *
+     * @param files          the files to send
+     * @param callback       the callback is called whenever new bytes are sent (can be null)
+     * @param startOffsets   the number of bytes at the start of every file the receiver already has
+     * @param packSmallFiles whether small files are sent in packs, see {@link SmallFilePacker}
+     * @param limiters       the limiters all sent bytes are taken from
+     * @param checksums      whether every chunk is followed by a CRC32C
+     */
+    public ChunkSender(List<FileWithMetadata> files, FileSendingEventHandler callback, long[] startOffsets, boolean packSmallFiles, List<BandwidthLimiter> limiters, boolean checksums) {
+        this(files, callback, startOffsets, packSmallFiles, limiters, checksums, BufferPool.SHARED.bufferSize());
+    }
+
+    /**
+     * Constructs a ChunkSender whose buffers are sized for the connection, see {@link LinkEstimate#bufferSize()}.
+     *
+     * @param files          the files to send
+     * @param callback       the callback is called whenever new bytes are sent (can be null)
+     * @param startOffsets   the number of bytes at the start of every file the receiver already has
+     * @param packSmallFiles whether small files are sent in packs, see {@link SmallFilePacker}
+     * @param limiters       the limiters all sent bytes are taken from
+     * @param checksums      whether every chunk is followed by a CRC32C
+     * @param bufferSize     the size of the buffers chunks are read into to compute their checksum
+     */
+    public ChunkSender(List<FileWithMetadata> files, FileSendingEventHandler callback, long[] startOffsets, boolean packSmallFiles, List<BandwidthLimiter> limiters, boolean checksums, int bufferSize) {
+        this.files = files;
+        this.limiters = limiters;
+        this.checksums = checksums;
+        this.bufferSize = bufferSize;
+        this.callback = callback;
+        long totalBytes = files.stream().mapToLong(f -> f.sizeInBytes).sum();
+        this.progressTracker = new ProgressTracker(files, totalBytes, callback == null ? null : callback::onSendingProgress);
+        this.startOffsets = new long[files.size()];
+        this.bytesRemaining = new AtomicLongArray(files.size());
+        long resumed = 0;
+        int alreadyPresent = 0;
+        for (int i = 0; i < files.size(); i++) {
+            FileWithMetadata fileWithMetadata = files.get(i);
+            long startOffset = Math.min(startOffsets[i], fileWithMetadata.sizeInBytes);
+            this.startOffsets[i] = startOffset;
+            bytesRemaining.set(i, fileWithMetadata.sizeInBytes - startOffset);
+            resumed += startOffset;
+            if (fileWithMetadata.sizeInBytes > 0 && startOffset == fileWithMetadata.sizeInBytes) {
+                fileWithMetadata.transmissionSuccess = true;
+                alreadyPresent++;
+            }
+        }
+        if (alreadyPresent > 0) System.out.println(alreadyPresent + " files are already present at the receiver");
+        progressTracker.skip(resumed);
+        this.nextOffset = files.isEmpty() ? 0 : this.startOffsets[0];
+
+        // resumed files and deltas keep their own chunks
+        boolean[] packable = new boolean[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            FileWithMetadata fileWithMetadata = files.get(i);
+            packable[i] = packSmallFiles && SmallFilePacker.isSmall(fileWithMetadata) && this.startOffsets[i] == 0
+                    && fileWithMetadata.deltaSignature == null && fileWithMetadata.transmissionSuccess == null;
+        }
+        this.packer = new SmallFilePacker(files, packable);
+    }
+
+    /**
+     * Sends chunks over the given channel until all chunks of the transmission have been handed out, then marks
+     * the end of the transmission on this channel.
+     *
+     * @param connection the connection to send the chunks over
+     * @throws IOException if an I/ O error occurs while writing to the connection
+     */
+    public void send(WritableByteChannel connection) throws IOException {
+        sendChunks(connection, this::nextChunk, false);
+    }
+
+    /**
+     * Sends chunks that the receiver reports as corrupt again, then marks the end of the transmission on the
+     * channel. Files of a pack are requested and sent as single chunks. Must be called once all connections are done.
+     *
+     * @param connection the connection to send the chunks over
+     * @param chunks     the file index, offset and length of every chunk
+     * @throws IOException if an I/ O error occurs or the receiver requests chunks that were never sent
+     */
+    public void resend(WritableByteChannel connection, List<ChunkHeader> chunks) throws IOException {
+        long bytes = 0;
+        for (ChunkHeader chunk : chunks) {
+            if (chunk.fileIndex < 0 || chunk.fileIndex >= files.size()) throw new IOException("Receiver requested unknown file " + chunk.fileIndex);
+            FileWithMetadata fileWithMetadata = files.get(chunk.fileIndex);
+            boolean valid = chunk.offset >= 0 && chunk.length >= 0 && chunk.offset + chunk.length <= fileWithMetadata.sizeInBytes
+                    && fileWithMetadata.deltaSignature == null
+                    && (fileWithMetadata.codec != Codec.DEFLATE || chunk.length <= Codec.DEFLATE_BLOCK_SIZE);
+            if (!valid) throw new IOException("Receiver requested malformed chunk of " + fileWithMetadata.relativePath);
+            bytes += chunk.length;
+        }
+        // the chunks were already counted when they were sent for the first time
+        progressTracker.skip(-bytes);
+        Iterator<ChunkHeader> iterator = chunks.iterator();
+        sendChunks(connection, () -> iterator.hasNext() ? iterator.next() : null, true);
+    }
+
+    /**
+     * Sends the chunks a supplier hands out, then marks the end of the transmission on the channel. The next chunk
+     * is only taken from the supplier once the previous one is sent, unless deflated chunks are prepared ahead.
+     *
+     * @param connection the connection to send the chunks over
+     * @param chunks     hands out the next chunk or null if there are no more chunks
+     * @param resent     whether the chunks were sent before, in which case they do not count towards their file
+     * @throws IOException if an I/ O error occurs while writing to the connection
+     */
+    private void sendChunks(WritableByteChannel connection, Supplier<ChunkHeader> chunks, boolean resent) throws IOException {
+        ThrottledChannel channel = new ThrottledChannel(connection, limiters);
+        Deque<PreparedChunk> prepared = new ArrayDeque<>();
+        // the files of the prepared chunks, each one is closed once its last prepared chunk was sent
+        Map<Integer, FileChannel> openFiles = new HashMap<>();
+        boolean moreChunks = true;
+        try {
+            while (true) {
+                while (moreChunks && (prepared.isEmpty() || prepared.getLast().deflated != null && deflateSlots.tryAcquire())) {
+                    boolean holdsSlot = !prepared.isEmpty();
+                    ChunkHeader chunk = chunks.get();
+                    PreparedChunk preparedChunk = chunk == null ? null : prepare(chunk, openFiles, holdsSlot);
+                    if (holdsSlot && (preparedChunk == null || !preparedChunk.holdsSlot)) deflateSlots.release();
+                    if (chunk == null) moreChunks = false;
+                    if (preparedChunk != null) prepared.add(preparedChunk);
+                }
+                PreparedChunk preparedChunk = prepared.pollFirst();
+                if (preparedChunk == null) break;
+                try {
+                    send(preparedChunk, channel, resent);
+                } finally {
+                    release(preparedChunk);
+                    int fileIndex = preparedChunk.chunk.fileIndex;
+                    if (openFiles.containsKey(fileIndex) && prepared.stream().noneMatch(next -> next.chunk.fileIndex == fileIndex)) {
+                        openFiles.remove(fileIndex).close();
+                    }
+                }
+            }
+        } finally {
+            for (PreparedChunk preparedChunk : prepared) release(preparedChunk);
+            for (FileChannel fileChannel : openFiles.values()) fileChannel.close();
+        }
+        ChunkHeader.endOfTransmission().write(channel);
+    }
+
+    /**
+     * Opens the file of a chunk if it is not open yet and starts deflating the chunk if its file is deflated.
+     *
+     * @param chunk     the chunk
+     * @param openFiles the open files by their index, to which the file of the chunk is added
+     * @param holdsSlot whether a deflate slot was acquired for the chunk, which is kept if the chunk is deflated
+     * @return the prepared chunk or null if the file cannot be read, in which case nothing was announced for it and
+     * the receiver simply never gets the file
+     */
+    private PreparedChunk prepare(ChunkHeader chunk, Map<Integer, FileChannel> openFiles, boolean holdsSlot) {
+        if (chunk.fileIndex == ChunkHeader.PACKED_FILES) return new PreparedChunk(chunk, null, false);
+        FileWithMetadata fileWithMetadata = files.get(chunk.fileIndex);
+        if (Boolean.FALSE.equals(fileWithMetadata.transmissionSuccess)) return null;
+        FileChannel fileChannel = openFiles.get(chunk.fileIndex);
+        if (fileChannel == null) {
+            try {
+                fileChannel = FileChannel.open(fileWithMetadata.file.toPath(), StandardOpenOption.READ);
+                if (fileChannel.size() < fileWithMetadata.sizeInBytes) {
+                    fileChannel.close();
+                    throw new IOException("file was truncated before it could be sent");
+                }
+            } catch (IOException e) {
+                System.err.println("Could not read " + fileWithMetadata.relativePath + ": " + e.getMessage());
+                fileWithMetadata.transmissionSuccess = false;
+                return null;
+            }
+            openFiles.put(chunk.fileIndex, fileChannel);
+        }
+        PreparedChunk preparedChunk = new PreparedChunk(chunk, fileChannel, holdsSlot);
+        if (fileWithMetadata.deltaSignature == null && fileWithMetadata.codec == Codec.DEFLATE) {
+            FileChannel source = fileChannel;
+            preparedChunk.deflated = deflateExecutor.submit(() -> deflate(chunk, source));
+        } else {
+            preparedChunk.holdsSlot = false;
+        }
+        return preparedChunk;
+    }
+
+    /**
+     * Sends a prepared chunk and counts it towards its file.
+     */
+    private void send(PreparedChunk preparedChunk, ThrottledChannel channel, boolean resent) throws IOException {
+        ChunkHeader chunk = preparedChunk.chunk;
+        if (chunk.fileIndex == ChunkHeader.PACKED_FILES) {
+            sendPack(packer.packStartingAt((int) chunk.offset), channel);
+            return;
+        }
+        FileWithMetadata fileWithMetadata = files.get(chunk.fileIndex);
+        if (fileWithMetadata.deltaSignature != null) {
+            sendDeltaChunk(chunk, preparedChunk.fileChannel, channel);
+        } else if (preparedChunk.deflated != null) {
+            sendDeflatedChunk(chunk, awaitDeflated(preparedChunk), channel);
+        } else {
+            sendChunk(chunk, preparedChunk.fileChannel, channel);
+        }
+        if (resent) return;
+        if (bytesRemaining.addAndGet(chunk.fileIndex, -chunk.length) == 0) {
+            System.out.println(fileWithMetadata.relativePath + " sending finished successfully.");
+            fileWithMetadata.transmissionSuccess = true;
+        }
+    }
+
+    /**
+     * Returns the buffer and the deflate slot of a prepared chunk. A chunk that is still being deflated is waited
+     * for, so that its buffer is not lost.
+     */
+    private void release(PreparedChunk preparedChunk) {
+        if (preparedChunk.deflated != null) {
+            try {
+                BufferPool.SHARED.release(preparedChunk.deflated.get().compressed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ignored) {
+                // the chunk failed to deflate and holds no buffer
+            }
+            preparedChunk.deflated = null;
+        }
+        if (preparedChunk.holdsSlot) {
+            preparedChunk.holdsSlot = false;
+            deflateSlots.release();
+        }
+    }
+
+    private DeflatedChunk awaitDeflated(PreparedChunk preparedChunk) throws IOException {
+        try {
+            return preparedChunk.deflated.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while deflating");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            throw new IOException("Could not deflate " + files.get(preparedChunk.chunk.fileIndex).relativePath, e.getCause());
+        }
+    }
+
+    /**
+     * @param files the files of a transmission
+     * @return the maximum number of chunks the files can be split into, counting every file of a pack on its own
+     */
+    public static int maxChunkCount(List<FileWithMetadata> files) {
+        long count = 0;
+        for (FileWithMetadata fileWithMetadata : files) {
+            long chunkSize = fileWithMetadata.codec == Codec.DEFLATE ? Codec.DEFLATE_BLOCK_SIZE : CHUNK_SIZE;
+            count += 1 + fileWithMetadata.sizeInBytes / chunkSize;
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Marks all files that could not be sent completely as failed. Must be called once all connections are done.
+     */
+    public void finish() {
+        packer.close();
+        for (FileWithMetadata fileWithMetadata : files) {
+            if (fileWithMetadata.transmissionSuccess == null) fileWithMetadata.transmissionSuccess = false;
+        }
+        progressTracker.finish();
+    }
+
+    /**
+     * Hands out the next chunk of the transmission. The encoded length of the returned header is not yet known.
+     *
+     * @return the next chunk or null if all chunks have been handed out
+     */
+    private synchronized ChunkHeader nextChunk() {
+        while (nextFileIndex < files.size()) {
+            FileWithMetadata fileWithMetadata = files.get(nextFileIndex);
+            if (Boolean.FALSE.equals(fileWithMetadata.transmissionSuccess)
+                    || fileWithMetadata.sizeInBytes > 0 && startOffsets[nextFileIndex] == fileWithMetadata.sizeInBytes) {
+                advanceFile();
+                continue;
+            }
+            SmallFilePacker.Pack pack = packer.packStartingAt(nextFileIndex);
+            if (pack != null) {
+                packer.handOut(pack);
+                for (int i = 0; i < pack.fileCount; i++) advanceFile();
+                return new ChunkHeader(ChunkHeader.PACKED_FILES, pack.firstFileIndex, pack.fileCount, 0);
+            }
+            if (fileWithMetadata.deltaSignature != null) {
+                // a delta refers to blocks all over the older version and is therefore sent as a single chunk
+                int fileIndex = nextFileIndex;
+                advanceFile();
+                return new ChunkHeader(fileIndex, 0, fileWithMetadata.sizeInBytes, ChunkHeader.DELTA_ENCODED);
+            }
+            long chunkSize = fileWithMetadata.codec == Codec.DEFLATE ? Codec.DEFLATE_BLOCK_SIZE : CHUNK_SIZE;
+            long length = Math.min(chunkSize, fileWithMetadata.sizeInBytes - nextOffset);
+            ChunkHeader chunk = new ChunkHeader(nextFileIndex, nextOffset, length, length);
+            nextOffset += length;
+            if (nextOffset >= fileWithMetadata.sizeInBytes) advanceFile();
+            return chunk;
+        }
+        return null;
+    }
+
+    private void advanceFile() {
+        nextFileIndex++;
+        nextOffset = nextFileIndex < files.size() ? startOffsets[nextFileIndex] : 0;
+    }
+
+    /**
+     * Sends a chunk as is, transferring it from the file channel directly to the socket channel. If checksums were
+     * negotiated, the CRC32C is computed from a separate read of the same region beforehand and follows the chunk,
+     * so the content itself still goes from the file to the socket without passing through the application.
+     *
+     * @param chunk       the chunk to send
+     * @param fileChannel the channel to read the file from
+     * @param channel     the socket channel to send the chunk over
+     * @throws IOException if an I/ O error occurs
+     */
+    private void sendChunk(ChunkHeader chunk, FileChannel fileChannel, ThrottledChannel channel) throws IOException {
+        // a file that changes in between fails the check at the receiver and the chunk is sent again
+        CRC32C crc = checksums ? checksum(chunk, fileChannel) : null;
+        chunk.write(channel);
+        long position = chunk.offset;
+        long end = chunk.offset + chunk.length;
+        while (position < end) {
+            long transferred = channel.transferFrom(fileChannel, position, end - position);
+            if (transferred <= 0) {
+                throw new IOException(files.get(chunk.fileIndex).relativePath + " was truncated while sending");
+            }
+            position += transferred;
+            progressTracker.add(chunk.fileIndex, transferred);
+        }
+        if (crc != null) writeChecksum(crc, channel);
+    }
+
+    /**
+     * Computes the CRC32C of a chunk by reading it through a pooled buffer.
+     *
+     * @param chunk       the chunk
+     * @param fileChannel the channel to read the file from
+     * @return the CRC32C of the content of the chunk
+     * @throws IOException if an I/ O error occurs or the file is shorter than the chunk
+     */
+    private CRC32C checksum(ChunkHeader chunk, FileChannel fileChannel) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = BufferPool.SHARED.acquire(bufferSize);
+        try {
+            long position = chunk.offset;
+            long end = chunk.offset + chunk.length;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int read = fileChannel.read(buffer, position);
+                if (read <= 0) throw new IOException(files.get(chunk.fileIndex).relativePath + " was truncated while sending");
+                crc.update(buffer.flip());
+                position += read;
+            }
+        } finally {
+            BufferPool.SHARED.release(buffer);
+        }
+        return crc;
+    }
+
+    /**
+     * Reads a chunk of at most {@link Codec#DEFLATE_BLOCK_SIZE} bytes and deflates it independently of all other
+     * chunks. Runs on the deflate threads.
+     *
+     * @param chunk       the chunk
+     * @param fileChannel the channel to read the file from, which is only read at absolute positions
+     * @return the deflated chunk, whose buffer must be returned to the pool
+     * @throws IOException if an I/ O error occurs or the file is shorter than the chunk
+     */
+    private DeflatedChunk deflate(ChunkHeader chunk, FileChannel fileChannel) throws IOException {
+        int length = (int) chunk.length;
+        ByteBuffer input = BufferPool.SHARED.acquire(length);
+        ByteBuffer output = null;
+        try {
+            input.limit(length);
+            while (input.hasRemaining()) {
+                if (fileChannel.read(input, chunk.offset + input.position()) < 0) {
+                    throw new IOException(files.get(chunk.fileIndex).relativePath + " was truncated while sending");
+                }
+            }
+            input.flip();
+            CRC32C crc = null;
+            if (checksums) {
+                crc = new CRC32C();
+                crc.update(input);
+                input.rewind();
+            }
+
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(input);
+            deflater.finish();
+            output = BufferPool.SHARED.acquire(length + length / 100 + 1024);
+            while (!deflater.finished()) {
+                if (!output.hasRemaining()) {
+                    ByteBuffer larger = BufferPool.SHARED.acquire(output.capacity() * 2);
+                    larger.put(output.flip());
+                    BufferPool.SHARED.release(output);
+                    output = larger;
+                }
+                deflater.deflate(output);
+            }
+            // the deflater must not keep the pooled input buffer
+            deflater.reset();
+            DeflatedChunk deflated = new DeflatedChunk(output.flip(), crc);
+            output = null;
+            return deflated;
+        } finally {
+            BufferPool.SHARED.release(input);
+            BufferPool.SHARED.release(output);
+        }
+    }
+
+    /**
+     * Sends a chunk that was deflated independently of all other chunks.
+     *
+     * @param chunk    the chunk to send
+     * @param deflated the deflated content of the chunk
+     * @param channel  the socket channel to send the chunk over
+     * @throws IOException if an I/ O error occurs
+     */
+    private void sendDeflatedChunk(ChunkHeader chunk, DeflatedChunk deflated, ThrottledChannel channel) throws IOException {
+        ByteBuffer output = deflated.compressed.duplicate();
+        new ChunkHeader(chunk.fileIndex, chunk.offset, chunk.length, output.remaining()).write(channel);
+        while (output.hasRemaining()) channel.write(output);
+        if (deflated.crc != null) writeChecksum(deflated.crc, channel);
+        progressTracker.add(chunk.fileIndex, chunk.length);
+    }
+
+    /**
+     * Sends a pack of small files once its content has been read ahead.
+     *
+     * @param pack    the pack
+     * @param channel the socket channel to send the pack over
+     * @throws IOException if an I/ O error occurs
+     */
+    private void sendPack(SmallFilePacker.Pack pack, ThrottledChannel channel) throws IOException {
+        long bytes = 0;
+        try {
+            ByteBuffer content = packer.content(pack);
+            new ChunkHeader(ChunkHeader.PACKED_FILES, pack.firstFileIndex, pack.fileCount, content.remaining()).write(channel);
+            CRC32C crc = new CRC32C();
+            if (checksums) crc.update(content.duplicate());
+            while (content.hasRemaining()) channel.write(content);
+            if (checksums) writeChecksum(crc, channel);
+        } finally {
+            packer.release(pack);
+        }
+        for (int i = 0; i < pack.fileCount; i++) {
+            FileWithMetadata fileWithMetadata = files.get(pack.firstFileIndex + i);
+            fileWithMetadata.transmissionSuccess = pack.isReadable(i);
+            bytes += fileWithMetadata.sizeInBytes;
+        }
+        progressTracker.add(pack.firstFileIndex + pack.fileCount - 1, bytes);
+    }
+
+    /**
+     * Sends a whole file as delta against the older version the receiver has.
+     *
+     * @param chunk       the chunk that spans the whole file
+     * @param fileChannel the channel to read the file from
+     * @param channel     the socket channel to send the chunk over
+     * @throws IOException if an I/ O error occurs
+     */
+    private void sendDeltaChunk(ChunkHeader chunk, FileChannel fileChannel, ThrottledChannel channel) throws IOException {
+        chunk.write(channel);
+        new DeltaEncoder(files.get(chunk.fileIndex).deltaSignature)
+                .encode(fileChannel, chunk.length, channel, bytes -> progressTracker.add(chunk.fileIndex, bytes));
+    }
+
+    private static void writeChecksum(CRC32C crc, WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * A chunk that was handed out to a connection and, if its file is deflated, is deflated ahead of sending it.
+     */
+    private static class PreparedChunk {
+        final ChunkHeader chunk;
+        /**
+         * The file of the chunk, null for a pack
+         */
+        final FileChannel fileChannel;
+        Future<DeflatedChunk> deflated = null;
+        boolean holdsSlot;
+
+        PreparedChunk(ChunkHeader chunk, FileChannel fileChannel, boolean holdsSlot) {
+            this.chunk = chunk;
+            this.fileChannel = fileChannel;
+            this.holdsSlot = holdsSlot;
+        }
+    }
+
+    /**
+     * The deflated content of a chunk in a pooled buffer and the CRC32C of its uncompressed bytes (can be null)
+     */
+    private static class DeflatedChunk {
+        final ByteBuffer compressed;
+        final CRC32C crc;
+
+        DeflatedChunk(ByteBuffer compressed, CRC32C crc) {
+            this.compressed = compressed;
+            this.crc = crc;
+        }
+    }
+}
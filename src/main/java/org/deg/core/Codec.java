@@ -0,0 +1,43 @@
+package org.deg.core;
+
+/**
+ * The encoding of a single file's content when files are sent using {@link TransferMode#CHANNEL}.
+ * The codec of every file is chosen by the sender and transmitted in the metadata.
+ */
+public enum Codec {
+    /**
+     * The content is sent as is
+     */
+    NONE('N'),
+    /**
+     * The content is split into blocks of at most {@link #DEFLATE_BLOCK_SIZE} bytes that are deflated independently
+     */
+    DEFLATE('D');
+
+    /**
+     * The maximum number of uncompressed bytes in a single deflated chunk
+     */
+    public static final int DEFLATE_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * The character that represents the codec in the metadata
+     */
+    public final char id;
+
+    Codec(char id) {
+        this.id = id;
+    }
+
+    /**
+     * Finds the codec that is represented by the given character.
+     *
+     * @param id the character used in the metadata
+     * @return the codec or null if the character is unknown
+     */
+    public static Codec fromId(char id) {
+        for (Codec codec : values()) {
+            if (codec.id == id) return codec;
+        }
+        return null;
+    }
+}
@@ -6,6 +6,10 @@ public class Constants {
     public static final String DISCOVERY_RESPONSE = "DISCOVERY_RESPONSE";
     public static final String ACCEPT_TRANSMISSION_REQUEST = "ACCEPT_TRANSMISSION";
     public static final String DENY_TRANSMISSION_REQUEST = "DENY_TRANSMISSION";
+    public static final int STRIPE_CONNECTION = -2;
+    public static final int BINARY_METADATA = -3;
+    public static final int SESSION_CONNECTION = -4;
+    public static final int CANCEL_TRANSMISSION = -5;
     public static final int HELLO_PORT = 8889;
     public static final String HELLO = "HELLO";
     public static final String BYE = "BYE";
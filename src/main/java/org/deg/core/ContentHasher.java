@@ -0,0 +1,54 @@
+package org.deg.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Utility class that computes content hashes of files, so that sender and receiver can find out which files the
+ * receiver already has without transmitting them.
+ */
+public class ContentHasher {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    /**
+     * Direct buffers are expensive to allocate, so every thread reuses its own
+     */
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    /**
+     * Computes the content hashes of several files in parallel, using all available cores.
+     *
+     * @param files the files to hash
+     * @return the hashes in the order of the given files, null for every file that cannot be read
+     */
+    public static List<String> hashAll(List<File> files) {
+        return files.parallelStream().map(ContentHasher::hash).toList();
+    }
+
+    /**
+     * Computes the SHA-256 hash of the content of a file.
+     *
+     * @param file the file to hash
+     * @return the hash as hex string or null if the file cannot be read
+     */
+    public static String hash(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buffer = buffers.get().clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+}
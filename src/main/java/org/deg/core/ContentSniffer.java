@@ -0,0 +1,141 @@
+package org.deg.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Utility class that decides per file whether compressing it before sending is worth the CPU time.
+ * A file is sent uncompressed if its extension or its magic bytes identify an already compressed format,
+ * or if a few sampled blocks of it have an entropy that is close to random data.
+ */
+public class ContentSniffer {
+    /**
+     * Files below this size are never compressed since there is hardly anything to gain
+     */
+    private static final long MIN_COMPRESSIBLE_SIZE = 4096;
+    /**
+     * The size of a single sampled block
+     */
+    private static final int SAMPLE_SIZE = 4096;
+    /**
+     * Sampled blocks with an entropy above this value (in bits per byte) are considered incompressible
+     */
+    private static final double MAX_COMPRESSIBLE_ENTROPY = 7.5;
+
+    /**
+     * Extensions of file formats that are already compressed and do not shrink any further when deflated
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+            "mp3", "aac", "ogg", "opus", "flac", "m4a",
+            "mp4", "m4v", "mkv", "mov", "avi", "webm",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "jar", "apk",
+            "docx", "xlsx", "pptx", "odt", "epub", "pdf"
+    );
+
+    /**
+     * Magic bytes at the start of already compressed file formats
+     */
+    private static final List<byte[]> COMPRESSED_MAGIC_BYTES = List.of(
+            new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF},                      // jpeg
+            new byte[]{(byte) 0x89, 'P', 'N', 'G'},                                  // png
+            new byte[]{'G', 'I', 'F', '8'},                                          // gif
+            new byte[]{'P', 'K', 0x03, 0x04},                                        // zip, jar, office documents
+            new byte[]{0x1F, (byte) 0x8B},                                           // gzip
+            new byte[]{'B', 'Z', 'h'},                                               // bzip2
+            new byte[]{'7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C},              // 7z
+            new byte[]{(byte) 0xFD, '7', 'z', 'X', 'Z', 0x00},                       // xz
+            new byte[]{0x28, (byte) 0xB5, 0x2F, (byte) 0xFD},                        // zstd
+            new byte[]{'R', 'a', 'r', '!'},                                          // rar
+            new byte[]{'O', 'g', 'g', 'S'},                                          // ogg
+            new byte[]{'f', 'L', 'a', 'C'},                                          // flac
+            new byte[]{'I', 'D', '3'},                                               // mp3
+            new byte[]{0x1A, 0x45, (byte) 0xDF, (byte) 0xA3}                         // mkv, webm
+    );
+
+    /**
+     * Checks by its extension whether a file is stored in an already compressed format.
+     *
+     * @param fileName the name of the file
+     * @return true if the file is most likely already compressed
+     */
+    public static boolean isCompressedFormat(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1) return false;
+        return COMPRESSED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Chooses the codec a file should be sent with.
+     *
+     * @param file the file that will be sent
+     * @return {@link Codec#DEFLATE} if the file is expected to shrink when deflated, otherwise {@link Codec#NONE}
+     */
+    public static Codec chooseCodec(FileWithMetadata file) {
+        if (file.sizeInBytes < MIN_COMPRESSIBLE_SIZE || isCompressedFormat(file.file.getName())) return Codec.NONE;
+        try (FileChannel channel = FileChannel.open(file.file.toPath(), StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), file.sizeInBytes);
+            ByteBuffer sample = ByteBuffer.allocate(SAMPLE_SIZE);
+            // the first sample also contains the magic bytes
+            long[] offsets = {0, size / 2 - SAMPLE_SIZE / 2, size - SAMPLE_SIZE};
+            for (long offset : offsets) {
+                sample.clear();
+                readFully(channel, sample, Math.max(0, offset));
+                sample.flip();
+                if (offset == 0 && hasCompressedMagicBytes(sample)) return Codec.NONE;
+                if (entropy(sample) > MAX_COMPRESSIBLE_ENTROPY) return Codec.NONE;
+            }
+            return Codec.DEFLATE;
+        } catch (IOException e) {
+            // the sender reports unreadable files later on
+            return Codec.NONE;
+        }
+    }
+
+    private static boolean hasCompressedMagicBytes(ByteBuffer sample) {
+        for (byte[] magic : COMPRESSED_MAGIC_BYTES) {
+            if (sample.remaining() < magic.length) continue;
+            boolean matches = true;
+            for (int i = 0; i < magic.length && matches; i++) {
+                matches = sample.get(i) == magic[i];
+            }
+            if (matches) return true;
+        }
+        // mp4, mov and heic files carry their signature after a 4 byte box size
+        return sample.remaining() >= 8 && sample.get(4) == 'f' && sample.get(5) == 't' && sample.get(6) == 'y' && sample.get(7) == 'p';
+    }
+
+    /**
+     * Calculates the Shannon entropy of the remaining bytes of a buffer.
+     *
+     * @param sample the bytes to analyze
+     * @return the entropy in bits per byte, between 0 and 8
+     */
+    private static double entropy(ByteBuffer sample) {
+        int[] counts = new int[256];
+        int total = sample.remaining();
+        for (int i = sample.position(); i < sample.limit(); i++) {
+            counts[sample.get(i) & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = (double) count / total;
+            entropy -= p * Math.log(p) / Math.log(2);
+        }
+        return entropy;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) break;
+            position += read;
+        }
+    }
+}
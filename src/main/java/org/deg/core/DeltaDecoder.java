@@ -0,0 +1,82 @@
+package org.deg.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.LongConsumer;
+
+/**
+ * Rebuilds a file from the instructions of a {@link DeltaEncoder} and the older version of the file the
+ * {@link DeltaSignature} was computed from.
+ */
+public class DeltaDecoder {
+    private final DeltaSignature signature;
+    private final FileChannel basis;
+
+    /**
+     * Constructs a decoder for a file.
+     *
+     * @param signature the signature that was sent to the sender
+     * @param basis     the channel of the older version of the file
+     */
+    public DeltaDecoder(DeltaSignature signature, FileChannel basis) {
+        this.signature = signature;
+        this.basis = basis;
+    }
+
+    /**
+     * Reads the instructions from a channel and writes the rebuilt file to the target.
+     *
+     * @param channel  the channel to read the instructions from
+     * @param target   the channel of the empty file the new version is written to
+     * @param size     the size of the new version
+     * @param progress is called with the number of file bytes that were rebuilt since the last call
+     * @throws IOException if an I/O error occurs or the instructions are malformed
+     */
+    public void decode(ReadableByteChannel channel, FileChannel target, long size, LongConsumer progress) throws IOException {
+        ByteBuffer op = ByteBuffer.allocate(1 + Integer.BYTES);
+        long position = 0;
+        while (true) {
+            op.clear().limit(1);
+            readFully(channel, op);
+            byte type = op.get(0);
+            if (type == DeltaEncoder.OP_END) break;
+            if (type != DeltaEncoder.OP_LITERAL && type != DeltaEncoder.OP_COPY) throw new IOException("Received unknown delta instruction");
+            op.limit(op.capacity());
+            readFully(channel, op);
+            int argument = op.getInt(1);
+
+            if (type == DeltaEncoder.OP_LITERAL) {
+                if (argument < 0 || position + argument > size) throw new IOException("Received delta that exceeds the file size");
+                long end = position + argument;
+                while (position < end) {
+                    long transferred = target.transferFrom(channel, position, end - position);
+                    if (transferred <= 0) throw new EOFException("Connection closed while receiving delta");
+                    position += transferred;
+                    progress.accept(transferred);
+                }
+            } else {
+                if (argument < 0 || argument >= signature.blockCount()) throw new IOException("Received copy of unknown block " + argument);
+                if (position + signature.blockSize > size) throw new IOException("Received delta that exceeds the file size");
+                long source = (long) argument * signature.blockSize;
+                long end = position + signature.blockSize;
+                target.position(position);
+                while (target.position() < end) {
+                    long transferred = basis.transferTo(source + target.position() - position, end - target.position(), target);
+                    if (transferred <= 0) throw new IOException("File changed while receiving delta");
+                }
+                position = end;
+                progress.accept(signature.blockSize);
+            }
+        }
+        if (position != size) throw new IOException("Received incomplete delta");
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Connection closed while receiving delta");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.deg.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.function.LongConsumer;
+
+/**
+ * Encodes a file as a delta against the {@link DeltaSignature} of an older version the receiver already has.
+ * The file is scanned with a rolling checksum and every block that also occurs in the older version is replaced
+ * by a copy instruction, all other bytes are sent literally. The instructions are:
+ * <ul>
+ *     <li>{@link #OP_LITERAL}, the number of bytes as int and the bytes themselves</li>
+ *     <li>{@link #OP_COPY} and the index of the block of the older version as int</li>
+ *     <li>{@link #OP_END}, which ends the delta of the file</li>
+ * </ul>
+ */
+public class DeltaEncoder {
+    public static final byte OP_LITERAL = 'L';
+    public static final byte OP_COPY = 'C';
+    public static final byte OP_END = 'E';
+    private static final int MIN_BUFFER_SIZE = 1024 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final DeltaSignature signature;
+    private final MessageDigest digest = DeltaSignature.strongDigest();
+    private final ByteBuffer output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+    private WritableByteChannel channel;
+    private LongConsumer progress;
+
+    /**
+     * Constructs an encoder for a file.
+     *
+     * @param signature the signature of the older version of the file
+     */
+    public DeltaEncoder(DeltaSignature signature) {
+        this.signature = signature;
+    }
+
+    /**
+     * Encodes a file and writes the instructions to a channel.
+     *
+     * @param file     the channel of the file
+     * @param size     the number of bytes to encode
+     * @param channel  the channel to write the instructions to
+     * @param progress is called with the number of file bytes that were encoded since the last call
+     * @throws IOException if an I/O error occurs or the file is shorter than expected
+     */
+    public void encode(FileChannel file, long size, WritableByteChannel channel, LongConsumer progress) throws IOException {
+        this.channel = channel;
+        this.progress = progress;
+        output.clear();
+        int blockSize = signature.blockSize;
+        byte[] buffer = new byte[Math.max(4 * blockSize, MIN_BUFFER_SIZE)];
+        int bufferLength = 0;
+        int windowStart = 0;
+        int literalStart = 0;
+        long filePosition = 0;
+        int weakChecksum = 0;
+        boolean checksumValid = false;
+
+        while (true) {
+            if (bufferLength - windowStart < blockSize && filePosition < size) {
+                // the window reached the end of the buffer, so the pending literal is sent and the rest moved to the front
+                writeLiteral(buffer, literalStart, windowStart - literalStart);
+                System.arraycopy(buffer, windowStart, buffer, 0, bufferLength - windowStart);
+                bufferLength -= windowStart;
+                windowStart = 0;
+                literalStart = 0;
+                checksumValid = false;
+                ByteBuffer free = ByteBuffer.wrap(buffer, bufferLength, (int) Math.min(buffer.length - bufferLength, size - filePosition));
+                while (free.hasRemaining()) {
+                    int read = file.read(free, filePosition);
+                    if (read < 0) throw new IOException("file was truncated while sending");
+                    filePosition += read;
+                }
+                bufferLength = free.position();
+                continue;
+            }
+            if (bufferLength - windowStart < blockSize) break;
+
+            if (!checksumValid) {
+                weakChecksum = DeltaSignature.weakChecksum(buffer, windowStart, blockSize);
+                checksumValid = true;
+            }
+            int block = signature.findBlock(weakChecksum, buffer, windowStart, digest);
+            if (block >= 0) {
+                writeLiteral(buffer, literalStart, windowStart - literalStart);
+                writeCopy(block);
+                windowStart += blockSize;
+                literalStart = windowStart;
+                checksumValid = false;
+            } else if (windowStart + blockSize < bufferLength) {
+                weakChecksum = DeltaSignature.rollWeakChecksum(weakChecksum, buffer[windowStart], buffer[windowStart + blockSize], blockSize);
+                windowStart++;
+            } else {
+                windowStart++;
+                checksumValid = false;
+            }
+        }
+        // the tail is shorter than a block and can never match
+        writeLiteral(buffer, literalStart, bufferLength - literalStart);
+        if (!output.hasRemaining()) flush();
+        output.put(OP_END);
+        flush();
+    }
+
+    private void writeLiteral(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return;
+        if (output.remaining() < 1 + Integer.BYTES) flush();
+        output.put(OP_LITERAL).putInt(length);
+        flush();
+        ByteBuffer literal = ByteBuffer.wrap(buffer, offset, length);
+        while (literal.hasRemaining()) channel.write(literal);
+        progress.accept(length);
+    }
+
+    private void writeCopy(int block) throws IOException {
+        if (output.remaining() < 1 + Integer.BYTES) flush();
+        output.put(OP_COPY).putInt(block);
+        progress.accept(signature.blockSize);
+    }
+
+    private void flush() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) channel.write(output);
+        output.clear();
+    }
+}
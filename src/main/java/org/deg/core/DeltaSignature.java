@@ -0,0 +1,230 @@
+package org.deg.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The block checksums of a file the receiver already has in an older version. The receiver sends them to the
+ * sender, which then only has to send the parts of the new version that do not occur in the old one, see
+ * {@link DeltaEncoder} and {@link DeltaDecoder}. Every complete block of the old version has a cheap rolling
+ * checksum, which is used to find candidates at every byte position, and a strong checksum that confirms a match.
+ */
+public class DeltaSignature {
+    /**
+     * Files smaller than this are always sent completely
+     */
+    public static final long MIN_FILE_SIZE = 8 * 1024 * 1024;
+    public static final int MIN_BLOCK_SIZE = 4 * 1024;
+    public static final int MAX_BLOCK_SIZE = 128 * 1024;
+    /**
+     * The number of bytes of a strong checksum
+     */
+    public static final int STRONG_CHECKSUM_SIZE = 16;
+
+    /**
+     * The number of bytes of every block
+     */
+    public final int blockSize;
+    /**
+     * The rolling checksum of every block
+     */
+    public final int[] weakChecksums;
+    /**
+     * The strong checksum of every block, {@link #STRONG_CHECKSUM_SIZE} bytes each
+     */
+    public final byte[] strongChecksums;
+    private Map<Integer, int[]> blocksByWeakChecksum = null;
+    private boolean[] weakChecksumFilter = null;
+
+    public DeltaSignature(int blockSize, int[] weakChecksums, byte[] strongChecksums) {
+        this.blockSize = blockSize;
+        this.weakChecksums = weakChecksums;
+        this.strongChecksums = strongChecksums;
+    }
+
+    /**
+     * @return the number of blocks
+     */
+    public int blockCount() {
+        return weakChecksums.length;
+    }
+
+    /**
+     * Chooses the block size for a file, growing with the square root of its size like rsync does.
+     *
+     * @param fileSize the size of the file in bytes
+     * @return the block size
+     */
+    public static int blockSizeFor(long fileSize) {
+        int blockSize = Integer.highestOneBit((int) Math.min(Math.sqrt(fileSize), MAX_BLOCK_SIZE));
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+
+    /**
+     * Computes the signature of a file. A trailing incomplete block is not part of the signature.
+     *
+     * @param file the file
+     * @return the signature or null if the file cannot be read
+     */
+    public static DeltaSignature compute(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int blockSize = blockSizeFor(channel.size());
+            int blockCount = (int) Math.min(channel.size() / blockSize, Integer.MAX_VALUE / STRONG_CHECKSUM_SIZE);
+            int[] weakChecksums = new int[blockCount];
+            byte[] strongChecksums = new byte[blockCount * STRONG_CHECKSUM_SIZE];
+            MessageDigest digest = strongDigest();
+            ByteBuffer block = ByteBuffer.allocate(blockSize);
+            for (int i = 0; i < blockCount; i++) {
+                block.clear();
+                while (block.hasRemaining()) {
+                    if (channel.read(block, (long) i * blockSize + block.position()) < 0) throw new IOException(file + " was truncated");
+                }
+                weakChecksums[i] = weakChecksum(block.array(), 0, blockSize);
+                digest.update(block.array(), 0, blockSize);
+                System.arraycopy(digest.digest(), 0, strongChecksums, i * STRONG_CHECKSUM_SIZE, STRONG_CHECKSUM_SIZE);
+            }
+            return new DeltaSignature(blockSize, weakChecksums, strongChecksums);
+        } catch (IOException e) {
+            System.err.println("Could not compute block checksums of " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Computes the rolling checksum of a block, as defined by rsync. The lower 16 bits hold the sum of all bytes,
+     * the upper 16 bits the sum of the running sums.
+     *
+     * @param data   the buffer that contains the block
+     * @param offset the start of the block in the buffer
+     * @param length the length of the block
+     * @return the checksum
+     */
+    public static int weakChecksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            a += data[offset + i] & 0xFF;
+            b += (length - i) * (data[offset + i] & 0xFF);
+        }
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    /**
+     * Moves the window of a rolling checksum one byte further.
+     *
+     * @param checksum the checksum of the current window
+     * @param removed  the byte that leaves the window at its start
+     * @param added    the byte that enters the window at its end
+     * @param length   the length of the window
+     * @return the checksum of the moved window
+     */
+    public static int rollWeakChecksum(int checksum, byte removed, byte added, int length) {
+        int a = checksum & 0xFFFF;
+        int b = checksum >>> 16;
+        a = (a - (removed & 0xFF) + (added & 0xFF)) & 0xFFFF;
+        b = (b - length * (removed & 0xFF) + a) & 0xFFFF;
+        return a | (b << 16);
+    }
+
+    /**
+     * @return a new digest for strong checksums
+     */
+    public static MessageDigest strongDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    /**
+     * Finds a block of this signature that has the given content.
+     *
+     * @param weakChecksum the rolling checksum of the content
+     * @param data         the buffer that contains the content
+     * @param offset       the start of the content in the buffer
+     * @param digest       the digest that is used to compute the strong checksum if necessary
+     * @return the index of a matching block or -1 if there is none
+     */
+    public int findBlock(int weakChecksum, byte[] data, int offset, MessageDigest digest) {
+        if (blocksByWeakChecksum == null) indexBlocks();
+        if (!weakChecksumFilter[(weakChecksum ^ (weakChecksum >>> 16)) & 0xFFFF]) return -1;
+        int[] candidates = blocksByWeakChecksum.get(weakChecksum);
+        if (candidates == null) return -1;
+        digest.update(data, offset, blockSize);
+        byte[] strong = digest.digest();
+        for (int block : candidates) {
+            int start = block * STRONG_CHECKSUM_SIZE;
+            if (Arrays.equals(strong, 0, STRONG_CHECKSUM_SIZE, strongChecksums, start, start + STRONG_CHECKSUM_SIZE)) return block;
+        }
+        return -1;
+    }
+
+    private synchronized void indexBlocks() {
+        if (blocksByWeakChecksum != null) return;
+        Map<Integer, int[]> index = new HashMap<>();
+        boolean[] filter = new boolean[1 << 16];
+        for (int i = 0; i < weakChecksums.length; i++) {
+            int weakChecksum = weakChecksums[i];
+            int[] blocks = index.get(weakChecksum);
+            if (blocks == null) {
+                index.put(weakChecksum, new int[]{i});
+            } else if (blocks.length < 16) {
+                // identical blocks, e.g. zeroed regions of a disk image, only need a few candidates
+                int[] grown = Arrays.copyOf(blocks, blocks.length + 1);
+                grown[blocks.length] = i;
+                index.put(weakChecksum, grown);
+            }
+            filter[(weakChecksum ^ (weakChecksum >>> 16)) & 0xFFFF] = true;
+        }
+        weakChecksumFilter = filter;
+        blocksByWeakChecksum = index;
+    }
+
+    /**
+     * Writes this signature to a stream.
+     *
+     * @param dos the stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(blockSize);
+        dos.writeInt(blockCount());
+        for (int i = 0; i < blockCount(); i++) {
+            dos.writeInt(weakChecksums[i]);
+            dos.write(strongChecksums, i * STRONG_CHECKSUM_SIZE, STRONG_CHECKSUM_SIZE);
+        }
+    }
+
+    /**
+     * Reads a signature from a stream.
+     *
+     * @param dis the stream to read from
+     * @return the signature
+     * @throws IOException if an I/O error occurs or the signature is malformed
+     */
+    public static DeltaSignature read(DataInputStream dis) throws IOException {
+        int blockSize = dis.readInt();
+        int blockCount = dis.readInt();
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || blockCount < 0 || blockCount > Integer.MAX_VALUE / STRONG_CHECKSUM_SIZE) {
+            throw new IOException("Received malformed block checksums");
+        }
+        int[] weakChecksums = new int[blockCount];
+        byte[] strongChecksums = new byte[blockCount * STRONG_CHECKSUM_SIZE];
+        for (int i = 0; i < blockCount; i++) {
+            weakChecksums[i] = dis.readInt();
+            dis.readFully(strongChecksums, i * STRONG_CHECKSUM_SIZE, STRONG_CHECKSUM_SIZE);
+        }
+        return new DeltaSignature(blockSize, weakChecksums, strongChecksums);
+    }
+}
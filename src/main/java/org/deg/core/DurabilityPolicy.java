@@ -0,0 +1,20 @@
+package org.deg.core;
+
+/**
+ * Decides when the receiver forces received files to the storage device. Until then, received data may only
+ * exist in the page cache of the operating system and be lost if the machine crashes.
+ */
+public enum DurabilityPolicy {
+    /**
+     * Files are never forced, the operating system writes them back whenever it likes
+     */
+    NONE,
+    /**
+     * Every file is forced as soon as it is complete
+     */
+    PER_FILE,
+    /**
+     * All files of a transmission are forced together once the transmission is complete
+     */
+    GROUP
+}
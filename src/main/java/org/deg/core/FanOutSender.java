@@ -0,0 +1,286 @@
+package org.deg.core;
+
+import org.deg.core.callbacks.FileSendingEventHandler;
+import org.deg.core.callbacks.ProgressTracker;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sends the same files to several peers at once. Every file is read and compressed once into a
+ * {@link BlockRing} of compressed blocks, which a thread per receiver writes to its connection. Disk reads and
+ * compression therefore do not grow with the number of receivers. All receivers get the same
+ * {@link TransferMode#GZIP} stream, so nothing can be resumed or skipped per receiver. A receiver that falls too far
+ * behind the others is detached and fails, see {@link BlockRing}.
+ * <p>
+ * Every receiver gets its reader before the first block is compressed, so compression starts at once and every
+ * receiver starts receiving as soon as it accepts. A receiver that is still deciding holds up the others like a slow
+ * one once the ring is full, so it is detached after {@link BlockRing#DETACH_AFTER_MILLIS} and fails when it accepts
+ * too late. A running transmission can be cancelled from any thread with {@link #cancel()}.
+ */
+public class FanOutSender {
+    /**
+     * The number of compressed blocks the fastest receiver may be ahead of the slowest one
+     */
+    public static final int RING_CAPACITY = 64;
+    private static final ExecutorService receiverExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fan-out-receiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Peer sender;
+    private final List<Peer> receivers;
+    private final List<File> filesToSend;
+    private final BlockRing ring = new BlockRing(RING_CAPACITY);
+    private final List<Channel> openChannels = new ArrayList<>();
+    private final Set<Peer> accepted = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled = false;
+    private boolean started = false;
+
+    /**
+     * Constructs a FanOutSender for a set of files and target peers.
+     *
+     * @param sender    The sending peer.
+     * @param receivers The receiving peers.
+     * @param files     The files to send.
+     */
+    public FanOutSender(Peer sender, List<Peer> receivers, List<File> files) {
+        this.sender = sender;
+        this.receivers = receivers;
+        this.filesToSend = files;
+    }
+
+    /**
+     * Asks all receivers for acceptance and sends the files to every receiver as soon as it accepted.
+     *
+     * @param callbacks the callback of every receiver, receivers without callback are not reported
+     * @return the receivers that received all files
+     */
+    public List<Peer> send(Map<Peer, FileSendingEventHandler> callbacks) {
+        synchronized (this) {
+            // whoever cancelled the transmission before it started reports it
+            if (cancelled) return List.of();
+            started = true;
+        }
+        List<FileWithMetadata> files = FileExpander.expandFilesWithRelativePaths(filesToSend);
+        Metadata metadata = new Metadata(files.size(),
+                files.stream().map(f -> f.relativePath.replace(File.separator, "/")).toList(),
+                files.stream().map(f -> f.sizeInBytes).toList(),
+                sender);
+        metadata.transferModes = List.of(TransferMode.GZIP);
+        byte[] metadataBytes = MetadataHandler.buildMetadata(metadata).getBytes(StandardCharsets.UTF_8);
+
+        // Step 1: Ask every receiver at the same time, each one reads from the start of the ring once it accepted
+        List<Future<Boolean>> transmissions = new ArrayList<>();
+        for (Peer receiver : receivers) {
+            BlockRing.Reader reader = ring.addReader();
+            FileSendingEventHandler callback = callbacks.get(receiver);
+            transmissions.add(receiverExecutor.submit(() -> transmit(receiver, metadataBytes, reader, files, callback)));
+        }
+
+        // Step 2: Read and compress every file once, while the receivers decide
+        long totalBytes = files.stream().mapToLong(f -> f.sizeInBytes).sum();
+        ProgressTracker progressTracker = new ProgressTracker(files, totalBytes, progress -> {
+            for (Peer receiver : accepted) {
+                FileSendingEventHandler callback = callbacks.get(receiver);
+                if (callback != null) callback.onSendingProgress(progress);
+            }
+        });
+        try {
+            compress(files, ring, progressTracker);
+            ring.close();
+        } catch (IOException e) {
+            // no reader is left if all receivers denied, failed or were cancelled
+            if (!cancelled) System.err.println("Fan-out sending stopped: " + e.getMessage());
+            ring.fail(e);
+        }
+        progressTracker.finish();
+
+        List<Peer> finished = new ArrayList<>();
+        for (int i = 0; i < receivers.size(); i++) {
+            if (awaitTransmission(transmissions.get(i))) finished.add(receivers.get(i));
+        }
+        System.out.println("Fan-out sending finished for " + finished.size() + " of " + receivers.size() + " receivers.");
+        return finished;
+    }
+
+    /**
+     * Cancels the transmission to all receivers. The connections are closed, so blocked reads and writes fail within
+     * milliseconds, and the handler of every receiver that was not done yet is informed once its thread stops.
+     *
+     * @return whether the transmission had already started. A transmission that was not started yet is never
+     * started and its handlers are not called.
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (cancelled) return started;
+            cancelled = true;
+            if (!started) return false;
+        }
+        System.out.println("Cancelling fan-out transmission to " + receivers.size() + " receivers");
+        ring.fail(new TransferCancelledException("Transmission was cancelled"));
+        List<Channel> channels;
+        synchronized (this) {
+            channels = List.copyOf(openChannels);
+        }
+        for (Channel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Asks a receiver for acceptance and writes the compressed blocks to it once it accepted.
+     *
+     * @return whether all blocks were written
+     */
+    private boolean transmit(Peer receiver, byte[] metadataBytes, BlockRing.Reader reader, List<FileWithMetadata> files, FileSendingEventHandler callback) {
+        try {
+            SocketChannel channel = sendTransmissionRequest(receiver, metadataBytes, callback);
+            if (channel == null) {
+                reader.detach();
+                return false;
+            }
+            try (channel) {
+                if (reader.isDetached()) {
+                    throw new IOException("Accepted too late to join the transmission to the other receivers");
+                }
+                accepted.add(receiver);
+                ThrottledChannel out = new ThrottledChannel(channel, List.of(BandwidthLimiter.forPeer(receiver), BandwidthLimiter.global()));
+                byte[] block;
+                while ((block = reader.next()) != null) {
+                    ByteBuffer buffer = ByteBuffer.wrap(block);
+                    while (buffer.hasRemaining()) out.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            reader.detach();
+            if (cancelled) {
+                System.out.println("Transmission to " + receiver.name() + " was cancelled");
+                if (callback != null) callback.onCancelled(receiver, false);
+                return false;
+            }
+            System.err.println("Sender error for " + receiver.name() + ": " + e.getMessage());
+            if (callback != null) callback.onSendingFailed(new IOException(receiver.name() + ": " + e.getMessage(), e));
+            return false;
+        }
+        if (callback != null) callback.onFinished(files, receiver);
+        return true;
+    }
+
+    /**
+     * Connects to a receiver, sends the metadata and waits for the acceptance.
+     *
+     * @return the connection to the receiver or null if the receiver denied the transmission
+     * @throws IOException if an I/ O error occurs or the transmission is cancelled
+     */
+    private SocketChannel sendTransmissionRequest(Peer receiver, byte[] metadataBytes, FileSendingEventHandler callback) throws IOException {
+        SocketChannel channel = LinkEstimate.connect(new InetSocketAddress(receiver.ip(), receiver.fileTransferPort()));
+        track(channel);
+        try {
+            System.out.println("Send transmission request to " + receiver.name());
+            DataOutputStream dos = new DataOutputStream(channel.socket().getOutputStream());
+            dos.writeInt(metadataBytes.length);
+            dos.write(metadataBytes);
+            DataInputStream dis = new DataInputStream(channel.socket().getInputStream());
+            TransmissionResponse response = MetadataHandler.parseTransmissionResponse(dis.readUTF());
+            if (response.accepted) {
+                System.out.println(receiver.name() + " accepted transmission. Start sending files...");
+                if (callback != null) callback.onAccepted(receiver);
+                return channel;
+            }
+            if (callback != null) callback.onDenied(receiver);
+            channel.close();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Keeps track of a connection, so that a cancellation closes it.
+     *
+     * @param channel the connection
+     * @throws TransferCancelledException if the transmission is already cancelled, the connection is closed then
+     */
+    private void track(Channel channel) throws IOException {
+        synchronized (this) {
+            if (!cancelled) {
+                openChannels.add(channel);
+                return;
+            }
+        }
+        channel.close();
+        throw new TransferCancelledException("Transmission was cancelled");
+    }
+
+    /**
+     * Reads all files ahead with a {@link FilePrefetcher} and writes them as one GZIP stream into the ring.
+     */
+    private static void compress(List<FileWithMetadata> files, BlockRing ring, ProgressTracker progressTracker) throws IOException {
+        OutputStream ringOut = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                ring.publish(new byte[]{(byte) b});
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len > 0) ring.publish(Arrays.copyOfRange(b, off, off + len));
+            }
+        };
+        try (FilePrefetcher prefetcher = new FilePrefetcher(files);
+             ParallelGzipOutputStream gzipOut = new ParallelGzipOutputStream(ringOut)) {
+            for (int i = 0; i < files.size(); i++) {
+                FileWithMetadata fileWithMetadata = files.get(i);
+                try {
+                    FilePrefetcher.Block block;
+                    while ((block = prefetcher.next(i)) != null) {
+                        try {
+                            gzipOut.write(block.data, 0, block.length);
+                            progressTracker.add(i, block.length);
+                        } finally {
+                            // a failed file must not keep its block, or the prefetcher runs out of blocks for the next files
+                            prefetcher.recycle(block);
+                        }
+                    }
+                    System.out.println(fileWithMetadata.relativePath + " sending finished successfully.");
+                    fileWithMetadata.transmissionSuccess = true;
+                } catch (FileNotFoundException e) {
+                    fileWithMetadata.transmissionSuccess = false;
+                }
+            }
+            gzipOut.finish();
+        }
+    }
+
+    private static boolean awaitTransmission(Future<Boolean> transmission) {
+        try {
+            return transmission.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+}
@@ -1,10 +1,30 @@
 package org.deg.core;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 public class FileExpander {
+    /**
+     * The number of folders that are listed at the same time. Listing is mostly waiting for the file system,
+     * especially on network shares, so this does not depend on the number of cores.
+     */
+    private static final int LISTING_PARALLELISM = 8;
+    private static final ForkJoinPool listingPool = new ForkJoinPool(LISTING_PARALLELISM, pool -> {
+        var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("folder-listing-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
 
     /**
      * Expands folders into files and stores their relative paths for reconstruction.
@@ -14,29 +34,110 @@ public class FileExpander {
      */
     public static List<FileWithMetadata> expandFilesWithRelativePaths(List<File> filesToSend) {
         List<FileWithMetadata> result = new ArrayList<>();
+        walk(filesToSend, result::add);
+        return result;
+    }
+
+    /**
+     * Expands folders into files like {@link #expandFilesWithRelativePaths(List)}, but passes every file on as soon
+     * as it and all files before it are found instead of collecting them. Subfolders are listed in parallel, the
+     * files are still passed on in the order of a sequential walk. The attributes of every entry are read once.
+     *
+     * @param filesToSend List of files or directories
+     * @param consumer    is called with every file in the order of the expanded list
+     */
+    public static void walk(List<File> filesToSend, Consumer<FileWithMetadata> consumer) {
         for (File file : filesToSend) {
-            if (file.isDirectory()) {
-                result.addAll(getFilesRecursively(file, file));
+            BasicFileAttributes attributes = readAttributes(file.toPath());
+            if (attributes != null && attributes.isDirectory()) {
+                FolderListing listing = new FolderListing(file.toPath(), file.getName(), null, attributes.fileKey());
+                listingPool.execute(listing);
+                passOn(listing, consumer);
             } else {
-                result.add(new FileWithMetadata(file, file.getName(), file.length(), null));
+                consumer.accept(new FileWithMetadata(file, file.getName(), attributes == null ? 0 : attributes.size(), null));
+            }
+        }
+    }
+
+    /**
+     * Passes on the files of a folder and its subfolders in order, waiting for every subfolder to be listed.
+     */
+    private static void passOn(FolderListing listing, Consumer<FileWithMetadata> consumer) {
+        for (Object entry : listing.join()) {
+            if (entry instanceof FileWithMetadata file) {
+                consumer.accept(file);
+            } else {
+                passOn((FolderListing) entry, consumer);
+            }
+        }
+    }
+
+    /**
+     * Reads the attributes of an entry, following links. Links whose target does not exist are treated as files.
+     *
+     * @return the attributes or null if they cannot be read at all
+     */
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            try {
+                return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException ignored) {
+                return null;
             }
         }
-        return result;
     }
 
-    private static List<FileWithMetadata> getFilesRecursively(File rootDir, File current) {
-        List<FileWithMetadata> files = new ArrayList<>();
-        File[] contents = current.listFiles();
-        if (contents != null) {
-            for (File file : contents) {
-                if (file.isDirectory()) {
-                    files.addAll(getFilesRecursively(rootDir, file));
-                } else {
-                    String relativePath = rootDir.getName() + File.separator + rootDir.toPath().relativize(file.toPath());
-                    files.add(new FileWithMetadata(file, relativePath, file.length(), null));
+    /**
+     * Lists a folder and forks the listing of its subfolders. The result contains the files of the folder and the
+     * listings of its subfolders in the order of the folder.
+     */
+    private static class FolderListing extends RecursiveTask<List<Object>> {
+        private final Path folder;
+        private final String relativePath;
+        private final FolderListing parent;
+        private final Object fileKey;
+
+        FolderListing(Path folder, String relativePath, FolderListing parent, Object fileKey) {
+            this.folder = folder;
+            this.relativePath = relativePath;
+            this.parent = parent;
+            this.fileKey = fileKey;
+        }
+
+        @Override
+        protected List<Object> compute() {
+            List<Object> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path path : stream) {
+                    String entryPath = relativePath + File.separator + path.getFileName();
+                    BasicFileAttributes attributes = readAttributes(path);
+                    if (attributes == null) {
+                        System.err.println("Skipping " + path + ": attributes cannot be read");
+                    } else if (!attributes.isDirectory()) {
+                        entries.add(new FileWithMetadata(path.toFile(), entryPath, attributes.size(), null));
+                    } else if (isAncestor(attributes.fileKey())) {
+                        System.err.println("Skipping " + path + ": link to a parent folder");
+                    } else {
+                        FolderListing listing = new FolderListing(path, entryPath, this, attributes.fileKey());
+                        listing.fork();
+                        entries.add(listing);
+                    }
                 }
+            } catch (IOException | RuntimeException e) {
+                // folders that cannot be listed are skipped
+                System.err.println("Skipping " + folder + ": " + e.getMessage());
+            }
+            return entries;
+        }
+
+        private boolean isAncestor(Object key) {
+            if (key == null) return false;
+            for (FolderListing listing = this; listing != null; listing = listing.parent) {
+                if (key.equals(listing.fileKey)) return true;
             }
+            return false;
         }
-        return files;
     }
 }
@@ -0,0 +1,166 @@
+package org.deg.core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Opens and reads the files of a transmission in order on a background thread, ahead of the thread that sends them,
+ * so that waiting for the disk overlaps with sending. This matters most for hard disks and for folders of many
+ * medium-sized files, where opening every file costs as much as reading it.
+ * <p>
+ * The prefetcher reads at most a fixed number of files ahead and holds at most a fixed number of bytes in blocks
+ * of {@link #BLOCK_SIZE} bytes, which are reused once the sender is done with them. If either limit is reached,
+ * the background thread waits for the sender.
+ */
+public class FilePrefetcher implements AutoCloseable {
+    /**
+     * The size of the blocks the files are read into, which is the size of the blocks the GZIP stream deflates
+     */
+    public static final int BLOCK_SIZE = ParallelGzipOutputStream.BLOCK_SIZE;
+    /**
+     * The default number of files that are opened ahead of the file that is sent
+     */
+    public static final int DEFAULT_MAX_FILES_AHEAD = 64;
+    /**
+     * The default number of bytes that are held in blocks ahead of the sender
+     */
+    public static final long DEFAULT_MAX_BYTES_AHEAD = 16 * 1024 * 1024;
+
+    private final List<FileWithMetadata> files;
+    private final BlockingQueue<Block> readBlocks = new LinkedBlockingQueue<>();
+    private final BlockingQueue<byte[]> freeBlocks = new LinkedBlockingQueue<>();
+    private final Semaphore filesAhead;
+    private final int maxBlocks;
+    private final Thread thread;
+    private int allocatedBlocks = 0;
+
+    /**
+     * A part of a file that was read, or the end of a file if data is null.
+     */
+    public static class Block {
+        public final int fileIndex;
+        public final byte[] data;
+        public final int length;
+        private final IOException failure;
+
+        private Block(int fileIndex, byte[] data, int length, IOException failure) {
+            this.fileIndex = fileIndex;
+            this.data = data;
+            this.length = length;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Starts reading ahead with the default limits.
+     *
+     * @param files the files in the order they are sent
+     */
+    public FilePrefetcher(List<FileWithMetadata> files) {
+        this(files, DEFAULT_MAX_FILES_AHEAD, DEFAULT_MAX_BYTES_AHEAD);
+    }
+
+    /**
+     * Starts reading ahead.
+     *
+     * @param files         the files in the order they are sent
+     * @param maxFilesAhead the maximum number of files that are opened before the sender is done with them
+     * @param maxBytesAhead the memory budget, the maximum number of bytes that are held in blocks at the same time
+     */
+    public FilePrefetcher(List<FileWithMetadata> files, int maxFilesAhead, long maxBytesAhead) {
+        this.files = files;
+        this.filesAhead = new Semaphore(Math.max(1, maxFilesAhead));
+        this.maxBlocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytesAhead / BLOCK_SIZE));
+        this.thread = new Thread(this::readAhead, "file-prefetcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the next block of a file. Blocks of earlier files that were not taken are dropped, so the sender
+     * can move on to the next file at any time.
+     *
+     * @param fileIndex the index of the file, which must not be lower than in the previous call
+     * @return the next block, which must be handed back with {@link #recycle(Block)}, or null if the file is read
+     * completely
+     * @throws IOException if the file cannot be opened or read
+     */
+    public Block next(int fileIndex) throws IOException {
+        while (true) {
+            Block block;
+            try {
+                block = readBlocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading " + files.get(fileIndex).file.getName());
+            }
+            if (block.data == null) filesAhead.release();
+            if (block.fileIndex < fileIndex) {
+                recycle(block);
+                continue;
+            }
+            if (block.data != null) return block;
+            if (block.failure != null) throw block.failure;
+            return null;
+        }
+    }
+
+    /**
+     * Hands a block back, so that it can be filled again.
+     *
+     * @param block the block
+     */
+    public void recycle(Block block) {
+        if (block.data != null) freeBlocks.add(block.data);
+    }
+
+    /**
+     * Stops reading ahead.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+
+    private void readAhead() {
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                filesAhead.acquire();
+                try (FileInputStream fis = new FileInputStream(files.get(i).file)) {
+                    while (true) {
+                        byte[] data = freeBlock();
+                        int length = fis.readNBytes(data, 0, data.length);
+                        if (length == 0) {
+                            freeBlocks.add(data);
+                            break;
+                        }
+                        readBlocks.add(new Block(i, data, length, null));
+                        if (length < data.length) break;
+                    }
+                    readBlocks.add(new Block(i, null, 0, null));
+                } catch (IOException e) {
+                    readBlocks.add(new Block(i, null, 0, e));
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Takes a block that the sender handed back or allocates a new one as long as the budget allows it.
+     */
+    private byte[] freeBlock() throws InterruptedException {
+        byte[] data = freeBlocks.poll();
+        if (data != null) return data;
+        if (allocatedBlocks < maxBlocks) {
+            allocatedBlocks++;
+            return new byte[BLOCK_SIZE];
+        }
+        return freeBlocks.take();
+    }
+}
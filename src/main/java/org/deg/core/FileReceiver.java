@@ -2,29 +2,74 @@ package org.deg.core;
 
 import javafx.util.Pair;
 import org.deg.core.callbacks.FileReceivingEventHandler;
-import org.deg.core.callbacks.Progress;
+import org.deg.backend.UserConfigurations;
+import org.deg.core.callbacks.ProgressTracker;
+import org.deg.utils.Utils;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.GZIPInputStream;
 
-import static org.deg.core.Constants.ACCEPT_TRANSMISSION_REQUEST;
-import static org.deg.core.Constants.DENY_TRANSMISSION_REQUEST;
+import static org.deg.core.Constants.BINARY_METADATA;
+import static org.deg.core.Constants.CANCEL_TRANSMISSION;
+import static org.deg.core.Constants.SESSION_CONNECTION;
+import static org.deg.core.Constants.STRIPE_CONNECTION;
 
 /**
  * The FileReceiver class listens on a given port for incoming file transfer requests,
  * receives metadata and file content, and stores the received file locally.
+ * Several transmissions can be received at the same time, each in its own session. Senders may also open a
+ * {@link Session} that carries several transmissions over one connection. A transmission can be cancelled by the
+ * user with {@link #cancel(List)} or by the sender.
  */
-public class FileReceiver implements Runnable {
+public class FileReceiver implements FileReceivingServer {
+    /**
+     * The maximum number of parallel connections a single transmission may use
+     */
+    private static final int MAX_STREAMS = 8;
+    private static final int STRIPE_TIMEOUT_SECONDS = 30;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 30_000;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    /**
+     * The number of pooled buffers between reading the network and inflating the GZIP stream, and between inflating
+     * and writing the files. A stage that falls behind holds up the stage before it only once its buffers are full.
+     */
+    private static final int PIPELINE_BUFFERS = 4;
+    /**
+     * The number of times chunks that arrived corrupt are requested again before their files fail
+     */
+    private static final int MAX_RETRANSMIT_ROUNDS = 3;
+    /**
+     * The default maximum number of transmissions that are received at the same time
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 4;
     private final int port;
-    private boolean running = false;
-    private ServerSocket serverSocket;
-    private FileReceivingEventHandler callback = null;
-    private final List<Pair<Peer, File>> receivedLog = new ArrayList<>();
+    private volatile boolean running = false;
+    private ServerSocketChannel serverSocket;
+    private volatile FileReceivingEventHandler callback = null;
+    private final List<Pair<Peer, File>> receivedLog = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadFactory connectionThreads = Utils.virtualThreadFactory();
+    private final Semaphore sessionPermits;
+    private final Map<String, BlockingQueue<SocketChannel>> pendingStripes = new ConcurrentHashMap<>();
+    private final Set<ActiveTransmission> activeTransmissions = ConcurrentHashMap.newKeySet();
 
     /**
      * Constructs a FileReceiver to listen on a specific port.
@@ -32,7 +77,19 @@ public class FileReceiver implements Runnable {
      * @param port The TCP port to listen on.
      */
     public FileReceiver(int port) {
+        this(port, DEFAULT_MAX_SESSIONS);
+    }
+
+    /**
+     * Constructs a FileReceiver to listen on a specific port. Every connection is handled on its own thread,
+     * but at most maxSessions transmissions are received at the same time. Further senders wait in arrival order.
+     *
+     * @param port        The TCP port to listen on.
+     * @param maxSessions The maximum number of transmissions that are received at the same time.
+     */
+    public FileReceiver(int port, int maxSessions) {
         this.port = port;
+        this.sessionPermits = new Semaphore(Math.max(1, maxSessions), true);
     }
 
     /**
@@ -42,110 +99,529 @@ public class FileReceiver implements Runnable {
     public void run() {
         running = true;
         try {
-            serverSocket = new ServerSocket(port);
+            serverSocket = ServerSocketChannel.open();
+            serverSocket.bind(new InetSocketAddress(port));
             System.out.println("Receiver listening on port " + port + "...");
             while (running) {
-                Socket socket;
+                SocketChannel channel;
                 try {
-                    socket = serverSocket.accept();
+                    channel = serverSocket.accept();
                 } catch (IOException e) {
                     if (!running) break;
                     throw e;
                 }
 
-                try (DataInputStream dis = new DataInputStream(socket.getInputStream());
-                     DataOutputStream dos = new DataOutputStream(socket.getOutputStream())) {
-
-                    // Step 1: Read metadata
-                    int length = dis.readInt();
-                    byte[] data = new byte[length];
-                    dis.readFully(data);
-                    String metadataStr = new String(data, StandardCharsets.UTF_8);
-                    Metadata metadata = MetadataHandler.parseMetadata(metadataStr);
-                    List<FileWithMetadata> receivedFiles = MetadataHandler.buildFilesWithMetadataList(metadata);
-                    System.out.println("Transmission request received from " + metadata.sender.name() + ", Filename: " + metadata.fileNames);
-
-                    // Step 2: Accept or deny
-                    if (callback == null || callback.onIncomingFiles(receivedFiles, metadata.sender)) {
-                        dos.writeUTF(ACCEPT_TRANSMISSION_REQUEST);
-                        System.out.println("Accept transmission request");
-                    } else {
-                        dos.writeUTF(DENY_TRANSMISSION_REQUEST);
-                        System.out.println("Deny transmission request");
-                        continue;
-                    }
+                connectionThreads.newThread(() -> handleConnection(channel)).start();
+            }
+        } catch (IOException e) {
+            System.err.println("Receiver error: " + e.getMessage());
+            if (callback != null) callback.onReceivingError(e);
+        } finally {
+            try {
+                if (serverSocket != null && serverSocket.isOpen()) serverSocket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
 
-                    // Step 3: Receive files
-                    System.out.println("Start receiving of files " + receivedFiles.stream().map(f -> f.file.getName()).toList());
-                    int totalBytesReceived = 0;
-                    long startTime = System.currentTimeMillis();
-                    long totalBytes = metadata.fileSizes.stream().mapToLong(Long::longValue).sum();
-                    DataInputStream compressedDataInputStream = new DataInputStream(new GZIPInputStream(socket.getInputStream()));
-                    for (int i = 0; i < receivedFiles.size(); i++) {
-                        FileWithMetadata fileWithMetadata = receivedFiles.get(i);
-                        File file = fileWithMetadata.file;
-                        if (!file.getParentFile().exists()) file.getParentFile().mkdirs();
-                        if (!file.exists()) {
-                            try {
-                                file.createNewFile();
-                            } catch (IOException e) {
-                                callback.onReceivingError(e);
-                                fileWithMetadata.transmissionSuccess = false;
-                                continue;
-                            }
-                        }
-
-                        try (FileOutputStream fos = new FileOutputStream(file)) {
-                            byte[] buffer = new byte[4096];
-                            long remaining = fileWithMetadata.sizeInBytes;
-                            int bytesRead;
-                            while (remaining > 0 && (bytesRead = compressedDataInputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
-                                fos.write(buffer, 0, bytesRead);
-                                remaining -= bytesRead;
-                                totalBytesReceived += bytesRead;
-
-                                if (callback != null) {
-                                    Progress progress = new Progress(receivedFiles, totalBytesReceived, totalBytes, i, receivedFiles.size());
-                                    long durationSoFar = System.currentTimeMillis() - startTime;
-                                    float totalTimeInSeconds = durationSoFar / 1000f;
-                                    progress.bitsPerSecondEstimation = (long) (totalBytesReceived * 8L / totalTimeInSeconds);
-                                    callback.onReceivingProgress(progress);
-                                }
-                            }
-                            System.out.println("Finished receiving file: " + file.getAbsolutePath());
-                            receivedLog.add(new Pair<>(metadata.sender, file));
-                            fileWithMetadata.transmissionSuccess = true;
-                        } catch (IOException e) {
-                            fileWithMetadata.transmissionSuccess = false;
-                        }
-                    }
+    /**
+     * Handles an accepted connection on its own thread. The first int tells whether the connection starts a new
+     * transmission, joins a running one as an additional connection, cancels a running one or starts a session.
+     *
+     * @param channel the channel of the accepted connection
+     */
+    private void handleConnection(SocketChannel channel) {
+        DataInputStream dis;
+        int firstInt;
+        try {
+            LinkEstimate.tuneAccepted(channel);
+            channel.socket().setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            dis = new DataInputStream(channel.socket().getInputStream());
+            firstInt = dis.readInt();
+            if (firstInt == STRIPE_CONNECTION) {
+                // the connection is owned and closed by the session it joins
+                attachStripe(channel, dis);
+                return;
+            }
+            if (firstInt == CANCEL_TRANSMISSION) {
+                try (channel) {
+                    cancelBySender(channel, dis);
+                }
+                return;
+            }
+            if (firstInt == SESSION_CONNECTION) {
+                // the session waits for frames as long as it is not idle
+                channel.socket().setSoTimeout(0);
+                Session.start(channel, Session.SERVER_IDLE_TIMEOUT_MILLIS, stream -> connectionThreads.newThread(() -> handleStream(stream)).start());
+                return;
+            }
+        } catch (IOException e) {
+            System.err.println("Error while accepting connection: " + e.getMessage());
+            closeQuietly(channel);
+            return;
+        }
+
+        try (channel) {
+            handleTransmissionInTurn(channel, dis, new DataOutputStream(channel.socket().getOutputStream()), firstInt);
+        } catch (IOException e) {
+            System.err.println("Error during file reception: " + e.getMessage());
+            if (callback != null) callback.onReceivingError(e);
+        }
+    }
 
-                    System.out.println("All files received successfully");
-                    if (callback != null) callback.onReceivingFinished(receivedFiles, metadata.sender);
+    /**
+     * Handles a stream of a session on its own thread like a connection that starts a new transmission.
+     *
+     * @param stream the stream
+     */
+    private void handleStream(SessionStream stream) {
+        try (stream) {
+            DataInputStream dis = new DataInputStream(Channels.newInputStream(stream));
+            handleTransmissionInTurn(stream, dis, new DataOutputStream(Channels.newOutputStream(stream)), dis.readInt());
+        } catch (IOException e) {
+            System.err.println("Error during file reception: " + e.getMessage());
+            if (callback != null) callback.onReceivingError(e);
+        }
+    }
+
+    /**
+     * Waits until fewer than the maximum number of transmissions are received and handles the transmission.
+     */
+    private void handleTransmissionInTurn(ByteChannel channel, DataInputStream dis, DataOutputStream dos, int length) throws IOException {
+        try {
+            if (!sessionPermits.tryAcquire()) {
+                System.out.println("Maximum number of receiving sessions reached, waiting for a free slot...");
+                sessionPermits.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            handleTransmission(channel, dis, dos, length);
+        } finally {
+            sessionPermits.release();
+        }
+    }
+
+    /**
+     * Handles a single transmission: reads the metadata, asks for acceptance and receives the files.
+     *
+     * @param channel the channel of the accepted connection or session stream
+     * @param dis     the input stream of the channel
+     * @param dos     the output stream of the channel
+     * @param length  the length of the metadata string or {@link Constants#BINARY_METADATA} if the binary metadata
+     *                follows, which was already read from the connection
+     * @throws IOException if an I/O error occurs while reading the metadata
+     */
+    private void handleTransmission(ByteChannel channel, DataInputStream dis, DataOutputStream dos, int length) throws IOException {
+
+        // Step 1: Read metadata
+        Metadata metadata;
+        if (length == BINARY_METADATA) {
+            metadata = MetadataHandler.readBinaryMetadata(dis);
+        } else {
+            if (length < 0) throw new IOException("Received metadata of invalid length " + length);
+            byte[] data = new byte[length];
+            dis.readFully(data);
+            metadata = MetadataHandler.parseMetadata(new String(data, StandardCharsets.UTF_8));
+        }
+        // the user may take a while to decide and large transmissions take a while to complete
+        if (channel instanceof SocketChannel socketChannel) {
+            socketChannel.socket().setSoTimeout(0);
+            linkEstimate(metadata).apply(socketChannel);
+        }
+        List<FileWithMetadata> receivedFiles = MetadataHandler.buildFilesWithMetadataList(metadata);
+        System.out.println("Transmission request received from " + metadata.sender.name() + " (" + metadata.fileCount + " files)");
+
+        ActiveTransmission transmission = new ActiveTransmission(metadata.transferId, receivedFiles, channel);
+        activeTransmissions.add(transmission);
+        try {
+            receiveTransmission(transmission, dis, dos, metadata, receivedFiles);
+        } catch (IOException e) {
+            if (transmission.isCancelled()) {
+                System.out.println("Transmission from " + metadata.sender.name() + " was cancelled" + (transmission.isCancelledBySender() ? " by the sender" : ""));
+                if (callback != null) callback.onReceivingCancelled(receivedFiles, metadata.sender, transmission.isCancelledBySender());
+                return;
+            }
+            System.err.println("Error during file reception from " + metadata.sender.name() + ": " + e.getMessage());
+            if (callback != null) callback.onReceivingFailed(receivedFiles, metadata.sender, e);
+        } finally {
+            activeTransmissions.remove(transmission);
+        }
+    }
+
+    /**
+     * Cancels a transmission that is being received. Blocked reads of the transmission fail within milliseconds and
+     * the sender is told about the cancellation on the connection of the transmission. Partially received files are
+     * kept if the transmission can be resumed and deleted otherwise. A transmission the user has not accepted yet is
+     * denied.
+     *
+     * @param files the list of files that identifies the transmission, see {@link FileReceivingEventHandler}
+     * @return whether the transmission was being received
+     */
+    @Override
+    public boolean cancel(List<FileWithMetadata> files) {
+        for (ActiveTransmission transmission : activeTransmissions) {
+            if (transmission.files == files) {
+                System.out.println("Cancelling transmission of " + files.size() + " files");
+                transmission.cancel(false);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cancels the transmission named by a connection the sender opened for this purpose and confirms it once the
+     * connections of the transmission are closed.
+     *
+     * @param channel the connection
+     * @param dis     the input stream of the connection
+     * @throws IOException if an I/O error occurs
+     */
+    private void cancelBySender(SocketChannel channel, DataInputStream dis) throws IOException {
+        String transferId = dis.readUTF();
+        boolean found = false;
+        for (ActiveTransmission transmission : activeTransmissions) {
+            if (transferId.equals(transmission.transferId)) {
+                transmission.cancel(true);
+                found = true;
+            }
+        }
+        channel.socket().getOutputStream().write(found ? 1 : 0);
+    }
+
+    /**
+     * Asks for acceptance of a transmission and receives its files.
+     *
+     * @param channel       the channel of the accepted connection or session stream
+     * @param dis           the input stream of the channel
+     * @param dos           the output stream of the channel
+     * @param metadata      the metadata of the transmission
+     * @param receivedFiles the files that are received
+     * @throws IOException if an I/O error occurs while communicating with the sender
+     */
+    private void receiveTransmission(ActiveTransmission transmission, DataInputStream dis, DataOutputStream dos, Metadata metadata, List<FileWithMetadata> receivedFiles) throws IOException {
+        // Step 2: Accept or deny
+        BlockingQueue<SocketChannel> stripes = null;
+        ResumeJournal journal = null;
+        long[] startOffsets = null;
+        DurabilityPolicy durabilityPolicy = UserConfigurations.DURABILITY_POLICY;
+        // the sender lists its transfer modes by preference and we support all of them
+        TransferMode transferMode = metadata.transferModes.isEmpty() ? null : metadata.transferModes.get(0);
+        boolean accept = callback == null || callback.onIncomingFiles(receivedFiles, metadata.sender);
+        if (accept && !transmission.isCancelled()) {
+            TransmissionResponse response = new TransmissionResponse(true, transferMode);
+            response.metadataVersion = MetadataHandler.BINARY_METADATA_VERSION;
+            response.sessions = true;
+            response.cancel = true;
+            if (transferMode == TransferMode.CHANNEL && metadata.transferId != null) {
+                response.streams = Math.max(1, Math.min(metadata.streams, MAX_STREAMS));
+            }
+            if (transferMode == TransferMode.CHANNEL) {
+                if (ResumeJournal.isValidKey(metadata.resumeKey)) journal = openJournal(metadata.resumeKey, receivedFiles);
+                startOffsets = journal != null ? journal.offsets() : new long[receivedFiles.size()];
+                skipUnchangedFiles(receivedFiles, startOffsets);
+                response.resume = journal != null || Arrays.stream(startOffsets).anyMatch(offset -> offset > 0);
+                response.delta = computeDeltaSignatures(receivedFiles, startOffsets);
+                response.packedFiles = true;
+                response.checksums = metadata.checksums;
+            }
+            // additional connections may arrive as soon as the sender reads the response
+            if (response.streams > 1) {
+                stripes = new LinkedBlockingQueue<>();
+                pendingStripes.put(metadata.transferId, stripes);
+            }
+            dos.writeUTF(MetadataHandler.buildTransmissionResponse(response));
+            if (response.resume) MetadataHandler.writeStartOffsets(dos, startOffsets);
+            if (response.delta) MetadataHandler.writeDeltaSignatures(dos, receivedFiles);
+            transmission.accepted();
+            System.out.println("Accept transmission request (" + response.streams + " connections)");
+        } else {
+            dos.writeUTF(MetadataHandler.buildTransmissionResponse(new TransmissionResponse(false, null)));
+            System.out.println("Deny transmission request");
+            if (transmission.isCancelled()) throw new TransferCancelledException("Transmission was cancelled");
+            return;
+        }
+
+        // Step 3: Receive files
+        System.out.println("Start receiving of " + receivedFiles.size() + " files");
+        try {
+            if (transferMode == TransferMode.CHANNEL) {
+                receiveContentOverChannel(transmission, dis, dos, metadata, receivedFiles, stripes, startOffsets, journal, durabilityPolicy, metadata.checksums);
+            } else {
+                receiveContent(transmission, metadata, receivedFiles, durabilityPolicy);
+            }
+            if (durabilityPolicy == DurabilityPolicy.GROUP) {
+                ReceivedFileWriter.forceAll(receivedFiles.stream().filter(f -> Boolean.TRUE.equals(f.transmissionSuccess)).map(f -> f.file).toList());
+            }
+        } finally {
+            if (stripes != null) pendingStripes.remove(metadata.transferId);
+            // the journal is kept as long as there is something left to resume
+            if (journal != null) {
+                if (receivedFiles.stream().allMatch(f -> Boolean.TRUE.equals(f.transmissionSuccess))) journal.delete();
+                else journal.close();
+            }
+        }
+
+        System.out.println("All files received successfully");
+        if (callback != null) callback.onReceivingFinished(receivedFiles, metadata.sender);
+    }
 
+    /**
+     * Receives the files as one GZIP stream in the order of the metadata. The GZIP stream cannot be resumed, so the
+     * file that is being written when the transmission is cancelled is deleted.
+     * <p>
+     * The stream is received by a pipeline with a thread per stage: one thread reads the connection, another one
+     * inflates the GZIP stream and the calling thread writes the files in order. The stages hand pooled buffers to
+     * each other through bounded queues, so a disk that stalls for a moment does not stall the TCP window at once.
+     *
+     * @param transmission  the transmission, which holds the channel of the connection
+     * @param metadata      the metadata of the transmission
+     * @param receivedFiles    the files that are received
+     * @param durabilityPolicy when the received files are forced to the storage device
+     * @throws IOException if an I/O error occurs while reading from the socket
+     */
+    private void receiveContent(ActiveTransmission transmission, Metadata metadata, List<FileWithMetadata> receivedFiles, DurabilityPolicy durabilityPolicy) throws IOException {
+        long totalBytes = metadata.fileSizes.stream().mapToLong(Long::longValue).sum();
+        ProgressTracker progressTracker = new ProgressTracker(receivedFiles, totalBytes, callback == null ? null : callback::onReceivingProgress);
+        try (ReadAheadChannel networkChannel = new ReadAheadChannel(transmission.channel, "network-reader", BufferPool.SHARED, PIPELINE_BUFFERS, linkEstimate(metadata).bufferSize());
+             ReadAheadChannel inflatedChannel = new ReadAheadChannel(Channels.newChannel(new GZIPInputStream(Channels.newInputStream(networkChannel), GZIP_BUFFER_SIZE)), "gzip-inflater", BufferPool.SHARED, PIPELINE_BUFFERS)) {
+            for (int i = 0; i < receivedFiles.size(); i++) {
+                FileWithMetadata fileWithMetadata = receivedFiles.get(i);
+                File file = fileWithMetadata.file;
+                ReceivedFileWriter writer;
+                try {
+                    writer = new ReceivedFileWriter(file, fileWithMetadata.sizeInBytes, false, durabilityPolicy);
                 } catch (IOException e) {
-                    System.err.println("Error during file reception: " + e.getMessage());
                     if (callback != null) callback.onReceivingError(e);
+                    fileWithMetadata.transmissionSuccess = false;
+                    continue;
+                }
+
+                try (writer) {
+                    long position = 0;
+                    while (position < fileWithMetadata.sizeInBytes) {
+                        long count = Math.min(BufferPool.SHARED.bufferSize(), fileWithMetadata.sizeInBytes - position);
+                        inflatedChannel.transferTo(writer.channel(), position, count);
+                        position += count;
+                        progressTracker.add(i, count);
+                    }
+                    System.out.println("Finished receiving file: " + file.getAbsolutePath());
+                    receivedLog.add(new Pair<>(metadata.sender, file));
+                    fileWithMetadata.transmissionSuccess = true;
+                } catch (IOException e) {
+                    fileWithMetadata.transmissionSuccess = false;
+                    if (transmission.isCancelled()) {
+                        Files.deleteIfExists(file.toPath());
+                        throw e;
+                    }
                 }
             }
-        } catch (IOException e) {
-            System.err.println("Receiver error: " + e.getMessage());
-            if (callback != null) callback.onReceivingError(e);
+        }
+        progressTracker.finish();
+    }
+
+    /**
+     * Receives the files in chunks over the main connection and the additional connections the sender attaches.
+     * If checksums were negotiated, the chunks that arrived corrupt on any connection are then requested again over
+     * the main connection until all chunks are intact or {@link #MAX_RETRANSMIT_ROUNDS} rounds have passed.
+     * Partially received files of a cancelled transmission are kept for resuming if there is a journal.
+     * <p>
+     * Every connection is read ahead by a thread of its own into pooled buffers, while the thread of the connection
+     * writes the chunks to disk, like the stages of {@link #receiveContent}. A disk that stalls for a moment
+     * therefore does not stall the TCP window of the connection at once.
+     *
+     * @param transmission  the transmission, which holds the channel of the main connection
+     * @param dis           the input stream of the main connection
+     * @param dos           the output stream of the main connection
+     * @param metadata      the metadata of the transmission
+     * @param receivedFiles the files that are received
+     * @param stripes       the queue the additional connections are delivered to or null if there are none
+     * @param startOffsets  the number of bytes at the start of every file that are already present
+     * @param journal          the journal of the transmission or null if it cannot be resumed
+     * @param durabilityPolicy when the received files are forced to the storage device
+     * @param checksums        whether every chunk is followed by a CRC32C
+     * @throws IOException if an I/O error occurs while reading from one of the connections or the sender violates the protocol
+     */
+    private void receiveContentOverChannel(ActiveTransmission transmission, DataInputStream dis, DataOutputStream dos, Metadata metadata, List<FileWithMetadata> receivedFiles, BlockingQueue<SocketChannel> stripes, long[] startOffsets, ResumeJournal journal, DurabilityPolicy durabilityPolicy, boolean checksums) throws IOException {
+        LinkEstimate link = linkEstimate(metadata);
+        ChunkReceiver chunkReceiver = new ChunkReceiver(metadata.sender, receivedFiles, callback, receivedLog, startOffsets, journal, durabilityPolicy, checksums, link.bufferSize());
+        List<SocketChannel> stripeChannels = new ArrayList<>();
+        List<ReadAheadChannel> readAheadChannels = new ArrayList<>();
+        List<FutureTask<Void>> stripeResults = new ArrayList<>();
+        try {
+            if (stripes != null) {
+                int stripeCount = dis.readInt();
+                for (int i = 0; i < stripeCount; i++) {
+                    SocketChannel stripe = stripes.poll(STRIPE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    if (stripe == null) throw new IOException("Additional connection of " + metadata.sender.name() + " did not arrive");
+                    stripeChannels.add(stripe);
+                    transmission.track(stripe);
+                    link.apply(stripe);
+                    ReadAheadChannel stripeChannel = new ReadAheadChannel(stripe, "stripe-reader", BufferPool.SHARED, PIPELINE_BUFFERS, link.bufferSize());
+                    readAheadChannels.add(stripeChannel);
+                    FutureTask<Void> stripeResult = new FutureTask<>(() -> {
+                        chunkReceiver.receive(stripeChannel);
+                        return null;
+                    });
+                    connectionThreads.newThread(stripeResult).start();
+                    stripeResults.add(stripeResult);
+                }
+            }
+            // nothing but chunks and checksums follows on the main connection, so it is read ahead until it closes
+            ReadAheadChannel mainChannel = new ReadAheadChannel(transmission.channel, "network-reader", BufferPool.SHARED, PIPELINE_BUFFERS, link.bufferSize());
+            readAheadChannels.add(mainChannel);
+            chunkReceiver.receive(mainChannel);
+            for (FutureTask<Void> stripeResult : stripeResults) {
+                stripeResult.get();
+            }
+            for (int round = 1; checksums; round++) {
+                List<ChunkHeader> corruptChunks = chunkReceiver.takeCorruptChunks();
+                if (!corruptChunks.isEmpty() && round > MAX_RETRANSMIT_ROUNDS) {
+                    System.err.println("Giving up on " + corruptChunks.size() + " corrupt chunks");
+                    corruptChunks = List.of();
+                }
+                List<ChunkHeader> requestedChunks = corruptChunks;
+                transmission.write(() -> ChunkHeader.writeRetransmitRequest(dos, requestedChunks));
+                if (requestedChunks.isEmpty()) break;
+                System.out.println("Requesting " + requestedChunks.size() + " corrupt chunks again");
+                chunkReceiver.receive(mainChannel);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while receiving files");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            throw new IOException(e.getCause());
         } finally {
-            try {
-                if (serverSocket != null && !serverSocket.isClosed()) serverSocket.close();
-            } catch (IOException ignored) {
+            // closing the connections also stops the remaining ones if one of them failed
+            for (SocketChannel stripe : stripeChannels) stripe.close();
+            for (ReadAheadChannel readAheadChannel : readAheadChannels) readAheadChannel.close();
+            if (transmission.isCancelled() && journal == null) chunkReceiver.discardPartialFiles();
+            chunkReceiver.finish();
+        }
+    }
+
+    /**
+     * Hands an additional connection of a striped transmission over to the session that receives the transmission.
+     *
+     * @param channel the additional connection
+     * @param dis     the input stream of the additional connection
+     * @throws IOException if the connection does not belong to a known transmission
+     */
+    private void attachStripe(SocketChannel channel, DataInputStream dis) throws IOException {
+        String transferId = dis.readUTF();
+        BlockingQueue<SocketChannel> stripes = pendingStripes.get(transferId);
+        if (stripes == null) throw new IOException("Received connection for unknown transmission " + transferId);
+        stripes.add(channel);
+    }
+
+    /**
+     * Returns the estimate for the path to the sender of a transmission, from which its connections and buffers are
+     * sized.
+     *
+     * @param metadata the metadata of the transmission
+     * @return the estimate of the sender or our own if the sender did not send one
+     */
+    static LinkEstimate linkEstimate(Metadata metadata) {
+        return metadata.link != null ? metadata.link : LinkEstimate.forHost(metadata.sender.ip());
+    }
+
+    /**
+     * Opens the journal of a transmission. A transmission that cannot be journaled is received without resume support.
+     *
+     * @param resumeKey     the resume key of the transmission
+     * @param receivedFiles the files that are received
+     * @return the journal or null if it cannot be opened
+     */
+    static ResumeJournal openJournal(String resumeKey, List<FileWithMetadata> receivedFiles) {
+        try {
+            return ResumeJournal.open(UserConfigurations.DEFAULT_SAFE_PATH, resumeKey, receivedFiles);
+        } catch (IOException e) {
+            System.err.println("Could not open resume journal: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Finds the files that already exist with the same size and content hash under the save path and marks them as
+     * completely present, so that the sender does not send them again. Files that are partially received are not hashed.
+     *
+     * @param receivedFiles the files that are received
+     * @param startOffsets  the number of bytes at the start of every file that are already present, updated in place
+     */
+    static void skipUnchangedFiles(List<FileWithMetadata> receivedFiles, long[] startOffsets) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < receivedFiles.size(); i++) {
+            FileWithMetadata fileWithMetadata = receivedFiles.get(i);
+            if (fileWithMetadata.contentHash != null && fileWithMetadata.sizeInBytes > 0 && startOffsets[i] == 0
+                    && isUnderSavePath(fileWithMetadata)
+                    && fileWithMetadata.file.isFile() && fileWithMetadata.file.length() == fileWithMetadata.sizeInBytes) {
+                candidates.add(i);
+            }
+        }
+        if (candidates.isEmpty()) return;
+        List<String> hashes = ContentHasher.hashAll(candidates.stream().map(i -> receivedFiles.get(i).file).toList());
+        for (int c = 0; c < candidates.size(); c++) {
+            FileWithMetadata fileWithMetadata = receivedFiles.get(candidates.get(c));
+            if (fileWithMetadata.contentHash.equals(hashes.get(c))) startOffsets[candidates.get(c)] = fileWithMetadata.sizeInBytes;
+        }
+    }
+
+    /**
+     * Checks the path the sender gave for a file, so that no file outside the save path is looked at, like
+     * "../secret" would be. A hash or the block checksums of such a file would tell the sender about its content.
+     *
+     * @param fileWithMetadata the file that is received
+     * @return whether the file lies under the save path once its path is normalized
+     */
+    static boolean isUnderSavePath(FileWithMetadata fileWithMetadata) {
+        Path savePath = UserConfigurations.DEFAULT_SAFE_PATH.toPath().toAbsolutePath().normalize();
+        Path path = fileWithMetadata.file.toPath().toAbsolutePath().normalize();
+        if (path.startsWith(savePath) && !path.equals(savePath)) return true;
+        System.err.println("Ignoring existing file outside of the save path: " + fileWithMetadata.relativePath);
+        return false;
+    }
+
+    /**
+     * Computes the block checksums of large files that already exist in an older version under the save path, so
+     * that the sender only has to send the changed parts of them.
+     *
+     * @param receivedFiles the files that are received
+     * @param startOffsets  the number of bytes at the start of every file that are already present
+     * @return whether there is at least one file with block checksums
+     */
+    private static boolean computeDeltaSignatures(List<FileWithMetadata> receivedFiles, long[] startOffsets) {
+        List<FileWithMetadata> candidates = new ArrayList<>();
+        for (int i = 0; i < receivedFiles.size(); i++) {
+            FileWithMetadata fileWithMetadata = receivedFiles.get(i);
+            // partially received files are resumed instead
+            if (fileWithMetadata.sizeInBytes >= DeltaSignature.MIN_FILE_SIZE && startOffsets[i] == 0
+                    && isUnderSavePath(fileWithMetadata) && fileWithMetadata.file.isFile() && fileWithMetadata.file.length() >= DeltaSignature.MIN_FILE_SIZE) {
+                candidates.add(fileWithMetadata);
             }
         }
+        candidates.parallelStream().forEach(f -> f.deltaSignature = DeltaSignature.compute(f.file));
+        return candidates.stream().anyMatch(f -> f.deltaSignature != null);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
     }
 
     /**
      * Stops the receiver and unblocks any waiting operations.
      */
+    @Override
     public void stop() {
         running = false;
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
+            if (serverSocket != null && serverSocket.isOpen()) {
                 serverSocket.close(); // unblocks accept()
             }
         } catch (IOException e) {
@@ -159,11 +635,122 @@ public class FileReceiver implements Runnable {
      * @param callback the callback method
      * @see FileReceivingEventHandler
      */
+    @Override
     public void setEventHandler(FileReceivingEventHandler callback) {
         this.callback = callback;
     }
 
+    @Override
     public List<Pair<Peer, File>> getReceivedLog() {
         return receivedLog;
     }
+
+    /**
+     * A transmission that is being received, which the user or the sender can cancel.
+     */
+    private static class ActiveTransmission {
+        final String transferId;
+        final List<FileWithMetadata> files;
+        final ByteChannel channel;
+        private final List<Channel> stripes = new ArrayList<>();
+        /**
+         * Not a monitor, since it is held while writing on a virtual thread
+         */
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private boolean accepted = false;
+        private volatile boolean cancelled = false;
+        private volatile boolean cancelledBySender = false;
+
+        ActiveTransmission(String transferId, List<FileWithMetadata> files, ByteChannel channel) {
+            this.transferId = transferId;
+            this.files = files;
+            this.channel = channel;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        boolean isCancelledBySender() {
+            return cancelledBySender;
+        }
+
+        /**
+         * Marks that the response was sent, after which a cancellation closes the connections instead of denying
+         * the transmission.
+         *
+         * @throws TransferCancelledException if the transmission was cancelled while the response was sent
+         */
+        synchronized void accepted() throws TransferCancelledException {
+            if (cancelled) throw new TransferCancelledException("Transmission was cancelled");
+            accepted = true;
+        }
+
+        /**
+         * Keeps track of an additional connection, so that a cancellation closes it.
+         *
+         * @throws IOException if the transmission is already cancelled, the connection is closed then
+         */
+        void track(SocketChannel stripe) throws IOException {
+            synchronized (this) {
+                if (!cancelled) {
+                    stripes.add(stripe);
+                    return;
+                }
+            }
+            stripe.close();
+            throw new TransferCancelledException("Transmission was cancelled");
+        }
+
+        /**
+         * Writes to the main connection, which a cancellation of the user may write to at the same time.
+         */
+        void write(IOAction action) throws IOException {
+            writeLock.lock();
+            try {
+                action.run();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Cancels the transmission. Unless the sender cancelled it, it is told so on the main connection first.
+         * All connections are closed, which makes the blocked reads of the receiving threads fail.
+         *
+         * @param bySender whether the sender cancelled the transmission
+         */
+        void cancel(boolean bySender) {
+            List<Channel> channels;
+            synchronized (this) {
+                if (cancelled) return;
+                cancelled = true;
+                cancelledBySender = bySender;
+                // a transmission that was not accepted yet is denied
+                if (!accepted) return;
+                channels = new ArrayList<>(stripes);
+            }
+            channels.add(channel);
+            if (!bySender) {
+                try {
+                    write(() -> {
+                        ByteBuffer mark = ByteBuffer.allocate(Integer.BYTES).putInt(CANCEL_TRANSMISSION).flip();
+                        while (mark.hasRemaining()) channel.write(mark);
+                    });
+                } catch (IOException e) {
+                    System.err.println("Could not tell the sender about the cancellation: " + e.getMessage());
+                }
+            }
+            for (Channel connection : channels) {
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private interface IOAction {
+        void run() throws IOException;
+    }
 }
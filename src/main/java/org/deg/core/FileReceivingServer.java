@@ -0,0 +1,42 @@
+package org.deg.core;
+
+import javafx.util.Pair;
+import org.deg.core.callbacks.FileReceivingEventHandler;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * A server that listens on a port for transmissions of other peers and receives their files. {@link #run()} blocks
+ * until the server is stopped.
+ *
+ * @see FileReceiver
+ * @see NonBlockingFileReceiver
+ */
+public interface FileReceivingServer extends Runnable {
+    /**
+     * Stops the server and unblocks any waiting operations.
+     */
+    void stop();
+
+    /**
+     * Sets a callback method that is called as soon as a file is received.
+     *
+     * @param callback the callback method
+     * @see FileReceivingEventHandler
+     */
+    void setEventHandler(FileReceivingEventHandler callback);
+
+    /**
+     * Cancels a transmission that is being received.
+     *
+     * @param files the list of files that identifies the transmission, see {@link FileReceivingEventHandler}
+     * @return whether the transmission was being received
+     */
+    boolean cancel(List<FileWithMetadata> files);
+
+    /**
+     * @return every received file with the peer it was received from
+     */
+    List<Pair<Peer, File>> getReceivedLog();
+}
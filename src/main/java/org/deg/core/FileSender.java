@@ -1,24 +1,88 @@
 package org.deg.core;
 
 import org.deg.core.callbacks.FileSendingEventHandler;
-import org.deg.core.callbacks.Progress;
+import org.deg.core.callbacks.ProgressTracker;
+import org.deg.utils.Utils;
 
 import java.io.*;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
-import static org.deg.core.Constants.ACCEPT_TRANSMISSION_REQUEST;
+import static org.deg.core.Constants.BINARY_METADATA;
+import static org.deg.core.Constants.CANCEL_TRANSMISSION;
+import static org.deg.core.Constants.STRIPE_CONNECTION;
 
 /**
  * The FileSender class connects to a remote peer and sends files,
- * preceded by file metadata (name and size).
+ * preceded by file metadata (name and size). A running transmission can be cancelled from any thread with
+ * {@link #cancel()}.
  */
 public class FileSender {
+    private static final ExecutorService stripeExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * The addresses of receivers that announced that they accept sessions. The first transmission to a receiver
+     * always uses its own connection.
+     */
+    private static final Set<String> sessionReceivers = ConcurrentHashMap.newKeySet();
+    /**
+     * The time to wait for the receiver to confirm a cancellation before the connections are closed anyway
+     */
+    private static final int CANCEL_TIMEOUT_MILLIS = 500;
+    /**
+     * Stands in for a retransmit request once the receiver closed its side of the connection
+     */
+    private static final List<ChunkHeader> RECEIVER_CLOSED = new ArrayList<>();
+    private static final ThreadFactory watcherThreads = Utils.virtualThreadFactory();
+    /**
+     * The number of found files whose codec and content hash are determined in parallel
+     */
+    private static final int PREPARE_WINDOW = 256;
+    private static final ExecutorService prepareExecutor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            runnable -> {
+                Thread thread = new Thread(runnable, "file-preparation");
+                thread.setDaemon(true);
+                return thread;
+            });
     private final Peer sender;
     private final Peer receiver;
-    private final List<FileWithMetadata> files;
+    private final List<File> filesToSend;
+    private final List<FileWithMetadata> files = new ArrayList<>();
+    private final TransferOptions options;
+    private final String transferId = UUID.randomUUID().toString();
+    private final List<Channel> openChannels = new ArrayList<>();
+    private final BlockingQueue<List<ChunkHeader>> retransmitRequests = new LinkedBlockingQueue<>();
+    private boolean started = false;
+    private volatile boolean cancelled = false;
+    private volatile boolean cancelledByReceiver = false;
+    private volatile boolean receiverAcceptsCancel = false;
 
     /**
      * Constructs a FileSender for a set of files and target peer.
@@ -28,9 +92,22 @@ public class FileSender {
      * @param files    The files to send.
      */
     public FileSender(Peer sender, Peer receiver, List<File> files) {
-        this.files = FileExpander.expandFilesWithRelativePaths(files);
+        this(sender, receiver, files, new TransferOptions());
+    }
+
+    /**
+     * Constructs a FileSender for a set of files and target peer.
+     *
+     * @param sender   The sending peer.
+     * @param receiver The receiving peer.
+     * @param files    The files to send.
+     * @param options  The options of the transfer.
+     */
+    public FileSender(Peer sender, Peer receiver, List<File> files, TransferOptions options) {
+        this.filesToSend = files;
         this.sender = sender;
         this.receiver = receiver;
+        this.options = options;
     }
 
     /**
@@ -39,48 +116,247 @@ public class FileSender {
      * @param callback the callback is called whenever new bytes are sent (can be null)
      */
     public void send(FileSendingEventHandler callback) throws SendingDeniedException {
-        try (Socket receiverSocket = new Socket(receiver.ip(), receiver.fileTransferPort())) {
+        synchronized (this) {
+            // whoever cancelled the transmission before it started reports it
+            if (cancelled) return;
+            started = true;
+        }
+        try (ByteChannel channel = openConnection()) {
+            track(channel);
+            DataInputStream dis = new DataInputStream(inputStream(channel));
+            DataOutputStream dos = new DataOutputStream(outputStream(channel));
             // Step 1: Send metadata and wait for a response
             // if denied this throws sending denied exception
-            sendTransmissionRequest(receiverSocket, callback);
+            TransmissionResponse response = sendTransmissionRequest(dis, dos, callback);
+            receiverAcceptsCancel = response.cancel;
+            if (response.cancel || response.checksums) watchReceiver(dis);
 
             // Step 2: Send file content
-            sendContent(receiverSocket, callback);
+            if (response.transferMode == TransferMode.CHANNEL) {
+                sendContentOverChannel(channel, dos, response, callback);
+            } else {
+                sendContent(channel, callback);
+            }
         } catch (IOException e) {
+            if (cancelled) {
+                System.out.println("Transmission to " + receiver.name() + " was cancelled" + (cancelledByReceiver ? " by the receiver" : ""));
+                if (callback != null) callback.onCancelled(receiver, cancelledByReceiver);
+                return;
+            }
             System.err.println("Sender error: " + e.getMessage());
             if (callback != null) callback.onSendingFailed(e);
         }
     }
 
+    /**
+     * Cancels the transmission. Blocked reads and writes of the transmission fail within milliseconds, after the
+     * receiver was told about the cancellation over a connection of its own if it accepts such connections.
+     * The handler passed to {@link #send(FileSendingEventHandler)} is informed once the sending thread stops.
+     *
+     * @return whether the transmission had already started. A transmission that was not started yet is never
+     * started and its handler is not called.
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (cancelled) return started;
+            cancelled = true;
+            if (!started) return false;
+        }
+        System.out.println("Cancelling transmission to " + receiver.name());
+        if (receiverAcceptsCancel) sendCancellation();
+        closeConnections();
+        return true;
+    }
+
+    /**
+     * @return whether the transmission was cancelled by either peer
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Tells the receiver that the transmission is cancelled and waits until it confirms, so that it does not take
+     * the connections that are closed next for a failure.
+     */
+    private void sendCancellation() {
+        try (SocketChannel control = SocketChannel.open()) {
+            control.socket().connect(new InetSocketAddress(receiver.ip(), receiver.fileTransferPort()), CANCEL_TIMEOUT_MILLIS);
+            control.socket().setSoTimeout(CANCEL_TIMEOUT_MILLIS);
+            DataOutputStream dos = new DataOutputStream(control.socket().getOutputStream());
+            dos.writeInt(CANCEL_TRANSMISSION);
+            dos.writeUTF(transferId);
+            dos.flush();
+            control.socket().getInputStream().read();
+        } catch (IOException e) {
+            System.err.println("Could not tell " + receiver.name() + " about the cancellation: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps track of a connection of the transmission, so that a cancellation closes it.
+     *
+     * @param channel the connection
+     * @throws TransferCancelledException if the transmission is already cancelled, the connection is closed then
+     */
+    private void track(Channel channel) throws IOException {
+        synchronized (this) {
+            if (!cancelled) {
+                openChannels.add(channel);
+                return;
+            }
+        }
+        channel.close();
+        throw new TransferCancelledException("Transmission was cancelled");
+    }
+
+    private void closeConnections() {
+        List<Channel> channels;
+        synchronized (this) {
+            channels = List.copyOf(openChannels);
+        }
+        for (Channel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Reads what the receiver sends while the content is sent on a thread of its own: requests for chunks that arrived
+     * corrupt, which are handed to the sending thread, or the mark that the receiver cancelled the transmission,
+     * which closes all connections at once.
+     *
+     * @param dis the input stream of the connection to the receiver
+     */
+    private void watchReceiver(DataInputStream dis) {
+        watcherThreads.newThread(() -> {
+            try {
+                while (true) {
+                    int count = dis.readInt();
+                    if (count == CANCEL_TRANSMISSION) {
+                        cancelledByReceiver = true;
+                        cancelled = true;
+                        closeConnections();
+                        break;
+                    }
+                    retransmitRequests.add(ChunkHeader.readRetransmitRequest(dis, count, ChunkSender.maxChunkCount(files)));
+                }
+            } catch (IOException e) {
+                // the transmission is over or the receiver closed the connection
+            } finally {
+                retransmitRequests.add(RECEIVER_CLOSED);
+            }
+        }).start();
+    }
+
+    /**
+     * Waits for the next request of the receiver for chunks that arrived corrupt.
+     *
+     * @return the requested chunks, none if all chunks are intact
+     * @throws IOException if the receiver closed the connection or the transmission was cancelled
+     */
+    private List<ChunkHeader> nextRetransmitRequest() throws IOException {
+        try {
+            List<ChunkHeader> request = retransmitRequests.take();
+            if (request != RECEIVER_CLOSED) return request;
+            retransmitRequests.add(RECEIVER_CLOSED);
+            if (cancelled) throw new TransferCancelledException("Transmission was cancelled");
+            throw new EOFException("Connection closed by " + receiver.name());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + receiver.name());
+        }
+    }
+
+    /**
+     * Unlike {@link Channels#newInputStream}, the stream of a socket does not hold up writes to the socket while a
+     * read is blocked, so the connection can be read on one thread and written on another.
+     */
+    private static InputStream inputStream(ByteChannel channel) throws IOException {
+        return channel instanceof SocketChannel socketChannel ? socketChannel.socket().getInputStream() : Channels.newInputStream(channel);
+    }
+
+    private static OutputStream outputStream(ByteChannel channel) throws IOException {
+        return channel instanceof SocketChannel socketChannel ? socketChannel.socket().getOutputStream() : Channels.newOutputStream(channel);
+    }
+
+    /**
+     * Opens a stream on the session to the receiver if it accepts sessions and a connection of its own otherwise.
+     *
+     * @return the connection
+     * @throws IOException if the receiver cannot be reached
+     */
+    private ByteChannel openConnection() throws IOException {
+        String receiverAddress = receiver.address();
+        if (options.reuseSession && sessionReceivers.contains(receiverAddress)) {
+            try {
+                return SessionPool.openStream(receiver);
+            } catch (IOException e) {
+                System.err.println("Could not open session to " + receiver.name() + ": " + e.getMessage());
+                sessionReceivers.remove(receiverAddress);
+            }
+        }
+        return LinkEstimate.connect(new InetSocketAddress(receiver.ip(), receiver.fileTransferPort()));
+    }
+
     /**
      * Sends a metadata object to the receiver and waits for their acceptance. If denied this method throws a
      * SendingDeniedException.
      *
-     * @param receiverSocket The tcp socket for the receiver
-     * @param callback       The callback to handle the receiver response
+     * @param dis      The input stream of the connection to the receiver
+     * @param dos      The output stream of the connection to the receiver
+     * @param callback The callback to handle the receiver response
+     * @return the response of the receiver
      * @throws IOException            if an I/ O error occurs when creating the output stream or if the socket is not connected.
      * @throws SendingDeniedException if the receiver denies the transmission
      */
-    private void sendTransmissionRequest(Socket receiverSocket, FileSendingEventHandler callback) throws IOException, SendingDeniedException {
-        DataOutputStream dos = new DataOutputStream(receiverSocket.getOutputStream());
+    private TransmissionResponse sendTransmissionRequest(DataInputStream dis, DataOutputStream dos, FileSendingEventHandler callback) throws IOException, SendingDeniedException {
         System.out.println("Send transmission request to " + receiver.name());
-        Metadata metadata = new Metadata(
-                files.size(),
-                files.stream().map(f -> f.relativePath.replace(File.separator, "/")).toList(),
-                files.stream().map(f ->f.sizeInBytes).toList(),
-                sender
-        );
-        String metadataStr = MetadataHandler.buildMetadata(metadata);
-        byte[] data = metadataStr.getBytes(StandardCharsets.UTF_8);
-        dos.writeInt(data.length);
-        dos.write(data);
+        Metadata metadata = new Metadata(0, List.of(), List.of(), sender);
+        // channel transfers only compress files that benefit from it, the GZIP stream is kept for older receivers
+        metadata.transferModes = List.of(TransferMode.CHANNEL, TransferMode.GZIP);
+        metadata.transferId = transferId;
+        metadata.checksums = options.checksums;
+        metadata.link = LinkEstimate.forHost(receiver.ip());
+        String receiverAddress = receiver.address();
+        // older receivers cannot tell the binary metadata apart from the string, so it is only sent to receivers
+        // that announced in their hello or discovery response that they read it
+        if (receiver.metadataVersion() >= MetadataHandler.BINARY_METADATA_VERSION) {
+            // the receiver reads the files while later folders are still being listed
+            dos.writeInt(BINARY_METADATA);
+            BinaryMetadataWriter writer = new BinaryMetadataWriter(dos, metadata);
+            streamFiles(writer);
+            completeMetadata(metadata);
+            writer.finish(metadata);
+        } else {
+            files.addAll(FileExpander.expandFilesWithRelativePaths(filesToSend));
+            files.parallelStream().forEach(this::prepareFile);
+            completeMetadata(metadata);
+            String metadataStr = MetadataHandler.buildMetadata(metadata);
+            byte[] data = metadataStr.getBytes(StandardCharsets.UTF_8);
+            dos.writeInt(data.length);
+            dos.write(data);
+        }
 
         System.out.println("Waiting for transmission request response...");
-        DataInputStream dis = new DataInputStream(receiverSocket.getInputStream());
-        String accepted = dis.readUTF();
-        if (accepted.equals(ACCEPT_TRANSMISSION_REQUEST)) {
-            System.out.println(receiver.name() + " accepted transmission. Start sending files...");
+        TransmissionResponse response = MetadataHandler.parseTransmissionResponse(dis.readUTF());
+        if (response.sessions) {
+            sessionReceivers.add(receiverAddress);
+        } else if (response.accepted) {
+            sessionReceivers.remove(receiverAddress);
+        }
+        if (response.accepted && response.resume) {
+            response.startOffsets = MetadataHandler.readStartOffsets(dis, files.size());
+        }
+        if (response.accepted && response.delta) {
+            MetadataHandler.readDeltaSignatures(dis, files);
+        }
+        if (response.accepted) {
+            System.out.println(receiver.name() + " accepted transmission (" + response.transferMode + ", " + response.streams + " connections). Start sending files...");
             if (callback != null) callback.onAccepted(receiver);
+            return response;
         } else {
             if (callback != null) callback.onDenied(receiver);
             throw new SendingDeniedException();
@@ -88,47 +364,224 @@ public class FileSender {
     }
 
     /**
-     * Sends the actual file data to the receiver.
+     * Sends the actual file data to the receiver. The next files are read ahead by a {@link FilePrefetcher} while
+     * the current one is compressed and sent.
      *
-     * @param receiverSocket the receivers socket
-     * @param callback       callback that handles sending events
+     * @param channel  the connection to the receiver
+     * @param callback callback that handles sending events
      * @throws IOException if an I/ O error occurs when creating the output stream or if the socket is not connected.
      */
-    private void sendContent(Socket receiverSocket, FileSendingEventHandler callback) throws IOException {
-        int totalBytesSent = 0;
-        long startTime = System.currentTimeMillis();
+    private void sendContent(ByteChannel channel, FileSendingEventHandler callback) throws IOException {
         long totalBytes = files.stream().mapToLong(f -> f.sizeInBytes).sum();
+        ProgressTracker progressTracker = new ProgressTracker(files, totalBytes, callback == null ? null : callback::onSendingProgress);
+        long start = System.nanoTime();
         try (
-                GZIPOutputStream gzipOut = new GZIPOutputStream(receiverSocket.getOutputStream());
+                FilePrefetcher prefetcher = new FilePrefetcher(files, FilePrefetcher.DEFAULT_MAX_FILES_AHEAD, options.prefetchBytes);
+                ParallelGzipOutputStream gzipOut = new ParallelGzipOutputStream(Channels.newOutputStream(new ThrottledChannel(channel, limiters())));
                 DataOutputStream compressedDataOutputStream = new DataOutputStream(gzipOut)
         ) {
             for (int i = 0; i < files.size(); i++) {
                 FileWithMetadata fileWithMetadata = files.get(i);
-                try (FileInputStream fis = new FileInputStream(fileWithMetadata.file)) {
-                    byte[] buffer = new byte[4096];
-                    int bytesRead;
-                    while ((bytesRead = fis.read(buffer)) != -1) {
-                        compressedDataOutputStream.write(buffer, 0, bytesRead);
-                        totalBytesSent += bytesRead;
-
-                        if (callback != null) {
-                            Progress progress = new Progress(files, totalBytesSent, totalBytes, i, files.size());
-                            long durationSoFar = System.currentTimeMillis() - startTime;
-                            float totalTimeInSeconds = durationSoFar / 1000f;
-                            progress.bitsPerSecondEstimation = (long) (totalBytesSent * 8L / totalTimeInSeconds);
-                            callback.onSendingProgress(progress);
+                try {
+                    FilePrefetcher.Block block;
+                    while ((block = prefetcher.next(i)) != null) {
+                        try {
+                            compressedDataOutputStream.write(block.data, 0, block.length);
+                            progressTracker.add(i, block.length);
+                        } finally {
+                            // a failed file must not keep its block, or the prefetcher runs out of blocks for the next files
+                            prefetcher.recycle(block);
                         }
                     }
                     System.out.println(fileWithMetadata.relativePath + " sending finished successfully.");
                     fileWithMetadata.transmissionSuccess = true;
                 } catch (IOException e) {
                     fileWithMetadata.transmissionSuccess = false;
+                    if (cancelled) throw e;
                 }
             }
             compressedDataOutputStream.flush();
             gzipOut.finish();
         }
+        LinkEstimate.recordThroughput(receiver.ip(), totalBytes, System.nanoTime() - start);
+        progressTracker.finish();
         System.out.println("All Files sending finished successfully.");
         if (callback != null) callback.onFinished(files, receiver);
     }
+
+    /**
+     * Sends the actual file data to the receiver in chunks. Large files are spread over the additional connections
+     * the receiver agreed to. If the receiver verifies checksums, the chunks it reports as corrupt are then sent
+     * again over the main connection until it reports none.
+     *
+     * @param channel  the connection to the receiver
+     * @param dos      the output stream of the connection
+     * @param response the response of the receiver to the transmission request
+     * @param callback callback that handles sending events
+     * @throws IOException if an I/ O error occurs while writing to one of the connections.
+     */
+    private void sendContentOverChannel(ByteChannel channel, DataOutputStream dos, TransmissionResponse response, FileSendingEventHandler callback) throws IOException {
+        List<SocketChannel> stripes = new ArrayList<>();
+        List<Future<?>> stripeResults = new ArrayList<>();
+        long[] startOffsets = response.startOffsets != null ? response.startOffsets : new long[files.size()];
+        ChunkSender chunkSender = new ChunkSender(files, callback, startOffsets, response.packedFiles, limiters(), response.checksums, LinkEstimate.forHost(receiver.ip()).bufferSize());
+        long start = System.nanoTime();
+        try {
+            if (response.streams > 1) {
+                stripes = openStripes(response.streams - 1);
+                for (SocketChannel stripe : stripes) track(stripe);
+                dos.writeInt(stripes.size());
+            }
+            for (SocketChannel stripe : stripes) {
+                stripeResults.add(stripeExecutor.submit(() -> {
+                    chunkSender.send(stripe);
+                    return null;
+                }));
+            }
+            chunkSender.send(channel);
+            for (Future<?> stripeResult : stripeResults) {
+                awaitStripe(stripeResult);
+            }
+            while (response.checksums) {
+                List<ChunkHeader> corruptChunks = nextRetransmitRequest();
+                if (corruptChunks.isEmpty()) break;
+                System.out.println("Sending " + corruptChunks.size() + " corrupt chunks again");
+                chunkSender.resend(channel, corruptChunks);
+            }
+        } finally {
+            for (SocketChannel stripe : stripes) stripe.close();
+            chunkSender.finish();
+        }
+        long bytes = files.stream().mapToLong(f -> f.sizeInBytes).sum() - Arrays.stream(startOffsets).sum();
+        LinkEstimate.recordThroughput(receiver.ip(), bytes, System.nanoTime() - start);
+        System.out.println("All Files sending finished successfully.");
+        if (callback != null) callback.onFinished(files, receiver);
+    }
+
+    /**
+     * @return the limiters of the upload bandwidth to the receiver and of the whole upload bandwidth
+     */
+    private List<BandwidthLimiter> limiters() {
+        return List.of(BandwidthLimiter.forPeer(receiver), BandwidthLimiter.global());
+    }
+
+    /**
+     * Opens additional connections to the receiver and attaches them to this transmission. Connections that cannot
+     * be opened are left out.
+     *
+     * @param count the number of connections to open
+     * @return the opened connections
+     */
+    private List<SocketChannel> openStripes(int count) {
+        List<SocketChannel> stripes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            try {
+                SocketChannel stripe = LinkEstimate.connect(new InetSocketAddress(receiver.ip(), receiver.fileTransferPort()));
+                DataOutputStream dos = new DataOutputStream(stripe.socket().getOutputStream());
+                dos.writeInt(STRIPE_CONNECTION);
+                dos.writeUTF(transferId);
+                stripes.add(stripe);
+            } catch (IOException e) {
+                System.err.println("Could not open additional connection to " + receiver.name() + ": " + e.getMessage());
+            }
+        }
+        return stripes;
+    }
+
+    /**
+     * Lists the files to send and writes their entries while the listing goes on. The codec and content hash of
+     * the files are determined in parallel, the entries are written in the order the files were found.
+     *
+     * @param writer the writer of the binary metadata
+     * @throws IOException if an I/O error occurs or the files cannot be listed
+     */
+    private void streamFiles(BinaryMetadataWriter writer) throws IOException {
+        Deque<CompletableFuture<FileWithMetadata>> pending = new ArrayDeque<>();
+        try (FileWalker walker = new FileWalker(filesToSend)) {
+            boolean walking = true;
+            while (walking || !pending.isEmpty()) {
+                while (walking && pending.size() < PREPARE_WINDOW && (pending.isEmpty() || walker.hasNextReady())) {
+                    // the entries written so far are sent instead of waiting for the next folder to be listed
+                    if (pending.isEmpty() && !walker.hasNextReady()) writer.flush();
+                    FileWithMetadata file = walker.next();
+                    if (file == null) {
+                        walking = false;
+                    } else {
+                        pending.add(CompletableFuture.supplyAsync(() -> prepareFile(file), prepareExecutor));
+                    }
+                }
+                if (pending.isEmpty()) break;
+                FileWithMetadata file = pending.poll().join();
+                files.add(file);
+                writer.writeFile(file.relativePath.replace(File.separator, "/"), file.sizeInBytes, file.codec, file.contentHash);
+            }
+        } finally {
+            for (CompletableFuture<FileWithMetadata> future : pending) future.cancel(false);
+        }
+    }
+
+    /**
+     * Chooses the codec of a file and computes its content hash if the receiver may skip unchanged files.
+     *
+     * @param file the file
+     * @return the same file
+     */
+    private FileWithMetadata prepareFile(FileWithMetadata file) {
+        file.codec = ContentSniffer.chooseCodec(file);
+        if (options.skipUnchanged) file.contentHash = ContentHasher.hash(file.file);
+        return file;
+    }
+
+    /**
+     * Fills in the files and the fields of the metadata that depend on all files.
+     *
+     * @param metadata the metadata
+     */
+    private void completeMetadata(Metadata metadata) {
+        metadata.fileCount = files.size();
+        metadata.fileNames = files.stream().map(f -> f.relativePath.replace(File.separator, "/")).toList();
+        metadata.fileSizes = files.stream().map(f -> f.sizeInBytes).toList();
+        metadata.codecs = files.stream().map(f -> f.codec).toList();
+        if (options.skipUnchanged) metadata.fileHashes = files.stream().map(f -> f.contentHash).toList();
+        // additional connections only pay off if there are enough chunks to spread over them
+        long totalBytes = files.stream().mapToLong(f -> f.sizeInBytes).sum();
+        metadata.streams = (int) Math.max(1, Math.min(options.streams, totalBytes / ChunkSender.CHUNK_SIZE));
+        metadata.resumeKey = resumeKey();
+    }
+
+    /**
+     * Computes a fingerprint of this transmission that stays the same as long as the same files are sent again
+     * unchanged. The receiver uses it to find the parts of the files it already received in an earlier attempt.
+     *
+     * @return the fingerprint as hex string or null if it cannot be computed
+     */
+    private String resumeKey() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(sender.name().getBytes(StandardCharsets.UTF_8));
+            for (FileWithMetadata file : files) {
+                digest.update((byte) 0);
+                digest.update(file.relativePath.replace(File.separator, "/").getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(Long.toString(file.sizeInBytes).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(Long.toString(file.file.lastModified()).getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static void awaitStripe(Future<?> stripeResult) throws IOException {
+        try {
+            stripeResult.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for additional connections");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            throw new IOException(e.getCause());
+        }
+    }
 }
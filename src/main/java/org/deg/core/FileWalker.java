@@ -0,0 +1,116 @@
+package org.deg.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Expands folders into files on a background thread, see {@link FileExpander#walk(List, java.util.function.Consumer)}.
+ * The files are handed over through a bounded queue, so they can be processed while later folders are still
+ * being listed and a slow consumer does not make the walker buffer the whole tree.
+ */
+public class FileWalker implements Closeable {
+    /**
+     * The default number of files that are buffered ahead of the consumer
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final FileWithMetadata END_OF_WALK = new FileWithMetadata(null, "", 0, null);
+
+    private final BlockingQueue<FileWithMetadata> queue;
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private volatile RuntimeException failure = null;
+    private boolean ended = false;
+
+    /**
+     * Starts walking with a queue of {@link #DEFAULT_CAPACITY} files.
+     *
+     * @param filesToSend List of files or directories
+     */
+    public FileWalker(List<File> filesToSend) {
+        this(filesToSend, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Starts walking.
+     *
+     * @param filesToSend List of files or directories
+     * @param capacity    the number of files that are buffered ahead of the consumer
+     */
+    public FileWalker(List<File> filesToSend, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(() -> walk(filesToSend), "file-walker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the next file.
+     *
+     * @return the next file or null if all files were found
+     * @throws IOException if the walk failed or the thread is interrupted while waiting
+     */
+    public FileWithMetadata next() throws IOException {
+        if (ended) return null;
+        try {
+            FileWithMetadata file = queue.take();
+            if (file != END_OF_WALK) return file;
+            ended = true;
+            if (failure != null) throw new IOException("Could not list files", failure);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing files");
+        }
+    }
+
+    /**
+     * @return whether {@link #next()} returns without waiting
+     */
+    public boolean hasNextReady() {
+        return ended || !queue.isEmpty();
+    }
+
+    /**
+     * Stops the walk if it is still running.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        queue.clear();
+    }
+
+    private void walk(List<File> filesToSend) {
+        try {
+            FileExpander.walk(filesToSend, file -> {
+                if (closed) throw new WalkCancelledException();
+                put(file);
+            });
+        } catch (WalkCancelledException e) {
+            // the consumer is no longer interested in the files
+            return;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        try {
+            put(END_OF_WALK);
+        } catch (WalkCancelledException ignored) {
+        }
+    }
+
+    private void put(FileWithMetadata file) {
+        try {
+            queue.put(file);
+        } catch (InterruptedException e) {
+            throw new WalkCancelledException();
+        }
+    }
+
+    private static class WalkCancelledException extends RuntimeException {
+    }
+}
@@ -22,6 +22,18 @@ public class FileWithMetadata {
      * Weather or not the file was transmitted successfully
      */
     public Boolean transmissionSuccess;
+    /**
+     * The codec that is used to encode the file's content on the wire
+     */
+    public Codec codec = Codec.NONE;
+    /**
+     * The SHA-256 hash of the file's content as hex string or null if it is unknown
+     */
+    public String contentHash = null;
+    /**
+     * The block checksums of the older version of the file the receiver has or null if the file is sent completely
+     */
+    public DeltaSignature deltaSignature = null;
 
     public FileWithMetadata(File file, String relativePath, long sizeInBytes, Boolean transmissionSuccess) {
         this.file = file;
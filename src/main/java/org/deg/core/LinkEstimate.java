@@ -0,0 +1,224 @@
+package org.deg.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An estimate of the round-trip time and the bandwidth of the path to a peer. Their product, the bandwidth-delay
+ * product, is the number of bytes that are on the way at full speed, which the socket buffers must hold so that
+ * the sender never waits for acknowledgements. The transfer code sizes its buffers and the socket buffers from it.
+ * <p>
+ * The round-trip time is measured when a connection to the peer is opened, which takes exactly one round trip.
+ * The bandwidth is the throughput of the last large transmission to the peer, or {@link #DEFAULT_BYTES_PER_SECOND}
+ * before the first one. The sender announces its estimate in the metadata, so the receiver sizes its socket buffers
+ * the same way.
+ * <p>
+ * Setting a socket buffer switches off the autotuning of the operating system for that socket, which grows the
+ * buffers far enough for most local networks. The socket buffers are therefore only set on paths whose
+ * bandwidth-delay product exceeds what the autotuning reaches quickly, like Wi-Fi with a long round-trip time or
+ * networks bridged over a VPN, and only if the operating system allows buffers of that size. Linux, for example,
+ * limits buffers that are set explicitly to a fraction of what its autotuning reaches unless that limit was raised.
+ */
+public class LinkEstimate {
+    /**
+     * The bandwidth that is assumed before a transmission to the peer was measured, 1 Gbit/s
+     */
+    public static final long DEFAULT_BYTES_PER_SECOND = 125_000_000;
+    /**
+     * The round-trip time that is assumed before a connection to the peer was opened
+     */
+    public static final long DEFAULT_RTT_MICROS = 1000;
+    /**
+     * The smallest socket buffer size that is set, smaller buffers are left to the operating system
+     */
+    public static final int MIN_TUNED_SOCKET_BUFFER = 1024 * 1024;
+    /**
+     * The largest socket buffer size that is set
+     */
+    public static final int MAX_SOCKET_BUFFER = 16 * 1024 * 1024;
+    /**
+     * The smallest and largest buffer the transfer code reads into or writes from at once
+     */
+    private static final int MIN_BUFFER = 256 * 1024;
+    private static final int MAX_BUFFER = 4 * 1024 * 1024;
+    /**
+     * Transmissions with fewer bytes mostly measure the slow start of TCP, not the bandwidth
+     */
+    private static final long MIN_MEASURED_BYTES = 16 * 1024 * 1024;
+    /**
+     * The estimates by host address of the peer
+     */
+    private static final Map<String, LinkEstimate> estimates = new ConcurrentHashMap<>();
+    /**
+     * The largest socket buffer the operating system allows to set
+     */
+    private static final int socketBufferLimit = probeSocketBufferLimit();
+
+    /**
+     * The round-trip time in microseconds
+     */
+    public final long rttMicros;
+    /**
+     * The bandwidth in bytes per second
+     */
+    public final long bytesPerSecond;
+
+    /**
+     * Constructs an estimate.
+     *
+     * @param rttMicros      the round-trip time in microseconds
+     * @param bytesPerSecond the bandwidth in bytes per second
+     */
+    public LinkEstimate(long rttMicros, long bytesPerSecond) {
+        this.rttMicros = Math.max(1, rttMicros);
+        this.bytesPerSecond = Math.max(1, bytesPerSecond);
+    }
+
+    /**
+     * @return the number of bytes that are on the way at full speed
+     */
+    public long bandwidthDelayProduct() {
+        return (long) ((double) bytesPerSecond * rttMicros / 1_000_000);
+    }
+
+    /**
+     * @return the size of the socket buffers, twice the bandwidth-delay product so that a lost packet does not stall
+     * the connection, or 0 if the socket buffers are left to the operating system
+     */
+    public int socketBufferSize() {
+        long size = Math.min(MAX_SOCKET_BUFFER, 2 * bandwidthDelayProduct());
+        return size < MIN_TUNED_SOCKET_BUFFER ? 0 : (int) size;
+    }
+
+    /**
+     * @return the size of the buffers the transfer code reads into or writes from at once, a size class of the
+     * {@link BufferPool}. A buffer of the bandwidth-delay product fills the connection with a single write.
+     */
+    public int bufferSize() {
+        return BufferPool.SHARED.sizeClass((int) Math.max(MIN_BUFFER, Math.min(MAX_BUFFER, bandwidthDelayProduct())));
+    }
+
+    /**
+     * Disables Nagle's algorithm, so that small messages like chunk headers, responses and requests for corrupt
+     * chunks are not held back until earlier data is acknowledged, and sizes the socket buffers.
+     *
+     * @param channel the connection to the peer
+     */
+    public void apply(SocketChannel channel) {
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            int socketBufferSize = socketBufferSize();
+            // a buffer the operating system cuts down would be smaller than the one autotuning grows
+            if (socketBufferSize == 0 || socketBufferSize > socketBufferLimit) return;
+            // the buffers are only ever grown, the operating system may already use larger ones
+            if (channel.getOption(StandardSocketOptions.SO_SNDBUF) < socketBufferSize) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, socketBufferSize);
+            }
+            if (channel.getOption(StandardSocketOptions.SO_RCVBUF) < socketBufferSize) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, socketBufferSize);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not tune connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the estimate for a peer.
+     *
+     * @param host the host address of the peer
+     * @return the last estimate or the defaults if the peer is unknown
+     */
+    public static LinkEstimate forHost(String host) {
+        return estimates.getOrDefault(host, new LinkEstimate(DEFAULT_RTT_MICROS, DEFAULT_BYTES_PER_SECOND));
+    }
+
+    /**
+     * Tunes an accepted connection with the estimate for the peer at the other end, which is known if files were
+     * sent to it before, until the metadata of a transmission brings the estimate of the sender.
+     *
+     * @param channel the accepted connection
+     * @throws IOException if the connection is already closed
+     */
+    public static void tuneAccepted(SocketChannel channel) throws IOException {
+        InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
+        if (address == null) throw new IOException("Connection is closed");
+        forHost(address.getAddress().getHostAddress()).apply(channel);
+    }
+
+    /**
+     * Opens a connection, takes the time it took as round-trip time of the path and tunes the connection.
+     *
+     * @param address the address of the peer
+     * @return the connection
+     * @throws IOException if the peer cannot be reached
+     */
+    public static SocketChannel connect(InetSocketAddress address) throws IOException {
+        long start = System.nanoTime();
+        SocketChannel channel = SocketChannel.open(address);
+        long rttMicros = (System.nanoTime() - start) / 1000;
+        String host = address.getAddress().getHostAddress();
+        // smoothed like the round-trip time of TCP itself, a single slow connect does not blow up the buffers
+        LinkEstimate estimate = estimates.compute(host, (key, last) -> last == null
+                ? new LinkEstimate(rttMicros, DEFAULT_BYTES_PER_SECOND)
+                : new LinkEstimate((7 * last.rttMicros + rttMicros) / 8, last.bytesPerSecond));
+        estimate.apply(channel);
+        return channel;
+    }
+
+    /**
+     * Takes the throughput of a transmission as the bandwidth of the path. A throughput that was limited by the
+     * socket buffers still raises the estimate, as the buffers are twice the bandwidth-delay product.
+     *
+     * @param host  the host address of the peer
+     * @param bytes the number of bytes that were transmitted
+     * @param nanos the time the transmission of the bytes took
+     */
+    public static void recordThroughput(String host, long bytes, long nanos) {
+        if (bytes < MIN_MEASURED_BYTES || nanos <= 0) return;
+        long bytesPerSecond = (long) (bytes * 1e9 / nanos);
+        estimates.compute(host, (key, last) -> new LinkEstimate(last == null ? DEFAULT_RTT_MICROS : last.rttMicros, bytesPerSecond));
+    }
+
+    /**
+     * Asks for the largest socket buffers on a connection that is never opened and reads back what was granted.
+     */
+    private static int probeSocketBufferLimit() {
+        try (SocketChannel probe = SocketChannel.open()) {
+            probe.setOption(StandardSocketOptions.SO_SNDBUF, MAX_SOCKET_BUFFER);
+            probe.setOption(StandardSocketOptions.SO_RCVBUF, MAX_SOCKET_BUFFER);
+            return Math.min(probe.getOption(StandardSocketOptions.SO_SNDBUF), probe.getOption(StandardSocketOptions.SO_RCVBUF));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Formats the estimate for the metadata, see {@link #parse(String)}.
+     *
+     * @return the round-trip time in microseconds and the bandwidth in bytes per second, separated by a comma
+     */
+    public String format() {
+        return rttMicros + "," + bytesPerSecond;
+    }
+
+    /**
+     * Parses an estimate from the metadata.
+     *
+     * @param value the value formatted by {@link #format()}
+     * @return the estimate or null if the value is malformed
+     */
+    public static LinkEstimate parse(String value) {
+        if (value == null) return null;
+        String[] parts = value.split(",");
+        if (parts.length != 2) return null;
+        try {
+            return new LinkEstimate(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
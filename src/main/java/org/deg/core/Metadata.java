@@ -1,5 +1,6 @@
 package org.deg.core;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -10,6 +11,40 @@ public class Metadata {
     public List<String> fileNames;
     public List<Long> fileSizes;
     public Peer sender;
+    /**
+     * The transfer modes the sender supports, ordered by preference. Empty if the sender did not advertise any.
+     */
+    public List<TransferMode> transferModes = new ArrayList<>();
+    /**
+     * The codec of every file. Empty if the sender did not specify any, in which case no file is encoded.
+     */
+    public List<Codec> codecs = new ArrayList<>();
+    /**
+     * The number of parallel connections the sender would like to use
+     */
+    public int streams = 1;
+    /**
+     * An identifier the sender uses to attach additional connections to this transmission or to cancel it
+     */
+    public String transferId = null;
+    /**
+     * A fingerprint of the transmitted files that stays the same when the sender retries the transmission later.
+     * Null if the sender cannot resume transmissions.
+     */
+    public String resumeKey = null;
+    /**
+     * The content hash of every file, null for files whose hash is unknown. Empty if the sender did not send any.
+     */
+    public List<String> fileHashes = new ArrayList<>();
+    /**
+     * Whether the sender can follow every chunk with a CRC32C and send chunks again that arrived corrupt
+     */
+    public boolean checksums = false;
+    /**
+     * The estimate of the sender for the path between the peers, from which the receiver sizes its socket buffers.
+     * Null if the sender did not send one.
+     */
+    public LinkEstimate link = null;
 
     /**
      * Constructs a metadata object for a file.
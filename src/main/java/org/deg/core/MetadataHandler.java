@@ -2,21 +2,47 @@ package org.deg.core;
 
 import org.deg.backend.UserConfigurations;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import static org.deg.core.Constants.ACCEPT_TRANSMISSION_REQUEST;
+import static org.deg.core.Constants.DENY_TRANSMISSION_REQUEST;
 
 /**
  * Utility class for creating and parsing metadata objects
  * used in file transfer over the network.
  */
 public class MetadataHandler {
+    private static final String UNKNOWN_HASH = "-";
+    /**
+     * The version of the binary metadata format, the metadata string is version 1
+     */
+    public static final int BINARY_METADATA_VERSION = 2;
+    static final int FILE_ENTRY = 1;
+    static final int END_OF_FILES = 0;
+    private static final int MAX_STRING_LENGTH = 64 * 1024;
+    private static final int MAX_HASH_LENGTH = 64;
+    /**
+     * The largest number of files that is accepted in a transmission
+     */
+    static final int MAX_FILE_COUNT = 4 * 1024 * 1024;
 
     /**
      * Parses a metadata string into a Metadata object.
      * Expected format:
-     * FILE_COUNT:2|FILENAMES:file1.txt,file2.jpg|SIZES:12345,67890|SENDER_NAME:Alice|SENDER_IP:192.168.1.100|SENDER_PORT:9000
+     * FILE_COUNT:2|FILENAMES:file1.txt,file2.jpg|SIZES:12345,67890|SENDER_NAME:Alice|SENDER_IP:192.168.1.100|SENDER_PORT:9000|TRANSFER_MODES:CHANNEL,GZIP|CODECS:ND|STREAMS:4|TRANSFER_ID:3f2a...|RESUME_KEY:9c1e...|FILE_HASHES:a3f0...,-|CHECKSUMS:1|LINK:850,125000000
      *
      * @param metadataStr The metadata string.
      * @return Parsed Metadata object.
@@ -30,6 +56,14 @@ public class MetadataHandler {
         String senderIP = "UnknownSenderIP";
         int senderPort = -1;
         String profilePicName = "UnknownProfilePicName";
+        List<TransferMode> transferModes = new ArrayList<>();
+        List<Codec> codecs = new ArrayList<>();
+        int streams = 1;
+        String transferId = null;
+        String resumeKey = null;
+        List<String> fileHashes = new ArrayList<>();
+        boolean checksums = false;
+        LinkEstimate link = null;
 
         for (String part : parts) {
             String[] keyVal = part.split(":", 2);
@@ -59,23 +93,65 @@ public class MetadataHandler {
                     case "SENDER_PROFILE_PIC_NAME":
                         profilePicName = keyVal[1];
                         break;
+                    case "TRANSFER_MODES":
+                        for (String mode : keyVal[1].split(",")) {
+                            parseTransferMode(mode, transferModes);
+                        }
+                        break;
+                    case "CODECS":
+                        for (char id : keyVal[1].toCharArray()) {
+                            Codec codec = Codec.fromId(id);
+                            codecs.add(codec == null ? Codec.NONE : codec);
+                        }
+                        break;
+                    case "STREAMS":
+                        streams = Integer.parseInt(keyVal[1]);
+                        break;
+                    case "TRANSFER_ID":
+                        transferId = keyVal[1];
+                        break;
+                    case "RESUME_KEY":
+                        resumeKey = keyVal[1];
+                        break;
+                    case "FILE_HASHES":
+                        for (String hash : keyVal[1].split(",")) {
+                            fileHashes.add(hash.equals(UNKNOWN_HASH) ? null : hash);
+                        }
+                        break;
+                    case "CHECKSUMS":
+                        checksums = keyVal[1].equals("1");
+                        break;
+                    case "LINK":
+                        link = LinkEstimate.parse(keyVal[1]);
+                        break;
                 }
             }
         }
 
-        return new Metadata(fileCount, fileNames, fileSizes, new Peer(senderName, senderIP, senderPort, profilePicName));
+        Metadata metadata = new Metadata(fileCount, fileNames, fileSizes, new Peer(senderName, senderIP, senderPort, profilePicName));
+        metadata.transferModes = transferModes;
+        metadata.codecs = codecs;
+        metadata.streams = streams;
+        metadata.transferId = transferId;
+        metadata.resumeKey = resumeKey;
+        metadata.fileHashes = fileHashes;
+        metadata.checksums = checksums;
+        metadata.link = link;
+        return metadata;
     }
 
     /**
      * Builds a metadata string from a Metadata object.
      * Format:
-     * FILE_COUNT:2|FILENAMES:file1.txt,file2.jpg|SIZES:12345,67890|SENDER_NAME:Alice|SENDER_IP:192.168.1.100|SENDER_PORT:9000
+     * FILE_COUNT:2|FILENAMES:file1.txt,file2.jpg|SIZES:12345,67890|SENDER_NAME:Alice|SENDER_IP:192.168.1.100|SENDER_PORT:9000|TRANSFER_MODES:CHANNEL,GZIP|CODECS:ND|STREAMS:4|TRANSFER_ID:3f2a...|RESUME_KEY:9c1e...|FILE_HASHES:a3f0...,-|CHECKSUMS:1|LINK:850,125000000
      *
      * @param metadata The metadata to convert.
      * @return Formatted string for transmission.
      */
     public static String buildMetadata(Metadata metadata) {
         String fileNamesStr = String.join(",", metadata.fileNames);
+        StringBuilder codecsStr = new StringBuilder();
+        for (Codec codec : metadata.codecs) codecsStr.append(codec.id);
         StringBuilder fileSizesStr = new StringBuilder();
         for (int i = 0; i < metadata.fileSizes.size(); i++) {
             fileSizesStr.append(metadata.fileSizes.get(i));
@@ -90,16 +166,344 @@ public class MetadataHandler {
                 "|SENDER_NAME:" + metadata.sender.name() +
                 "|SENDER_IP:" + metadata.sender.ip() +
                 "|SENDER_PORT:" + metadata.sender.fileTransferPort() +
-                "|SENDER_PROFILE_PIC_NAME:" + metadata.sender.profilePicName();
+                "|SENDER_PROFILE_PIC_NAME:" + metadata.sender.profilePicName() +
+                (metadata.transferModes.isEmpty() ? "" : "|TRANSFER_MODES:" + String.join(",", metadata.transferModes.stream().map(Enum::name).toList())) +
+                (metadata.codecs.isEmpty() ? "" : "|CODECS:" + codecsStr) +
+                (metadata.streams <= 1 ? "" : "|STREAMS:" + metadata.streams) +
+                (metadata.transferId == null ? "" : "|TRANSFER_ID:" + metadata.transferId) +
+                (metadata.resumeKey == null ? "" : "|RESUME_KEY:" + metadata.resumeKey) +
+                (metadata.fileHashes.isEmpty() ? "" : "|FILE_HASHES:" + String.join(",", metadata.fileHashes.stream().map(h -> h == null ? UNKNOWN_HASH : h).toList())) +
+                (metadata.checksums ? "|CHECKSUMS:1" : "") +
+                (metadata.link == null ? "" : "|LINK:" + metadata.link.format());
+    }
+
+    /**
+     * Writes a Metadata object in the binary format, see {@link #readBinaryMetadata(DataInputStream)}.
+     *
+     * @param out      the stream to write to, it is flushed but not closed
+     * @param metadata the metadata to write
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeBinaryMetadata(OutputStream out, Metadata metadata) throws IOException {
+        BinaryMetadataWriter writer = new BinaryMetadataWriter(out, metadata);
+        for (int i = 0; i < metadata.fileCount; i++) {
+            writer.writeFile(
+                    metadata.fileNames.get(i),
+                    metadata.fileSizes.get(i),
+                    i < metadata.codecs.size() ? metadata.codecs.get(i) : Codec.NONE,
+                    i < metadata.fileHashes.size() ? metadata.fileHashes.get(i) : null);
+        }
+        writer.finish(metadata);
+    }
+
+    /**
+     * Reads a Metadata object in the binary format. Unlike the metadata string it has no separators that can
+     * clash with file names, and it is written by a {@link BinaryMetadataWriter} while the files are still being
+     * found. It is framed by a {@link SegmentedOutputStream} and contains:
+     * <ul>
+     *     <li>the version {@link #BINARY_METADATA_VERSION} as byte</li>
+     *     <li>header fields, with the same keys as the metadata string</li>
+     *     <li>for every file {@link #FILE_ENTRY}, its path, its size, the id of its codec and its content hash</li>
+     *     <li>{@link #END_OF_FILES} and trailer fields that depend on all files, like the resume key</li>
+     * </ul>
+     * Fields are their number followed by every key and value. Numbers are unsigned varints, strings are their
+     * length in bytes followed by their UTF-8 bytes and a content hash is its length as byte followed by its raw
+     * bytes, 0 if the hash is unknown. The files are parsed one after another as their segments arrive.
+     *
+     * @param dis the stream to read from, nothing beyond the metadata is read from it
+     * @return the parsed Metadata object
+     * @throws IOException if an I/O error occurs or the metadata is malformed
+     */
+    public static Metadata readBinaryMetadata(DataInputStream dis) throws IOException {
+        SegmentedInputStream in = new SegmentedInputStream(dis, SegmentedOutputStream.DEFAULT_SEGMENT_SIZE);
+        int version = in.read();
+        if (version != BINARY_METADATA_VERSION) throw new IOException("Received metadata of unsupported version " + version);
+
+        Metadata metadata = new Metadata(0, new ArrayList<>(), new ArrayList<>(), null);
+        Map<String, String> fields = new LinkedHashMap<>();
+        readFields(in, fields);
+        HexFormat hex = HexFormat.of();
+        boolean anyHash = false;
+        int entry;
+        while ((entry = readByte(in)) == FILE_ENTRY) {
+            if (metadata.fileNames.size() == MAX_FILE_COUNT) throw new IOException("Received metadata of more than " + MAX_FILE_COUNT + " files");
+            metadata.fileNames.add(readString(in));
+            long size = readVarLong(in);
+            if (size < 0) throw new IOException("Received invalid file size " + size);
+            metadata.fileSizes.add(size);
+            Codec codec = Codec.fromId((char) readByte(in));
+            metadata.codecs.add(codec == null ? Codec.NONE : codec);
+            int hashLength = readByte(in);
+            if (hashLength > MAX_HASH_LENGTH) throw new IOException("Received malformed content hash");
+            byte[] hashBytes = readFully(in, hashLength);
+            metadata.fileHashes.add(hashLength == 0 ? null : hex.formatHex(hashBytes));
+            anyHash |= hashLength > 0;
+        }
+        if (entry != END_OF_FILES) throw new IOException("Received malformed metadata entry " + entry);
+        readFields(in, fields);
+        in.close();
+
+        metadata.fileCount = metadata.fileNames.size();
+        if (!anyHash) metadata.fileHashes = new ArrayList<>();
+        try {
+            metadata.sender = new Peer(
+                    fields.getOrDefault("SENDER_NAME", "UnknownSenderName"),
+                    fields.getOrDefault("SENDER_IP", "UnknownSenderIP"),
+                    Integer.parseInt(fields.getOrDefault("SENDER_PORT", "-1")),
+                    fields.getOrDefault("SENDER_PROFILE_PIC_NAME", "UnknownProfilePicName"));
+            if (fields.containsKey("TRANSFER_MODES")) {
+                for (String mode : fields.get("TRANSFER_MODES").split(",")) {
+                    parseTransferMode(mode, metadata.transferModes);
+                }
+            }
+            metadata.streams = Integer.parseInt(fields.getOrDefault("STREAMS", "1"));
+        } catch (NumberFormatException e) {
+            throw new IOException("Received malformed metadata field: " + e.getMessage());
+        }
+        // fields of newer peers that we do not know are ignored
+        metadata.transferId = fields.get("TRANSFER_ID");
+        metadata.resumeKey = fields.get("RESUME_KEY");
+        metadata.checksums = "1".equals(fields.get("CHECKSUMS"));
+        metadata.link = LinkEstimate.parse(fields.get("LINK"));
+        return metadata;
+    }
+
+    /**
+     * Parses the response of a receiver to a transmission request.
+     * Expected format:
+     * ACCEPT_TRANSMISSION|TRANSFER_MODE:CHANNEL|STREAMS:4|RESUME:1|DELTA:1|PACKED:1|METADATA_VERSION:2|SESSIONS:1|CHECKSUMS:1|CANCEL:1 or DENY_TRANSMISSION
+     * Receivers that do not know about transfer modes only answer with ACCEPT_TRANSMISSION, which implies
+     * {@link TransferMode#GZIP}.
+     *
+     * @param responseStr The response string.
+     * @return Parsed TransmissionResponse object.
+     * @throws IOException if a number in the response is malformed
+     */
+    public static TransmissionResponse parseTransmissionResponse(String responseStr) throws IOException {
+        String[] parts = responseStr.split("\\|");
+        TransmissionResponse response = new TransmissionResponse(parts[0].equals(ACCEPT_TRANSMISSION_REQUEST), TransferMode.GZIP);
+        try {
+            parseResponseFields(parts, response);
+        } catch (NumberFormatException e) {
+            throw new IOException("Received malformed transmission response: " + e.getMessage());
+        }
+        return response;
+    }
+
+    private static void parseResponseFields(String[] parts, TransmissionResponse response) {
+        for (int i = 1; i < parts.length; i++) {
+            String[] keyVal = parts[i].split(":", 2);
+            if (keyVal.length != 2) continue;
+            switch (keyVal[0]) {
+                case "TRANSFER_MODE":
+                    List<TransferMode> modes = new ArrayList<>();
+                    parseTransferMode(keyVal[1], modes);
+                    if (!modes.isEmpty()) response.transferMode = modes.get(0);
+                    break;
+                case "STREAMS":
+                    response.streams = Integer.parseInt(keyVal[1]);
+                    break;
+                case "RESUME":
+                    response.resume = keyVal[1].equals("1");
+                    break;
+                case "DELTA":
+                    response.delta = keyVal[1].equals("1");
+                    break;
+                case "PACKED":
+                    response.packedFiles = keyVal[1].equals("1");
+                    break;
+                case "METADATA_VERSION":
+                    response.metadataVersion = Integer.parseInt(keyVal[1]);
+                    break;
+                case "SESSIONS":
+                    response.sessions = keyVal[1].equals("1");
+                    break;
+                case "CHECKSUMS":
+                    response.checksums = keyVal[1].equals("1");
+                    break;
+                case "CANCEL":
+                    response.cancel = keyVal[1].equals("1");
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Builds the response string for a transmission request.
+     * Format:
+     * ACCEPT_TRANSMISSION|TRANSFER_MODE:CHANNEL|STREAMS:4|RESUME:1|DELTA:1|PACKED:1|METADATA_VERSION:2|SESSIONS:1|CHECKSUMS:1|CANCEL:1 or DENY_TRANSMISSION
+     *
+     * @param response The response to convert.
+     * @return Formatted string for transmission.
+     */
+    public static String buildTransmissionResponse(TransmissionResponse response) {
+        if (!response.accepted) return DENY_TRANSMISSION_REQUEST;
+        if (response.transferMode == null) return ACCEPT_TRANSMISSION_REQUEST;
+        return ACCEPT_TRANSMISSION_REQUEST + "|TRANSFER_MODE:" + response.transferMode.name() +
+                (response.streams <= 1 ? "" : "|STREAMS:" + response.streams) +
+                (response.resume ? "|RESUME:1" : "") +
+                (response.delta ? "|DELTA:1" : "") +
+                (response.packedFiles ? "|PACKED:1" : "") +
+                (response.metadataVersion <= 1 ? "" : "|METADATA_VERSION:" + response.metadataVersion) +
+                (response.sessions ? "|SESSIONS:1" : "") +
+                (response.checksums ? "|CHECKSUMS:1" : "") +
+                (response.cancel ? "|CANCEL:1" : "");
+    }
+
+    /**
+     * Writes the number of bytes the receiver already has of every file. Only files with a non-zero offset are written.
+     *
+     * @param dos          the stream to write to
+     * @param startOffsets the offset of every file
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeStartOffsets(DataOutputStream dos, long[] startOffsets) throws IOException {
+        int count = 0;
+        for (long offset : startOffsets) if (offset > 0) count++;
+        dos.writeInt(count);
+        for (int i = 0; i < startOffsets.length; i++) {
+            if (startOffsets[i] > 0) {
+                dos.writeInt(i);
+                dos.writeLong(startOffsets[i]);
+            }
+        }
+        dos.flush();
+    }
+
+    /**
+     * Reads the number of bytes the receiver already has of every file.
+     *
+     * @param dis       the stream to read from
+     * @param fileCount the number of files of the transmission
+     * @return the offset of every file
+     * @throws IOException if an I/O error occurs or an offset refers to an unknown file
+     */
+    public static long[] readStartOffsets(DataInputStream dis, int fileCount) throws IOException {
+        long[] startOffsets = new long[fileCount];
+        int count = dis.readInt();
+        for (int i = 0; i < count; i++) {
+            int fileIndex = dis.readInt();
+            long offset = dis.readLong();
+            if (fileIndex < 0 || fileIndex >= fileCount || offset < 0) throw new IOException("Received invalid resume offset");
+            startOffsets[fileIndex] = offset;
+        }
+        return startOffsets;
     }
 
-    public static List<FileWithMetadata> buildFilesWithMetadataList(Metadata metadata) {
+    /**
+     * Writes the block checksums of the older versions of all files that have some.
+     *
+     * @param dos   the stream to write to
+     * @param files the files of the transmission
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeDeltaSignatures(DataOutputStream dos, List<FileWithMetadata> files) throws IOException {
+        int count = (int) files.stream().filter(f -> f.deltaSignature != null).count();
+        dos.writeInt(count);
+        for (int i = 0; i < files.size(); i++) {
+            if (files.get(i).deltaSignature != null) {
+                dos.writeInt(i);
+                files.get(i).deltaSignature.write(dos);
+            }
+        }
+        dos.flush();
+    }
+
+    /**
+     * Reads the block checksums of the older versions the receiver has and attaches them to the files.
+     *
+     * @param dis   the stream to read from
+     * @param files the files of the transmission
+     * @throws IOException if an I/O error occurs or the checksums refer to an unknown file
+     */
+    public static void readDeltaSignatures(DataInputStream dis, List<FileWithMetadata> files) throws IOException {
+        int count = dis.readInt();
+        for (int i = 0; i < count; i++) {
+            int fileIndex = dis.readInt();
+            if (fileIndex < 0 || fileIndex >= files.size()) throw new IOException("Received block checksums of unknown file");
+            files.get(fileIndex).deltaSignature = DeltaSignature.read(dis);
+        }
+    }
+
+    private static void readFields(InputStream in, Map<String, String> fields) throws IOException {
+        long count = readVarLong(in);
+        for (long i = 0; i < count; i++) {
+            String key = readString(in);
+            fields.put(key, readString(in));
+        }
+    }
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Received malformed varint");
+    }
+
+    static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length > MAX_STRING_LENGTH) throw new IOException("Received string of invalid length " + length);
+        return new String(readFully(in, (int) length), StandardCharsets.UTF_8);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException("Metadata ended early");
+        return b;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) throw new EOFException("Metadata ended early");
+        return bytes;
+    }
+
+    private static void parseTransferMode(String mode, List<TransferMode> modes) {
+        try {
+            modes.add(TransferMode.valueOf(mode));
+        } catch (IllegalArgumentException ignored) {
+            // transfer modes of newer peers that we do not know are skipped
+        }
+    }
+
+    /**
+     * Builds the files that are received from parsed metadata.
+     *
+     * @param metadata the metadata of the transmission
+     * @return the files under the save path
+     * @throws IOException if the metadata lists fewer files than it announces or a file of negative size
+     */
+    public static List<FileWithMetadata> buildFilesWithMetadataList(Metadata metadata) throws IOException {
+        if (metadata.fileCount < 0 || metadata.fileCount > MAX_FILE_COUNT
+                || metadata.fileNames.size() < metadata.fileCount || metadata.fileSizes.size() < metadata.fileCount) {
+            throw new IOException("Received metadata of " + metadata.fileCount + " files with " + metadata.fileNames.size() + " names and " + metadata.fileSizes.size() + " sizes");
+        }
         List<FileWithMetadata> receivedFiles = new ArrayList<>();
         for (int i = 0; i < metadata.fileCount; i++) {
             String name = metadata.fileNames.get(i).replace("/", File.separator);
             File file = new File(UserConfigurations.DEFAULT_SAFE_PATH, name);
             long size = metadata.fileSizes.get(i);
+            if (size < 0) throw new IOException("Received invalid file size " + size);
             FileWithMetadata fileWithMetadata = new FileWithMetadata(file, name, size, null);
+            if (i < metadata.codecs.size()) fileWithMetadata.codec = metadata.codecs.get(i);
+            if (i < metadata.fileHashes.size()) fileWithMetadata.contentHash = metadata.fileHashes.get(i);
             receivedFiles.add(fileWithMetadata);
         }
         return receivedFiles;
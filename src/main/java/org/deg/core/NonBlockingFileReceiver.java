@@ -0,0 +1,1163 @@
+package org.deg.core;
+
+import javafx.util.Pair;
+import org.deg.backend.UserConfigurations;
+import org.deg.core.callbacks.FileReceivingEventHandler;
+import org.deg.core.callbacks.ProgressTracker;
+import org.deg.utils.Utils;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.deg.core.Constants.BINARY_METADATA;
+import static org.deg.core.Constants.CANCEL_TRANSMISSION;
+
+/**
+ * A receiver for machines that many peers send to at the same time. Instead of a thread per connection, a few event
+ * loops serve all connections with a {@link Selector} each, and the received data is written to disk by a separate
+ * pool of I/O threads. A connection that waits for data only holds a few bytes for the next header, buffers are
+ * taken from the {@link BufferPool} only while data arrives. Every connection has at most
+ * {@link #MAX_PENDING_BYTES} bytes waiting for the I/O threads; beyond that it is not read until the disk caught up,
+ * which holds up its sender through the TCP window.
+ * <p>
+ * It speaks the same protocol as {@link FileReceiver}, but answers without the features that need a thread per
+ * connection: it does not accept sessions, additional connections or deltas, so senders fall back to a single
+ * connection per transmission and send changed large files completely. Resuming, skipping unchanged files, packs of
+ * small files, checksums, the binary metadata and cancelling work as with {@link FileReceiver}.
+ */
+public class NonBlockingFileReceiver implements FileReceivingServer {
+    /**
+     * The default number of event loops
+     */
+    public static final int DEFAULT_EVENT_LOOPS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    /**
+     * The default number of threads that write the received data to disk
+     */
+    public static final int DEFAULT_IO_THREADS = 8;
+    /**
+     * The maximum number of received bytes of a connection that wait to be written
+     */
+    private static final int MAX_PENDING_BYTES = 4 * BufferPool.DEFAULT_BUFFER_SIZE;
+    /**
+     * The maximum size of a chunk that is buffered completely before it is handed to the I/O threads, which are
+     * deflated chunks and packs of small files. Plain chunks are handed over in pieces.
+     */
+    private static final int MAX_FRAME_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_METADATA_SIZE = 256 * 1024 * 1024;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 30_000;
+    private static final int SELECT_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_RETRANSMIT_ROUNDS = 3;
+
+    private final int port;
+    private final Semaphore transmissionPermits;
+    private final EventLoop[] eventLoops;
+    private final ExecutorService ioPool;
+    private final ThreadFactory handshakeThreads = Utils.virtualThreadFactory();
+    private final List<Pair<Peer, File>> receivedLog = Collections.synchronizedList(new ArrayList<>());
+    private final Set<Transmission> activeTransmissions = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = false;
+    private volatile FileReceivingEventHandler callback = null;
+    private ServerSocketChannel serverSocket;
+    private int nextEventLoop = 0;
+
+    /**
+     * Constructs a receiver with the default number of event loops and I/O threads.
+     *
+     * @param port             the TCP port to listen on
+     * @param maxTransmissions the maximum number of transmissions that are received at the same time, further
+     *                         senders wait in arrival order
+     */
+    public NonBlockingFileReceiver(int port, int maxTransmissions) {
+        this(port, maxTransmissions, DEFAULT_EVENT_LOOPS, DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * Constructs a receiver.
+     *
+     * @param port             the TCP port to listen on
+     * @param maxTransmissions the maximum number of transmissions that are received at the same time, further
+     *                         senders wait in arrival order
+     * @param eventLoops       the number of threads that serve the connections
+     * @param ioThreads        the number of threads that write the received data to disk
+     */
+    public NonBlockingFileReceiver(int port, int maxTransmissions, int eventLoops, int ioThreads) {
+        this.port = port;
+        this.transmissionPermits = new Semaphore(Math.max(1, maxTransmissions), true);
+        this.eventLoops = new EventLoop[Math.max(1, eventLoops)];
+        this.ioPool = Executors.newFixedThreadPool(Math.max(1, ioThreads), runnable -> {
+            Thread thread = new Thread(runnable, "receiver-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the event loops and accepts connections until the receiver is stopped.
+     */
+    @Override
+    public void run() {
+        running = true;
+        try {
+            serverSocket = ServerSocketChannel.open();
+            serverSocket.bind(new InetSocketAddress(port));
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop();
+                Thread thread = new Thread(eventLoops[i], "receiver-event-loop-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            System.out.println("Receiver listening on port " + port + " (" + eventLoops.length + " event loops)...");
+            while (running) {
+                SocketChannel channel;
+                try {
+                    channel = serverSocket.accept();
+                } catch (IOException e) {
+                    if (!running) break;
+                    throw e;
+                }
+                EventLoop eventLoop = eventLoops[nextEventLoop];
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+                eventLoop.execute(() -> eventLoop.register(channel));
+            }
+        } catch (IOException e) {
+            System.err.println("Receiver error: " + e.getMessage());
+            if (callback != null) callback.onReceivingError(e);
+        } finally {
+            try {
+                if (serverSocket != null && serverSocket.isOpen()) serverSocket.close();
+            } catch (IOException ignored) {
+            }
+            for (EventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) eventLoop.selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Stops the receiver and closes all connections.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null && serverSocket.isOpen()) serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error while closing server socket: " + e.getMessage());
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) eventLoop.selector.wakeup();
+        }
+    }
+
+    @Override
+    public void setEventHandler(FileReceivingEventHandler callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Cancels a transmission that is being received like {@link FileReceiver#cancel(List)} does it.
+     *
+     * @param files the list of files that identifies the transmission, see {@link FileReceivingEventHandler}
+     * @return whether the transmission was being received
+     */
+    @Override
+    public boolean cancel(List<FileWithMetadata> files) {
+        for (Transmission transmission : activeTransmissions) {
+            if (transmission.files == files) {
+                System.out.println("Cancelling transmission of " + files.size() + " files");
+                Connection connection = transmission.connection;
+                connection.eventLoop.execute(() -> connection.cancel(false));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<Pair<Peer, File>> getReceivedLog() {
+        return receivedLog;
+    }
+
+    /**
+     * Reads the metadata, asks for acceptance and answers the sender. This runs on a thread of its own, because the
+     * user may take a while to decide and files that may be skipped are hashed.
+     */
+    private void handshake(Connection connection, byte[] metadataBytes, boolean binary) {
+        Transmission transmission = null;
+        try {
+            Metadata metadata = binary
+                    ? MetadataHandler.readBinaryMetadata(new DataInputStream(new ByteArrayInputStream(metadataBytes)))
+                    : MetadataHandler.parseMetadata(new String(metadataBytes, StandardCharsets.UTF_8));
+            List<FileWithMetadata> receivedFiles = MetadataHandler.buildFilesWithMetadataList(metadata);
+            System.out.println("Transmission request received from " + metadata.sender.name() + " (" + metadata.fileCount + " files)");
+            LinkEstimate link = FileReceiver.linkEstimate(metadata);
+            link.apply(connection.channel);
+            Transmission requested = new Transmission(connection, metadata, receivedFiles);
+            if (!transmissionPermits.tryAcquire()) {
+                System.out.println("Maximum number of receiving sessions reached, waiting for a free slot...");
+                transmissionPermits.acquireUninterruptibly();
+            }
+            transmission = requested;
+            activeTransmissions.add(transmission);
+            connection.transmission = transmission;
+
+            TransferMode transferMode = metadata.transferModes.isEmpty() ? null : metadata.transferModes.get(0);
+            ByteArrayOutputStream answer = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(answer);
+            boolean accept = callback == null || callback.onIncomingFiles(receivedFiles, metadata.sender);
+            if (!accept || transmission.cancelled) {
+                dos.writeUTF(MetadataHandler.buildTransmissionResponse(new TransmissionResponse(false, null)));
+                System.out.println("Deny transmission request");
+                connection.eventLoop.execute(() -> connection.deny(answer.toByteArray()));
+                return;
+            }
+            TransmissionResponse response = new TransmissionResponse(true, transferMode);
+            response.metadataVersion = MetadataHandler.BINARY_METADATA_VERSION;
+            response.cancel = true;
+            long[] startOffsets = new long[receivedFiles.size()];
+            if (transferMode == TransferMode.CHANNEL) {
+                if (ResumeJournal.isValidKey(metadata.resumeKey)) transmission.journal = FileReceiver.openJournal(metadata.resumeKey, receivedFiles);
+                if (transmission.journal != null) startOffsets = transmission.journal.offsets();
+                FileReceiver.skipUnchangedFiles(receivedFiles, startOffsets);
+                response.resume = transmission.journal != null || Arrays.stream(startOffsets).anyMatch(offset -> offset > 0);
+                response.packedFiles = true;
+                response.checksums = metadata.checksums;
+                transmission.checksums = metadata.checksums;
+                transmission.chunkReceiver = new ChunkReceiver(metadata.sender, receivedFiles, callback, receivedLog, startOffsets, transmission.journal, transmission.durabilityPolicy, metadata.checksums, link.bufferSize());
+            } else {
+                transmission.gzipSink = new GzipSink(transmission);
+            }
+            dos.writeUTF(MetadataHandler.buildTransmissionResponse(response));
+            if (response.resume) MetadataHandler.writeStartOffsets(dos, startOffsets);
+            System.out.println("Accept transmission request");
+            System.out.println("Start receiving of " + receivedFiles.size() + " files");
+            connection.eventLoop.execute(() -> connection.startContent(answer.toByteArray(), transferMode == TransferMode.CHANNEL));
+        } catch (IOException | RuntimeException e) {
+            // the sender waits for an answer, so the connection is closed to end its wait
+            IOException failure = e instanceof IOException ioException ? ioException : new IOException(e);
+            connection.eventLoop.execute(connection::close);
+            if (transmission != null) {
+                // releases the permit of the transmission
+                transmission.abort(failure);
+            } else {
+                System.err.println("Error during file reception: " + failure.getMessage());
+                if (callback != null) callback.onReceivingError(failure);
+            }
+        }
+    }
+
+    /**
+     * A transmission that is being received.
+     */
+    private class Transmission {
+        final Connection connection;
+        final Metadata metadata;
+        final List<FileWithMetadata> files;
+        final DurabilityPolicy durabilityPolicy = UserConfigurations.DURABILITY_POLICY;
+        final AtomicBoolean ended = new AtomicBoolean();
+        ResumeJournal journal = null;
+        ChunkReceiver chunkReceiver = null;
+        GzipSink gzipSink = null;
+        boolean checksums = false;
+        /**
+         * The number of times corrupt chunks were requested again, only used by the I/O threads
+         */
+        int retransmitRounds = 0;
+        boolean accepted = false;
+        volatile boolean cancelled = false;
+        volatile boolean cancelledBySender = false;
+
+        Transmission(Connection connection, Metadata metadata, List<FileWithMetadata> files) {
+            this.connection = connection;
+            this.metadata = metadata;
+            this.files = files;
+        }
+
+        /**
+         * Ends the transmission once, after which another transmission may start.
+         *
+         * @return whether the transmission was still running
+         */
+        boolean end() {
+            if (!ended.compareAndSet(false, true)) return false;
+            activeTransmissions.remove(this);
+            transmissionPermits.release();
+            return true;
+        }
+
+        /**
+         * Completes the transmission after all data was written. Runs on the I/O threads.
+         */
+        void complete() throws IOException {
+            if (!end()) return;
+            try {
+                if (chunkReceiver != null) chunkReceiver.finish();
+                if (durabilityPolicy == DurabilityPolicy.GROUP) {
+                    ReceivedFileWriter.forceAll(files.stream().filter(f -> Boolean.TRUE.equals(f.transmissionSuccess)).map(f -> f.file).toList());
+                }
+            } finally {
+                closeJournal();
+            }
+            System.out.println("All files received successfully");
+            if (callback != null) callback.onReceivingFinished(files, metadata.sender);
+        }
+
+        /**
+         * Ends a transmission that failed or was cancelled. Partially received files are kept for resuming if
+         * there is a journal. Runs on the I/O threads after all data that arrived before was written.
+         */
+        void abort(IOException failure) {
+            if (!end()) return;
+            if (chunkReceiver != null) {
+                if (cancelled && journal == null) chunkReceiver.discardPartialFiles();
+                chunkReceiver.finish();
+            }
+            if (gzipSink != null) gzipSink.abort(cancelled);
+            closeJournal();
+            if (cancelled) {
+                System.out.println("Transmission from " + metadata.sender.name() + " was cancelled" + (cancelledBySender ? " by the sender" : ""));
+                if (callback != null) callback.onReceivingCancelled(files, metadata.sender, cancelledBySender);
+                return;
+            }
+            System.err.println("Error during file reception from " + metadata.sender.name() + ": " + failure.getMessage());
+            if (callback != null) callback.onReceivingFailed(files, metadata.sender, failure);
+        }
+
+        private void closeJournal() {
+            // the journal is kept as long as there is something left to resume
+            if (journal == null) return;
+            if (files.stream().allMatch(f -> Boolean.TRUE.equals(f.transmissionSuccess))) journal.delete();
+            else journal.close();
+        }
+    }
+
+    /**
+     * The phases of a connection, which tell what the event loop reads next
+     */
+    private enum Phase {
+        FIRST_INT, METADATA, METADATA_SEGMENT_LENGTH, METADATA_SEGMENT, CANCEL_ID_LENGTH, CANCEL_ID, HANDSHAKE,
+        CHUNK_HEADER, CHUNK_FRAME, CHUNK_CONTENT, CHUNK_CHECKSUM, END_OF_CHUNKS, GZIP, DONE
+    }
+
+    /**
+     * The state of a connection. The fields that are not marked otherwise are only used by its event loop.
+     */
+    private class Connection {
+        final SocketChannel channel;
+        final EventLoop eventLoop;
+        final SerialTasks tasks = new SerialTasks(this);
+        final AtomicLong pendingBytes = new AtomicLong();
+        final ByteBuffer small = ByteBuffer.allocate(ChunkHeader.SIZE);
+        final Queue<ByteBuffer> outgoing = new ArrayDeque<>();
+        final long connectedAt = System.currentTimeMillis();
+        SelectionKey key;
+        Phase phase = Phase.FIRST_INT;
+        volatile Transmission transmission = null;
+        boolean paused = false;
+        boolean closeAfterWrite = false;
+        ByteArrayOutputStream metadata;
+        ByteBuffer frame;
+        ByteBuffer content;
+        ChunkHeader header;
+        long contentPosition;
+        long contentRemaining;
+        /**
+         * The state of the plain chunk that is being written, only used by the I/O threads
+         */
+        ReceivedFileWriter chunkWriter;
+        final CRC32C chunkCrc = new CRC32C();
+        final Inflater inflater = new Inflater(true);
+
+        Connection(SocketChannel channel, EventLoop eventLoop) {
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+            small.limit(Integer.BYTES);
+        }
+
+        void handle() {
+            try {
+                if (key.isValid() && key.isWritable()) flush();
+                if (key.isValid() && key.isReadable()) read();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Reads and dispatches as much as is available and allowed.
+         */
+        void read() throws IOException {
+            while (!paused && key.isValid()) {
+                if (!step()) return;
+            }
+        }
+
+        /**
+         * Reads the next part of the current phase.
+         *
+         * @return whether the phase may go on reading
+         */
+        private boolean step() throws IOException {
+            switch (phase) {
+                case FIRST_INT -> {
+                    if (!fill(small)) return false;
+                    int firstInt = small.flip().getInt();
+                    if (firstInt == BINARY_METADATA) {
+                        metadata = new ByteArrayOutputStream();
+                        expect(Integer.BYTES, Phase.METADATA_SEGMENT_LENGTH);
+                    } else if (firstInt == CANCEL_TRANSMISSION) {
+                        expect(Short.BYTES, Phase.CANCEL_ID_LENGTH);
+                    } else if (firstInt < 0 || firstInt > MAX_METADATA_SIZE) {
+                        // additional connections and sessions are never offered by this receiver
+                        throw new IOException("Received unsupported connection " + firstInt);
+                    } else {
+                        frame = ByteBuffer.allocate(firstInt);
+                        phase = Phase.METADATA;
+                    }
+                }
+                case METADATA -> {
+                    if (!fill(frame)) return false;
+                    startHandshake(frame.array(), false);
+                    frame = null;
+                }
+                case METADATA_SEGMENT_LENGTH -> {
+                    if (!fill(small)) return false;
+                    int segmentLength = small.flip().getInt();
+                    metadata.write(small.array(), 0, Integer.BYTES);
+                    if (segmentLength == 0) {
+                        byte[] metadataBytes = metadata.toByteArray();
+                        metadata = null;
+                        startHandshake(metadataBytes, true);
+                    } else {
+                        if (segmentLength < 0 || segmentLength > SegmentedOutputStream.DEFAULT_SEGMENT_SIZE || metadata.size() + segmentLength > MAX_METADATA_SIZE) {
+                            throw new IOException("Received segment of invalid length " + segmentLength);
+                        }
+                        frame = ByteBuffer.allocate(segmentLength);
+                        phase = Phase.METADATA_SEGMENT;
+                    }
+                }
+                case METADATA_SEGMENT -> {
+                    if (!fill(frame)) return false;
+                    metadata.write(frame.array(), 0, frame.capacity());
+                    frame = null;
+                    expect(Integer.BYTES, Phase.METADATA_SEGMENT_LENGTH);
+                }
+                case CANCEL_ID_LENGTH -> {
+                    if (!fill(small)) return false;
+                    // the id is read with its length, as it was written
+                    frame = ByteBuffer.allocate(Short.BYTES + (small.flip().getShort() & 0xFFFF)).put(small.flip());
+                    phase = Phase.CANCEL_ID;
+                }
+                case CANCEL_ID -> {
+                    if (!fill(frame)) return false;
+                    cancelBySender(new DataInputStream(new ByteArrayInputStream(frame.array())).readUTF());
+                    return false;
+                }
+                case CHUNK_HEADER -> {
+                    if (!fill(small)) return false;
+                    small.flip();
+                    startChunk(new ChunkHeader(small.getInt(), small.getLong(), small.getLong(), small.getLong()));
+                }
+                case CHUNK_FRAME -> {
+                    if (!fill(frame)) return false;
+                    ChunkHeader chunkHeader = header;
+                    ByteBuffer chunkFrame = frame;
+                    frame = null;
+                    dispatch(chunkFrame.capacity(), () -> transmission.chunkReceiver.receive(Channels.newChannel(new ByteArrayInputStream(chunkFrame.array())), chunkHeader, inflater));
+                    expect(ChunkHeader.SIZE, Phase.CHUNK_HEADER);
+                }
+                case CHUNK_CONTENT -> {
+                    return readContent();
+                }
+                case CHUNK_CHECKSUM -> {
+                    if (!fill(small)) return false;
+                    int checksum = small.flip().getInt();
+                    finishChunk(header, checksum);
+                }
+                case GZIP -> {
+                    return readGzip();
+                }
+                default -> {
+                    // the connection waits for the handshake or the I/O threads and reads nothing
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void startHandshake(byte[] metadataBytes, boolean binary) {
+            phase = Phase.HANDSHAKE;
+            updateInterest();
+            handshakeThreads.newThread(() -> handshake(this, metadataBytes, binary)).start();
+        }
+
+        /**
+         * Answers an accepted transmission and starts reading its content. Called by the handshake.
+         */
+        void startContent(byte[] answer, boolean chunks) {
+            if (phase == Phase.DONE || transmission.cancelled) {
+                // the sender disconnected or the transmission was cancelled while the user decided
+                if (phase != Phase.DONE) deny(answerDeny());
+                IOException failure = transmission.cancelled ? new TransferCancelledException("Transmission was cancelled") : new EOFException("Connection closed by sender");
+                tasks.submit(() -> transmission.abort(failure));
+                return;
+            }
+            transmission.accepted = true;
+            send(ByteBuffer.wrap(answer));
+            if (chunks) {
+                expect(ChunkHeader.SIZE, Phase.CHUNK_HEADER);
+            } else {
+                phase = Phase.GZIP;
+            }
+            updateInterest();
+            try {
+                read();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private byte[] answerDeny() {
+            ByteArrayOutputStream answer = new ByteArrayOutputStream();
+            try {
+                new DataOutputStream(answer).writeUTF(MetadataHandler.buildTransmissionResponse(new TransmissionResponse(false, null)));
+            } catch (IOException ignored) {
+            }
+            return answer.toByteArray();
+        }
+
+        /**
+         * Denies the transmission and closes the connection once the answer is sent. Called by the handshake.
+         */
+        void deny(byte[] answer) {
+            Transmission denied = transmission;
+            if (denied != null && denied.end() && denied.cancelled && callback != null) {
+                callback.onReceivingCancelled(denied.files, denied.metadata.sender, denied.cancelledBySender);
+            }
+            if (phase == Phase.DONE) return;
+            phase = Phase.DONE;
+            send(ByteBuffer.wrap(answer));
+            closeAfterWrite();
+        }
+
+        /**
+         * Decides how the content of a chunk is read: plain chunks are handed to the I/O threads in pieces, all other
+         * chunks are buffered completely.
+         */
+        private void startChunk(ChunkHeader chunkHeader) throws IOException {
+            Transmission current = transmission;
+            if (chunkHeader.isEndOfTransmission()) {
+                phase = Phase.END_OF_CHUNKS;
+                updateInterest();
+                tasks.submit(this::endOfChunks);
+                return;
+            }
+            boolean buffered = chunkHeader.fileIndex == ChunkHeader.PACKED_FILES
+                    || (chunkHeader.fileIndex >= 0 && chunkHeader.fileIndex < current.files.size() && current.files.get(chunkHeader.fileIndex).codec == Codec.DEFLATE);
+            header = chunkHeader;
+            if (buffered) {
+                long frameSize = chunkHeader.encodedLength + (current.checksums ? Integer.BYTES : 0);
+                if (chunkHeader.encodedLength < 0 || frameSize > MAX_FRAME_SIZE) throw new IOException("Received chunk of invalid length " + chunkHeader.encodedLength);
+                frame = ByteBuffer.allocate((int) frameSize);
+                phase = Phase.CHUNK_FRAME;
+                return;
+            }
+            if (chunkHeader.length < 0) throw new IOException("Received chunk of invalid length " + chunkHeader.length);
+            tasks.submit(() -> {
+                chunkWriter = transmission.chunkReceiver.startChunk(chunkHeader);
+                chunkCrc.reset();
+            });
+            contentPosition = chunkHeader.offset;
+            contentRemaining = chunkHeader.length;
+            phase = Phase.CHUNK_CONTENT;
+        }
+
+        /**
+         * Reads the content of a plain chunk into pooled buffers and hands every filled buffer to the I/O threads.
+         */
+        private boolean readContent() throws IOException {
+            if (contentRemaining > 0) {
+                if (content == null) {
+                    if (mustPause()) return false;
+                    content = BufferPool.SHARED.acquire();
+                    content.limit((int) Math.min(content.capacity(), contentRemaining));
+                }
+                int count = channel.read(content);
+                if (count < 0) throw new EOFException("Connection closed while receiving a chunk");
+                if (content.hasRemaining()) return count > 0;
+                ByteBuffer buffer = content.flip();
+                long position = contentPosition;
+                boolean checksums = transmission.checksums;
+                content = null;
+                contentPosition += buffer.remaining();
+                contentRemaining -= buffer.remaining();
+                dispatch(buffer.remaining(), () -> {
+                    try {
+                        if (checksums) chunkCrc.update(buffer.duplicate());
+                        if (chunkWriter != null) chunkWriter.write(buffer, position);
+                    } finally {
+                        BufferPool.SHARED.release(buffer);
+                    }
+                });
+                if (contentRemaining > 0) return true;
+            }
+            if (transmission.checksums) {
+                expect(Integer.BYTES, Phase.CHUNK_CHECKSUM);
+            } else {
+                finishChunk(header, 0);
+            }
+            return true;
+        }
+
+        private void finishChunk(ChunkHeader chunkHeader, int checksum) {
+            boolean checksums = transmission.checksums;
+            tasks.submit(() -> {
+                boolean intact = !checksums || checksum == (int) chunkCrc.getValue();
+                transmission.chunkReceiver.finishChunk(chunkHeader, chunkWriter, intact);
+                chunkWriter = null;
+            });
+            expect(ChunkHeader.SIZE, Phase.CHUNK_HEADER);
+        }
+
+        /**
+         * Runs on the I/O threads once all chunks before the end of the transmission are written. Chunks that
+         * arrived corrupt are requested again, otherwise the transmission is complete.
+         */
+        private void endOfChunks() throws IOException {
+            Transmission current = transmission;
+            if (!current.checksums) {
+                current.complete();
+                eventLoop.execute(this::closeAfterWrite);
+                return;
+            }
+            List<ChunkHeader> corruptChunks = current.chunkReceiver.takeCorruptChunks();
+            if (!corruptChunks.isEmpty() && ++current.retransmitRounds > MAX_RETRANSMIT_ROUNDS) {
+                System.err.println("Giving up on " + corruptChunks.size() + " corrupt chunks");
+                corruptChunks = List.of();
+            }
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            ChunkHeader.writeRetransmitRequest(new DataOutputStream(request), corruptChunks);
+            boolean more = !corruptChunks.isEmpty();
+            if (more) {
+                System.out.println("Requesting " + corruptChunks.size() + " corrupt chunks again");
+            } else {
+                current.complete();
+            }
+            eventLoop.execute(() -> {
+                if (phase == Phase.DONE) return;
+                send(ByteBuffer.wrap(request.toByteArray()));
+                if (more) {
+                    expect(ChunkHeader.SIZE, Phase.CHUNK_HEADER);
+                    updateInterest();
+                } else {
+                    closeAfterWrite();
+                }
+            });
+        }
+
+        /**
+         * Reads the GZIP stream into pooled buffers and hands them to the I/O threads in order.
+         */
+        private boolean readGzip() throws IOException {
+            if (content == null) {
+                if (mustPause()) return false;
+                content = BufferPool.SHARED.acquire();
+            }
+            int count = channel.read(content);
+            if (count < 0) {
+                ByteBuffer rest = content.flip();
+                content = null;
+                phase = Phase.DONE;
+                updateInterest();
+                dispatch(rest.remaining(), () -> {
+                    try {
+                        transmission.gzipSink.accept(rest);
+                    } finally {
+                        BufferPool.SHARED.release(rest);
+                    }
+                    if (!transmission.gzipSink.complete) throw new EOFException("Connection closed before the GZIP stream ended");
+                });
+                return false;
+            }
+            if (count == 0) return false;
+            if (content.hasRemaining() && content.position() < BufferPool.SHARED.bufferSize() / 4) return true;
+            ByteBuffer buffer = content.flip();
+            content = null;
+            dispatch(buffer.remaining(), () -> {
+                try {
+                    transmission.gzipSink.accept(buffer);
+                } finally {
+                    BufferPool.SHARED.release(buffer);
+                }
+            });
+            return true;
+        }
+
+        /**
+         * Hands work on received bytes to the I/O threads and counts the bytes until it is done.
+         */
+        private void dispatch(int bytes, IOTask task) {
+            pendingBytes.addAndGet(bytes);
+            tasks.submit(() -> {
+                try {
+                    task.run();
+                } finally {
+                    long pending = pendingBytes.addAndGet(-bytes);
+                    // the event loop stopped reading once the limit was reached and is woken up when it is no more
+                    if (pending < MAX_PENDING_BYTES && pending + bytes >= MAX_PENDING_BYTES) eventLoop.execute(this::resume);
+                }
+            });
+        }
+
+        private boolean mustPause() {
+            if (pendingBytes.get() < MAX_PENDING_BYTES) return false;
+            paused = true;
+            updateInterest();
+            return true;
+        }
+
+        private void resume() {
+            if (!paused) return;
+            paused = false;
+            updateInterest();
+            try {
+                read();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Cancels the transmission. The sender is told so unless it cancelled the transmission itself.
+         */
+        void cancel(boolean bySender) {
+            Transmission current = transmission;
+            if (current == null || phase == Phase.DONE) return;
+            current.cancelled = true;
+            current.cancelledBySender = bySender;
+            // a transmission that was not accepted yet is denied by the handshake
+            if (!current.accepted) return;
+            phase = Phase.DONE;
+            releaseBuffers();
+            if (bySender) {
+                close();
+            } else {
+                send(ByteBuffer.allocate(Integer.BYTES).putInt(CANCEL_TRANSMISSION).flip());
+                closeAfterWrite();
+            }
+            tasks.submit(() -> current.abort(new TransferCancelledException("Transmission was cancelled")));
+        }
+
+        private void cancelBySender(String transferId) {
+            boolean found = false;
+            for (Transmission active : activeTransmissions) {
+                if (transferId.equals(active.metadata.transferId)) {
+                    Connection connection = active.connection;
+                    connection.eventLoop.execute(() -> connection.cancel(true));
+                    found = true;
+                }
+            }
+            phase = Phase.DONE;
+            send(ByteBuffer.wrap(new byte[]{(byte) (found ? 1 : 0)}));
+            closeAfterWrite();
+        }
+
+        /**
+         * Closes the connection after an error. The transmission fails once the data that arrived before is written.
+         */
+        void fail(IOException e) {
+            if (phase == Phase.DONE) {
+                close();
+                return;
+            }
+            Phase failedPhase = phase;
+            phase = Phase.DONE;
+            releaseBuffers();
+            close();
+            Transmission current = transmission;
+            if (current != null) {
+                tasks.submit(() -> current.abort(e));
+            } else if (failedPhase != Phase.HANDSHAKE && failedPhase != Phase.FIRST_INT) {
+                System.err.println("Error during file reception: " + e.getMessage());
+                if (callback != null) callback.onReceivingError(e);
+            }
+        }
+
+        private void releaseBuffers() {
+            if (content != null) BufferPool.SHARED.release(content);
+            content = null;
+            frame = null;
+            metadata = null;
+        }
+
+        void send(ByteBuffer buffer) {
+            outgoing.add(buffer);
+            try {
+                flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void flush() throws IOException {
+            while (!outgoing.isEmpty()) {
+                ByteBuffer buffer = outgoing.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) break;
+                outgoing.poll();
+            }
+            if (outgoing.isEmpty() && closeAfterWrite) {
+                close();
+                return;
+            }
+            updateInterest();
+        }
+
+        void closeAfterWrite() {
+            phase = Phase.DONE;
+            closeAfterWrite = true;
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (key != null) key.cancel();
+            eventLoop.connections.remove(this);
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            releaseBuffers();
+            tasks.submit(inflater::end);
+        }
+
+        private void updateInterest() {
+            if (key == null || !key.isValid()) return;
+            boolean reading = !paused && phase != Phase.HANDSHAKE && phase != Phase.END_OF_CHUNKS && phase != Phase.DONE;
+            key.interestOps((reading ? SelectionKey.OP_READ : 0) | (outgoing.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        }
+
+        private void expect(int bytes, Phase next) {
+            small.clear().limit(bytes);
+            phase = next;
+        }
+
+        /**
+         * Reads into a buffer until it is full.
+         *
+         * @return whether the buffer is full, false if no more bytes are available right now
+         * @throws EOFException if the sender closed the connection
+         */
+        private boolean fill(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                int count = channel.read(buffer);
+                if (count < 0) throw new EOFException("Connection closed by sender");
+                if (count == 0) return false;
+            }
+            return true;
+        }
+
+        boolean handshakeTimedOut(long now) {
+            boolean handshaking = phase == Phase.FIRST_INT || phase == Phase.METADATA || phase == Phase.METADATA_SEGMENT_LENGTH
+                    || phase == Phase.METADATA_SEGMENT || phase == Phase.CANCEL_ID_LENGTH || phase == Phase.CANCEL_ID;
+            return handshaking && now - connectedAt > HANDSHAKE_TIMEOUT_MILLIS;
+        }
+    }
+
+    /**
+     * Serves the connections that are registered with its selector on a single thread.
+     */
+    private class EventLoop implements Runnable {
+        final Selector selector;
+        final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+        final Set<Connection> connections = new HashSet<>();
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * Runs a task on the thread of the event loop.
+         */
+        void execute(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                LinkEstimate.tuneAccepted(channel);
+                Connection connection = new Connection(channel, this);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+            } catch (IOException e) {
+                System.err.println("Error while accepting connection: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            long lastTimeoutCheck = System.currentTimeMillis();
+            try {
+                while (running) {
+                    selector.select(SELECT_TIMEOUT_MILLIS);
+                    Runnable task;
+                    while ((task = pendingTasks.poll()) != null) task.run();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        ((Connection) key.attachment()).handle();
+                    }
+                    selector.selectedKeys().clear();
+                    long now = System.currentTimeMillis();
+                    if (now - lastTimeoutCheck >= SELECT_TIMEOUT_MILLIS) {
+                        lastTimeoutCheck = now;
+                        for (Connection connection : List.copyOf(connections)) {
+                            if (connection.handshakeTimedOut(now)) connection.fail(new IOException("Handshake timed out"));
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                System.err.println("Receiver error: " + e.getMessage());
+            } finally {
+                for (Connection connection : List.copyOf(connections)) {
+                    connection.fail(new IOException("Receiver stopped"));
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks of a connection one after another on the I/O threads, so that the data of a connection is
+     * written in the order it arrived while different connections are written in parallel.
+     */
+    private class SerialTasks {
+        private final Connection connection;
+        private final Queue<IOTask> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        SerialTasks(Connection connection) {
+            this.connection = connection;
+        }
+
+        void submit(IOTask task) {
+            queue.add(task);
+            if (scheduled.compareAndSet(false, true)) ioPool.execute(this::drain);
+        }
+
+        private void drain() {
+            IOTask task;
+            while ((task = queue.poll()) != null) {
+                try {
+                    task.run();
+                } catch (IOException | RuntimeException e) {
+                    IOException failure = e instanceof IOException ioException ? ioException : new IOException(e);
+                    connection.eventLoop.execute(() -> connection.fail(failure));
+                }
+            }
+            scheduled.set(false);
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) ioPool.execute(this::drain);
+        }
+    }
+
+    private interface IOTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * Inflates a GZIP stream that arrives in pieces and writes it into the files in the order of the metadata.
+     * It is only used by the I/O threads, one piece after another.
+     */
+    private class GzipSink {
+        private static final int HEADER_SIZE = 10;
+        private static final int TRAILER_SIZE = 8;
+        private final Transmission transmission;
+        private final ProgressTracker progressTracker;
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer gzipHeader = ByteBuffer.allocate(HEADER_SIZE);
+        private final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private int fileIndex = 0;
+        private long position = 0;
+        private ReceivedFileWriter writer = null;
+        private boolean writerOpened = false;
+        volatile boolean complete = false;
+
+        GzipSink(Transmission transmission) {
+            this.transmission = transmission;
+            long totalBytes = transmission.files.stream().mapToLong(f -> f.sizeInBytes).sum();
+            this.progressTracker = new ProgressTracker(transmission.files, totalBytes, callback == null ? null : callback::onReceivingProgress);
+        }
+
+        void accept(ByteBuffer input) throws IOException {
+            if (complete) return;
+            if (gzipHeader.hasRemaining()) {
+                copy(input, gzipHeader);
+                if (gzipHeader.hasRemaining()) return;
+                // LocalDrop senders write a header without optional fields
+                if (gzipHeader.get(0) != (byte) 0x1f || gzipHeader.get(1) != (byte) 0x8b || gzipHeader.get(2) != 8 || gzipHeader.get(3) != 0) {
+                    throw new IOException("Received unsupported GZIP header");
+                }
+            }
+            ByteBuffer output = BufferPool.SHARED.acquire();
+            try {
+                while (input.hasRemaining() && !inflater.finished()) {
+                    inflater.setInput(input);
+                    while (!inflater.finished()) {
+                        int count = inflater.inflate(output.clear());
+                        if (count == 0) {
+                            if (inflater.needsInput()) break;
+                            if (inflater.needsDictionary()) throw new IOException("Received corrupt GZIP stream");
+                        }
+                        output.flip();
+                        crc.update(output.duplicate());
+                        write(output);
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Received corrupt GZIP stream", e);
+            } finally {
+                BufferPool.SHARED.release(output);
+            }
+            if (!inflater.finished()) return;
+            copy(input, trailer);
+            if (trailer.hasRemaining()) return;
+            trailer.flip();
+            if (trailer.getInt() != (int) crc.getValue() || trailer.getInt() != (int) inflater.getBytesWritten()) {
+                throw new IOException("Received corrupt GZIP stream");
+            }
+            // files at the end without content are still created
+            while (fileIndex < transmission.files.size()) {
+                if (position != transmission.files.get(fileIndex).sizeInBytes) throw new IOException("GZIP stream ended early");
+                completeFile();
+            }
+            progressTracker.finish();
+            complete = true;
+            inflater.end();
+            transmission.complete();
+            transmission.connection.eventLoop.execute(transmission.connection::closeAfterWrite);
+        }
+
+        /**
+         * Writes inflated bytes into the files they belong to.
+         */
+        private void write(ByteBuffer output) throws IOException {
+            List<FileWithMetadata> files = transmission.files;
+            while (output.hasRemaining()) {
+                while (fileIndex < files.size() && position == files.get(fileIndex).sizeInBytes) completeFile();
+                if (fileIndex >= files.size()) throw new IOException("Received more data than announced");
+                FileWithMetadata fileWithMetadata = files.get(fileIndex);
+                openFile();
+                int count = (int) Math.min(output.remaining(), fileWithMetadata.sizeInBytes - position);
+                ByteBuffer slice = output.slice(output.position(), count);
+                if (writer != null) writer.write(slice, position);
+                output.position(output.position() + count);
+                position += count;
+                progressTracker.add(fileIndex, count);
+            }
+        }
+
+        private void openFile() {
+            if (writerOpened) return;
+            writerOpened = true;
+            FileWithMetadata fileWithMetadata = transmission.files.get(fileIndex);
+            try {
+                writer = new ReceivedFileWriter(fileWithMetadata.file, fileWithMetadata.sizeInBytes, false, transmission.durabilityPolicy);
+            } catch (IOException e) {
+                // the content of the file is discarded
+                if (callback != null) callback.onReceivingError(e);
+                fileWithMetadata.transmissionSuccess = false;
+            }
+        }
+
+        private void completeFile() throws IOException {
+            openFile();
+            FileWithMetadata fileWithMetadata = transmission.files.get(fileIndex);
+            if (writer != null) {
+                writer.close();
+                writer = null;
+                System.out.println("Finished receiving file: " + fileWithMetadata.file.getAbsolutePath());
+                receivedLog.add(new Pair<>(transmission.metadata.sender, fileWithMetadata.file));
+                fileWithMetadata.transmissionSuccess = true;
+            }
+            fileIndex++;
+            position = 0;
+            writerOpened = false;
+        }
+
+        /**
+         * Closes the file that is being written. The GZIP stream cannot be resumed, so the file is deleted if the
+         * transmission was cancelled.
+         */
+        void abort(boolean cancelled) {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+                writer = null;
+                FileWithMetadata fileWithMetadata = transmission.files.get(fileIndex);
+                fileWithMetadata.transmissionSuccess = false;
+                if (cancelled) {
+                    try {
+                        Files.deleteIfExists(fileWithMetadata.file.toPath());
+                    } catch (IOException e) {
+                        System.err.println("Could not delete partially received file " + fileWithMetadata.file.getAbsolutePath() + ": " + e.getMessage());
+                    }
+                }
+            }
+            for (FileWithMetadata fileWithMetadata : transmission.files) {
+                if (fileWithMetadata.transmissionSuccess == null) fileWithMetadata.transmissionSuccess = false;
+            }
+            progressTracker.finish();
+            if (!complete) inflater.end();
+        }
+
+        private static void copy(ByteBuffer source, ByteBuffer target) {
+            int count = Math.min(source.remaining(), target.remaining());
+            target.put(target.position(), source, source.position(), count);
+            target.position(target.position() + count);
+            source.position(source.position() + count);
+        }
+    }
+}
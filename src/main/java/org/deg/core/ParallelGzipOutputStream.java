@@ -0,0 +1,163 @@
+package org.deg.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a GZIP stream whose blocks are deflated in parallel, like pigz does it. The data is split into blocks of
+ * {@link #BLOCK_SIZE} bytes that are deflated independently on a pool of worker threads, each with the last 32 KiB of
+ * the previous block as dictionary so that the compression ratio stays close to a sequential stream. Every block
+ * but the last one ends with a sync flush, so the deflated blocks are written one after another as a single valid
+ * deflate stream that any GZIP reader can decompress.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    /**
+     * The number of uncompressed bytes that are deflated as one block
+     */
+    public static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    /**
+     * The number of blocks that are deflated or wait to be written at the same time
+     */
+    private static final int MAX_PENDING_BLOCKS = 2 * THREADS;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final ExecutorService deflateExecutor = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "parallel-gzip");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private final OutputStream out;
+    private final CRC32 crc = new CRC32();
+    private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private byte[] dictionary = null;
+    private long uncompressedSize = 0;
+    private boolean finished = false;
+
+    /**
+     * Constructs a stream and writes the GZIP header.
+     *
+     * @param out the stream the compressed data is written to
+     * @throws IOException if an I/O error occurs
+     */
+    public ParallelGzipOutputStream(OutputStream out) throws IOException {
+        this.out = out;
+        out.write(GZIP_HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) throw new IOException("write beyond end of stream");
+        crc.update(b, off, len);
+        uncompressedSize += len;
+        while (len > 0) {
+            int count = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, off, block, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+            if (blockLength == BLOCK_SIZE) submitBlock(false);
+        }
+    }
+
+    /**
+     * Writes all blocks that are deflated so far. Bytes that do not fill a block yet are kept, so a flush does not
+     * make the compression worse.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pendingBlocks.isEmpty()) writeNextBlock();
+        out.flush();
+    }
+
+    /**
+     * Deflates the remaining bytes and writes the GZIP trailer without closing the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        submitBlock(true);
+        finished = true;
+        while (!pendingBlocks.isEmpty()) writeNextBlock();
+        writeIntLE((int) crc.getValue());
+        writeIntLE((int) uncompressedSize);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (out) {
+            finish();
+        } finally {
+            for (Future<byte[]> pendingBlock : pendingBlocks) pendingBlock.cancel(false);
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        byte[] input = block;
+        int length = blockLength;
+        byte[] blockDictionary = dictionary;
+        pendingBlocks.add(deflateExecutor.submit(() -> deflate(input, length, blockDictionary, last)));
+        if (!last) {
+            dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+            block = new byte[BLOCK_SIZE];
+            blockLength = 0;
+        }
+        while (pendingBlocks.size() >= MAX_PENDING_BLOCKS) writeNextBlock();
+    }
+
+    private void writeNextBlock() throws IOException {
+        try {
+            out.write(pendingBlocks.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress", e.getCause());
+        }
+    }
+
+    private static byte[] deflate(byte[] input, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) deflater.setDictionary(dictionary);
+        deflater.setInput(input, 0, length);
+        if (last) deflater.finish();
+        // incompressible data grows by a few bytes per 16 KiB
+        byte[] output = new byte[length + length / 1000 + 64];
+        int outputLength = 0;
+        while (true) {
+            int count = deflater.deflate(output, outputLength, output.length - outputLength, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            outputLength += count;
+            if (last ? deflater.finished() : outputLength < output.length) break;
+            if (outputLength == output.length) output = Arrays.copyOf(output, output.length * 2);
+        }
+        return Arrays.copyOf(output, outputLength);
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        out.write(new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)});
+    }
+}
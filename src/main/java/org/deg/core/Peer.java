@@ -1,12 +1,28 @@
 package org.deg.core;
 
+import java.util.Objects;
+
 import static org.deg.core.Constants.*;
 
 /**
  * Represents a peer in the LAN with a unique name and file transfer port.
  * A peer also has a receiver and can be exposed via a discovery listener.
+ * <p>
+ * A peer also announces the newest metadata format its receiver reads, so that a sender knows it before it sends
+ * the metadata. Peers of older versions only read messages of exactly five fields, so every message that carries
+ * the version as sixth field is sent in addition to the message without it, which older peers keep reading.
+ *
+ * @param metadataVersion the newest metadata version the receiver of the peer reads, 1 if it only reads the
+ *                        metadata string or is not known
  */
-public record Peer(String name, String ip, int fileTransferPort, String profilePicName) {
+public record Peer(String name, String ip, int fileTransferPort, String profilePicName, int metadataVersion) {
+
+    /**
+     * Creates a peer whose metadata version is not known, so that only the metadata string is sent to it.
+     */
+    public Peer(String name, String ip, int fileTransferPort, String profilePicName) {
+        this(name, ip, fileTransferPort, profilePicName, 1);
+    }
 
     /**
      * Returns a string representation of the peer (name, IP, and port).
@@ -16,6 +32,14 @@ public record Peer(String name, String ip, int fileTransferPort, String profileP
         return name + " - " + ip + ":" + fileTransferPort;
     }
 
+    /**
+     * @return the address of the receiver of the peer in the format "ip:fileTransferPort", which identifies the peer
+     * like {@link #equals(Object)} does, unlike its name, which several peers may share
+     */
+    public String address() {
+        return ip + ":" + fileTransferPort;
+    }
+
     /**
      * Generates a discovery response string for this peer.
      *
@@ -25,6 +49,15 @@ public record Peer(String name, String ip, int fileTransferPort, String profileP
         return DISCOVERY_RESPONSE + "|" + name + "|" + ip + "|" + fileTransferPort + "|" + profilePicName;
     }
 
+    /**
+     * Generates a discovery response string for this peer that announces its metadata version.
+     *
+     * @return A string in the format "DISCOVERY_RESPONSE|name|ip|fileTransferPort|profilePicName|metadataVersion".
+     */
+    public String toVersionedDiscoveryResponse() {
+        return toDiscoveryResponse() + "|" + metadataVersion;
+    }
+
     /**
      * Generates a hello message string for this peer.
      *
@@ -34,6 +67,15 @@ public record Peer(String name, String ip, int fileTransferPort, String profileP
         return HELLO + "|" + name + "|" + ip + "|" + fileTransferPort + "|" + profilePicName;
     }
 
+    /**
+     * Generates a hello message string for this peer that announces its metadata version.
+     *
+     * @return A string in the format "HELLO|name|ip|fileTransferPort|profilePicName|metadataVersion".
+     */
+    public String toVersionedHelloMessage() {
+        return toHelloMessage() + "|" + metadataVersion;
+    }
+
     /**
      * Generates a bye message string for this peer.
      *
@@ -46,17 +88,22 @@ public record Peer(String name, String ip, int fileTransferPort, String profileP
     /**
      * Static factory method to create a Peer from a discovery response string.
      *
-     * @param response The discovery response string.
-     * @return A Peer object parsed from the response.
+     * @param response The discovery response string, with or without the metadata version.
+     * @return A Peer object parsed from the response or null if the response is malformed.
      */
     public static Peer fromDiscoveryResponse(String response) {
         String[] parts = response.split("\\|");
-        if (parts.length == 5) {
-            String name = parts[1];
-            String ip = parts[2];
-            int port = Integer.parseInt(parts[3]);
-            String profilePicName = parts[4];
-            return new Peer(name, ip, port, profilePicName);
+        if (parts.length == 5 || parts.length == 6) {
+            try {
+                String name = parts[1];
+                String ip = parts[2];
+                int port = Integer.parseInt(parts[3]);
+                String profilePicName = parts[4];
+                int metadataVersion = parts.length == 6 ? Integer.parseInt(parts[5]) : 1;
+                return new Peer(name, ip, port, profilePicName, metadataVersion);
+            } catch (NumberFormatException e) {
+                return null;
+            }
         }
         return null;
     }
@@ -88,4 +135,9 @@ public record Peer(String name, String ip, int fileTransferPort, String profileP
         }
         return false;
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ip, fileTransferPort);
+    }
 }
@@ -0,0 +1,273 @@
+package org.deg.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads a channel on a background thread into a buffer ahead of the consumer. Reading from a channel that does
+ * expensive work, like decompressing, then runs in parallel to whatever the consumer does with the data, and a
+ * consumer that stalls for a moment, like a disk that is busy, does not stall the source at once.
+ * Several read-ahead channels that read from each other form a pipeline with a thread per stage.
+ * <p>
+ * The buffer is taken from a {@link BufferPool} and used as a ring: the background thread reads into the free part
+ * and the consumer takes the bytes from the filled part. Every byte is available to the consumer as soon as it was
+ * read, so the pipeline adds no latency as long as the consumer keeps up. The back-pressure is explicit: once the
+ * consumer falls behind and the ring is full, the background thread stops reading from its source until the
+ * consumer has taken bytes from it.
+ * <p>
+ * An error of the source is passed on to the consumer as it was thrown, once the bytes read before it are consumed.
+ * Closing the channel does not interrupt the background thread, so the source is never closed by it.
+ */
+public class ReadAheadChannel implements ReadableByteChannel {
+    private static final int DEFAULT_BUFFER_COUNT = 4;
+
+    private final ReadableByteChannel source;
+    private final BufferPool pool;
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final Thread thread;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataAvailable = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+    private final Condition consumerIdle = lock.newCondition();
+    /**
+     * The ring is returned to the pool once both the consumer and the background thread are done with it
+     */
+    private final AtomicInteger ringHolders = new AtomicInteger(2);
+    private long bytesRead = 0;
+    private long bytesConsumed = 0;
+    private boolean endOfStream = false;
+    private boolean consuming = false;
+    private boolean closed = false;
+    private IOException failure = null;
+
+    /**
+     * Starts reading ahead into {@value #DEFAULT_BUFFER_COUNT} times the default buffer size of the shared pool.
+     *
+     * @param source the channel to read from
+     * @param name   the name of the reading thread
+     */
+    public ReadAheadChannel(ReadableByteChannel source, String name) {
+        this(source, name, BufferPool.SHARED, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * Starts reading ahead.
+     *
+     * @param source      the channel to read from
+     * @param name        the name of the reading thread
+     * @param pool        the pool the ring is taken from and returned to once the channel is closed
+     * @param bufferCount the number of default-sized buffers the ring holds, which limits how far the reading thread
+     *                    gets ahead of the consumer
+     */
+    public ReadAheadChannel(ReadableByteChannel source, String name, BufferPool pool, int bufferCount) {
+        this(source, name, pool, bufferCount, pool.bufferSize());
+    }
+
+    /**
+     * Starts reading ahead into a ring sized in buffers of the given size, e.g. sized for a connection with
+     * {@link LinkEstimate#bufferSize()}.
+     *
+     * @param source      the channel to read from
+     * @param name        the name of the reading thread
+     * @param pool        the pool the ring is taken from and returned to once the channel is closed
+     * @param bufferCount the number of buffers the ring holds, which limits how far the reading thread gets ahead of
+     *                    the consumer
+     * @param bufferSize  the size of every buffer
+     */
+    public ReadAheadChannel(ReadableByteChannel source, String name, BufferPool pool, int bufferCount, int bufferSize) {
+        this.source = source;
+        this.pool = pool;
+        this.ring = pool.acquire(Math.max(1, bufferCount) * bufferSize);
+        this.capacity = ring.capacity();
+        this.thread = new Thread(this::readAhead, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ByteBuffer available = takeAvailable(dst.remaining());
+        if (available == null) return -1;
+        int count = available.remaining();
+        dst.put(available);
+        consumed(count);
+        return count;
+    }
+
+    /**
+     * Writes bytes straight from the ring into a file, without copying them into a buffer of the consumer first.
+     *
+     * @param target   the file
+     * @param position the position in the file
+     * @param count    the number of bytes to write
+     * @throws IOException if an I/O error occurs or the stream ends early
+     */
+    public void transferTo(FileChannel target, long position, long count) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long transferred = transferTo(target, position, end - position, null);
+            if (transferred < 0) throw new IOException("Stream ended " + (end - position) + " bytes early");
+            position += transferred;
+        }
+    }
+
+    /**
+     * Writes the bytes that are available in the ring straight into a file, at most the given number, waiting for
+     * the reading thread if none are.
+     *
+     * @param target   the file
+     * @param position the position in the file
+     * @param count    the maximum number of bytes to write
+     * @param crc      the checksum that is updated with the written bytes (can be null)
+     * @return the number of bytes that were written, or -1 if the stream ended
+     * @throws IOException if an I/O error occurs
+     */
+    public long transferTo(FileChannel target, long position, long count, CRC32C crc) throws IOException {
+        ByteBuffer available = takeAvailable(count);
+        if (available == null) return -1;
+        int written = 0;
+        try {
+            if (crc != null) {
+                crc.update(available);
+                available.rewind();
+            }
+            while (available.hasRemaining()) {
+                written += target.write(available, position + written);
+            }
+        } finally {
+            consumed(written);
+        }
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return !closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops reading ahead and returns the ring to the pool. The source channel is not closed, and a read of the
+     * reading thread that is blocked on the source only returns once the source delivers data or is closed. The
+     * channel may be closed by another thread than the consumer, e.g. the last stage of a pipeline, in which case
+     * a consumer that waits for bytes fails.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            dataAvailable.signalAll();
+            spaceAvailable.signalAll();
+            // the ring must not be handed out again while the consumer still writes from it
+            while (consuming) consumerIdle.awaitUninterruptibly();
+        } finally {
+            lock.unlock();
+        }
+        releaseRing();
+    }
+
+    /**
+     * Waits until bytes are available in the ring and marks them as being consumed.
+     *
+     * @param maxCount the maximum number of bytes to take
+     * @return a view of the available bytes, which must be passed on to {@link #consumed(int)}, or null if the
+     * stream ended
+     */
+    private ByteBuffer takeAvailable(long maxCount) throws IOException {
+        lock.lock();
+        try {
+            while (!closed && bytesRead == bytesConsumed && !endOfStream) dataAvailable.await();
+            if (closed) throw new IOException("Channel is closed");
+            if (bytesRead == bytesConsumed) {
+                if (failure != null) throw failure;
+                return null;
+            }
+            int head = (int) (bytesConsumed % capacity);
+            int length = (int) Math.min(Math.min(bytesRead - bytesConsumed, capacity - head), maxCount);
+            consuming = true;
+            return ring.slice(head, length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void consumed(int count) {
+        lock.lock();
+        try {
+            bytesConsumed += count;
+            consuming = false;
+            spaceAvailable.signalAll();
+            consumerIdle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseRing() {
+        if (ringHolders.decrementAndGet() == 0) pool.release(ring);
+    }
+
+    private void readAhead() {
+        try {
+            while (true) {
+                ByteBuffer free;
+                lock.lock();
+                try {
+                    while (!closed && bytesRead - bytesConsumed == capacity) spaceAvailable.await();
+                    if (closed) return;
+                    int tail = (int) (bytesRead % capacity);
+                    free = ring.slice(tail, (int) Math.min(capacity - (bytesRead - bytesConsumed), capacity - tail));
+                } finally {
+                    lock.unlock();
+                }
+                int read = source.read(free);
+                lock.lock();
+                try {
+                    if (read < 0) {
+                        endOfStream = true;
+                    } else {
+                        bytesRead += read;
+                    }
+                    dataAvailable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (read < 0) return;
+            }
+        } catch (IOException e) {
+            endWith(e);
+        } catch (InterruptedException e) {
+            endWith(new InterruptedIOException("Interrupted while reading ahead"));
+        } finally {
+            releaseRing();
+        }
+    }
+
+    private void endWith(IOException e) {
+        lock.lock();
+        try {
+            failure = e;
+            endOfStream = true;
+            dataAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.deg.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes a received file. The file is extended to its final size as soon as it is opened, so that chunks can be
+ * written in any order, and data that has to be copied is written in large blocks from pooled direct buffers.
+ * Extending the file only sets its size: on most file systems it stays sparse and no space is allocated before the
+ * chunks are written, so a full disk still shows up as a failed write. Depending on the {@link DurabilityPolicy} the file is forced
+ * to the storage device when it is closed.
+ */
+public class ReceivedFileWriter implements Closeable {
+    private final File file;
+    private final FileChannel channel;
+    private final DurabilityPolicy durabilityPolicy;
+
+    /**
+     * Opens a received file for writing.
+     *
+     * @param file             the file
+     * @param size             the final size of the file
+     * @param keepContent      whether the current content of the file is kept, e.g. to resume a transmission
+     * @param durabilityPolicy when the file is forced to the storage device
+     * @throws IOException if the file cannot be opened or extended to its size
+     */
+    public ReceivedFileWriter(File file, long size, boolean keepContent, DurabilityPolicy durabilityPolicy) throws IOException {
+        this.file = file;
+        this.durabilityPolicy = durabilityPolicy;
+        if (!file.getParentFile().exists()) file.getParentFile().mkdirs();
+        // readable as well, so that written chunks can be read back to verify their checksum
+        this.channel = keepContent
+                ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            // transferFrom never writes beyond the current end of the file, so the file is extended first by writing
+            // its last byte, which does not allocate the space in between
+            if (size > 0 && channel.size() < size) channel.write(ByteBuffer.allocate(1), size - 1);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the channel of the file
+     */
+    public FileChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Copies bytes from a channel into the file at the given position, in blocks of the size of the pooled buffers.
+     *
+     * @param source   the channel to read from
+     * @param position the position in the file
+     * @param count    the number of bytes to copy
+     * @throws IOException if an I/O error occurs or the source ends early
+     */
+    public void write(ReadableByteChannel source, long position, long count) throws IOException {
+        ByteBuffer buffer = BufferPool.SHARED.acquire();
+        try {
+            long end = position + count;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                while (buffer.hasRemaining()) {
+                    if (source.read(buffer) < 0) throw new EOFException("Connection closed while receiving " + file.getName());
+                }
+                buffer.flip();
+                position = write(buffer, position);
+            }
+        } finally {
+            BufferPool.SHARED.release(buffer);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer into the file at the given position.
+     *
+     * @param buffer   the buffer
+     * @param position the position in the file
+     * @return the position after the written bytes
+     * @throws IOException if an I/O error occurs
+     */
+    public long write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * Closes the file and forces it to the storage device if every file is forced on its own.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            if (durabilityPolicy == DurabilityPolicy.PER_FILE) channel.force(true);
+        }
+    }
+
+    /**
+     * Forces several already closed files to the storage device, which is done at the end of a transmission if
+     * its files are forced as a group.
+     *
+     * @param files the files
+     * @throws IOException if a file cannot be forced
+     */
+    public static void forceAll(List<File> files) throws IOException {
+        for (File file : files) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.deg.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of how many bytes of every file of a transmission have been written, so that an interrupted
+ * transmission can be resumed later on. The journal is a small append-only file in a hidden directory of the
+ * save path. Every record consists of a file index and the number of bytes at the start of that file that are
+ * known to be written.
+ */
+public class ResumeJournal implements AutoCloseable {
+    private static final String JOURNAL_DIRECTORY = ".localdrop-journal";
+    private static final int RECORD_SIZE = Integer.BYTES + Long.BYTES;
+
+    private final File journalFile;
+    private final FileChannel channel;
+    private final long[] offsets;
+    /**
+     * Chunks that were written after a gap, by file index and start offset
+     */
+    private final Map<Integer, TreeMap<Long, Long>> pendingRanges = new HashMap<>();
+    /**
+     * Held while a record is written, on the virtual threads that receive the chunks, so it is not a monitor
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private ResumeJournal(File journalFile, FileChannel channel, long[] offsets) {
+        this.journalFile = journalFile;
+        this.channel = channel;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Opens the journal of a transmission, creating it if the transmission was never received before.
+     *
+     * @param savePath the directory the files are saved to
+     * @param key      the resume key of the transmission
+     * @param files    the files of the transmission
+     * @return the journal
+     * @throws IOException if the journal cannot be read or created
+     */
+    public static ResumeJournal open(File savePath, String key, List<FileWithMetadata> files) throws IOException {
+        if (!isValidKey(key)) throw new IOException("Invalid resume key " + key);
+        File directory = new File(savePath, JOURNAL_DIRECTORY);
+        if (!directory.exists()) directory.mkdirs();
+        File journalFile = new File(directory, key);
+        FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long[] offsets = new long[files.size()];
+        ByteBuffer records = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+        while (records.hasRemaining()) {
+            if (channel.read(records, records.position()) < 0) break;
+        }
+        records.flip();
+        while (records.remaining() >= RECORD_SIZE) {
+            int fileIndex = records.getInt();
+            long offset = records.getLong();
+            if (fileIndex >= 0 && fileIndex < files.size()) offsets[fileIndex] = Math.max(offsets[fileIndex], offset);
+        }
+        // a torn record at the end of the journal is overwritten by the next one
+        channel.position(records.position());
+
+        // the journal is only trusted as far as the files still exist
+        for (int i = 0; i < files.size(); i++) {
+            FileWithMetadata file = files.get(i);
+            long existing = file.file.isFile() ? file.file.length() : 0;
+            offsets[i] = Math.min(offsets[i], Math.min(existing, file.sizeInBytes));
+        }
+        return new ResumeJournal(journalFile, channel, offsets);
+    }
+
+    /**
+     * Checks whether a resume key can safely be used as a file name.
+     *
+     * @param key the resume key
+     * @return true if the key is a hex string of a SHA-256 hash
+     */
+    public static boolean isValidKey(String key) {
+        return key != null && key.matches("[0-9a-f]{64}");
+    }
+
+    /**
+     * @return the number of bytes at the start of every file that were already written
+     */
+    public long[] offsets() {
+        return offsets.clone();
+    }
+
+    /**
+     * Records that a chunk of a file was written. Chunks may be written out of order, the journal only advances
+     * once all bytes before a chunk are written too.
+     *
+     * @param fileIndex the index of the file
+     * @param offset    the position in the file at which the chunk starts
+     * @param length    the number of bytes of the chunk
+     * @throws IOException if the journal cannot be written
+     */
+    public void chunkWritten(int fileIndex, long offset, long length) throws IOException {
+        lock.lock();
+        try {
+            TreeMap<Long, Long> ranges = pendingRanges.computeIfAbsent(fileIndex, i -> new TreeMap<>());
+            ranges.merge(offset, offset + length, Math::max);
+            long contiguous = offsets[fileIndex];
+            Map.Entry<Long, Long> range;
+            while ((range = ranges.firstEntry()) != null && range.getKey() <= contiguous) {
+                contiguous = Math.max(contiguous, range.getValue());
+                ranges.pollFirstEntry();
+            }
+            if (ranges.isEmpty()) pendingRanges.remove(fileIndex);
+            if (contiguous == offsets[fileIndex]) return;
+
+            offsets[fileIndex] = contiguous;
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.putInt(fileIndex).putLong(contiguous).flip();
+            while (record.hasRemaining()) channel.write(record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes and deletes the journal once the transmission is complete.
+     */
+    public void delete() {
+        close();
+        try {
+            Files.deleteIfExists(journalFile.toPath());
+            // only succeeds once no other transmission has a journal
+            journalFile.getParentFile().delete();
+        } catch (IOException e) {
+            System.err.println("Could not delete resume journal: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
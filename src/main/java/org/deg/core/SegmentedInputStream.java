@@ -0,0 +1,78 @@
+package org.deg.core;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream that was written by a {@link SegmentedOutputStream}. Every segment is read into a buffer at once,
+ * so reading single bytes is cheap even if the underlying stream is not buffered, and nothing beyond the segment
+ * that ends the stream is read from the underlying stream.
+ */
+public class SegmentedInputStream extends InputStream {
+    private final DataInputStream in;
+    private final int maxSegmentSize;
+    private byte[] segment = new byte[0];
+    private int position = 0;
+    private int length = 0;
+    private boolean ended = false;
+
+    /**
+     * Constructs a stream.
+     *
+     * @param in             the stream the segments are read from
+     * @param maxSegmentSize the maximum length of a segment that is accepted
+     */
+    public SegmentedInputStream(DataInputStream in, int maxSegmentSize) {
+        this.in = in;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == length && !nextSegment()) return -1;
+        return segment[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (position == length && !nextSegment()) return -1;
+        int count = Math.min(len, length - position);
+        System.arraycopy(segment, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return length - position;
+    }
+
+    /**
+     * Reads the remaining segments up to the one that ends the stream, leaving the underlying stream open.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        while (nextSegment()) {
+            position = length;
+        }
+    }
+
+    private boolean nextSegment() throws IOException {
+        if (ended) return false;
+        int segmentLength = in.readInt();
+        if (segmentLength == 0) {
+            ended = true;
+            return false;
+        }
+        if (segmentLength < 0 || segmentLength > maxSegmentSize) throw new IOException("Received segment of invalid length " + segmentLength);
+        if (segment.length < segmentLength) segment = new byte[segmentLength];
+        in.readFully(segment, 0, segmentLength);
+        position = 0;
+        length = segmentLength;
+        return true;
+    }
+}
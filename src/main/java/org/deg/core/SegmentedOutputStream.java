@@ -0,0 +1,95 @@
+package org.deg.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a stream of unknown length in length-prefixed segments, so that the receiving side can read it with a
+ * {@link SegmentedInputStream} without reading beyond its end. Every segment starts with its length as int, a
+ * segment of length 0 ends the stream. Closing this stream ends the segmented stream but leaves the underlying
+ * stream open.
+ */
+public class SegmentedOutputStream extends OutputStream {
+    /**
+     * The default maximum number of bytes in a segment
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final byte[] segment;
+    private int length = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructs a stream with segments of {@link #DEFAULT_SEGMENT_SIZE} bytes.
+     *
+     * @param out the stream the segments are written to
+     */
+    public SegmentedOutputStream(OutputStream out) {
+        this(out, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructs a stream.
+     *
+     * @param out         the stream the segments are written to
+     * @param segmentSize the maximum number of bytes in a segment
+     */
+    public SegmentedOutputStream(OutputStream out, int segmentSize) {
+        this.out = out;
+        this.segment = new byte[segmentSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (length == segment.length) writeSegment();
+        segment[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (length == segment.length) writeSegment();
+            int count = Math.min(len, segment.length - length);
+            System.arraycopy(b, off, segment, length, count);
+            length += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes as a segment and flushes the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        if (length > 0) writeSegment();
+        out.flush();
+    }
+
+    /**
+     * Writes the buffered bytes and the segment that ends the stream.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (length > 0) writeSegment();
+        writeInt(0);
+        out.flush();
+    }
+
+    private void writeSegment() throws IOException {
+        writeInt(length);
+        out.write(segment, 0, length);
+        length = 0;
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+    }
+}
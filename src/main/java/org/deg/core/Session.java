@@ -0,0 +1,279 @@
+package org.deg.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A long-lived connection between two peers that carries several transmissions at the same time, each as its own
+ * {@link SessionStream}. The peer that opened the connection opens the streams, the other peer handles them like
+ * connections of their own. Everything is sent in frames of a type byte, the id of the stream, the length of the
+ * payload as int and the payload:
+ * <ul>
+ *     <li>OPEN opens a stream</li>
+ *     <li>DATA carries bytes of a stream</li>
+ *     <li>CLOSE ends the bytes of a stream in one direction</li>
+ *     <li>WINDOW allows the other peer to send the given number of bytes more on a stream</li>
+ *     <li>RESET aborts a stream in both directions</li>
+ * </ul>
+ * A peer sends at most {@link #STREAM_WINDOW} bytes of a stream the other peer has not read yet, so a stream that is
+ * read slowly never holds up the others. A session without streams is closed once it was idle for its timeout.
+ * <p>
+ * The reading thread never writes itself: if it did, two peers whose reading threads both wait for a connection
+ * that is full could wait for each other forever. The frames it answers with are written by another thread.
+ */
+public class Session implements Closeable {
+    /**
+     * The time after which the peer that opened the session closes it if it carries no streams
+     */
+    public static final long CLIENT_IDLE_TIMEOUT_MILLIS = 30_000;
+    /**
+     * The time after which the accepting peer closes a session that carries no streams. It is longer than the
+     * timeout of the opening peer, so that a session is not closed while the opening peer starts a new stream.
+     */
+    public static final long SERVER_IDLE_TIMEOUT_MILLIS = 2 * CLIENT_IDLE_TIMEOUT_MILLIS;
+    /**
+     * The maximum number of bytes of a stream that are sent and not yet read by the other peer
+     */
+    static final int STREAM_WINDOW = 1024 * 1024;
+    static final int MAX_FRAME_SIZE = 64 * 1024;
+    static final byte OPEN = 1;
+    static final byte DATA = 2;
+    static final byte CLOSE = 3;
+    static final byte WINDOW = 4;
+    static final byte RESET = 5;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final ScheduledExecutorService idleChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-idle-check");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService controlWriter = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "session-control-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SocketChannel channel;
+    private final Consumer<SessionStream> onStream;
+    private final long idleTimeoutMillis;
+    private final Map<Integer, SessionStream> streams = new ConcurrentHashMap<>();
+    /**
+     * Not a monitor, since frames are written on virtual threads, whose carrier thread a blocking write would pin
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /**
+     * Guards the ids of new streams and keeps the idle check from closing the session while a stream is opened
+     */
+    private final ReentrantLock streamLock = new ReentrantLock();
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(9);
+    /**
+     * The streams the reading thread answers with a reset, which are written by the control writer
+     */
+    private final Queue<Integer> pendingResets = new ConcurrentLinkedQueue<>();
+    private ScheduledFuture<?> idleCheck;
+    private int nextStreamId = 1;
+    private volatile long lastActivity = System.nanoTime();
+    private volatile boolean closed = false;
+
+    private Session(SocketChannel channel, long idleTimeoutMillis, Consumer<SessionStream> onStream) {
+        this.channel = channel;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.onStream = onStream;
+        try {
+            // frames of small messages like responses must not wait for the acknowledgement of earlier ones
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            System.err.println("Could not disable Nagle's algorithm for session: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a session on a connection whose first int, which marks it as session, was already exchanged. The
+     * session is constructed completely before its reading thread and idle check see it.
+     *
+     * @param channel           the connection, which is owned and closed by the session
+     * @param idleTimeoutMillis the time after which the session is closed if it carries no streams
+     * @param onStream          is called on the reading thread with every stream the other peer opens, null if
+     *                          the other peer must not open streams
+     * @return the started session
+     */
+    public static Session start(SocketChannel channel, long idleTimeoutMillis, Consumer<SessionStream> onStream) {
+        Session session = new Session(channel, idleTimeoutMillis, onStream);
+        long checkPeriod = Math.max(1, idleTimeoutMillis / 4);
+        session.idleCheck = idleChecker.scheduleAtFixedRate(session::closeIfIdle, checkPeriod, checkPeriod, TimeUnit.MILLISECONDS);
+        Thread reader = new Thread(session::readFrames, "session-reader");
+        reader.setDaemon(true);
+        reader.start();
+        return session;
+    }
+
+    /**
+     * Opens a new stream to the other peer.
+     *
+     * @return the stream
+     * @throws IOException if the session is closed
+     */
+    public SessionStream openStream() throws IOException {
+        SessionStream stream;
+        streamLock.lock();
+        try {
+            if (closed) throw new IOException("Session is closed");
+            stream = new SessionStream(this, nextStreamId++);
+            streams.put(stream.id, stream);
+        } finally {
+            streamLock.unlock();
+        }
+        // written without the lock, so that the idle check does not wait for a connection that is full
+        try {
+            writeFrame(OPEN, stream.id, EMPTY);
+        } catch (IOException e) {
+            streams.remove(stream.id, stream);
+            throw e;
+        }
+        return stream;
+    }
+
+    /**
+     * @return whether new streams can be opened
+     */
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Closes the connection. Streams that are still open fail.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        idleCheck.cancel(false);
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        for (SessionStream stream : List.copyOf(streams.values())) stream.sessionClosed();
+        streams.clear();
+    }
+
+    /**
+     * Writes a frame. Frames of different streams are written one after another.
+     */
+    void writeFrame(byte type, int streamId, ByteBuffer payload) throws IOException {
+        writeLock.lock();
+        try {
+            if (closed) throw new IOException("Session is closed");
+            frameHeader.clear();
+            frameHeader.put(type).putInt(streamId).putInt(payload.remaining()).flip();
+            ByteBuffer[] buffers = {frameHeader, payload};
+            try {
+                while (frameHeader.hasRemaining() || payload.hasRemaining()) channel.write(buffers);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        lastActivity = System.nanoTime();
+    }
+
+    void writeWindow(int streamId, int bytes) throws IOException {
+        writeFrame(WINDOW, streamId, ByteBuffer.allocate(4).putInt(0, bytes));
+    }
+
+    void remove(SessionStream stream) {
+        streams.remove(stream.id, stream);
+        lastActivity = System.nanoTime();
+    }
+
+    private void readFrames() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(channel.socket().getInputStream(), MAX_FRAME_SIZE));
+            while (true) {
+                byte type = in.readByte();
+                int streamId = in.readInt();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_FRAME_SIZE) throw new IOException("Received frame of invalid length " + length);
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                lastActivity = System.nanoTime();
+                SessionStream stream = streams.get(streamId);
+                switch (type) {
+                    case OPEN -> {
+                        if (onStream == null || stream != null) throw new IOException("Received unexpected stream " + streamId);
+                        SessionStream opened = new SessionStream(this, streamId);
+                        streams.put(streamId, opened);
+                        onStream.accept(opened);
+                    }
+                    case DATA -> {
+                        // like TCP, bytes for a stream that is already closed are answered with a reset
+                        if (stream == null || !stream.received(payload)) queueReset(streamId);
+                    }
+                    case CLOSE -> {
+                        if (stream != null) stream.remoteClosed();
+                    }
+                    case WINDOW -> {
+                        if (length != Integer.BYTES) throw new IOException("Received window update of invalid length " + length);
+                        if (stream != null) stream.windowUpdate(ByteBuffer.wrap(payload).getInt());
+                    }
+                    case RESET -> {
+                        if (stream != null) stream.reset();
+                    }
+                    default -> throw new IOException("Received frame of unknown type " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // the other peer closed the session
+        } catch (IOException e) {
+            if (!closed) System.err.println("Session error: " + e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    private void queueReset(int streamId) {
+        pendingResets.add(streamId);
+        controlWriter.execute(this::writePendingResets);
+    }
+
+    private void writePendingResets() {
+        Integer streamId;
+        while ((streamId = pendingResets.poll()) != null) {
+            try {
+                writeFrame(RESET, streamId, EMPTY);
+            } catch (IOException e) {
+                // the session is closed, which resets all streams anyway
+                return;
+            }
+        }
+    }
+
+    private void closeIfIdle() {
+        streamLock.lock();
+        try {
+            if (streams.isEmpty() && System.nanoTime() - lastActivity > TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)) {
+                close();
+            }
+        } finally {
+            streamLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.deg.core;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.deg.core.Constants.SESSION_CONNECTION;
+
+/**
+ * Keeps one {@link Session} per receiver open, so that consecutive transmissions to the same receiver do not
+ * connect and start slow again.
+ */
+public class SessionPool {
+    private static final Map<String, Session> sessions = new HashMap<>();
+
+    /**
+     * Opens a stream to a receiver, on its open session if there is one and on a new session otherwise.
+     *
+     * @param receiver the receiving peer
+     * @return the stream
+     * @throws IOException if no session can be opened
+     */
+    public static synchronized SessionStream openStream(Peer receiver) throws IOException {
+        String address = receiver.address();
+        Session session = sessions.get(address);
+        if (session != null) {
+            try {
+                return session.openStream();
+            } catch (IOException e) {
+                // the session was closed in the meantime
+                sessions.remove(address);
+            }
+        }
+        SocketChannel channel = LinkEstimate.connect(new InetSocketAddress(receiver.ip(), receiver.fileTransferPort()));
+        try {
+            new DataOutputStream(channel.socket().getOutputStream()).writeInt(SESSION_CONNECTION);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        session = Session.start(channel, Session.CLIENT_IDLE_TIMEOUT_MILLIS, null);
+        sessions.put(address, session);
+        System.out.println("Opened session to " + receiver.name());
+        return session.openStream();
+    }
+
+    /**
+     * Closes all sessions.
+     */
+    public static synchronized void closeAll() {
+        for (Session session : sessions.values()) session.close();
+        sessions.clear();
+    }
+}
@@ -0,0 +1,188 @@
+package org.deg.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A stream of a {@link Session} that behaves like a connection of its own. Closing it ends the stream like closing a
+ * socket: the other peer reads the end of the stream, and bytes it sends afterward are answered with a reset.
+ * <p>
+ * Streams are read and written on virtual threads, so they wait with a lock instead of a monitor, which would pin
+ * the carrier thread of a waiting virtual thread.
+ */
+public class SessionStream implements ByteChannel {
+    final int id;
+    private final Session session;
+    private final Deque<ByteBuffer> inbound = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private long sendWindow = Session.STREAM_WINDOW;
+    private int unacknowledged = 0;
+    private boolean localClosed = false;
+    private boolean remoteClosed = false;
+    private boolean reset = false;
+    private boolean sessionClosed = false;
+
+    SessionStream(Session session, int id) {
+        this.session = session;
+        this.id = id;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int count = 0;
+        int acknowledge = 0;
+        lock.lock();
+        try {
+            while (inbound.isEmpty() && !remoteClosed && !reset && !sessionClosed && !localClosed) await();
+            if (localClosed) throw new ClosedChannelException();
+            // like TCP, bytes that arrived before the reset can still be read
+            if (reset && inbound.isEmpty()) throw new IOException("Stream was reset by the other peer");
+            if (inbound.isEmpty()) {
+                if (remoteClosed) return -1;
+                throw new IOException("Session was closed");
+            }
+            while (dst.hasRemaining() && !inbound.isEmpty()) {
+                ByteBuffer head = inbound.peek();
+                int n = Math.min(dst.remaining(), head.remaining());
+                dst.put(dst.position(), head, head.position(), n);
+                dst.position(dst.position() + n);
+                head.position(head.position() + n);
+                if (!head.hasRemaining()) inbound.poll();
+                count += n;
+            }
+            unacknowledged += count;
+            if (unacknowledged >= Session.STREAM_WINDOW / 2) {
+                acknowledge = unacknowledged;
+                unacknowledged = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (acknowledge > 0) session.writeWindow(id, acknowledge);
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = 0;
+        while (src.hasRemaining()) {
+            int n;
+            lock.lock();
+            try {
+                while (sendWindow == 0 && !reset && !sessionClosed && !localClosed) await();
+                if (localClosed) throw new ClosedChannelException();
+                if (reset) throw new IOException("Stream was reset by the other peer");
+                if (sessionClosed) throw new IOException("Session was closed");
+                n = (int) Math.min(Math.min(src.remaining(), Session.MAX_FRAME_SIZE), sendWindow);
+                sendWindow -= n;
+            } finally {
+                lock.unlock();
+            }
+            session.writeFrame(Session.DATA, id, src.slice(src.position(), n));
+            src.position(src.position() + n);
+            written += n;
+        }
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return !localClosed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the bytes sent on this stream. Bytes the other peer sends afterward are answered with a reset.
+     */
+    @Override
+    public void close() throws IOException {
+        boolean sendClose;
+        lock.lock();
+        try {
+            if (localClosed) return;
+            localClosed = true;
+            inbound.clear();
+            sendClose = !reset && !sessionClosed;
+            if (remoteClosed || reset || sessionClosed) session.remove(this);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (sendClose) session.writeFrame(Session.CLOSE, id, ByteBuffer.allocate(0));
+    }
+
+    boolean received(byte[] payload) {
+        lock.lock();
+        try {
+            if (localClosed || reset) return false;
+            inbound.add(ByteBuffer.wrap(payload));
+            changed.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remoteClosed() {
+        lock.lock();
+        try {
+            remoteClosed = true;
+            if (localClosed) session.remove(this);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void windowUpdate(int bytes) {
+        lock.lock();
+        try {
+            sendWindow += bytes;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void reset() {
+        lock.lock();
+        try {
+            reset = true;
+            session.remove(this);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void sessionClosed() {
+        lock.lock();
+        try {
+            sessionClosed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            changed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the session");
+        }
+    }
+}
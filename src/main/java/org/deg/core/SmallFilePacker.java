@@ -0,0 +1,223 @@
+package org.deg.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Packs consecutive small files of a transmission into packs, so that they are sent as one continuous stream
+ * instead of one chunk per file. The content of the packs is read ahead by a pool of worker threads while
+ * earlier packs are still being sent.
+ * <p>
+ * On the wire, a pack follows a {@link ChunkHeader} with the file index {@link ChunkHeader#PACKED_FILES}.
+ * For every file of the pack it contains a status byte, which is {@link #FILE_READABLE} if the content of the
+ * file follows and {@link #FILE_UNREADABLE} if the file could not be read and nothing follows.
+ */
+public class SmallFilePacker {
+    /**
+     * Files up to this size are packed
+     */
+    public static final long MAX_FILE_SIZE = 64 * 1024;
+    public static final byte FILE_READABLE = 1;
+    public static final byte FILE_UNREADABLE = 0;
+    /**
+     * The number of packs that are read ahead of the pack that is sent
+     */
+    private static final int PREFETCH_DEPTH = 8;
+    private static final ExecutorService prefetchExecutor = Executors.newFixedThreadPool(
+            Math.max(4, Runtime.getRuntime().availableProcessors()),
+            runnable -> {
+                Thread thread = new Thread(runnable, "small-file-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * A group of consecutive files that is sent as one chunk
+     */
+    public static class Pack {
+        public final int firstFileIndex;
+        public final int fileCount;
+        private final int index;
+        private final boolean[] readable;
+        private final CompletableFuture<ByteBuffer> content = new CompletableFuture<>();
+        private boolean scheduled = false;
+        private boolean released = false;
+
+        private Pack(int index, int firstFileIndex, int fileCount) {
+            this.index = index;
+            this.firstFileIndex = firstFileIndex;
+            this.fileCount = fileCount;
+            this.readable = new boolean[fileCount];
+        }
+
+        /**
+         * @param i the position of the file in the pack
+         * @return whether the file was read successfully, only valid once the content is available
+         */
+        public boolean isReadable(int i) {
+            return readable[i];
+        }
+    }
+
+    private final List<FileWithMetadata> files;
+    private final List<Pack> packs = new ArrayList<>();
+    private final Pack[] packsByFirstFile;
+    private int nextUnscheduledPack = 0;
+
+    /**
+     * Groups the packable files into packs and starts reading the first ones.
+     *
+     * @param files    the files of the transmission
+     * @param packable whether a file may be packed
+     */
+    public SmallFilePacker(List<FileWithMetadata> files, boolean[] packable) {
+        this.files = files;
+        this.packsByFirstFile = new Pack[files.size()];
+        int maxPackSize = BufferPool.SHARED.bufferSize();
+        int i = 0;
+        while (i < files.size()) {
+            if (!packable[i]) {
+                i++;
+                continue;
+            }
+            int first = i;
+            long packSize = 0;
+            while (i < files.size() && packable[i] && packSize + 1 + files.get(i).sizeInBytes <= maxPackSize) {
+                packSize += 1 + files.get(i).sizeInBytes;
+                i++;
+            }
+            if (i == first) {
+                // too large for a pack after all
+                i++;
+                continue;
+            }
+            Pack pack = new Pack(packs.size(), first, i - first);
+            packs.add(pack);
+            packsByFirstFile[first] = pack;
+        }
+        prefetchUpTo(PREFETCH_DEPTH - 1);
+    }
+
+    /**
+     * Checks whether a file can be packed.
+     *
+     * @param file the file
+     * @return true if the file is small enough
+     */
+    public static boolean isSmall(FileWithMetadata file) {
+        return file.sizeInBytes <= MAX_FILE_SIZE;
+    }
+
+    /**
+     * @param fileIndex the index of a file
+     * @return the pack that starts with the file or null if there is none
+     */
+    public Pack packStartingAt(int fileIndex) {
+        return packsByFirstFile[fileIndex];
+    }
+
+    /**
+     * Notes that a pack is about to be sent, so that the packs behind it are read ahead.
+     *
+     * @param pack the pack
+     */
+    public void handOut(Pack pack) {
+        prefetchUpTo(pack.index + PREFETCH_DEPTH);
+    }
+
+    /**
+     * Waits until the content of a pack is read.
+     *
+     * @param pack the pack
+     * @return the content, ready to be written to a channel
+     * @throws IOException if the thread is interrupted while waiting
+     */
+    public ByteBuffer content(Pack pack) throws IOException {
+        prefetchUpTo(pack.index);
+        try {
+            return pack.content.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading small files");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read small files", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the buffer of a pack that was sent to the pool.
+     *
+     * @param pack the pack
+     */
+    public synchronized void release(Pack pack) {
+        if (pack.released) return;
+        pack.released = true;
+        BufferPool.SHARED.release(pack.content.getNow(null));
+    }
+
+    /**
+     * Releases the buffers of all packs that were read but not sent, e.g. because the transmission failed. Packs
+     * that are still being read are cancelled and release their buffer themselves once they are read.
+     */
+    public synchronized void close() {
+        for (Pack pack : packs) {
+            if (pack.scheduled && !pack.content.cancel(false) && !pack.content.isCompletedExceptionally()) release(pack);
+        }
+    }
+
+    private synchronized void prefetchUpTo(int lastPackIndex) {
+        for (; nextUnscheduledPack <= lastPackIndex && nextUnscheduledPack < packs.size(); nextUnscheduledPack++) {
+            Pack pack = packs.get(nextUnscheduledPack);
+            pack.scheduled = true;
+            prefetchExecutor.execute(() -> {
+                if (pack.content.isCancelled()) return;
+                try {
+                    ByteBuffer content = read(pack);
+                    // a pack that was cancelled while it was read is never released by the sender
+                    if (!pack.content.complete(content)) BufferPool.SHARED.release(content);
+                } catch (Throwable t) {
+                    pack.content.completeExceptionally(t);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the files of a pack into a pooled buffer. Files that cannot be read are marked as unreadable.
+     *
+     * @param pack the pack
+     * @return the content of the pack
+     */
+    private ByteBuffer read(Pack pack) {
+        ByteBuffer buffer = BufferPool.SHARED.acquire();
+        for (int i = 0; i < pack.fileCount; i++) {
+            FileWithMetadata fileWithMetadata = files.get(pack.firstFileIndex + i);
+            int statusPosition = buffer.position();
+            buffer.put(FILE_READABLE);
+            try (FileChannel fileChannel = FileChannel.open(fileWithMetadata.file.toPath(), StandardOpenOption.READ)) {
+                buffer.limit(buffer.position() + (int) fileWithMetadata.sizeInBytes);
+                while (buffer.hasRemaining()) {
+                    if (fileChannel.read(buffer) < 0) throw new EOFException("file was truncated before it could be sent");
+                }
+                pack.readable[i] = true;
+            } catch (IOException e) {
+                System.err.println("Could not read " + fileWithMetadata.relativePath + ": " + e.getMessage());
+                buffer.position(statusPosition);
+                buffer.put(FILE_UNREADABLE);
+            } finally {
+                buffer.limit(buffer.capacity());
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,78 @@
+package org.deg.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * A channel that writes to another channel in slices and takes the written bytes from a number of
+ * {@link BandwidthLimiter}s, so that the slowest of them determines the rate. Without limits the bytes are
+ * written as they come.
+ */
+public class ThrottledChannel implements WritableByteChannel {
+    private final WritableByteChannel channel;
+    private final List<BandwidthLimiter> limiters;
+
+    /**
+     * Constructs a channel.
+     *
+     * @param channel  the channel to write to
+     * @param limiters the limiters the written bytes are taken from
+     */
+    public ThrottledChannel(WritableByteChannel channel, List<BandwidthLimiter> limiters) {
+        this.channel = channel;
+        this.limiters = limiters;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int limit = src.limit();
+        src.limit(src.position() + Math.min(src.remaining(), sliceSize()));
+        int written;
+        try {
+            written = channel.write(src);
+        } finally {
+            src.limit(limit);
+        }
+        acquire(written);
+        return written;
+    }
+
+    /**
+     * Transfers bytes from a file to the channel, directly if the channel supports it.
+     *
+     * @param file     the file channel
+     * @param position the position in the file
+     * @param count    the maximum number of bytes to transfer
+     * @return the number of bytes that were transferred, which may be less than the given count
+     * @throws IOException if an I/O error occurs
+     */
+    public long transferFrom(FileChannel file, long position, long count) throws IOException {
+        long transferred = file.transferTo(position, Math.min(count, sliceSize()), channel);
+        acquire(transferred);
+        return transferred;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int sliceSize() {
+        int sliceSize = Integer.MAX_VALUE;
+        for (BandwidthLimiter limiter : limiters) sliceSize = Math.min(sliceSize, limiter.sliceSize());
+        return sliceSize;
+    }
+
+    private void acquire(long bytes) throws IOException {
+        if (bytes <= 0) return;
+        for (BandwidthLimiter limiter : limiters) limiter.acquire(bytes);
+    }
+}
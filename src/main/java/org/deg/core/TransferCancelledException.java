@@ -0,0 +1,12 @@
+package org.deg.core;
+
+import java.io.IOException;
+
+/**
+ * Signals that a transmission was stopped because one of the peers cancelled it.
+ */
+public class TransferCancelledException extends IOException {
+    public TransferCancelledException(String message) {
+        super(message);
+    }
+}
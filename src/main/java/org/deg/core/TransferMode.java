@@ -0,0 +1,19 @@
+package org.deg.core;
+
+/**
+ * The ways in which file content can be put on the wire once a transmission request was accepted.
+ * The sender advertises the modes it supports in its metadata, the receiver picks one in its response.
+ */
+public enum TransferMode {
+    /**
+     * All files are concatenated into a single GZIP stream. This is the original protocol and is
+     * understood by every peer.
+     */
+    GZIP,
+    /**
+     * Files are sent in chunks, each preceded by a {@link ChunkHeader}, and encoded with the {@link Codec} chosen
+     * for them. Files that are not encoded are moved with FileChannel.transferTo on the sender and
+     * FileChannel.transferFrom on the receiver, so their content never has to be copied through a heap buffer.
+     */
+    CHANNEL
+}
@@ -0,0 +1,44 @@
+package org.deg.core;
+
+/**
+ * A simple data class to store the options of a single file transfer.
+ */
+public class TransferOptions {
+    /**
+     * The default number of parallel connections
+     */
+    public static final int DEFAULT_STREAMS = 4;
+
+    /**
+     * The number of parallel connections that are used to send large files. The receiver may agree to fewer.
+     */
+    public int streams = DEFAULT_STREAMS;
+
+    /**
+     * Whether content hashes of all files are sent along, so that the receiver can skip files it already has
+     */
+    public boolean skipUnchanged = true;
+
+    /**
+     * Queued transfers with a higher priority are started first
+     */
+    public int priority = 0;
+
+    /**
+     * Whether the transfer is sent over the session to the receiver if it accepts sessions, so that consecutive
+     * transfers to the same receiver share one connection
+     */
+    public boolean reuseSession = true;
+
+    /**
+     * Whether every chunk is followed by a CRC32C, so that the receiver detects corrupt chunks and requests only
+     * them again
+     */
+    public boolean checksums = true;
+
+    /**
+     * The number of bytes of the next files that are read ahead while a GZIP stream is sent, see
+     * {@link FilePrefetcher}
+     */
+    public long prefetchBytes = FilePrefetcher.DEFAULT_MAX_BYTES_AHEAD;
+}
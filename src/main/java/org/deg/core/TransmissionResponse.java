@@ -0,0 +1,56 @@
+package org.deg.core;
+
+/**
+ * A simple data class to store the answer of a receiver to a transmission request.
+ */
+public class TransmissionResponse {
+    public boolean accepted;
+    public TransferMode transferMode;
+    /**
+     * The number of parallel connections the receiver agreed to
+     */
+    public int streams = 1;
+    /**
+     * Whether the receiver sends the number of bytes of every file it already has after the response
+     */
+    public boolean resume = false;
+    /**
+     * The number of bytes at the start of every file the receiver already has. Null unless resuming.
+     */
+    public long[] startOffsets = null;
+    /**
+     * Whether the receiver sends block checksums of older versions of some files after the start offsets
+     */
+    public boolean delta = false;
+    /**
+     * Whether the receiver understands packs of small files
+     */
+    public boolean packedFiles = false;
+    /**
+     * The newest metadata format the receiver can read, 1 for the metadata string
+     */
+    public int metadataVersion = 1;
+    /**
+     * Whether the receiver accepts sessions that carry several transmissions over one connection, see {@link Session}
+     */
+    public boolean sessions = false;
+    /**
+     * Whether every chunk is followed by a CRC32C and corrupt chunks are requested again, see {@link ChunkReceiver}
+     */
+    public boolean checksums = false;
+    /**
+     * Whether the receiver accepts connections that cancel the transmission and marks its own cancellation on the
+     * connection, see {@link Constants#CANCEL_TRANSMISSION}
+     */
+    public boolean cancel = false;
+
+    /**
+     * Constructs a transmission response.
+     * @param accepted Whether the receiver accepted the transmission.
+     * @param transferMode The transfer mode the receiver selected, or null if the sender did not offer any.
+     */
+    public TransmissionResponse(boolean accepted, TransferMode transferMode) {
+        this.accepted = accepted;
+        this.transferMode = transferMode;
+    }
+}
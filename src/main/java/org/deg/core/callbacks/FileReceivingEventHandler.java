@@ -2,11 +2,16 @@ package org.deg.core.callbacks;
 
 import org.deg.core.FileWithMetadata;
 import org.deg.core.Peer;
+import org.deg.core.TransferCancelledException;
 
 import java.util.List;
 
 /**
- * Interface that handles events while receiving files
+ * Interface that handles events while receiving files. Several transmissions can be received at the same time,
+ * so the callbacks of different sessions may interleave. The list of files passed to
+ * {@link #onIncomingFiles(List, Peer)} identifies the session: the same list instance is referenced by
+ * {@link Progress#files} and passed to {@link #onReceivingFinished(List, Peer)},
+ * {@link #onReceivingFailed(List, Peer, Exception)} and {@link #onReceivingCancelled(List, Peer, boolean)}.
  */
 public interface FileReceivingEventHandler {
     /**
@@ -36,4 +41,24 @@ public interface FileReceivingEventHandler {
      * @param e the exception that caused the failure
      */
     void onReceivingError(Exception e);
+
+    /**
+     * Is called when an accepted or pending transmission failed
+     * @param files the files of the failed transmission
+     * @param sender the sending peer
+     * @param e the exception that caused the failure
+     */
+    default void onReceivingFailed(List<FileWithMetadata> files, Peer sender, Exception e) {
+        onReceivingError(e);
+    }
+
+    /**
+     * Is called when an accepted or pending transmission was cancelled before all files were received
+     * @param files the files of the cancelled transmission
+     * @param sender the sending peer
+     * @param bySender whether the sender cancelled the transmission
+     */
+    default void onReceivingCancelled(List<FileWithMetadata> files, Peer sender, boolean bySender) {
+        onReceivingFailed(files, sender, new TransferCancelledException(bySender ? "Transmission was cancelled by the sender" : "Transmission was cancelled"));
+    }
 }
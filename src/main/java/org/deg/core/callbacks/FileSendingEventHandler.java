@@ -2,6 +2,7 @@ package org.deg.core.callbacks;
 
 import org.deg.core.FileWithMetadata;
 import org.deg.core.Peer;
+import org.deg.core.TransferCancelledException;
 
 import java.util.List;
 
@@ -37,5 +38,14 @@ public interface FileSendingEventHandler {
      * Is called when the receiver accepts the transmission request
      */
     void onAccepted(Peer receiver);
+
+    /**
+     * Is called when the transmission was cancelled before all files were sent
+     * @param receiver the receiving peer
+     * @param byReceiver whether the receiver cancelled the transmission
+     */
+    default void onCancelled(Peer receiver, boolean byReceiver) {
+        onSendingFailed(new TransferCancelledException(byReceiver ? "Transmission was cancelled by the receiver" : "Transmission was cancelled"));
+    }
 }
 
@@ -5,7 +5,8 @@ import org.deg.core.FileWithMetadata;
 import java.util.List;
 
 /**
- * The Progress while sending a list of files to another peer
+ * The Progress while sending a list of files to another peer.
+ * A {@link ProgressTracker} reports a new instance every time and does not change it afterward.
  */
 public class Progress {
     /**
@@ -29,7 +30,7 @@ public class Progress {
      */
     public long totalFiles;
     /**
-     * An estimation of the current transmission speed
+     * An estimation of the current transmission speed in bits per second
      */
     public long bitsPerSecondEstimation;
 
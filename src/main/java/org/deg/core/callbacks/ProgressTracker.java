@@ -0,0 +1,136 @@
+package org.deg.core.callbacks;
+
+import org.deg.core.FileWithMetadata;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Counts the transmitted bytes of a transmission and reports its {@link Progress} to a listener. The hot path
+ * of the send and receive loops only adds to a counter, the listener is called at most once per interval or
+ * whenever a given number of bytes was transmitted since the last report. Every report passes a new {@link Progress}
+ * that is not changed afterward, so listeners may hand it to other threads, like the UI thread. Several threads may add
+ * bytes at the same time.
+ * <p>
+ * The transmission speed is an exponentially weighted moving average of the rate between two reports,
+ * so the remaining time reacts to changes of the rate instead of being averaged over the whole transmission.
+ */
+public class ProgressTracker {
+    /**
+     * The default minimum time between two reports
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+    /**
+     * The time after which a rate sample has lost about two thirds of its weight in the average
+     */
+    private static final double RATE_TIME_CONSTANT_SECONDS = 2.0;
+
+    private final Consumer<Progress> listener;
+    private final List<FileWithMetadata> files;
+    private final long totalBytes;
+    private final long intervalNanos;
+    private final long byteGranularity;
+    private final AtomicLong bytesTransmitted = new AtomicLong();
+    private volatile int currentFileIndex = 0;
+    private volatile long nextReportNanos;
+    private volatile long nextReportBytes;
+    private long lastReportNanos;
+    private long lastReportBytes;
+    private double bytesPerSecond = -1;
+
+    /**
+     * Constructs a tracker that reports every {@link #DEFAULT_INTERVAL_MILLIS} milliseconds.
+     *
+     * @param files      the files of the transmission
+     * @param totalBytes the total number of bytes of the transmission
+     * @param listener   the listener the progress is reported to (can be null)
+     */
+    public ProgressTracker(List<FileWithMetadata> files, long totalBytes, Consumer<Progress> listener) {
+        this(files, totalBytes, listener, DEFAULT_INTERVAL_MILLIS, 0);
+    }
+
+    /**
+     * Constructs a tracker.
+     *
+     * @param files           the files of the transmission
+     * @param totalBytes      the total number of bytes of the transmission
+     * @param listener        the listener the progress is reported to (can be null)
+     * @param intervalMillis  the minimum time between two reports
+     * @param byteGranularity the number of bytes after which a report is due even if the interval has not passed yet,
+     *                        0 to only report by time
+     */
+    public ProgressTracker(List<FileWithMetadata> files, long totalBytes, Consumer<Progress> listener, long intervalMillis, long byteGranularity) {
+        this.listener = listener;
+        this.files = files;
+        this.totalBytes = totalBytes;
+        this.intervalNanos = intervalMillis * 1_000_000;
+        this.byteGranularity = byteGranularity > 0 ? byteGranularity : Long.MAX_VALUE;
+        this.lastReportNanos = System.nanoTime();
+        this.nextReportNanos = lastReportNanos + intervalNanos;
+        this.nextReportBytes = this.byteGranularity;
+    }
+
+    /**
+     * Counts bytes that were present before the transmission started, e.g. of a resumed transmission. They count
+     * towards the progress but not towards the transmission speed.
+     *
+     * @param bytes the number of bytes
+     */
+    public synchronized void skip(long bytes) {
+        lastReportBytes += bytes;
+        bytesTransmitted.addAndGet(bytes);
+    }
+
+    /**
+     * Counts newly transmitted bytes and reports the progress if a report is due.
+     *
+     * @param fileIndex the index of the file the bytes belong to
+     * @param bytes     the number of bytes
+     */
+    public void add(int fileIndex, long bytes) {
+        long transmitted = bytesTransmitted.addAndGet(bytes);
+        currentFileIndex = fileIndex;
+        if (listener == null) return;
+        long now = System.nanoTime();
+        if (now - nextReportNanos >= 0 || transmitted >= nextReportBytes) report(now, false);
+    }
+
+    /**
+     * Reports the final progress, regardless of when the last report happened.
+     */
+    public void finish() {
+        if (listener != null) report(System.nanoTime(), true);
+    }
+
+    /**
+     * @return the number of bytes counted so far
+     */
+    public long bytesTransmitted() {
+        return bytesTransmitted.get();
+    }
+
+    private synchronized void report(long now, boolean force) {
+        long transmitted = bytesTransmitted.get();
+        // another thread may have reported in the meantime
+        if (!force && now - nextReportNanos < 0 && transmitted < nextReportBytes) return;
+        long elapsedNanos = now - lastReportNanos;
+        if (elapsedNanos > 0) {
+            double rate = (transmitted - lastReportBytes) * 1e9 / elapsedNanos;
+            if (bytesPerSecond < 0) {
+                bytesPerSecond = rate;
+            } else {
+                double weight = 1 - Math.exp(-elapsedNanos / (RATE_TIME_CONSTANT_SECONDS * 1e9));
+                bytesPerSecond += weight * (rate - bytesPerSecond);
+            }
+            lastReportNanos = now;
+            lastReportBytes = transmitted;
+        }
+        nextReportNanos = now + intervalNanos;
+        nextReportBytes = byteGranularity == Long.MAX_VALUE ? Long.MAX_VALUE : transmitted + byteGranularity;
+
+        Progress progress = new Progress(files, transmitted, totalBytes, currentFileIndex, files.size());
+        progress.bitsPerSecondEstimation = (long) (Math.max(bytesPerSecond, 0) * 8);
+        listener.accept(progress);
+    }
+}
@@ -53,7 +53,13 @@ public class DiscoveryBroadcaster {
                     if (message.startsWith(DISCOVERY_RESPONSE + "|")) {
                         Peer peer = Peer.fromDiscoveryResponse(message);
                         if (peer != null && !peer.equals(localPeer)) {
-                            peers.add(peer);
+                            // peers that announce their metadata version respond twice, once without it
+                            int index = peers.indexOf(peer);
+                            if (index < 0) {
+                                peers.add(peer);
+                            } else if (peers.get(index).metadataVersion() < peer.metadataVersion()) {
+                                peers.set(index, peer);
+                            }
                         }
                     }
                 } catch (SocketTimeoutException ignored) {}
@@ -7,6 +7,7 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
+import java.util.List;
 
 import static org.deg.core.Constants.DISCOVERY_PORT;
 import static org.deg.core.Constants.DISCOVERY_REQUEST;
@@ -45,15 +46,17 @@ public class DiscoveryListener implements Runnable {
                 }
                 String message = new String(packet.getData(), 0, packet.getLength());
                 if (DISCOVERY_REQUEST.equals(message)) {
-                    String response = peer.toDiscoveryResponse();
-                    byte[] responseData = response.getBytes();
+                    // older peers only read the response without the metadata version
+                    for (String response : List.of(peer.toDiscoveryResponse(), peer.toVersionedDiscoveryResponse())) {
+                        byte[] responseData = response.getBytes();
 
-                    DatagramPacket responsePacket = new DatagramPacket(
-                            responseData, responseData.length,
-                            packet.getAddress(), packet.getPort()
-                    );
+                        DatagramPacket responsePacket = new DatagramPacket(
+                                responseData, responseData.length,
+                                packet.getAddress(), packet.getPort()
+                        );
 
-                    socket.send(responsePacket);
+                        socket.send(responsePacket);
+                    }
                 }
             }
 
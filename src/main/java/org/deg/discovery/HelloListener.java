@@ -38,8 +38,9 @@ public class HelloListener implements Runnable {
      */
     @Override
     public void run() {
-        // send hello message
+        // send hello message, older peers only read the one without the metadata version
         sendUDPBroadcast(localPeer.toHelloMessage(), HELLO_PORT);
+        sendUDPBroadcast(localPeer.toVersionedHelloMessage(), HELLO_PORT);
         try {
             listenForMessages();
         } finally {
@@ -102,7 +103,8 @@ public class HelloListener implements Runnable {
     }
 
     /**
-     * Sets a callback that is called when a new hello message is received by another peer
+     * Sets a callback that is called when a new hello message is received by another peer. A peer that announces its
+     * metadata version says hello twice, first without the version.
      * @param onNewPeer the callback
      */
     public void setOnNewPeerCallback(Consumer<Peer> onNewPeer) {
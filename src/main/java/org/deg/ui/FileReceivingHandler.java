@@ -11,12 +11,16 @@ import org.deg.ui.components.Toast;
 import org.deg.ui.components.ToastMode;
 import org.deg.ui.views.ReceivePopup;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 public class FileReceivingHandler implements FileReceivingEventHandler {
-    private ReceivePopup receivePopup = null;
+    // one popup per receiving session, identified by the list of files of the session
+    private final Map<List<FileWithMetadata>, ReceivePopup> receivePopups = Collections.synchronizedMap(new IdentityHashMap<>());
     private final Stage mainStage;
 
     public FileReceivingHandler(Stage mainStage) {
@@ -29,7 +33,7 @@ public class FileReceivingHandler implements FileReceivingEventHandler {
 
         Platform.runLater(() -> {
             ReceivePopup popup = new ReceivePopup(files, sender, userResponse::complete);
-            this.receivePopup = popup;
+            receivePopups.put(files, popup);
             popup.show();
         });
 
@@ -37,7 +41,7 @@ public class FileReceivingHandler implements FileReceivingEventHandler {
             if (userResponse.get()) {
                 return true;
             } else {
-                Platform.runLater(() -> this.receivePopup.close());
+                closePopup(files);
                 return false;
             }
         } catch (InterruptedException | ExecutionException e) {
@@ -48,17 +52,13 @@ public class FileReceivingHandler implements FileReceivingEventHandler {
 
     @Override
     public void onReceivingProgress(Progress progress) {
+        ReceivePopup receivePopup = receivePopups.get(progress.files);
         if (receivePopup != null) Platform.runLater(() -> receivePopup.updateProgress(progress));
     }
 
     @Override
     public void onReceivingFinished(List<FileWithMetadata> files, Peer sender) {
-        if (receivePopup != null) {
-            Platform.runLater(() -> {
-                receivePopup.close();
-                receivePopup = null;
-            });
-        }
+        closePopup(files);
         Platform.runLater(() -> {
             long failCount = files.stream().filter(f -> !f.transmissionSuccess).count();
             long successCount = files.stream().filter(f -> f.transmissionSuccess).count();
@@ -81,10 +81,22 @@ public class FileReceivingHandler implements FileReceivingEventHandler {
         });
     }
 
+    @Override
+    public void onReceivingFailed(List<FileWithMetadata> files, Peer sender, Exception e) {
+        closePopup(files);
+        onReceivingError(e);
+    }
+
     @Override
     public void onReceivingError(Exception e) {
-        receivePopup.close();
         Platform.runLater(() -> Toast.show(mainStage, e.getMessage(), 3000, ToastMode.ERROR));
         e.printStackTrace();
     }
+
+    private void closePopup(List<FileWithMetadata> files) {
+        Platform.runLater(() -> {
+            ReceivePopup receivePopup = receivePopups.remove(files);
+            if (receivePopup != null) receivePopup.close();
+        });
+    }
 }
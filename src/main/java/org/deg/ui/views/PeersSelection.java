@@ -10,6 +10,7 @@ import javafx.scene.Scene;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
+import javafx.scene.control.SelectionMode;
 import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
@@ -29,7 +30,10 @@ import org.deg.ui.components.ToastMode;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,6 +46,9 @@ public class PeersSelection extends VBox {
     private final RotateTransition rotate;
     private final ImageView reloadIcon;
     private final ObservableList<File> filesToSend;
+    // the views and callbacks of the shown peers, so that a fan-out transfer reports to the same views
+    private final Map<Peer, PeerCell> peerViews = new HashMap<>();
+    private final Map<Peer, FileSendingEventHandler> peerCallbacks = new HashMap<>();
 
     public PeersSelection(Backend backend, ObservableList<File> selectedFiles) {
         super(15);
@@ -50,7 +57,7 @@ public class PeersSelection extends VBox {
 
         // configure backend
         if (backend != null) {
-            backend.setOnNewPeerCallback((Peer peer) -> Platform.runLater(() -> peers.add(peer)));
+            backend.setOnNewPeerCallback((Peer peer) -> Platform.runLater(() -> addPeer(peer)));
             backend.setOnPeerDisconnectedCallback((Peer peer) -> Platform.runLater(() -> peers.remove(peer)));
         }
 
@@ -79,15 +86,37 @@ public class PeersSelection extends VBox {
         rotate.setInterpolator(javafx.animation.Interpolator.LINEAR);
         btnReloadDiscovery.setOnAction(e -> discoverPeers());
 
-        titleBox.getChildren().addAll(peersLabel, btnManualSend, btnReloadDiscovery);
-
         ListView<Peer> peerList = getPeerListView();
 
+        ImageView sendIcon = new ImageView(new Image(Objects.requireNonNull(getClass().getResource("/icons/send.png")).toExternalForm()));
+        IconButton btnSendToSelected = new IconButton(sendIcon);
+        btnSendToSelected.setTooltip(new Tooltip("Send the files to all peers selected with Ctrl+Click at once"));
+        btnSendToSelected.disableProperty().bind(Bindings.size(peerList.getSelectionModel().getSelectedItems()).lessThan(2)
+                .or(Bindings.isEmpty(filesToSend)));
+        btnSendToSelected.setOnAction(e -> {
+            sendToSelected(List.copyOf(peerList.getSelectionModel().getSelectedItems()));
+            peerList.getSelectionModel().clearSelection();
+        });
+
+        titleBox.getChildren().addAll(peersLabel, btnManualSend, btnReloadDiscovery, btnSendToSelected);
+
         getChildren().addAll(titleBox, peerList);
 
         discoverPeers();
     }
 
+    /**
+     * Adds a peer that said hello, or replaces it if it said hello before, e.g. once without its metadata version.
+     */
+    private void addPeer(Peer peer) {
+        int index = peers.indexOf(peer);
+        if (index < 0) {
+            peers.add(peer);
+        } else if (peers.get(index).metadataVersion() <= peer.metadataVersion()) {
+            peers.set(index, peer);
+        }
+    }
+
     private void discoverPeers() {
         executor.submit(() -> {
             Platform.runLater(rotate::play);
@@ -102,6 +131,19 @@ public class PeersSelection extends VBox {
         });
     }
 
+    /**
+     * Sends the files to several peers at once, reading and compressing them only once.
+     */
+    private void sendToSelected(List<Peer> receivers) {
+        Map<Peer, FileSendingEventHandler> callbacks = new LinkedHashMap<>();
+        for (Peer receiver : receivers) {
+            PeerCell peerView = peerViews.get(receiver);
+            if (peerView != null) peerView.onTransmissionRequested();
+            callbacks.put(receiver, peerCallbacks.get(receiver));
+        }
+        backend.startFanOutTransfer(backend.getLocalPeer(), callbacks, List.copyOf(filesToSend));
+    }
+
     private ListView<Peer> getPeerListView() {
         ListView<Peer> peerList = new ListView<>();
         peerList.setItems(peers);
@@ -172,7 +214,11 @@ public class PeersSelection extends VBox {
                             });
                         }
                     };
+                    peerViews.put(peer, peerView);
+                    peerCallbacks.put(peer, callback);
                     peerView.setOnMouseClicked(e -> {
+                        // Ctrl+Click and Shift+Click only select peers for sending to all of them at once
+                        if (e.isShortcutDown() || e.isShiftDown()) return;
                         peerView.onTransmissionRequested();
                         backend.startFilesTransfer(backend.getLocalPeer(), peer, filesToSend, callback);
                     });
@@ -181,7 +227,7 @@ public class PeersSelection extends VBox {
                 }
             }
         });
-        peerList.setSelectionModel(null); // make elements non-clickable
+        peerList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         peerList.disableProperty().bind(Bindings.isEmpty(filesToSend));
         return peerList;
     }
@@ -7,6 +7,7 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.nio.file.Files;
+import java.util.concurrent.ThreadFactory;
 
 public class Utils {
     /**
@@ -105,6 +106,25 @@ public class Utils {
         }
     }
 
+    /**
+     * Creates a thread factory for short-lived tasks that mostly block on I/O. On Java 21 and newer the factory
+     * creates virtual threads, on older runtimes it falls back to daemon platform threads.
+     *
+     * @return the thread factory
+     */
+    public static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
     public static void openFileExplorer(File file) {
         if (file == null || !file.exists() || !file.isDirectory()) {
             System.err.println("File does not exist or is not a directory");
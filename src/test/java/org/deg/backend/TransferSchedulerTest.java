@@ -0,0 +1,104 @@
+package org.deg.backend;
+
+import org.deg.core.Peer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Queues transfers whose tasks block until they are released and checks which of them were started.
+ */
+class TransferSchedulerTest {
+    private static final Peer ALICE = new Peer("Alice", "192.168.1.100", 9000, "pic1.png");
+    private static final Peer BOB = new Peer("Bob", "192.168.1.101", 9000, "pic2.png");
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private int previousMaxConcurrentTransfers;
+    private int previousMaxTransfersPerPeer;
+
+    @BeforeEach
+    void setLimits() {
+        previousMaxConcurrentTransfers = UserConfigurations.MAX_CONCURRENT_TRANSFERS;
+        previousMaxTransfersPerPeer = UserConfigurations.MAX_TRANSFERS_PER_PEER;
+        UserConfigurations.MAX_CONCURRENT_TRANSFERS = 2;
+        UserConfigurations.MAX_TRANSFERS_PER_PEER = 1;
+    }
+
+    @AfterEach
+    void restoreLimits() {
+        release.countDown();
+        executor.shutdownNow();
+        UserConfigurations.MAX_CONCURRENT_TRANSFERS = previousMaxConcurrentTransfers;
+        UserConfigurations.MAX_TRANSFERS_PER_PEER = previousMaxTransfersPerPeer;
+    }
+
+    @Test
+    void transferToBusyPeerDoesNotHoldUpOthers() throws InterruptedException {
+        TransferScheduler scheduler = new TransferScheduler(executor);
+        ScheduledTransfer first = scheduler.submit(ALICE, List.of(), 0, this::awaitRelease);
+        ScheduledTransfer second = scheduler.submit(ALICE, List.of(), 0, this::awaitRelease);
+        ScheduledTransfer third = scheduler.submit(BOB, List.of(), 0, this::awaitRelease);
+
+        assertEquals(List.of(first, third), scheduler.getRunning());
+        assertEquals(List.of(second), scheduler.getQueued());
+
+        release.countDown();
+        awaitState(second, ScheduledTransfer.State.FINISHED);
+        assertEquals(ScheduledTransfer.State.FINISHED, first.getState());
+        assertTrue(scheduler.getQueued().isEmpty());
+    }
+
+    @Test
+    void startsHigherPrioritiesFirst() throws InterruptedException {
+        UserConfigurations.MAX_CONCURRENT_TRANSFERS = 1;
+        TransferScheduler scheduler = new TransferScheduler(executor);
+        ScheduledTransfer running = scheduler.submit(ALICE, List.of(), 0, this::awaitRelease);
+        ScheduledTransfer low = scheduler.submit(BOB, List.of(), 0, () -> {});
+        ScheduledTransfer high = scheduler.submit(BOB, List.of(), 1, () -> {});
+        ScheduledTransfer alsoHigh = scheduler.submit(BOB, List.of(), 1, () -> {});
+
+        assertEquals(List.of(running), scheduler.getRunning());
+        assertEquals(List.of(high, alsoHigh, low), scheduler.getQueued());
+        release.countDown();
+        awaitState(low, ScheduledTransfer.State.FINISHED);
+    }
+
+    @Test
+    void cancelsQueuedAndRunningTransfers() throws InterruptedException {
+        UserConfigurations.MAX_CONCURRENT_TRANSFERS = 1;
+        TransferScheduler scheduler = new TransferScheduler(executor);
+        ScheduledTransfer running = scheduler.submit(ALICE, List.of(), 0, this::awaitRelease, release::countDown);
+        ScheduledTransfer queued = scheduler.submit(BOB, List.of(), 0, this::awaitRelease);
+
+        assertTrue(scheduler.cancel(queued));
+        assertEquals(ScheduledTransfer.State.CANCELLED, queued.getState());
+        assertFalse(scheduler.cancel(queued));
+
+        assertTrue(scheduler.cancel(running));
+        awaitState(running, ScheduledTransfer.State.CANCELLED);
+        assertTrue(scheduler.getRunning().isEmpty());
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitState(ScheduledTransfer transfer, ScheduledTransfer.State state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (transfer.getState() != state && System.nanoTime() < deadline) Thread.sleep(10);
+        assertEquals(state, transfer.getState());
+    }
+}
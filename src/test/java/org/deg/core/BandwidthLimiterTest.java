@@ -0,0 +1,73 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Takes bytes from a limiter and measures how long it holds the sender back.
+ */
+class BandwidthLimiterTest {
+
+    @Test
+    void slicesMatchTheRate() {
+        AtomicLong rate = new AtomicLong(BandwidthLimiter.UNLIMITED);
+        BandwidthLimiter limiter = new BandwidthLimiter(rate::get);
+        assertEquals(Integer.MAX_VALUE, limiter.sliceSize());
+        rate.set(1_000_000);
+        assertEquals(10_000, limiter.sliceSize());
+        rate.set(1_000);
+        assertEquals(4 * 1024, limiter.sliceSize());
+        rate.set(10_000_000_000L);
+        assertEquals(1024 * 1024, limiter.sliceSize());
+    }
+
+    @Test
+    void holdsSenderBackToTheRate() throws InterruptedIOException {
+        BandwidthLimiter limiter = new BandwidthLimiter(() -> 1_000_000);
+        long start = System.nanoTime();
+        // every call waits for the bytes of the call before
+        for (int i = 0; i < 5; i++) limiter.acquire(100_000);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 350, "took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void forgetsDebtsWhenTheLimitChanges() throws InterruptedIOException {
+        AtomicLong rate = new AtomicLong(1_000);
+        BandwidthLimiter limiter = new BandwidthLimiter(rate::get);
+        // a debt of a thousand seconds under the old limit
+        limiter.acquire(1_000_000);
+        rate.set(BandwidthLimiter.UNLIMITED);
+        long start = System.nanoTime();
+        limiter.acquire(1_000_000);
+        rate.set(1_000_000_000);
+        limiter.acquire(1_000);
+        limiter.acquire(1_000);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    void stopsWaitingWhenInterrupted() throws InterruptedIOException {
+        BandwidthLimiter limiter = new BandwidthLimiter(() -> 1_000);
+        limiter.acquire(1_000_000);
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(InterruptedIOException.class, () -> limiter.acquire(1));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    void sharesLimiterOfPeerAcrossNames() {
+        Peer peer = new Peer("Alice", "192.168.1.100", 9000, "pic1.png");
+        assertSame(BandwidthLimiter.forPeer(peer), BandwidthLimiter.forPeer(new Peer("Bob", peer.ip(), peer.fileTransferPort(), "pic2.png")));
+        assertNotSame(BandwidthLimiter.forPeer(peer), BandwidthLimiter.forPeer(new Peer("Alice", peer.ip(), 9001, "pic1.png")));
+    }
+}
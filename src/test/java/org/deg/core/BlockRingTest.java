@@ -0,0 +1,98 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Publishes blocks to a ring and reads them with several readers.
+ */
+class BlockRingTest {
+
+    @Test
+    void everyReaderReadsAllBlocksInOrder() throws Exception {
+        BlockRing ring = new BlockRing(4);
+        List<CompletableFuture<List<Byte>>> readers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            BlockRing.Reader reader = ring.addReader();
+            readers.add(CompletableFuture.supplyAsync(() -> readAll(reader)));
+        }
+        for (int i = 0; i < 100; i++) ring.publish(new byte[]{(byte) i});
+        ring.close();
+
+        for (CompletableFuture<List<Byte>> reader : readers) {
+            List<Byte> blocks = reader.get(10, TimeUnit.SECONDS);
+            assertEquals(100, blocks.size());
+            for (int i = 0; i < blocks.size(); i++) assertEquals((byte) i, (byte) blocks.get(i));
+        }
+    }
+
+    @Test
+    void producerWaitsForTheSlowestReader() throws Exception {
+        BlockRing ring = new BlockRing(2);
+        BlockRing.Reader fast = ring.addReader();
+        BlockRing.Reader slow = ring.addReader();
+        ring.publish(new byte[]{0});
+        ring.publish(new byte[]{1});
+        assertArrayEquals(new byte[]{0}, fast.next());
+        assertArrayEquals(new byte[]{1}, fast.next());
+
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+            try {
+                ring.publish(new byte[]{2});
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(producer.isDone());
+        assertArrayEquals(new byte[]{0}, slow.next());
+        producer.get(10, TimeUnit.SECONDS);
+        assertArrayEquals(new byte[]{1}, slow.next());
+        assertArrayEquals(new byte[]{2}, slow.next());
+    }
+
+    @Test
+    void detachedReaderDoesNotHoldUpTheProducer() throws IOException {
+        BlockRing ring = new BlockRing(1);
+        BlockRing.Reader reader = ring.addReader();
+        BlockRing.Reader stopped = ring.addReader();
+        stopped.detach();
+        assertTrue(stopped.isDetached());
+        for (int i = 0; i < 3; i++) {
+            ring.publish(new byte[]{(byte) i});
+            assertArrayEquals(new byte[]{(byte) i}, reader.next());
+        }
+        assertThrows(IOException.class, stopped::next);
+
+        reader.detach();
+        assertThrows(IOException.class, () -> ring.publish(new byte[1]));
+    }
+
+    @Test
+    void readersGetTheFailureInsteadOfRemainingBlocks() throws IOException {
+        BlockRing ring = new BlockRing(4);
+        BlockRing.Reader reader = ring.addReader();
+        ring.publish(new byte[1]);
+        IOException failure = new IOException("disk failed");
+        ring.fail(failure);
+        assertSame(failure, assertThrows(IOException.class, reader::next));
+        assertThrows(IOException.class, () -> ring.publish(new byte[1]));
+    }
+
+    private static List<Byte> readAll(BlockRing.Reader reader) {
+        List<Byte> blocks = new ArrayList<>();
+        try {
+            for (byte[] block = reader.next(); block != null; block = reader.next()) blocks.add(block[0]);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return blocks;
+    }
+}
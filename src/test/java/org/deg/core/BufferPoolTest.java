@@ -0,0 +1,52 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Takes buffers of several sizes from a pool and hands them back.
+ */
+class BufferPoolTest {
+
+    @Test
+    void takesBuffersFromTheSmallestClassThatFits() {
+        BufferPool pool = new BufferPool(1024, 8192, 2048, 1 << 20);
+        assertEquals(2048, pool.acquire().capacity());
+        assertEquals(1024, pool.sizeClass(1));
+        assertEquals(4096, pool.sizeClass(3000));
+        assertEquals(8192, pool.acquire(5000).capacity());
+        // larger requests than all classes are allocated as they are
+        assertEquals(10_000, pool.sizeClass(10_000));
+        assertEquals(10_000, pool.acquire(10_000).capacity());
+    }
+
+    @Test
+    void reusesReleasedBuffersCleared() {
+        BufferPool pool = new BufferPool(1024, 4);
+        ByteBuffer buffer = pool.acquire();
+        buffer.putInt(42).flip();
+        pool.release(buffer);
+        ByteBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(reused.capacity(), reused.limit());
+    }
+
+    @Test
+    void keepsOnlyBuffersItCanReuse() {
+        BufferPool pool = new BufferPool(1024, 1);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        pool.release(first);
+        // beyond the budget
+        pool.release(second);
+        // not of a size class, and not direct
+        pool.release(ByteBuffer.allocateDirect(1000));
+        pool.release(ByteBuffer.allocate(1024));
+        assertSame(first, pool.acquire());
+        assertNotSame(second, pool.acquire());
+    }
+}
@@ -0,0 +1,67 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writes chunk headers and retransmit requests and reads them again.
+ */
+class ChunkHeaderTest {
+
+    @Test
+    void readsHeadersItWrote() throws IOException {
+        List<ChunkHeader> headers = List.of(
+                new ChunkHeader(3, 1L << 40, Codec.DEFLATE_BLOCK_SIZE, 12345),
+                new ChunkHeader(ChunkHeader.PACKED_FILES, 10, 25, 4096),
+                new ChunkHeader(7, 0, 1L << 33, ChunkHeader.DELTA_ENCODED),
+                ChunkHeader.endOfTransmission());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ChunkHeader header : headers) header.write(Channels.newChannel(out));
+        assertEquals(headers.size() * ChunkHeader.SIZE, out.size());
+
+        var in = Channels.newChannel(new ByteArrayInputStream(out.toByteArray()));
+        for (ChunkHeader header : headers) {
+            ChunkHeader read = ChunkHeader.read(in);
+            assertEquals(header.fileIndex, read.fileIndex);
+            assertEquals(header.offset, read.offset);
+            assertEquals(header.length, read.length);
+            assertEquals(header.encodedLength, read.encodedLength);
+            assertEquals(header.fileIndex == ChunkHeader.END_OF_TRANSMISSION, read.isEndOfTransmission());
+        }
+        assertThrows(EOFException.class, () -> ChunkHeader.read(in));
+    }
+
+    @Test
+    void readsRetransmitRequestItWrote() throws IOException {
+        List<ChunkHeader> chunks = List.of(new ChunkHeader(0, 0, 100, 100), new ChunkHeader(2, 1L << 32, 5, 5));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkHeader.writeRetransmitRequest(new DataOutputStream(out), chunks);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        List<ChunkHeader> read = ChunkHeader.readRetransmitRequest(in, in.readInt(), 10);
+        assertEquals(chunks.size(), read.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            assertEquals(chunks.get(i).fileIndex, read.get(i).fileIndex);
+            assertEquals(chunks.get(i).offset, read.get(i).offset);
+            assertEquals(chunks.get(i).length, read.get(i).length);
+            assertEquals(chunks.get(i).length, read.get(i).encodedLength);
+        }
+    }
+
+    @Test
+    void rejectsRetransmitRequestWithTooManyChunks() {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(new byte[0]));
+        assertThrows(IOException.class, () -> ChunkHeader.readRetransmitRequest(in, 11, 10));
+        assertThrows(IOException.class, () -> ChunkHeader.readRetransmitRequest(in, -1, 10));
+    }
+}
@@ -0,0 +1,176 @@
+package org.deg.core;
+
+import javafx.util.Pair;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sends files with a {@link ChunkSender} and receives them with a {@link ChunkReceiver}, like a transmission in
+ * {@link TransferMode#CHANNEL} over a single connection.
+ */
+class ChunkSenderTest {
+    private static final Peer SENDER = new Peer("Alice", "127.0.0.1", 9000, "pic1.png");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void receivesPlainDeflatedAndPackedFiles() throws Exception {
+        List<FileWithMetadata> sent = sourceFiles();
+        List<FileWithMetadata> received = targetFiles(sent);
+        ChunkReceiver receiver = receiver(received, false);
+
+        transmit(new ChunkSender(sent, null, new long[sent.size()], true, List.of(), false), receiver, null, channel -> channel);
+        receiver.finish();
+
+        assertReceived(sent, received);
+    }
+
+    @Test
+    void resendsChunksThatArrivedCorrupt() throws Exception {
+        List<FileWithMetadata> sent = sourceFiles();
+        List<FileWithMetadata> received = targetFiles(sent);
+        ChunkReceiver receiver = receiver(received, true);
+        ChunkSender sender = new ChunkSender(sent, null, new long[sent.size()], true, List.of(), true);
+
+        // a byte of the content of the first chunk is flipped on the way
+        transmit(sender, receiver, null, channel -> new CorruptingChannel(channel, ChunkHeader.SIZE + 1000));
+        List<ChunkHeader> corrupt = receiver.takeCorruptChunks();
+        assertEquals(1, corrupt.size());
+        assertEquals(0, corrupt.get(0).fileIndex);
+
+        transmit(sender, receiver, corrupt, channel -> channel);
+        assertTrue(receiver.takeCorruptChunks().isEmpty());
+        sender.finish();
+        receiver.finish();
+
+        assertReceived(sent, received);
+    }
+
+    private void transmit(ChunkSender sender, ChunkReceiver receiver, List<ChunkHeader> resent, ChannelWrapper wrapper) throws Exception {
+        Pipe pipe = Pipe.open();
+        CompletableFuture<Void> sending = CompletableFuture.runAsync(() -> {
+            try (WritableByteChannel channel = wrapper.wrap(pipe.sink())) {
+                if (resent == null) {
+                    sender.send(channel);
+                } else {
+                    sender.resend(channel, resent);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try (Pipe.SourceChannel source = pipe.source()) {
+            receiver.receive(source);
+        }
+        sending.get(30, TimeUnit.SECONDS);
+    }
+
+    private List<FileWithMetadata> sourceFiles() throws IOException {
+        Random random = new Random(1);
+        List<FileWithMetadata> files = new ArrayList<>();
+        byte[] plain = new byte[3 * 1024 * 1024 + 7];
+        random.nextBytes(plain);
+        files.add(sourceFile("plain.bin", plain, Codec.NONE));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 3 * 1024 * 1024; i++) text.append("line ").append(i).append('\n');
+        files.add(sourceFile("text.csv", text.toString().getBytes(StandardCharsets.UTF_8), Codec.DEFLATE));
+        for (int i = 0; i < 50; i++) {
+            byte[] small = new byte[random.nextInt(4096)];
+            random.nextBytes(small);
+            files.add(sourceFile("small/file" + i, small, Codec.NONE));
+        }
+        files.add(sourceFile("empty", new byte[0], Codec.NONE));
+        return files;
+    }
+
+    private FileWithMetadata sourceFile(String relativePath, byte[] content, Codec codec) throws IOException {
+        Path path = directory.resolve("source").resolve(relativePath);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content);
+        FileWithMetadata fileWithMetadata = new FileWithMetadata(path.toFile(), relativePath, content.length, null);
+        fileWithMetadata.codec = codec;
+        return fileWithMetadata;
+    }
+
+    private List<FileWithMetadata> targetFiles(List<FileWithMetadata> sent) {
+        List<FileWithMetadata> files = new ArrayList<>();
+        for (FileWithMetadata source : sent) {
+            File file = directory.resolve("target").resolve(source.relativePath).toFile();
+            FileWithMetadata target = new FileWithMetadata(file, source.relativePath, source.sizeInBytes, null);
+            target.codec = source.codec;
+            files.add(target);
+        }
+        return files;
+    }
+
+    private static ChunkReceiver receiver(List<FileWithMetadata> files, boolean checksums) {
+        List<Pair<Peer, File>> receivedLog = new ArrayList<>();
+        return new ChunkReceiver(SENDER, files, null, receivedLog, new long[files.size()], null, DurabilityPolicy.NONE, checksums);
+    }
+
+    private static void assertReceived(List<FileWithMetadata> sent, List<FileWithMetadata> received) throws IOException {
+        for (int i = 0; i < sent.size(); i++) {
+            FileWithMetadata target = received.get(i);
+            assertEquals(Boolean.TRUE, target.transmissionSuccess, target.relativePath);
+            assertArrayEquals(Files.readAllBytes(sent.get(i).file.toPath()), Files.readAllBytes(target.file.toPath()), target.relativePath);
+        }
+    }
+
+    private interface ChannelWrapper {
+        WritableByteChannel wrap(WritableByteChannel channel);
+    }
+
+    /**
+     * Flips a single byte of the stream that is written through it.
+     */
+    private static class CorruptingChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        private final long corruptPosition;
+        private long position = 0;
+
+        CorruptingChannel(WritableByteChannel channel, long corruptPosition) {
+            this.channel = channel;
+            this.corruptPosition = corruptPosition;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ByteBuffer copy = ByteBuffer.allocate(src.remaining()).put(src.duplicate()).flip();
+            if (corruptPosition >= position && corruptPosition < position + copy.remaining()) {
+                int index = (int) (corruptPosition - position);
+                copy.put(index, (byte) ~copy.get(index));
+            }
+            int written = channel.write(copy);
+            src.position(src.position() + written);
+            position += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chooses the codecs of files by their names and content.
+ */
+class ContentSnifferTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void deflatesText() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 64 * 1024; i++) text.append("line ").append(i).append('\n');
+        assertEquals(Codec.DEFLATE, ContentSniffer.chooseCodec(file("text.csv", text.toString().getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void sendsRandomBytesAsTheyAre() throws IOException {
+        assertEquals(Codec.NONE, ContentSniffer.chooseCodec(file("random.bin", randomBytes(64 * 1024))));
+    }
+
+    @Test
+    void sendsCompressedFormatsAsTheyAre() throws IOException {
+        byte[] zeros = new byte[64 * 1024];
+        // by extension, even if the content would shrink
+        assertEquals(Codec.NONE, ContentSniffer.chooseCodec(file("photo.JPG", zeros)));
+        // by magic bytes, whatever the extension
+        byte[] gzip = zeros.clone();
+        gzip[0] = 0x1F;
+        gzip[1] = (byte) 0x8B;
+        assertEquals(Codec.NONE, ContentSniffer.chooseCodec(file("archive.dat", gzip)));
+        assertTrue(ContentSniffer.isCompressedFormat("a.tar.gz"));
+        assertFalse(ContentSniffer.isCompressedFormat("gz"));
+        assertFalse(ContentSniffer.isCompressedFormat("notes."));
+    }
+
+    @Test
+    void sendsSmallFilesAsTheyAre() throws IOException {
+        assertEquals(Codec.NONE, ContentSniffer.chooseCodec(file("small.txt", new byte[100])));
+    }
+
+    @Test
+    void checksTheMiddleAndEndOfFiles() throws IOException {
+        byte[] content = new byte[256 * 1024];
+        byte[] random = randomBytes(64 * 1024);
+        System.arraycopy(random, 0, content, content.length - random.length, random.length);
+        assertEquals(Codec.NONE, ContentSniffer.chooseCodec(file("tail.bin", content)));
+    }
+
+    private FileWithMetadata file(String name, byte[] content) throws IOException {
+        Path path = directory.resolve(name);
+        Files.write(path, content);
+        return new FileWithMetadata(path.toFile(), name, content.length, null);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(1).nextBytes(bytes);
+        return bytes;
+    }
+}
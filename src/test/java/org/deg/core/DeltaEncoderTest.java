@@ -0,0 +1,130 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Encodes new versions of a file against the signature of an older one and rebuilds them with a
+ * {@link DeltaDecoder}.
+ */
+class DeltaEncoderTest {
+    private static final int SIZE = 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rebuildsUnchangedFileFromCopies() throws IOException {
+        byte[] basis = randomBytes(SIZE, 1);
+        byte[] delta = encode(basis, basis);
+        // every block is copied, only the instructions are sent
+        assertTrue(delta.length < SIZE / 100, "delta of unchanged file has " + delta.length + " bytes");
+        assertArrayEquals(basis, decode(basis, delta, basis.length));
+    }
+
+    @Test
+    void rebuildsFileWithInsertedAndChangedBytes() throws IOException {
+        byte[] basis = randomBytes(SIZE, 2);
+        byte[] inserted = randomBytes(1000, 3);
+        byte[] changed = new byte[basis.length + inserted.length];
+        // bytes are inserted in the middle, which shifts all later blocks by an odd amount
+        System.arraycopy(basis, 0, changed, 0, SIZE / 2);
+        System.arraycopy(inserted, 0, changed, SIZE / 2, inserted.length);
+        System.arraycopy(basis, SIZE / 2, changed, SIZE / 2 + inserted.length, SIZE / 2);
+        // and some bytes near the start are overwritten
+        Arrays.fill(changed, 10_000, 10_100, (byte) 7);
+
+        byte[] delta = encode(basis, changed);
+        assertTrue(delta.length < SIZE / 10, "delta of changed file has " + delta.length + " bytes");
+        assertArrayEquals(changed, decode(basis, delta, changed.length));
+    }
+
+    @Test
+    void rebuildsFileWithoutCommonBlocks() throws IOException {
+        byte[] basis = randomBytes(SIZE, 4);
+        // shorter than a block and with a trailing partial block
+        byte[] changed = randomBytes(SIZE / 3 + 17, 5);
+        assertArrayEquals(changed, decode(basis, encode(basis, changed), changed.length));
+    }
+
+    @Test
+    void rejectsDeltaOfWrongSize() throws IOException {
+        byte[] basis = randomBytes(SIZE, 6);
+        byte[] delta = encode(basis, basis);
+        assertThrows(IOException.class, () -> decode(basis, delta, basis.length + 1));
+        assertThrows(IOException.class, () -> decode(basis, Arrays.copyOf(delta, delta.length - 1), basis.length));
+    }
+
+    @Test
+    void writesAndReadsSignature() throws IOException {
+        DeltaSignature signature = DeltaSignature.compute(write("basis", randomBytes(SIZE + 100, 7)).toFile());
+        assertNotNull(signature);
+        assertEquals(SIZE / signature.blockSize, signature.blockCount());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        signature.write(new DataOutputStream(out));
+        DeltaSignature read = DeltaSignature.read(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(signature.blockSize, read.blockSize);
+        assertEquals(signature.blockCount(), read.blockCount());
+        // the read signature finds the same blocks
+        byte[] block = Files.readAllBytes(directory.resolve("basis"));
+        int index = 5;
+        int offset = index * signature.blockSize;
+        int weak = DeltaSignature.weakChecksum(block, offset, signature.blockSize);
+        assertEquals(index, read.findBlock(weak, block, offset, DeltaSignature.strongDigest()));
+    }
+
+    @Test
+    void rollsWeakChecksum() {
+        byte[] data = randomBytes(4096 + 1, 8);
+        int length = 4096;
+        int rolled = DeltaSignature.rollWeakChecksum(DeltaSignature.weakChecksum(data, 0, length), data[0], data[length], length);
+        assertEquals(DeltaSignature.weakChecksum(data, 1, length), rolled);
+    }
+
+    private byte[] encode(byte[] basis, byte[] changed) throws IOException {
+        DeltaSignature signature = DeltaSignature.compute(write("basis", basis).toFile());
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        try (FileChannel file = FileChannel.open(write("changed", changed), StandardOpenOption.READ)) {
+            new DeltaEncoder(signature).encode(file, changed.length, Channels.newChannel(delta), bytes -> {});
+        }
+        return delta.toByteArray();
+    }
+
+    private byte[] decode(byte[] basis, byte[] delta, long size) throws IOException {
+        Path basisFile = write("basis", basis);
+        DeltaSignature signature = DeltaSignature.compute(basisFile.toFile());
+        Path target = directory.resolve("rebuilt");
+        Files.deleteIfExists(target);
+        try (FileChannel basisChannel = FileChannel.open(basisFile, StandardOpenOption.READ);
+             FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            new DeltaDecoder(signature, basisChannel).decode(Channels.newChannel(new ByteArrayInputStream(delta)), targetChannel, size, bytes -> {});
+        }
+        return Files.readAllBytes(target);
+    }
+
+    private Path write(String name, byte[] content) throws IOException {
+        return Files.write(directory.resolve(name), content);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
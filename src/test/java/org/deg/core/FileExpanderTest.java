@@ -0,0 +1,74 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Expands a tree of folders in parallel and compares it with a sequential walk.
+ */
+class FileExpanderTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsTheOrderOfASequentialWalk() throws IOException {
+        Path root = directory.resolve("root");
+        createTree(root, 3);
+        Path single = Files.write(directory.resolve("single.txt"), new byte[5]);
+
+        List<FileWithMetadata> files = FileExpander.expandFilesWithRelativePaths(List.of(root.toFile(), single.toFile()));
+
+        List<String> expected = new ArrayList<>();
+        walkSequentially(root, "root", expected);
+        expected.add("single.txt");
+        assertEquals(expected, files.stream().map(f -> f.relativePath).toList());
+        for (FileWithMetadata file : files) assertEquals(Files.size(file.file.toPath()), file.sizeInBytes, file.relativePath);
+    }
+
+    @Test
+    void skipsLinksToParentFolders() throws IOException {
+        Path root = directory.resolve("root");
+        Files.createDirectories(root.resolve("sub"));
+        Files.write(root.resolve("sub/file"), new byte[1]);
+        try {
+            Files.createSymbolicLink(root.resolve("sub/loop"), root);
+        } catch (UnsupportedOperationException | IOException e) {
+            // the file system does not support links
+            return;
+        }
+
+        List<FileWithMetadata> files = FileExpander.expandFilesWithRelativePaths(List.of(root.toFile()));
+        assertEquals(List.of("root" + File.separator + "sub" + File.separator + "file"), files.stream().map(f -> f.relativePath).toList());
+    }
+
+    private static void createTree(Path folder, int depth) throws IOException {
+        Files.createDirectories(folder);
+        for (int i = 0; i < 4; i++) Files.write(folder.resolve("file" + i), new byte[i * 10]);
+        if (depth == 0) return;
+        for (int i = 0; i < 3; i++) createTree(folder.resolve("folder" + i), depth - 1);
+        Files.createDirectory(folder.resolve("empty"));
+    }
+
+    private static void walkSequentially(Path folder, String relativePath, List<String> paths) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                String entryPath = relativePath + File.separator + path.getFileName();
+                if (Files.isDirectory(path)) {
+                    walkSequentially(path, entryPath, paths);
+                } else {
+                    paths.add(entryPath);
+                }
+            }
+        }
+    }
+}
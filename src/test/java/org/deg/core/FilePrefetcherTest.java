@@ -0,0 +1,79 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reads files ahead in blocks and compares them with their content.
+ */
+class FilePrefetcherTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsAllFilesInOrderWithinTheBudget() throws IOException {
+        List<byte[]> contents = List.of(randomBytes(2 * FilePrefetcher.BLOCK_SIZE + 3, 1), new byte[0], randomBytes(100, 2));
+        List<FileWithMetadata> files = files(contents);
+        // a single file and block ahead make the reader wait for the sender all the time
+        try (FilePrefetcher prefetcher = new FilePrefetcher(files, 1, FilePrefetcher.BLOCK_SIZE)) {
+            for (int i = 0; i < files.size(); i++) assertArrayEquals(contents.get(i), readFile(prefetcher, i));
+        }
+    }
+
+    @Test
+    void dropsBlocksOfSkippedFiles() throws IOException {
+        List<byte[]> contents = List.of(randomBytes(3 * FilePrefetcher.BLOCK_SIZE, 1), randomBytes(10, 2), randomBytes(20, 3));
+        List<FileWithMetadata> files = files(contents);
+        try (FilePrefetcher prefetcher = new FilePrefetcher(files, 2, 2L * FilePrefetcher.BLOCK_SIZE)) {
+            FilePrefetcher.Block first = prefetcher.next(0);
+            assertNotNull(first);
+            prefetcher.recycle(first);
+            assertArrayEquals(contents.get(2), readFile(prefetcher, 2));
+        }
+    }
+
+    @Test
+    void failsOnlyTheFileThatCannotBeRead() throws IOException {
+        List<FileWithMetadata> files = files(List.of(randomBytes(10, 1), randomBytes(20, 2)));
+        Files.delete(files.get(0).file.toPath());
+        try (FilePrefetcher prefetcher = new FilePrefetcher(files)) {
+            assertThrows(IOException.class, () -> prefetcher.next(0));
+            assertEquals(20, readFile(prefetcher, 1).length);
+        }
+    }
+
+    private List<FileWithMetadata> files(List<byte[]> contents) throws IOException {
+        List<FileWithMetadata> files = new ArrayList<>();
+        for (int i = 0; i < contents.size(); i++) {
+            Path path = Files.write(directory.resolve("file" + i), contents.get(i));
+            files.add(new FileWithMetadata(path.toFile(), "file" + i, contents.get(i).length, null));
+        }
+        return files;
+    }
+
+    private static byte[] readFile(FilePrefetcher prefetcher, int fileIndex) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (FilePrefetcher.Block block = prefetcher.next(fileIndex); block != null; block = prefetcher.next(fileIndex)) {
+            assertEquals(fileIndex, block.fileIndex);
+            out.write(block.data, 0, block.length);
+            prefetcher.recycle(block);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,72 @@
+package org.deg.core;
+
+import org.deg.backend.UserConfigurations;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Finds the files the receiver already has under its save path.
+ */
+class FileReceiverTest {
+    private static final byte[] CONTENT = "content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+    private File previousSavePath;
+
+    @BeforeEach
+    void setSavePath() throws IOException {
+        previousSavePath = UserConfigurations.DEFAULT_SAFE_PATH;
+        UserConfigurations.DEFAULT_SAFE_PATH = Files.createDirectory(directory.resolve("save")).toFile();
+    }
+
+    @AfterEach
+    void restoreSavePath() {
+        UserConfigurations.DEFAULT_SAFE_PATH = previousSavePath;
+    }
+
+    @Test
+    void skipsFilesWithTheSameContent() throws IOException {
+        Files.write(directory.resolve("save/same"), CONTENT);
+        Files.write(directory.resolve("save/changed"), "CONTENT".getBytes(StandardCharsets.UTF_8));
+        String hash = ContentHasher.hash(Files.write(directory.resolve("original"), CONTENT).toFile());
+        List<FileWithMetadata> files = received(hash, "same", "changed", "missing");
+
+        long[] startOffsets = new long[files.size()];
+        FileReceiver.skipUnchangedFiles(files, startOffsets);
+        assertArrayEquals(new long[]{CONTENT.length, 0, 0}, startOffsets);
+    }
+
+    @Test
+    void doesNotHashFilesOutsideTheSavePath() throws IOException {
+        String hash = ContentHasher.hash(Files.write(directory.resolve("secret"), CONTENT).toFile());
+        List<FileWithMetadata> files = received(hash, "../secret", directory.resolve("secret").toString());
+
+        long[] startOffsets = new long[files.size()];
+        FileReceiver.skipUnchangedFiles(files, startOffsets);
+        assertArrayEquals(new long[]{0, 0}, startOffsets);
+        assertFalse(FileReceiver.isUnderSavePath(files.get(0)));
+    }
+
+    private static List<FileWithMetadata> received(String hash, String... relativePaths) {
+        List<FileWithMetadata> files = new ArrayList<>();
+        for (String relativePath : relativePaths) {
+            FileWithMetadata fileWithMetadata = new FileWithMetadata(new File(UserConfigurations.DEFAULT_SAFE_PATH, relativePath), relativePath, CONTENT.length, null);
+            fileWithMetadata.contentHash = hash;
+            files.add(fileWithMetadata);
+        }
+        return files;
+    }
+}
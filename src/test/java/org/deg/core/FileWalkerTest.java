@@ -0,0 +1,43 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Consumes a walk while it is still running.
+ */
+class FileWalkerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void passesOnTheFilesOfTheExpandedList() throws IOException {
+        Path root = directory.resolve("root");
+        createTree(root, 2);
+        List<String> expected = FileExpander.expandFilesWithRelativePaths(List.of(root.toFile())).stream().map(f -> f.relativePath).toList();
+
+        List<String> walked = new ArrayList<>();
+        // a queue smaller than the tree makes the walk wait for the consumer
+        try (FileWalker walker = new FileWalker(List.of(root.toFile()), 2)) {
+            for (FileWithMetadata file = walker.next(); file != null; file = walker.next()) walked.add(file.relativePath);
+            assertNull(walker.next());
+            assertTrue(walker.hasNextReady());
+        }
+        assertEquals(expected, walked);
+    }
+
+    private static void createTree(Path folder, int depth) throws IOException {
+        Files.createDirectories(folder);
+        for (int i = 0; i < 4; i++) Files.write(folder.resolve("file" + i), new byte[i]);
+        if (depth == 0) return;
+        for (int i = 0; i < 3; i++) createTree(folder.resolve("folder" + i), depth - 1);
+    }
+}
@@ -0,0 +1,54 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sizes buffers from estimates of links and passes estimates on in the metadata.
+ */
+class LinkEstimateTest {
+
+    @Test
+    void sizesBuffersFromTheBandwidthDelayProduct() {
+        // 1 Gbit/s over a LAN fills neither the socket buffers nor the smallest buffer
+        LinkEstimate lan = new LinkEstimate(500, 125_000_000);
+        assertEquals(62_500, lan.bandwidthDelayProduct());
+        assertEquals(0, lan.socketBufferSize());
+        assertEquals(256 * 1024, lan.bufferSize());
+
+        // 10 Gbit/s with 2 ms
+        LinkEstimate fast = new LinkEstimate(2000, 1_250_000_000);
+        assertEquals(2_500_000, fast.bandwidthDelayProduct());
+        assertEquals(5_000_000, fast.socketBufferSize());
+        assertEquals(4 * 1024 * 1024, fast.bufferSize());
+
+        LinkEstimate huge = new LinkEstimate(1_000_000, 1_250_000_000);
+        assertEquals(LinkEstimate.MAX_SOCKET_BUFFER, huge.socketBufferSize());
+        assertEquals(4 * 1024 * 1024, huge.bufferSize());
+    }
+
+    @Test
+    void parsesWhatItFormatted() {
+        LinkEstimate estimate = LinkEstimate.parse(new LinkEstimate(850, 125_000_000).format());
+        assertNotNull(estimate);
+        assertEquals(850, estimate.rttMicros);
+        assertEquals(125_000_000, estimate.bytesPerSecond);
+        assertNull(LinkEstimate.parse(null));
+        assertNull(LinkEstimate.parse("850"));
+        assertNull(LinkEstimate.parse("850,fast"));
+    }
+
+    @Test
+    void recordsOnlyThroughputOfLargeTransmissions() {
+        String host = "192.0.2.7";
+        assertEquals(LinkEstimate.DEFAULT_BYTES_PER_SECOND, LinkEstimate.forHost(host).bytesPerSecond);
+        LinkEstimate.recordThroughput(host, 1024, TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(LinkEstimate.DEFAULT_BYTES_PER_SECOND, LinkEstimate.forHost(host).bytesPerSecond);
+        LinkEstimate.recordThroughput(host, 100_000_000, TimeUnit.SECONDS.toNanos(2));
+        assertEquals(50_000_000, LinkEstimate.forHost(host).bytesPerSecond);
+        assertEquals(LinkEstimate.DEFAULT_RTT_MICROS, LinkEstimate.forHost(host).rttMicros);
+    }
+}
@@ -0,0 +1,170 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writes metadata and transmission responses and parses them again.
+ */
+class MetadataHandlerTest {
+    private static final String HASH = "a3f0" + "0".repeat(60);
+
+    @Test
+    void parsesBinaryMetadataItWrote() throws IOException {
+        Metadata metadata = metadata(
+                List.of("a.txt", "dir/with,comma|and:colon.bin", "ünïcödé/ファイル", "empty"),
+                // sizes around the boundaries of the varint encoding
+                List.of(127L, 128L, (1L << 35) + 1, 0L));
+        metadata.codecs = List.of(Codec.NONE, Codec.DEFLATE, Codec.NONE, Codec.NONE);
+        metadata.fileHashes = Arrays.asList(HASH, null, HASH, null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MetadataHandler.writeBinaryMetadata(out, metadata);
+        out.write(42);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        Metadata read = MetadataHandler.readBinaryMetadata(in);
+
+        assertSameMetadata(metadata, read);
+        // nothing beyond the metadata is read
+        assertEquals(42, in.read());
+    }
+
+    @Test
+    void parsesFilesThatAreWrittenOneAfterAnother() throws IOException {
+        Metadata metadata = metadata(new ArrayList<>(), new ArrayList<>());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryMetadataWriter writer = new BinaryMetadataWriter(out, metadata);
+        for (int i = 0; i < 10_000; i++) {
+            writer.writeFile("dir/file" + i, i, Codec.NONE, null);
+            metadata.fileNames.add("dir/file" + i);
+            metadata.fileSizes.add((long) i);
+            metadata.codecs.add(Codec.NONE);
+            if (i % 1000 == 0) writer.flush();
+        }
+        metadata.fileCount = metadata.fileNames.size();
+        // the fields that depend on all files are only known at the end
+        metadata.streams = 4;
+        metadata.resumeKey = "9c1e4d2a";
+        writer.finish(metadata);
+
+        Metadata read = MetadataHandler.readBinaryMetadata(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+        assertSameMetadata(metadata, read);
+        // without any hash the hashes are empty, like in the metadata string
+        assertTrue(read.fileHashes.isEmpty());
+    }
+
+    @Test
+    void rejectsMalformedBinaryMetadata() throws IOException {
+        Metadata metadata = metadata(List.of("a.txt"), List.of(1L));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MetadataHandler.writeBinaryMetadata(out, metadata);
+        byte[] bytes = out.toByteArray();
+
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 6);
+        assertThrows(IOException.class, () -> MetadataHandler.readBinaryMetadata(new DataInputStream(new ByteArrayInputStream(truncated))));
+        byte[] unknownVersion = bytes.clone();
+        // the version is the first byte of the first segment
+        unknownVersion[Integer.BYTES] = 99;
+        assertThrows(IOException.class, () -> MetadataHandler.readBinaryMetadata(new DataInputStream(new ByteArrayInputStream(unknownVersion))));
+    }
+
+    @Test
+    void rejectsNegativeFileSizes() throws IOException {
+        Metadata metadata = metadata(List.of("a.txt"), List.of(-1L));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MetadataHandler.writeBinaryMetadata(out, metadata);
+        assertThrows(IOException.class, () -> MetadataHandler.readBinaryMetadata(new DataInputStream(new ByteArrayInputStream(out.toByteArray()))));
+        assertThrows(IOException.class, () -> MetadataHandler.buildFilesWithMetadataList(MetadataHandler.parseMetadata(MetadataHandler.buildMetadata(metadata))));
+    }
+
+    @Test
+    void rejectsMetadataStringWithFewerFilesThanAnnounced() {
+        Metadata metadata = MetadataHandler.parseMetadata("FILE_COUNT:3|FILENAMES:a,b|SIZES:1,2|SENDER_NAME:Alice");
+        assertThrows(IOException.class, () -> MetadataHandler.buildFilesWithMetadataList(metadata));
+    }
+
+    @Test
+    void parsesMetadataStringItBuilt() {
+        Metadata metadata = metadata(List.of("a.txt", "dir/b.bin"), List.of(12345L, 67890L));
+        metadata.codecs = List.of(Codec.NONE, Codec.DEFLATE);
+        metadata.fileHashes = Arrays.asList(HASH, null);
+
+        assertSameMetadata(metadata, MetadataHandler.parseMetadata(MetadataHandler.buildMetadata(metadata)));
+    }
+
+    @Test
+    void parsesTransmissionResponseItBuilt() throws IOException {
+        TransmissionResponse response = new TransmissionResponse(true, TransferMode.CHANNEL);
+        response.streams = 4;
+        response.resume = true;
+        response.delta = true;
+        response.packedFiles = true;
+        response.metadataVersion = MetadataHandler.BINARY_METADATA_VERSION;
+        response.sessions = true;
+        response.checksums = true;
+        response.cancel = true;
+
+        TransmissionResponse read = MetadataHandler.parseTransmissionResponse(MetadataHandler.buildTransmissionResponse(response));
+        assertTrue(read.accepted);
+        assertEquals(TransferMode.CHANNEL, read.transferMode);
+        assertEquals(4, read.streams);
+        assertTrue(read.resume && read.delta && read.packedFiles && read.sessions && read.checksums && read.cancel);
+        assertEquals(MetadataHandler.BINARY_METADATA_VERSION, read.metadataVersion);
+    }
+
+    @Test
+    void parsesResponsesOfOlderAndNewerReceivers() throws IOException {
+        TransmissionResponse legacy = MetadataHandler.parseTransmissionResponse("ACCEPT_TRANSMISSION");
+        assertTrue(legacy.accepted);
+        assertEquals(TransferMode.GZIP, legacy.transferMode);
+        assertEquals(1, legacy.streams);
+
+        TransmissionResponse newer = MetadataHandler.parseTransmissionResponse("ACCEPT_TRANSMISSION|TRANSFER_MODE:QUIC|FUTURE:1");
+        assertEquals(TransferMode.GZIP, newer.transferMode);
+
+        assertFalse(MetadataHandler.parseTransmissionResponse("DENY_TRANSMISSION").accepted);
+    }
+
+    @Test
+    void rejectsMalformedNumbersInResponse() {
+        assertThrows(IOException.class, () -> MetadataHandler.parseTransmissionResponse("ACCEPT_TRANSMISSION|STREAMS:four"));
+        assertThrows(IOException.class, () -> MetadataHandler.parseTransmissionResponse("ACCEPT_TRANSMISSION|METADATA_VERSION:"));
+    }
+
+    private static Metadata metadata(List<String> fileNames, List<Long> fileSizes) {
+        Metadata metadata = new Metadata(fileNames.size(), fileNames, fileSizes, new Peer("Alice", "192.168.1.100", 9000, "pic1.png"));
+        metadata.transferModes = List.of(TransferMode.CHANNEL, TransferMode.GZIP);
+        metadata.streams = 4;
+        metadata.transferId = "3f2a9b7c";
+        metadata.resumeKey = "9c1e4d2a";
+        metadata.checksums = true;
+        metadata.link = new LinkEstimate(850, 125_000_000);
+        return metadata;
+    }
+
+    private static void assertSameMetadata(Metadata expected, Metadata actual) {
+        assertEquals(expected.fileCount, actual.fileCount);
+        assertEquals(expected.fileNames, actual.fileNames);
+        assertEquals(expected.fileSizes, actual.fileSizes);
+        assertEquals(expected.codecs, actual.codecs);
+        assertEquals(expected.fileHashes, actual.fileHashes);
+        assertEquals(expected.sender, actual.sender);
+        assertEquals(expected.sender.name(), actual.sender.name());
+        assertEquals(expected.sender.profilePicName(), actual.sender.profilePicName());
+        assertEquals(expected.transferModes, actual.transferModes);
+        assertEquals(expected.streams, actual.streams);
+        assertEquals(expected.transferId, actual.transferId);
+        assertEquals(expected.resumeKey, actual.resumeKey);
+        assertEquals(expected.checksums, actual.checksums);
+        assertEquals(expected.link.format(), actual.link.format());
+    }
+}
@@ -0,0 +1,72 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compresses content in parallel blocks and decompresses it with a plain {@link GZIPInputStream}, like a receiver
+ * does.
+ */
+class ParallelGzipOutputStreamTest {
+
+    @Test
+    void decompressesToWhatWasWritten() throws IOException {
+        // several blocks of compressible text followed by random bytes, written in odd sizes
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 3 * 1024 * 1024; i++) text.append("line ").append(i).append(",value,").append(i % 97).append('\n');
+        byte[] random = new byte[1024 * 1024 + 3];
+        new Random(1).nextBytes(random);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(text.toString().getBytes(StandardCharsets.UTF_8));
+        content.write(random);
+        byte[] expected = content.toByteArray();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed)) {
+            int position = 0;
+            for (int size = 1; position < expected.length; size = size * 3 + 1) {
+                int count = Math.min(size, expected.length - position);
+                out.write(expected, position, count);
+                position += count;
+            }
+        }
+
+        assertTrue(compressed.size() < expected.length);
+        assertArrayEquals(expected, decompress(compressed.toByteArray()));
+    }
+
+    @Test
+    void decompressesWhatWasFlushedBeforeTheEnd() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed);
+        out.write("first".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        out.write('+');
+        out.write("second".getBytes(StandardCharsets.UTF_8));
+        out.close();
+
+        assertArrayEquals("first+second".getBytes(StandardCharsets.UTF_8), decompress(compressed.toByteArray()));
+    }
+
+    @Test
+    void decompressesEmptyStream() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(compressed).close();
+        assertEquals(0, decompress(compressed.toByteArray()).length);
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+}
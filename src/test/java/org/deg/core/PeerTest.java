@@ -0,0 +1,52 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Announces peers in discovery and hello messages and parses them again.
+ */
+class PeerTest {
+    private static final Peer PEER = new Peer("Alice", "192.168.1.100", 9000, "pic1.png", MetadataHandler.BINARY_METADATA_VERSION);
+
+    @Test
+    void parsesVersionedMessages() {
+        assertSamePeer(PEER, Peer.fromDiscoveryResponse(PEER.toVersionedDiscoveryResponse()));
+        assertSamePeer(PEER, Peer.fromHelloMessage(PEER.toVersionedHelloMessage()));
+    }
+
+    @Test
+    void parsesMessagesOfOlderPeersAsFirstVersion() {
+        Peer legacy = Peer.fromDiscoveryResponse(PEER.toDiscoveryResponse());
+        assertEquals(1, legacy.metadataVersion());
+        assertEquals(PEER, legacy);
+        assertEquals(1, Peer.fromHelloMessage(PEER.toHelloMessage()).metadataVersion());
+        assertEquals(PEER, Peer.fromByeMessage(PEER.toByeMessage()));
+    }
+
+    @Test
+    void rejectsMalformedMessages() {
+        assertNull(Peer.fromDiscoveryResponse("DISCOVERY_RESPONSE|Alice|192.168.1.100|port|pic1.png"));
+        assertNull(Peer.fromDiscoveryResponse(PEER.toDiscoveryResponse() + "|x"));
+        assertNull(Peer.fromDiscoveryResponse("DISCOVERY_RESPONSE|Alice"));
+    }
+
+    @Test
+    void identifiesPeersByAddress() {
+        Peer renamed = new Peer("Bob", PEER.ip(), PEER.fileTransferPort(), "pic2.png");
+        assertEquals(PEER, renamed);
+        assertEquals(PEER.hashCode(), renamed.hashCode());
+        assertEquals(PEER.address(), renamed.address());
+        assertEquals("192.168.1.100:9000", PEER.address());
+        assertNotEquals(PEER, new Peer("Alice", PEER.ip(), 9001, "pic1.png"));
+    }
+
+    private static void assertSamePeer(Peer expected, Peer actual) {
+        assertEquals(expected.name(), actual.name());
+        assertEquals(expected.ip(), actual.ip());
+        assertEquals(expected.fileTransferPort(), actual.fileTransferPort());
+        assertEquals(expected.profilePicName(), actual.profilePicName());
+        assertEquals(expected.metadataVersion(), actual.metadataVersion());
+    }
+}
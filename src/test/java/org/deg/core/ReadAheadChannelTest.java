@@ -0,0 +1,101 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reads through a ring that is much smaller than the stream, so the reading thread keeps waiting for the consumer.
+ */
+class ReadAheadChannelTest {
+    private static final int BUFFER_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void passesOnAllBytesInOrder() throws IOException {
+        byte[] content = randomBytes(100 * BUFFER_SIZE + 17);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ReadAheadChannel channel = new ReadAheadChannel(source(content), "read-ahead", new BufferPool(BUFFER_SIZE, 4), 2)) {
+            // reads of odd sizes cross the end of the ring
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            while (channel.read(buffer.clear()) >= 0) out.write(buffer.array(), 0, buffer.position());
+        }
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    void transfersBytesIntoFiles() throws IOException {
+        byte[] content = randomBytes(30 * BUFFER_SIZE);
+        Path file = directory.resolve("target.bin");
+        CRC32C expected = new CRC32C();
+        expected.update(content, 0, 10);
+        try (ReadAheadChannel channel = new ReadAheadChannel(source(content), "read-ahead", new BufferPool(BUFFER_SIZE, 4), 2);
+             FileChannel target = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            CRC32C crc = new CRC32C();
+            assertEquals(10, channel.transferTo(target, 0, 10, crc));
+            assertEquals(expected.getValue(), crc.getValue());
+            channel.transferTo(target, 10, content.length - 10);
+            assertEquals(-1, channel.transferTo(target, content.length, 1, null));
+            assertThrows(IOException.class, () -> channel.transferTo(target, content.length, 1));
+        }
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    void passesOnTheErrorOfTheSourceAfterItsBytes() throws IOException {
+        byte[] content = randomBytes(5 * BUFFER_SIZE);
+        IOException failure = new IOException("Connection reset");
+        ReadableByteChannel failing = new ReadableByteChannel() {
+            private final ReadableByteChannel source = source(content);
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int count = source.read(dst);
+                if (count < 0) throw failure;
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (ReadAheadChannel channel = new ReadAheadChannel(failing, "read-ahead", new BufferPool(BUFFER_SIZE, 4), 2)) {
+            byte[] read = new byte[content.length];
+            ByteBuffer buffer = ByteBuffer.wrap(read);
+            while (buffer.hasRemaining()) assertTrue(channel.read(buffer) > 0);
+            assertArrayEquals(content, read);
+            assertSame(failure, assertThrows(IOException.class, () -> channel.read(ByteBuffer.allocate(1))));
+        }
+    }
+
+    private static ReadableByteChannel source(byte[] content) {
+        return Channels.newChannel(new ByteArrayInputStream(content));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(1).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,66 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writes received files in chunks at their positions.
+ */
+class ReceivedFileWriterTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesChunksInAnyOrderIntoTheFinalSize() throws IOException {
+        byte[] content = new byte[3 * BufferPool.DEFAULT_BUFFER_SIZE + 11];
+        new Random(1).nextBytes(content);
+        File file = directory.resolve("dir/received.bin").toFile();
+        int half = content.length / 2;
+        try (ReceivedFileWriter writer = new ReceivedFileWriter(file, content.length, false, DurabilityPolicy.PER_FILE)) {
+            // the file has its final size before anything is written
+            assertEquals(content.length, writer.channel().size());
+            writer.write(Channels.newChannel(new ByteArrayInputStream(content, half, content.length - half)), half, content.length - half);
+            assertEquals(half, writer.write(ByteBuffer.wrap(content, 0, half), 0));
+        }
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        ReceivedFileWriter.forceAll(List.of(file));
+    }
+
+    @Test
+    void keepsContentOnlyWhenAsked() throws IOException {
+        Path path = directory.resolve("resumed.bin");
+        Files.write(path, new byte[]{1, 2, 3});
+        try (ReceivedFileWriter writer = new ReceivedFileWriter(path.toFile(), 6, true, DurabilityPolicy.NONE)) {
+            writer.write(ByteBuffer.wrap(new byte[]{4, 5, 6}), 3);
+        }
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, Files.readAllBytes(path));
+
+        try (ReceivedFileWriter writer = new ReceivedFileWriter(path.toFile(), 2, false, DurabilityPolicy.NONE)) {
+            writer.write(ByteBuffer.wrap(new byte[]{7, 8}), 0);
+        }
+        assertArrayEquals(new byte[]{7, 8}, Files.readAllBytes(path));
+    }
+
+    @Test
+    void failsWhenTheSourceEndsEarly() throws IOException {
+        byte[] content = new byte[100];
+        Arrays.fill(content, (byte) 1);
+        try (ReceivedFileWriter writer = new ReceivedFileWriter(directory.resolve("short.bin").toFile(), 200, false, DurabilityPolicy.NONE)) {
+            assertThrows(EOFException.class, () -> writer.write(Channels.newChannel(new ByteArrayInputStream(content)), 0, 200));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Records written chunks in a journal and reopens it like a retried transmission.
+ */
+class ResumeJournalTest {
+    private static final String KEY = "9c1e" + "0".repeat(60);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void resumesAfterContiguousChunks() throws IOException {
+        List<FileWithMetadata> files = List.of(file("a", 1000), file("b", 1000));
+        try (ResumeJournal journal = ResumeJournal.open(directory.toFile(), KEY, files)) {
+            assertArrayEquals(new long[]{0, 0}, journal.offsets());
+            // the chunk after a gap only counts once the gap is written
+            journal.chunkWritten(0, 200, 100);
+            journal.chunkWritten(1, 0, 300);
+            assertArrayEquals(new long[]{0, 300}, journal.offsets());
+            journal.chunkWritten(0, 0, 200);
+            assertArrayEquals(new long[]{300, 300}, journal.offsets());
+        }
+        try (ResumeJournal journal = ResumeJournal.open(directory.toFile(), KEY, files)) {
+            assertArrayEquals(new long[]{300, 300}, journal.offsets());
+        }
+    }
+
+    @Test
+    void ignoresTornRecordAndMissingBytes() throws IOException {
+        List<FileWithMetadata> files = List.of(file("a", 1000), file("b", 1000));
+        try (ResumeJournal journal = ResumeJournal.open(directory.toFile(), KEY, files)) {
+            journal.chunkWritten(0, 0, 500);
+            journal.chunkWritten(1, 0, 800);
+        }
+        // a record that was only partially written when the receiver stopped
+        File journalFile = directory.resolve(".localdrop-journal").resolve(KEY).toFile();
+        Files.write(journalFile.toPath(), new byte[]{0, 0, 0}, StandardOpenOption.APPEND);
+        // and a file that lost bytes the journal recorded
+        try (RandomAccessFile file = new RandomAccessFile(files.get(1).file, "rw")) {
+            file.setLength(600);
+        }
+
+        try (ResumeJournal journal = ResumeJournal.open(directory.toFile(), KEY, files)) {
+            assertArrayEquals(new long[]{500, 600}, journal.offsets());
+            journal.chunkWritten(0, 500, 100);
+        }
+        try (ResumeJournal journal = ResumeJournal.open(directory.toFile(), KEY, files)) {
+            assertArrayEquals(new long[]{600, 600}, journal.offsets());
+            journal.delete();
+        }
+        assertFalse(journalFile.exists());
+    }
+
+    @Test
+    void rejectsKeysThatAreNoHash() {
+        assertFalse(ResumeJournal.isValidKey("../../etc/passwd"));
+        assertFalse(ResumeJournal.isValidKey(null));
+        assertTrue(ResumeJournal.isValidKey(KEY));
+        assertThrows(IOException.class, () -> ResumeJournal.open(directory.toFile(), "9c1e", List.of()));
+    }
+
+    private FileWithMetadata file(String name, int size) throws IOException {
+        Path path = Files.write(directory.resolve(name), new byte[size]);
+        return new FileWithMetadata(path.toFile(), name, size, null);
+    }
+}
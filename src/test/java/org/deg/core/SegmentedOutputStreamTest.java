@@ -0,0 +1,83 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writes streams in segments and reads them back with a {@link SegmentedInputStream}.
+ */
+class SegmentedOutputStreamTest {
+    private static final int SEGMENT_SIZE = 16;
+
+    @Test
+    void readsWhatWasWrittenInSegments() throws IOException {
+        byte[] content = new byte[1000];
+        new Random(1).nextBytes(content);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SegmentedOutputStream segments = new SegmentedOutputStream(out, SEGMENT_SIZE);
+        segments.write(content[0]);
+        segments.write(content, 1, 40);
+        // a flush sends a segment that is not full
+        segments.flush();
+        segments.write(content, 41, content.length - 41);
+        segments.close();
+        out.write(42);
+
+        DataInputStream underlying = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        SegmentedInputStream in = new SegmentedInputStream(underlying, SEGMENT_SIZE);
+        assertEquals(content[0] & 0xFF, in.read());
+        byte[] read = new byte[content.length];
+        read[0] = content[0];
+        int position = 1;
+        int count;
+        while ((count = in.read(read, position, read.length - position)) > 0) position += count;
+        assertEquals(content.length, position);
+        assertArrayEquals(content, read);
+        assertEquals(-1, in.read());
+        // the segment that ends the stream is the last byte that was read
+        assertEquals(42, underlying.read());
+    }
+
+    @Test
+    void readsEmptyStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SegmentedOutputStream(out, SEGMENT_SIZE).close();
+        assertEquals(Integer.BYTES, out.size());
+        SegmentedInputStream in = new SegmentedInputStream(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), SEGMENT_SIZE);
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(new byte[1], 0, 1));
+    }
+
+    @Test
+    void skipsUnreadSegmentsWhenClosed() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SegmentedOutputStream segments = new SegmentedOutputStream(out, SEGMENT_SIZE);
+        segments.write(new byte[100]);
+        segments.close();
+        out.write(42);
+
+        DataInputStream underlying = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        SegmentedInputStream in = new SegmentedInputStream(underlying, SEGMENT_SIZE);
+        in.read();
+        in.close();
+        assertEquals(42, underlying.read());
+    }
+
+    @Test
+    void rejectsSegmentsThatAreTooLong() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(SEGMENT_SIZE + 1);
+        dos.write(new byte[SEGMENT_SIZE + 1]);
+        SegmentedInputStream in = new SegmentedInputStream(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), SEGMENT_SIZE);
+        assertThrows(IOException.class, in::read);
+    }
+}
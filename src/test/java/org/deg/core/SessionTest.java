@@ -0,0 +1,207 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Carries streams between two sessions over a loopback connection.
+ */
+class SessionTest {
+    private ServerSocketChannel server;
+    private final BlockingQueue<SessionStream> acceptedStreams = new LinkedBlockingQueue<>();
+    private Session client;
+    private Session accepting;
+
+    @BeforeEach
+    void connect() throws IOException {
+        server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+        client = Session.start(channel, Session.CLIENT_IDLE_TIMEOUT_MILLIS, null);
+        accepting = Session.start(server.accept(), Session.SERVER_IDLE_TIMEOUT_MILLIS, acceptedStreams::add);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        client.close();
+        accepting.close();
+        server.close();
+    }
+
+    @Test
+    void carriesBytesBeyondTheWindowInBothDirections() throws Exception {
+        byte[] request = randomBytes(3 * Session.STREAM_WINDOW + 12345, 1);
+        byte[] response = randomBytes(Session.MAX_FRAME_SIZE + 1, 2);
+        SessionStream stream = client.openStream();
+        SessionStream accepted = acceptedStreams.poll(5, TimeUnit.SECONDS);
+        assertNotNull(accepted);
+
+        // the writer blocks once the window is used up, until the other side reads
+        CompletableFuture<Void> written = CompletableFuture.runAsync(() -> {
+            try {
+                stream.write(ByteBuffer.wrap(request));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        ByteBuffer received = ByteBuffer.allocate(request.length);
+        while (received.hasRemaining()) assertTrue(accepted.read(received) > 0);
+        assertArrayEquals(request, received.array());
+        written.get(5, TimeUnit.SECONDS);
+
+        accepted.write(ByteBuffer.wrap(response));
+        accepted.close();
+        assertArrayEquals(response, readAll(stream));
+        stream.close();
+    }
+
+    @Test
+    void resetsWritesToClosedStream() throws Exception {
+        SessionStream stream = client.openStream();
+        SessionStream accepted = acceptedStreams.poll(5, TimeUnit.SECONDS);
+        assertNotNull(accepted);
+        accepted.close();
+        assertEquals(-1, stream.read(ByteBuffer.allocate(1)));
+
+        stream.write(ByteBuffer.wrap(new byte[]{1}));
+        // the reset arrives asynchronously
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        IOException reset = null;
+        while (reset == null && System.nanoTime() < deadline) {
+            try {
+                stream.write(ByteBuffer.wrap(new byte[]{1}));
+                Thread.sleep(10);
+            } catch (IOException e) {
+                reset = e;
+            }
+        }
+        assertNotNull(reset, "stream was not reset");
+    }
+
+    @Test
+    void carriesStreamsIndependently() throws Exception {
+        SessionStream first = client.openStream();
+        SessionStream second = client.openStream();
+        SessionStream acceptedFirst = acceptedStreams.poll(5, TimeUnit.SECONDS);
+        SessionStream acceptedSecond = acceptedStreams.poll(5, TimeUnit.SECONDS);
+        assertNotNull(acceptedSecond);
+
+        // the first stream fills its window without being read, which must not hold up the second
+        first.write(ByteBuffer.wrap(new byte[Session.STREAM_WINDOW]));
+        second.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        second.close();
+        assertArrayEquals(new byte[]{1, 2, 3}, readAll(acceptedSecond));
+        first.close();
+        assertEquals(Session.STREAM_WINDOW, readAll(acceptedFirst).length);
+    }
+
+    @Test
+    void failsStreamsWhenTheSessionCloses() throws Exception {
+        SessionStream stream = client.openStream();
+        assertNotNull(acceptedStreams.poll(5, TimeUnit.SECONDS));
+        accepting.close();
+        assertThrows(IOException.class, () -> stream.read(ByteBuffer.allocate(1)));
+        assertThrows(IOException.class, client::openStream);
+        assertFalse(client.isOpen());
+    }
+
+    @Test
+    void resetsBytesOfUnknownStreams() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.socket().getLocalPort())) {
+            Session session = Session.start(server.accept(), Session.SERVER_IDLE_TIMEOUT_MILLIS, acceptedStreams::add);
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeByte(Session.DATA);
+                out.writeInt(7);
+                out.writeInt(3);
+                out.write(new byte[3]);
+                out.flush();
+
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                assertEquals(Session.RESET, in.readByte());
+                assertEquals(7, in.readInt());
+                assertEquals(0, in.readInt());
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    @Test
+    void closesOnMalformedWindowUpdate() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.socket().getLocalPort())) {
+            Session session = Session.start(server.accept(), Session.SERVER_IDLE_TIMEOUT_MILLIS, acceptedStreams::add);
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeByte(Session.OPEN);
+                out.writeInt(1);
+                out.writeInt(0);
+                out.writeByte(Session.WINDOW);
+                out.writeInt(1);
+                out.writeInt(2);
+                out.write(new byte[2]);
+                out.flush();
+
+                socket.setSoTimeout(5000);
+                assertEquals(-1, socket.getInputStream().read());
+                assertFalse(session.isOpen());
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    @Test
+    void opensStreamsFromSeveralThreads() throws Exception {
+        List<CompletableFuture<SessionStream>> opening = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            opening.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return client.openStream();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (CompletableFuture<SessionStream> stream : opening) ids.add(stream.get(5, TimeUnit.SECONDS).id);
+        assertEquals(8, ids.size());
+        for (int i = 0; i < 8; i++) assertNotNull(acceptedStreams.poll(5, TimeUnit.SECONDS));
+    }
+
+    private static byte[] readAll(SessionStream stream) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * Session.STREAM_WINDOW);
+        while (stream.read(buffer) >= 0) {
+            if (!buffer.hasRemaining()) buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+        }
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
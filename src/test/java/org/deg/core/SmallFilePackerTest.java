@@ -0,0 +1,108 @@
+package org.deg.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Groups small files into packs and reads their content ahead.
+ */
+class SmallFilePackerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void packsConsecutivePackableFiles() throws IOException {
+        List<FileWithMetadata> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++) files.add(file("file" + i, i * 100));
+        // the file in the middle is sent as chunk of its own and splits the packs
+        boolean[] packable = {true, true, true, false, true, true};
+
+        SmallFilePacker packer = new SmallFilePacker(files, packable);
+        try {
+            SmallFilePacker.Pack first = packer.packStartingAt(0);
+            assertEquals(0, first.firstFileIndex);
+            assertEquals(3, first.fileCount);
+            assertNull(packer.packStartingAt(1));
+            assertNull(packer.packStartingAt(3));
+            SmallFilePacker.Pack second = packer.packStartingAt(4);
+            assertEquals(2, second.fileCount);
+
+            assertPackContent(packer, first, files);
+            assertPackContent(packer, second, files);
+        } finally {
+            packer.close();
+        }
+    }
+
+    @Test
+    void marksFilesThatCannotBeRead() throws IOException {
+        List<FileWithMetadata> files = List.of(file("a", 10), file("b", 20), file("c", 30));
+        Files.delete(files.get(1).file.toPath());
+
+        SmallFilePacker packer = new SmallFilePacker(files, new boolean[]{true, true, true});
+        try {
+            SmallFilePacker.Pack pack = packer.packStartingAt(0);
+            ByteBuffer content = packer.content(pack);
+            assertTrue(pack.isReadable(0));
+            assertFalse(pack.isReadable(1));
+            assertTrue(pack.isReadable(2));
+            // a status byte without content stands for the unreadable file
+            assertEquals(1 + 10 + 1 + 1 + 30, content.remaining());
+            assertEquals(SmallFilePacker.FILE_UNREADABLE, content.get(1 + 10));
+            packer.release(pack);
+        } finally {
+            packer.close();
+        }
+    }
+
+    @Test
+    void splitsPacksThatExceedTheBufferSize() throws IOException {
+        int fileSize = (int) SmallFilePacker.MAX_FILE_SIZE;
+        int filesPerPack = BufferPool.SHARED.bufferSize() / (fileSize + 1);
+        List<FileWithMetadata> files = new ArrayList<>();
+        boolean[] packable = new boolean[filesPerPack + 1];
+        for (int i = 0; i <= filesPerPack; i++) {
+            files.add(file("file" + i, fileSize));
+            packable[i] = true;
+        }
+
+        SmallFilePacker packer = new SmallFilePacker(files, packable);
+        try {
+            assertEquals(filesPerPack, packer.packStartingAt(0).fileCount);
+            assertEquals(1, packer.packStartingAt(filesPerPack).fileCount);
+        } finally {
+            packer.close();
+        }
+    }
+
+    private void assertPackContent(SmallFilePacker packer, SmallFilePacker.Pack pack, List<FileWithMetadata> files) throws IOException {
+        packer.handOut(pack);
+        ByteBuffer content = packer.content(pack).duplicate();
+        for (int i = 0; i < pack.fileCount; i++) {
+            FileWithMetadata fileWithMetadata = files.get(pack.firstFileIndex + i);
+            assertTrue(pack.isReadable(i));
+            assertEquals(SmallFilePacker.FILE_READABLE, content.get());
+            byte[] bytes = new byte[(int) fileWithMetadata.sizeInBytes];
+            content.get(bytes);
+            assertArrayEquals(Files.readAllBytes(fileWithMetadata.file.toPath()), bytes);
+        }
+        assertFalse(content.hasRemaining());
+        packer.release(pack);
+    }
+
+    private FileWithMetadata file(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) content[i] = (byte) (name.hashCode() + i);
+        Path path = Files.write(directory.resolve(name), content);
+        return new FileWithMetadata(path.toFile(), name, size, null);
+    }
+}
@@ -0,0 +1,280 @@
+package org.deg.core;
+
+import org.deg.backend.UserConfigurations;
+import org.deg.core.callbacks.FileReceivingEventHandler;
+import org.deg.core.callbacks.FileSendingEventHandler;
+import org.deg.core.callbacks.Progress;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sends files to a receiver that listens on the loopback interface.
+ */
+class TransmissionTest {
+    private static final Peer SENDER = new Peer("sender", "127.0.0.1", 1, "cat.png");
+
+    @TempDir
+    Path directory;
+    private File previousSavePath;
+    private final List<Exception> receivingErrors = Collections.synchronizedList(new ArrayList<>());
+    private FileReceivingServer server;
+    private long previousUploadLimit;
+    private volatile List<FileWithMetadata> incomingFiles;
+    private final CountDownLatch receiving = new CountDownLatch(1);
+    private final CountDownLatch receivingCancelled = new CountDownLatch(1);
+    private volatile boolean cancelledBySender = false;
+
+    @BeforeEach
+    void setSavePath() throws IOException {
+        previousSavePath = UserConfigurations.DEFAULT_SAFE_PATH;
+        previousUploadLimit = UserConfigurations.MAX_UPLOAD_BYTES_PER_SECOND;
+        UserConfigurations.DEFAULT_SAFE_PATH = Files.createDirectory(directory.resolve("save")).toFile();
+    }
+
+    @AfterEach
+    void stopReceiver() {
+        if (server != null) server.stop();
+        UserConfigurations.DEFAULT_SAFE_PATH = previousSavePath;
+        UserConfigurations.MAX_UPLOAD_BYTES_PER_SECOND = previousUploadLimit;
+    }
+
+    @Test
+    void receivesTransmissionsConcurrently() throws Exception {
+        int port = freePort();
+        start(new FileReceiver(port), port);
+        List<Path> sources = List.of(write("first.bin", 3_000_000, 1), write("second.bin", 2_000_000, 2));
+
+        List<Thread> senders = new ArrayList<>();
+        List<Outcome> outcomes = new ArrayList<>();
+        for (Path source : sources) {
+            Outcome outcome = new Outcome();
+            outcomes.add(outcome);
+            FileSender sender = new FileSender(SENDER, receiver(port), List.of(source.toFile()));
+            senders.add(new Thread(() -> outcome.send(sender)));
+        }
+        senders.forEach(Thread::start);
+        for (Outcome outcome : outcomes) assertTrue(outcome.await(), "sending did not end");
+
+        for (Outcome outcome : outcomes) assertTrue(outcome.finished, outcome.result);
+        for (Path source : sources) assertReceived(source);
+        assertEquals(List.of(), receivingErrors);
+    }
+
+    @Test
+    void receivesWithoutBlockingThreads() throws Exception {
+        int port = freePort();
+        start(new NonBlockingFileReceiver(port, 2), port);
+        Path source = write("content.bin", 5_000_000, 3);
+
+        Outcome outcome = new Outcome();
+        outcome.send(new FileSender(SENDER, receiver(port), List.of(source.toFile(), write("empty.bin", 0, 4).toFile())));
+        assertTrue(outcome.finished, outcome.result);
+        assertReceived(source);
+        assertEquals(List.of(), receivingErrors);
+    }
+
+    @Test
+    void closesConnectionsWithMalformedMetadata() throws Exception {
+        int port = freePort();
+        // a single permit that is not released again would keep the last transmission waiting
+        start(new NonBlockingFileReceiver(port, 1), port);
+        byte[] metadata = ("FILE_COUNT:3|FILENAMES:a|SIZES:1|SENDER_NAME:x|SENDER_IP:127.0.0.1|SENDER_PORT:1|"
+                + "SENDER_PROFILE_PIC_NAME:p").getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 2; i++) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(5000);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(metadata.length);
+                out.write(metadata);
+                out.flush();
+                assertEquals(-1, socket.getInputStream().read());
+            }
+        }
+
+        Path source = write("content.bin", 1000, 5);
+        Outcome outcome = new Outcome();
+        outcome.send(new FileSender(SENDER, receiver(port), List.of(source.toFile())));
+        assertTrue(outcome.finished, outcome.result);
+        assertReceived(source);
+        assertEquals(2, receivingErrors.size());
+    }
+
+    @Test
+    void tellsTheSenderThatTheReceiverCancelled() throws Exception {
+        int port = freePort();
+        start(new FileReceiver(port), port);
+        Outcome outcome = sendSlowly(new FileSender(SENDER, receiver(port), List.of(write("content.bin", 5_000_000, 6).toFile())));
+
+        assertTrue(server.cancel(incomingFiles));
+        assertTrue(outcome.await(), "sending did not end");
+        assertEquals("cancelled by receiver", outcome.result);
+        assertTrue(receivingCancelled.await(10, TimeUnit.SECONDS));
+        assertFalse(cancelledBySender);
+    }
+
+    @Test
+    void tellsTheReceiverThatTheSenderCancelled() throws Exception {
+        int port = freePort();
+        start(new FileReceiver(port), port);
+        FileSender sender = new FileSender(SENDER, receiver(port), List.of(write("content.bin", 5_000_000, 7).toFile()));
+        Outcome outcome = sendSlowly(sender);
+
+        assertTrue(sender.cancel());
+        assertTrue(outcome.await(), "sending did not end");
+        assertEquals("cancelled", outcome.result);
+        assertTrue(receivingCancelled.await(10, TimeUnit.SECONDS));
+        assertTrue(cancelledBySender);
+        assertEquals(List.of(), receivingErrors);
+    }
+
+    /**
+     * Starts sending at a limited rate and waits until the receiver reports progress, so that the transmission is
+     * still running when it is cancelled.
+     */
+    private Outcome sendSlowly(FileSender sender) throws InterruptedException {
+        UserConfigurations.MAX_UPLOAD_BYTES_PER_SECOND = 1_000_000;
+        Outcome outcome = new Outcome();
+        new Thread(() -> outcome.send(sender)).start();
+        assertTrue(receiving.await(10, TimeUnit.SECONDS), "receiving did not start");
+        return outcome;
+    }
+
+    private void start(FileReceivingServer server, int port) throws Exception {
+        this.server = server;
+        server.setEventHandler(new FileReceivingEventHandler() {
+            @Override
+            public boolean onIncomingFiles(List<FileWithMetadata> files, Peer sender) {
+                incomingFiles = files;
+                return true;
+            }
+
+            @Override
+            public void onReceivingProgress(Progress progress) {
+                if (progress.bytesTransmitted > 0) receiving.countDown();
+            }
+
+            @Override
+            public void onReceivingCancelled(List<FileWithMetadata> files, Peer sender, boolean bySender) {
+                cancelledBySender = bySender;
+                receivingCancelled.countDown();
+            }
+
+            @Override
+            public void onReceivingFinished(List<FileWithMetadata> files, Peer sender) {
+            }
+
+            @Override
+            public void onReceivingError(Exception e) {
+                receivingErrors.add(e);
+            }
+        });
+        Thread thread = new Thread(server);
+        thread.setDaemon(true);
+        thread.start();
+        // the receiver closes a connection that ends before its first int without reporting an error
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try (Socket probe = new Socket("127.0.0.1", port)) {
+                probe.shutdownOutput();
+                return;
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) throw new AssertionError("receiver did not start listening");
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Peer receiver(int port) {
+        return new Peer("receiver", "127.0.0.1", port, "cat.png");
+    }
+
+    private Path write(String name, int length, long seed) throws IOException {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return Files.write(directory.resolve(name), content);
+    }
+
+    private void assertReceived(Path source) throws IOException {
+        Path received = directory.resolve("save").resolve(source.getFileName());
+        assertTrue(Files.exists(received), received + " was not received");
+        assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(received));
+    }
+
+    /**
+     * Records how a transmission of a sender ended.
+     */
+    private static class Outcome implements FileSendingEventHandler {
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean finished = false;
+        volatile String result = "not ended";
+
+        void send(FileSender sender) {
+            try {
+                sender.send(this);
+            } catch (SendingDeniedException e) {
+                result = "denied";
+            } finally {
+                done.countDown();
+            }
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(30, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void onSendingProgress(Progress progress) {
+        }
+
+        @Override
+        public void onSendingFailed(Exception e) {
+            result = "failed: " + e;
+        }
+
+        @Override
+        public void onFinished(List<FileWithMetadata> files, Peer receiver) {
+            finished = files.stream().allMatch(file -> Boolean.TRUE.equals(file.transmissionSuccess));
+            result = "finished";
+        }
+
+        @Override
+        public void onDenied(Peer receiver) {
+            result = "denied";
+        }
+
+        @Override
+        public void onAccepted(Peer receiver) {
+        }
+
+        @Override
+        public void onCancelled(Peer receiver, boolean byReceiver) {
+            result = byReceiver ? "cancelled by receiver" : "cancelled";
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.deg.core.callbacks;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Counts bytes with a tracker and checks the progress it reports.
+ */
+class ProgressTrackerTest {
+
+    @Test
+    void reportsByGranularityAndOnFinish() {
+        List<Progress> reports = new ArrayList<>();
+        ProgressTracker tracker = new ProgressTracker(List.of(), 1000, reports::add, TimeUnit.HOURS.toMillis(1), 100);
+        tracker.skip(50);
+        tracker.add(0, 40);
+        assertTrue(reports.isEmpty());
+        tracker.add(0, 20);
+        assertEquals(1, reports.size());
+        assertEquals(110, reports.get(0).bytesTransmitted);
+        assertEquals(1000, reports.get(0).totalBytes);
+
+        tracker.add(1, 10);
+        tracker.finish();
+        assertEquals(2, reports.size());
+        assertEquals(120, reports.get(1).bytesTransmitted);
+        assertEquals(1, reports.get(1).filesTransmitted);
+    }
+
+    @Test
+    void reportsNewProgressThatIsNotChangedAfterward() {
+        List<Progress> reports = new ArrayList<>();
+        ProgressTracker tracker = new ProgressTracker(List.of(), 1000, reports::add, TimeUnit.HOURS.toMillis(1), 1);
+        tracker.add(0, 10);
+        tracker.add(0, 10);
+        assertEquals(2, reports.size());
+        assertNotSame(reports.get(0), reports.get(1));
+        assertEquals(10, reports.get(0).bytesTransmitted);
+        assertEquals(20, reports.get(1).bytesTransmitted);
+    }
+
+    @Test
+    void countsBytesOfAllThreads() throws InterruptedException {
+        ProgressTracker tracker = new ProgressTracker(List.of(), Long.MAX_VALUE, null);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 100_000; i++) tracker.add(0, 3);
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(4 * 100_000 * 3, tracker.bytesTransmitted());
+    }
+}